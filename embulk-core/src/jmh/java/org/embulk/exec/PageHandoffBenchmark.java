@@ -0,0 +1,168 @@
+package org.embulk.exec;
+
+import java.util.concurrent.TimeUnit;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares handing pages over to an output thread through {@link SpscPageQueue} with the single-slot handoff used before,
+ * where the input thread waits until the output thread finishes the previous page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class PageHandoffBenchmark {
+    @Param({"handoff", "spsc"})
+    public String queue;
+
+    // Not used by "handoff", which always has a single slot.
+    @Param({"1", "4", "16"})
+    public int queuePages;
+
+    // Amount of work on each page in the output thread, in Blackhole.consumeCPU tokens.
+    @Param({"0", "100"})
+    public int outputWork;
+
+    private Handoff handoff;
+    private Thread consumer;
+    private Page page;
+    private long produced;
+    private volatile long consumed;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        if ("spsc".equals(this.queue)) {
+            this.handoff = new SpscHandoff(new SpscPageQueue(this.queuePages));
+        } else {
+            this.handoff = new SingleSlotHandoff();
+        }
+        this.page = PageImpl.allocate(0);
+        this.produced = 0;
+        this.consumed = 0;
+        this.consumer = new Thread(this::consume, "page-handoff-consumer");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        this.handoff.finish();
+        this.consumer.join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAGES)
+    public void handOver() throws InterruptedException {
+        for (int i = 0; i < PAGES; i++) {
+            this.handoff.put(this.page);
+        }
+        this.produced += PAGES;
+        while (this.consumed < this.produced) {
+            // Waits for the output thread to count all pages in this invocation.
+        }
+    }
+
+    private void consume() {
+        try {
+            long count = 0;
+            while (this.handoff.take() != null) {
+                Blackhole.consumeCPU(this.outputWork);
+                this.handoff.consumed();
+                this.consumed = ++count;
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Handoff {
+        void put(Page page) throws InterruptedException;
+
+        void finish() throws InterruptedException;
+
+        Page take() throws InterruptedException;
+
+        void consumed();
+    }
+
+    private static class SpscHandoff implements Handoff {
+        SpscHandoff(final SpscPageQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void put(final Page page) throws InterruptedException {
+            this.queue.put(page);
+        }
+
+        @Override
+        public void finish() {
+            this.queue.finish();
+        }
+
+        @Override
+        public Page take() throws InterruptedException {
+            return this.queue.take();
+        }
+
+        @Override
+        public void consumed() {
+        }
+
+        private final SpscPageQueue queue;
+    }
+
+    /**
+     * The single-slot handoff of {@code ScatterTransactionalPageOutput.OutputWorker} before {@link SpscPageQueue}.
+     */
+    private static class SingleSlotHandoff implements Handoff {
+        @Override
+        public synchronized void put(final Page page) throws InterruptedException {
+            while (this.queued != null) {
+                this.wait();
+            }
+            this.queued = page;
+            this.notifyAll();
+        }
+
+        @Override
+        public synchronized void finish() throws InterruptedException {
+            while (this.queued != null) {
+                this.wait();
+            }
+            this.done = true;
+            this.notifyAll();
+        }
+
+        @Override
+        public synchronized Page take() throws InterruptedException {
+            while (this.queued == null && !this.done) {
+                this.wait();
+            }
+            return this.queued;
+        }
+
+        @Override
+        public synchronized void consumed() {
+            this.queued = null;
+            this.notifyAll();
+        }
+
+        private Page queued;
+        private boolean done;
+    }
+
+    private static final int PAGES = 10000;
+}
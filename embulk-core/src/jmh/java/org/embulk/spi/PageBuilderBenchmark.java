@@ -0,0 +1,113 @@
+package org.embulk.spi;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.embulk.spi.type.Types;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares building pages through the staging {@code Row} with writing values directly into pages.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class PageBuilderBenchmark {
+    @Param({"false", "true"})
+    public boolean direct;
+
+    @Param({"false", "true"})
+    public boolean columnar;
+
+    private Schema schema;
+    private BufferAllocator allocator;
+    private String[] strings;
+    private Instant[] instants;
+
+    @Setup
+    public void setup() {
+        this.schema = Schema.builder()
+                .add("id", Types.LONG)
+                .add("flag", Types.BOOLEAN)
+                .add("score", Types.DOUBLE)
+                .add("name", Types.STRING)
+                .add("time", Types.TIMESTAMP)
+                .add("count", Types.LONG)
+                .build();
+        this.allocator = new BufferAllocator() {
+            @Override
+            public Buffer allocate() {
+                return allocate(PAGE_SIZE);
+            }
+
+            @Override
+            public Buffer allocate(final int minimumCapacity) {
+                return BufferImpl.allocate(Math.max(PAGE_SIZE, minimumCapacity));
+            }
+        };
+        this.strings = new String[64];
+        this.instants = new Instant[64];
+        for (int i = 0; i < 64; i++) {
+            this.strings[i] = "name" + i;
+            this.instants[i] = Instant.ofEpochSecond(1600000000L + i, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void buildPages(final Blackhole blackhole) {
+        final PageBuilderImpl builder = PageBuilderImpl.builder(this.allocator, this.schema, new DiscardingOutput(blackhole))
+                .setColumnar(this.columnar)
+                .setDirect(this.direct)
+                .build();
+        for (int i = 0; i < RECORDS; i++) {
+            builder.setLong(0, i);
+            builder.setBoolean(1, (i & 1) == 0);
+            builder.setDouble(2, i * 0.5);
+            builder.setString(3, this.strings[i & 63]);
+            builder.setTimestamp(4, this.instants[i & 63]);
+            if (i % 10 == 0) {
+                builder.setNull(5);
+            } else {
+                builder.setLong(5, i * 7L);
+            }
+            builder.addRecord();
+        }
+        builder.finish();
+        builder.close();
+    }
+
+    private static class DiscardingOutput implements PageOutput {
+        DiscardingOutput(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void add(final Page page) {
+            this.blackhole.consume(page);
+            page.release();
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private final Blackhole blackhole;
+    }
+
+    private static final int RECORDS = 100000;
+
+    private static final int PAGE_SIZE = 32 * 1024;
+}
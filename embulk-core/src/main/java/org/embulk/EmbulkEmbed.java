@@ -2,20 +2,17 @@ package org.embulk;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigLoader;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.DataSource;
+import org.embulk.exec.BoundedBufferAllocator;
 import org.embulk.exec.BulkLoader;
 import org.embulk.exec.ExecutionResult;
 import org.embulk.exec.GuessExecutor;
@@ -24,6 +21,7 @@ import org.embulk.exec.PooledBufferAllocator;
 import org.embulk.exec.PreviewExecutor;
 import org.embulk.exec.PreviewResult;
 import org.embulk.exec.ResumeState;
+import org.embulk.exec.SharedExecutorPool;
 import org.embulk.exec.SimpleTempFileSpaceAllocator;
 import org.embulk.exec.TransactionStage;
 import org.embulk.spi.BufferAllocator;
@@ -59,6 +57,7 @@ public class EmbulkEmbed {
             final EmbulkSystemProperties embulkSystemProperties,
             final BufferAllocator bufferAllocator,
             final TempFileSpaceAllocator tempFileSpaceAllocator,
+            final SharedExecutorPool sharedExecutorPool,
             final BulkLoader alternativeBulkLoader) {
         this.decoderPlugins = Collections.unmodifiableMap(decoderPlugins);
         this.encoderPlugins = Collections.unmodifiableMap(encoderPlugins);
@@ -74,6 +73,7 @@ public class EmbulkEmbed {
         this.embulkSystemProperties = embulkSystemProperties;
         this.bufferAllocator = bufferAllocator;
         this.tempFileSpaceAllocator = tempFileSpaceAllocator;
+        this.sharedExecutorPool = sharedExecutorPool;
 
         if (alternativeBulkLoader == null) {
             this.bulkLoader = new BulkLoader(embulkSystemProperties);
@@ -179,8 +179,9 @@ public class EmbulkEmbed {
             this.started = true;
 
             final EmbulkSystemProperties embulkSystemProperties = EmbulkSystemProperties.of(this.embulkSystemPropertiesBuilt);
-            final BufferAllocator bufferAllocator = createBufferAllocatorFromSystemConfig(embulkSystemProperties);
+            final BufferAllocator bufferAllocator = BoundedBufferAllocator.fromSystemProperties(embulkSystemProperties);
             final TempFileSpaceAllocator tempFileSpaceAllocator = new SimpleTempFileSpaceAllocator();
+            final SharedExecutorPool sharedExecutorPool = createSharedExecutorPoolFromSystemConfig(embulkSystemProperties);
 
             return new EmbulkEmbed(
                     decoderPlugins,
@@ -197,6 +198,7 @@ public class EmbulkEmbed {
                     embulkSystemProperties,
                     bufferAllocator,
                     tempFileSpaceAllocator,
+                    sharedExecutorPool,
                     alternativeBulkLoader);
         }
 
@@ -293,6 +295,7 @@ public class EmbulkEmbed {
                 // or partial.addSuppressed
                 ex.printStackTrace(System.err);
             }
+            this.reportBufferPool(exec);
         }
     }
 
@@ -316,6 +319,7 @@ public class EmbulkEmbed {
                 // or partial.addSuppressed
                 ex.printStackTrace(System.err);
             }
+            this.reportBufferPool(exec);
         }
     }
 
@@ -359,6 +363,7 @@ public class EmbulkEmbed {
                 .setModelManager(this.modelManager)
                 .setEmbulkSystemProperties(this.embulkSystemProperties)
                 .setGuessExecutor(this.guessExecutor)
+                .setSharedExecutorPool(this.sharedExecutorPool)
                 .fromExecConfig(execConfig)
                 .build();
     }
@@ -468,54 +473,34 @@ public class EmbulkEmbed {
         }
     }
 
-    private static BufferAllocator createBufferAllocatorFromSystemConfig(final EmbulkSystemProperties embulkSystemProperties) {
-        final String byteSizeRepresentation = embulkSystemProperties.getProperty("page_size");
-        if (byteSizeRepresentation == null) {
-            return PooledBufferAllocator.create();
-        } else {
-            final int byteSize = parseByteSizeRepresentation(byteSizeRepresentation);
-            return PooledBufferAllocator.create(byteSize);
+    private void reportBufferPool(final ExecSessionInternal exec) {
+        BufferAllocator allocator = this.bufferAllocator;
+        if (allocator instanceof BoundedBufferAllocator) {
+            final BoundedBufferAllocator bounded = (BoundedBufferAllocator) allocator;
+            logger.info("Buffers outstanding: {} bytes (peak {} bytes, limit {} bytes). Allocated {} buffers at {} bytes/s. "
+                                + "Waited {} times for {} ms, and failed {} times.",
+                        bounded.getOutstandingBytes(), bounded.getPeakBytes(), bounded.getLimitBytes(),
+                        bounded.getAllocationCount(), String.format("%.0f", bounded.getAllocationBytesPerSecond()),
+                        bounded.getWaitCount(), bounded.getWaitMillis(), bounded.getRejectedCount());
+            allocator = bounded.getDelegate();
+        }
+        if (allocator instanceof PooledBufferAllocator) {
+            final PooledBufferAllocator pooled = (PooledBufferAllocator) allocator;
+            pooled.reportLeaks(exec);  // Not buffers of other runs sharing the pool.
+            logger.info("Buffer pool uses {} bytes on Java heap, and {} bytes out of Java heap. Pool hit ratio: {}",
+                        pooled.getUsedHeapMemory(), pooled.getUsedDirectMemory(), String.format("%.3f", pooled.getPoolHitRatio()));
         }
     }
 
-    private static int parseByteSizeRepresentation(final String byteSizeRepresentation) {
-        if (byteSizeRepresentation == null) {  // Should not happen.
-            throw new NullPointerException("size is null");
-        }
-        if (byteSizeRepresentation.isEmpty()) {
-            throw new IllegalArgumentException("size is empty");
-        }
-
-        final Matcher matcher = BYTE_SIZE_PATTERN.matcher(byteSizeRepresentation);
-        if (!matcher.matches()) {
-            throw new IllegalArgumentException("Invalid byte size string '" + byteSizeRepresentation + "'");
-        }
-
-        final String numberPart = matcher.group(1);
-        final String unitPart = matcher.group(2);
-
-        final BigDecimal number = new BigDecimal(numberPart);  // NumberFormatException extends IllegalArgumentException.
-
-        if (unitPart.isEmpty()) {
-            return number.intValue();
-        }
-
-        switch (unitPart.toUpperCase(Locale.ENGLISH)) {
-            case "B":
-                return number.intValue();
-            case "KB":
-                return number.multiply(KILO).intValue();
-            case "MB":
-                return number.multiply(MEGA).intValue();
-            case "GB":
-                return number.multiply(GIGA).intValue();
-            case "TB":
-                return number.multiply(TERA).intValue();
-            case "PB":
-                return number.multiply(PETA).intValue();
-            default:
-                throw new IllegalArgumentException("Unknown unit '" + unitPart + "'");
+    // Runs share threads of the pool of the JVM only when "executor_pool_threads" is set. Otherwise, each run starts its own threads.
+    private static SharedExecutorPool createSharedExecutorPoolFromSystemConfig(final EmbulkSystemProperties embulkSystemProperties) {
+        final int threads = embulkSystemProperties.getPropertyAsInteger("executor_pool_threads", 0);
+        if (threads <= 0) {
+            return null;
         }
+        final SharedExecutorPool pool = SharedExecutorPool.ofJvm(threads);
+        logger.info("Using the shared executor pool of {} threads", pool.getThreads());
+        return pool;
     }
 
     @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
@@ -523,19 +508,12 @@ public class EmbulkEmbed {
         return new org.embulk.config.ModelManager();
     }
 
-    private static final Pattern BYTE_SIZE_PATTERN = Pattern.compile("\\A(\\d+(?:\\.\\d+)?)\\s?([a-zA-Z]*)\\z");
-
-    private static final BigDecimal KILO = new BigDecimal(1L << 10);  // 1_024
-    private static final BigDecimal MEGA = new BigDecimal(1L << 20);  // 1_048_576
-    private static final BigDecimal GIGA = new BigDecimal(1L << 30);  // 1_073_741_824
-    private static final BigDecimal TERA = new BigDecimal(1L << 40);  // 1_099_511_627_776
-    private static final BigDecimal PETA = new BigDecimal(1L << 50);  // 1_125_899_906_842_624
-
     private static final Logger logger = LoggerFactory.getLogger(EmbulkEmbed.class);
 
     private final EmbulkSystemProperties embulkSystemProperties;
     private final BufferAllocator bufferAllocator;
     private final TempFileSpaceAllocator tempFileSpaceAllocator;
+    private final SharedExecutorPool sharedExecutorPool;
 
     private final Map<String, Class<? extends DecoderPlugin>> decoderPlugins;
     private final Map<String, Class<? extends EncoderPlugin>> encoderPlugins;
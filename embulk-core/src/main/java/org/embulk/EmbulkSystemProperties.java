@@ -2,10 +2,12 @@ package org.embulk;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.OptionalInt;
 import java.util.Properties;
@@ -13,6 +15,8 @@ import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Embulk's system config as {@link java.util.Properties} that do not permit any modification once created.
@@ -72,6 +76,17 @@ public final class EmbulkSystemProperties extends Properties {
         return OptionalInt.of(parseInteger(value));
     }
 
+    /**
+     * Returns a byte size property such as {@code "512MB"} in bytes.
+     */
+    public long getPropertyAsByteSize(final String key, final long defaultValue) {
+        final String value = this.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return parseByteSize(value);
+    }
+
     @Override  // From Properties
     public void load(final InputStream inStream) {
         throw new UnsupportedOperationException("Modifying EmbulkSystemProperties is not permitted.");
@@ -187,6 +202,49 @@ public final class EmbulkSystemProperties extends Properties {
         return Collections.unmodifiableSet(new HashSet<>(super.values()));
     }
 
+    /**
+     * Parses a byte size representation such as {@code "4MB"} and {@code "1.5GB"} into bytes.
+     */
+    static long parseByteSize(final String byteSizeRepresentation) {
+        if (byteSizeRepresentation == null) {  // Should not happen.
+            throw new NullPointerException("size is null");
+        }
+        if (byteSizeRepresentation.isEmpty()) {
+            throw new IllegalArgumentException("size is empty");
+        }
+
+        final Matcher matcher = BYTE_SIZE_PATTERN.matcher(byteSizeRepresentation);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid byte size string '" + byteSizeRepresentation + "'");
+        }
+
+        final String numberPart = matcher.group(1);
+        final String unitPart = matcher.group(2);
+
+        final BigDecimal number = new BigDecimal(numberPart);  // NumberFormatException extends IllegalArgumentException.
+
+        if (unitPart.isEmpty()) {
+            return number.longValue();
+        }
+
+        switch (unitPart.toUpperCase(Locale.ENGLISH)) {
+            case "B":
+                return number.longValue();
+            case "KB":
+                return number.multiply(KILO).longValue();
+            case "MB":
+                return number.multiply(MEGA).longValue();
+            case "GB":
+                return number.multiply(GIGA).longValue();
+            case "TB":
+                return number.multiply(TERA).longValue();
+            case "PB":
+                return number.multiply(PETA).longValue();
+            default:
+                throw new IllegalArgumentException("Unknown unit '" + unitPart + "'");
+        }
+    }
+
     /**
      * Parses String into boolean in almost the same way with the default ObjectMapper of Jackson 2.6.7.
      *
@@ -306,4 +364,12 @@ public final class EmbulkSystemProperties extends Properties {
         }
         return negative ? -number : number;
     }
+
+    private static final Pattern BYTE_SIZE_PATTERN = Pattern.compile("\\A(\\d+(?:\\.\\d+)?)\\s?([a-zA-Z]*)\\z");
+
+    private static final BigDecimal KILO = new BigDecimal(1L << 10);  // 1_024
+    private static final BigDecimal MEGA = new BigDecimal(1L << 20);  // 1_048_576
+    private static final BigDecimal GIGA = new BigDecimal(1L << 30);  // 1_073_741_824
+    private static final BigDecimal TERA = new BigDecimal(1L << 40);  // 1_099_511_627_776
+    private static final BigDecimal PETA = new BigDecimal(1L << 50);  // 1_125_899_906_842_624
 }
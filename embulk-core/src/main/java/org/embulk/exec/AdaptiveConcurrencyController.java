@@ -0,0 +1,189 @@
+package org.embulk.exec;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReaderImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resizes the number of tasks running at a time by {@code max_threads: auto} of {@link LocalExecutorPlugin}.
+ *
+ * <p>It samples records per second added by input plugins and CPU utilization of the process at intervals, and
+ * adjusts the limit in AIMD: it adds a task while throughput grows with the CPU not saturated, and cuts the limit
+ * by a quarter when the CPU saturates or throughput drops after an increase. A smaller limit does not stop running
+ * tasks, but holds next tasks until running tasks go under the limit.
+ */
+final class AdaptiveConcurrencyController implements AutoCloseable {
+    AdaptiveConcurrencyController(final int minLimit, final int maxLimit, final int initialLimit, final long intervalMillis) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid concurrency limits: " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.intervalMillis = intervalMillis;
+        this.records = new LongAdder();
+        this.lastThroughput = -1.0;
+        this.lastLimit = this.limit;
+        this.sampler = null;
+    }
+
+    synchronized void start() {
+        if (this.sampler != null) {
+            return;
+        }
+        this.lastSampleNanos = System.nanoTime();
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "embulk-concurrency-controller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sampler.scheduleWithFixedDelay(this::sample, this.intervalMillis, this.intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.sampler != null) {
+            this.sampler.shutdownNow();
+            this.sampler = null;
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Waits until a task can start under the current limit.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (this.running >= this.limit) {
+            this.wait();
+        }
+        this.running++;
+    }
+
+    synchronized void release() {
+        this.running--;
+        this.notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return this.limit;
+    }
+
+    int getMaxLimit() {
+        return this.maxLimit;
+    }
+
+    /**
+     * Counts records of pages added into {@code output}.
+     */
+    PageOutput counting(final PageOutput output) {
+        return new PageOutput() {
+            @Override
+            public void add(final Page page) {
+                records.add(PageReaderImpl.getRecordCount(page));
+                output.add(page);
+            }
+
+            @Override
+            public void finish() {
+                output.finish();
+            }
+
+            @Override
+            public void close() {
+                output.close();
+            }
+        };
+    }
+
+    private void sample() {
+        try {
+            final long now = System.nanoTime();
+            final double seconds = (now - this.lastSampleNanos) / 1_000_000_000.0;
+            this.lastSampleNanos = now;
+            if (seconds <= 0.0) {
+                return;
+            }
+            this.adjust(this.records.sumThenReset() / seconds, getProcessCpuLoad());
+        } catch (final RuntimeException ex) {
+            logger.warn("Failed to adjust concurrency of tasks.", ex);
+        }
+    }
+
+    /**
+     * Adjusts the limit with a sample of throughput in records per second, and CPU utilization in 0.0 to 1.0, or
+     * a negative value if unavailable.
+     */
+    synchronized void adjust(final double throughput, final double cpuLoad) {
+        final int previousLimit = this.limit;
+        final String reason;
+        if (cpuLoad >= CPU_SATURATED) {
+            this.limit = decrease(previousLimit);
+            reason = String.format("CPU utilization %.0f%% is saturated", cpuLoad * 100);
+        } else if (this.running < previousLimit) {
+            // The limit is not reached, so the sample tells nothing about a larger limit.
+            this.lastThroughput = throughput;
+            this.lastLimit = previousLimit;
+            return;
+        } else if (this.lastThroughput >= 0.0 && previousLimit > this.lastLimit
+                       && throughput < this.lastThroughput * (1.0 - THROUGHPUT_TOLERANCE)) {
+            this.limit = decrease(previousLimit);
+            reason = String.format("throughput dropped from %.0f to %.0f records/s", this.lastThroughput, throughput);
+        } else if (this.lastThroughput < 0.0 || throughput >= this.lastThroughput * (1.0 - THROUGHPUT_TOLERANCE)) {
+            this.limit = Math.min(this.maxLimit, previousLimit + 1);
+            reason = String.format("throughput %.0f records/s with CPU utilization %s", throughput, formatCpuLoad(cpuLoad));
+        } else {
+            reason = null;
+        }
+        this.lastThroughput = throughput;
+        this.lastLimit = previousLimit;
+
+        if (this.limit != previousLimit) {
+            logger.info("Changed concurrency of tasks from {} to {}: {}", previousLimit, this.limit, reason);
+            this.notifyAll();
+        } else {
+            logger.debug("Kept concurrency of tasks at {}: throughput {} records/s", previousLimit, String.format("%.0f", throughput));
+        }
+    }
+
+    private int decrease(final int current) {
+        return Math.max(this.minLimit, (int) (current * DECREASE_FACTOR));
+    }
+
+    private static String formatCpuLoad(final double cpuLoad) {
+        return cpuLoad < 0.0 ? "unknown" : String.format("%.0f%%", cpuLoad * 100);
+    }
+
+    private static double getProcessCpuLoad() {
+        final OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuLoad();
+        }
+        return -1.0;
+    }
+
+    private static final double CPU_SATURATED = 0.9;
+    private static final double THROUGHPUT_TOLERANCE = 0.05;
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyController.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long intervalMillis;
+    private final LongAdder records;
+
+    private int limit;
+    private int running;
+    private double lastThroughput;
+    private int lastLimit;
+    private long lastSampleNanos;
+    private ScheduledExecutorService sampler;
+}
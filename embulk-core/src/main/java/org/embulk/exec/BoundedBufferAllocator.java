@@ -0,0 +1,216 @@
+package org.embulk.exec;
+
+import java.util.concurrent.TimeUnit;
+import org.embulk.EmbulkSystemProperties;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.ReleaseHooks;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits bytes of buffers allocated and not released yet, shared by all allocations through it in a JVM.
+ *
+ * <p>An allocation waits while the limit is exhausted, and fails with {@link BufferMemoryLimitExceededException}
+ * after waiting for the timeout. It fails without waiting if the timeout is {@code 0}. A buffer is always allocated
+ * when no other buffers are outstanding so that a single large buffer does not fail forever.
+ *
+ * <p>Bytes are reserved before a buffer is allocated from the delegate, so that threads waiting for the limit do not
+ * hold buffers uncounted. {@link #allocate()} reserves the page size, and {@link #allocate(int)} reserves the larger
+ * of the page size and the minimum capacity. The reservation is corrected to the capacity of the buffer allocated
+ * actually, and uncounted when the buffer is released.
+ */
+public final class BoundedBufferAllocator implements BufferAllocator {
+    BoundedBufferAllocator(final BufferAllocator delegate, final int pageSize, final long limitBytes, final long waitTimeoutMillis) {
+        this.delegate = delegate;
+        this.pageSize = pageSize;
+        this.limitBytes = limitBytes;
+        this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+        this.createdAt = System.nanoTime();
+    }
+
+    /**
+     * Creates the buffer allocator of a JVM from the system properties, a {@link PooledBufferAllocator} limited as below.
+     */
+    public static BufferAllocator fromSystemProperties(final EmbulkSystemProperties embulkSystemProperties) {
+        return fromSystemProperties(PooledBufferAllocator.fromSystemProperties(embulkSystemProperties), embulkSystemProperties);
+    }
+
+    /**
+     * Wraps {@code delegate} with the limit of {@code "buffer_memory_limit"}, or returns {@code delegate} as is if unlimited.
+     *
+     * <p>{@code "buffer_memory_limit_wait_millis"} is the timeout to wait for buffers released, 60 seconds by default.
+     */
+    public static BufferAllocator fromSystemProperties(final BufferAllocator delegate, final EmbulkSystemProperties embulkSystemProperties) {
+        final long limitBytes = embulkSystemProperties.getPropertyAsByteSize("buffer_memory_limit", 0L);
+        if (limitBytes <= 0) {
+            return delegate;
+        }
+        final int waitTimeoutMillis = embulkSystemProperties.getPropertyAsInteger("buffer_memory_limit_wait_millis", 60000);
+        final int pageSize = (int) embulkSystemProperties.getPropertyAsByteSize("page_size", PooledBufferAllocator.DEFAULT_PAGE_SIZE);
+        logger.info("Buffers are limited up to {} bytes in total.", limitBytes);
+        return new BoundedBufferAllocator(delegate, pageSize, limitBytes, Math.max(0, waitTimeoutMillis));
+    }
+
+    @Override
+    public Buffer allocate() {
+        final long reserved = this.reserve(this.pageSize);
+        final Buffer buffer;
+        try {
+            buffer = this.delegate.allocate();
+        } catch (final RuntimeException | Error ex) {
+            this.release(reserved);
+            throw ex;
+        }
+        return this.bound(buffer, reserved);
+    }
+
+    @Override
+    public Buffer allocate(final int minimumCapacity) {
+        final long reserved = this.reserve(Math.max(this.pageSize, minimumCapacity));
+        final Buffer buffer;
+        try {
+            buffer = this.delegate.allocate(minimumCapacity);
+        } catch (final RuntimeException | Error ex) {
+            this.release(reserved);
+            throw ex;
+        }
+        return this.bound(buffer, reserved);
+    }
+
+    public BufferAllocator getDelegate() {
+        return this.delegate;
+    }
+
+    public long getLimitBytes() {
+        return this.limitBytes;
+    }
+
+    public synchronized long getOutstandingBytes() {
+        return this.outstandingBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return this.peakBytes;
+    }
+
+    public synchronized long getAllocationCount() {
+        return this.allocationCount;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * Returns bytes allocated per second on average since the allocator was created.
+     */
+    public double getAllocationBytesPerSecond() {
+        final long elapsedNanos = System.nanoTime() - this.createdAt;
+        if (elapsedNanos <= 0) {
+            return 0.0;
+        }
+        return this.getAllocatedBytes() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Returns the ratio of allocations served from pooled memory, or {@code -1} if the delegate does not know it.
+     */
+    public double getPoolHitRatio() {
+        if (this.delegate instanceof PooledBufferAllocator) {
+            return ((PooledBufferAllocator) this.delegate).getPoolHitRatio();
+        }
+        return -1.0;
+    }
+
+    public synchronized long getWaitCount() {
+        return this.waitCount;
+    }
+
+    public synchronized long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.waitNanos);
+    }
+
+    public synchronized long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    private long reserve(final long bytes) {
+        try {
+            this.acquire(bytes);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        return bytes;
+    }
+
+    // Corrects the reservation to the actual capacity, which may be rounded up by the delegate, without waiting.
+    private Buffer bound(final Buffer buffer, final long reserved) {
+        final long bytes = buffer.capacity();
+        if (bytes != reserved) {
+            this.adjust(bytes - reserved);
+        }
+        return ReleaseHooks.wrap(buffer, () -> this.release(bytes));
+    }
+
+    private synchronized void acquire(final long bytes) throws InterruptedException {
+        if (this.outstandingBytes > 0 && this.outstandingBytes + bytes > this.limitBytes) {
+            this.waitCount++;
+            final long startedAt = System.nanoTime();
+            try {
+                while (this.outstandingBytes > 0 && this.outstandingBytes + bytes > this.limitBytes) {
+                    final long remaining = startedAt + this.waitTimeoutNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        this.rejectedCount++;
+                        throw new BufferMemoryLimitExceededException(String.format(
+                                "Failed to allocate a buffer of %d bytes as %d bytes are outstanding within the limit of %d bytes "
+                                        + "(\"buffer_memory_limit\") after waiting for %d ms.",
+                                bytes, this.outstandingBytes, this.limitBytes, TimeUnit.NANOSECONDS.toMillis(this.waitTimeoutNanos)));
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } finally {
+                this.waitNanos += System.nanoTime() - startedAt;
+            }
+        }
+        this.outstandingBytes += bytes;
+        if (this.peakBytes < this.outstandingBytes) {
+            this.peakBytes = this.outstandingBytes;
+        }
+        this.allocationCount++;
+        this.allocatedBytes += bytes;
+    }
+
+    private synchronized void adjust(final long difference) {
+        this.outstandingBytes += difference;
+        this.allocatedBytes += difference;
+        if (this.peakBytes < this.outstandingBytes) {
+            this.peakBytes = this.outstandingBytes;
+        }
+        if (difference < 0) {
+            this.notifyAll();
+        }
+    }
+
+    private synchronized void release(final long bytes) {
+        this.outstandingBytes -= bytes;
+        this.notifyAll();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedBufferAllocator.class);
+
+    private final BufferAllocator delegate;
+    private final int pageSize;
+    private final long limitBytes;
+    private final long waitTimeoutNanos;
+    private final long createdAt;
+
+    private long outstandingBytes;
+    private long peakBytes;
+    private long allocationCount;
+    private long allocatedBytes;
+    private long waitCount;
+    private long waitNanos;
+    private long rejectedCount;
+}
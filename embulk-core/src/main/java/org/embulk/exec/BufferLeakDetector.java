@@ -0,0 +1,174 @@
+package org.embulk.exec;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks buffers of a {@link PooledBufferAllocator} to report buffers never released, and where a buffer released twice
+ * was released first.
+ *
+ * <p>Only tracked buffers capture stack traces. {@link Level#SAMPLED} tracks about 1% of buffers, and captures only
+ * where they are allocated, so that releasing a buffer captures nothing. {@link Level#PARANOID} tracks all buffers, and
+ * captures also where they are released.
+ */
+public final class BufferLeakDetector {
+    public enum Level {
+        /**
+         * Tracks no buffers. A buffer released twice is still detected, but without where it was released first.
+         */
+        DISABLED,
+
+        /**
+         * Tracks about 1% of buffers, without where they are released.
+         */
+        SAMPLED,
+
+        /**
+         * Tracks all buffers, with where they are released.
+         */
+        PARANOID;
+    }
+
+    public BufferLeakDetector(final Level level) {
+        this(level, SAMPLING_INTERVAL);
+    }
+
+    BufferLeakDetector(final Level level, final int samplingInterval) {
+        this.level = level;
+        this.samplingInterval = samplingInterval;
+        this.live = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Parses a level from a value of the system property {@code "buffer_leak_detection"}.
+     */
+    public static Level parseLevel(final String value) {
+        if (value == null) {
+            return Level.SAMPLED;
+        }
+        try {
+            return Level.valueOf(value.toUpperCase(Locale.ENGLISH));
+        } catch (final IllegalArgumentException ex) {
+            logger.warn("\"buffer_leak_detection\" is in an invalid value: '" + value + "'. Buffers are tracked by sampling.");
+            return Level.SAMPLED;
+        }
+    }
+
+    public Level getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Starts tracking a buffer being allocated, or returns {@code null} if the buffer is not tracked.
+     *
+     * <p>The buffer is tracked as of the session of the current thread, if any.
+     */
+    public Tracker track() {
+        if (!this.isTracked()) {
+            return null;
+        }
+        return this.track(ExecInternal.sessionInternalOrNull());
+    }
+
+    // Visible for testing.
+    Tracker track(final Object session) {
+        final Tracker tracker = new Tracker(session);
+        this.live.add(tracker);
+        return tracker;
+    }
+
+    /**
+     * Logs tracked buffers which have not been released with where they were allocated, and returns the number of them.
+     *
+     * <p>A buffer is reported only once. It reports buffers of all sessions. Call it only when no sessions use the
+     * allocator anymore, such as when the JVM of the allocator is exiting.
+     */
+    public int reportLeaks() {
+        return this.reportLeaks(tracker -> true);
+    }
+
+    /**
+     * Logs tracked buffers allocated in {@code session} which have not been released, and returns the number of them.
+     *
+     * <p>It is for an allocator shared by sessions, so that buffers of other sessions still running are not reported.
+     */
+    public int reportLeaks(final ExecSessionInternal session) {
+        return this.reportLeaksOf(session);
+    }
+
+    // Visible for testing.
+    int reportLeaksOf(final Object session) {
+        return this.reportLeaks(tracker -> tracker.session == session);
+    }
+
+    private boolean isTracked() {
+        switch (this.level) {
+            case PARANOID:
+                return true;
+            case SAMPLED:
+                return ThreadLocalRandom.current().nextInt(this.samplingInterval) == 0;
+            default:
+                return false;
+        }
+    }
+
+    private int reportLeaks(final Predicate<Tracker> filter) {
+        int leaks = 0;
+        for (final Iterator<Tracker> it = this.live.iterator(); it.hasNext(); ) {
+            final Tracker tracker = it.next();
+            if (!filter.test(tracker)) {
+                continue;
+            }
+            it.remove();
+            logger.warn("A buffer has not been released. It was allocated at:", tracker.allocatedAt);
+            leaks++;
+        }
+        if (leaks > 0 && this.level == Level.SAMPLED) {
+            logger.warn("{} buffers have not been released out of about 1/{} buffers sampled. "
+                                + "Set \"buffer_leak_detection\" to \"paranoid\" to track all buffers.",
+                        leaks, this.samplingInterval);
+        }
+        return leaks;
+    }
+
+    public final class Tracker {
+        private Tracker(final Object session) {
+            this.session = session;
+            this.allocatedAt = new Throwable("Allocated at:");
+        }
+
+        public void released() {
+            if (level == Level.PARANOID) {
+                this.releasedAt = new Throwable("Released at:");
+            }
+            live.remove(this);
+        }
+
+        /**
+         * Returns where the buffer was released, or {@code null} if it has not been released, or if not {@link Level#PARANOID}.
+         */
+        public Throwable getReleasedAt() {
+            return this.releasedAt;
+        }
+
+        private final Object session;
+        private final Throwable allocatedAt;
+        private volatile Throwable releasedAt;
+    }
+
+    private static final int SAMPLING_INTERVAL = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferLeakDetector.class);
+
+    private final Level level;
+    private final int samplingInterval;
+    private final Set<Tracker> live;
+}
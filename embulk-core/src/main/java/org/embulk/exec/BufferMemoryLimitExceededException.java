@@ -0,0 +1,12 @@
+package org.embulk.exec;
+
+/**
+ * Thrown when a buffer cannot be allocated within the limit of {@link BoundedBufferAllocator}.
+ */
+public class BufferMemoryLimitExceededException extends RuntimeException {
+    public BufferMemoryLimitExceededException(final String message) {
+        super(message);
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -2,7 +2,9 @@ package org.embulk.exec;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import org.embulk.EmbulkSystemProperties;
@@ -313,7 +315,7 @@ public class BulkLoader {
                 ignoredExceptions.add(ex);
             }
 
-            return new ExecutionResult(configDiff, false, Collections.unmodifiableList(ignoredExceptions));
+            return new ExecutionResult(configDiff, false, Collections.unmodifiableList(ignoredExceptions), getTaskAttempts());
         }
 
         public ExecutionResult buildExecuteResultOfSkippedExecution(ConfigDiff configDiff) {
@@ -322,7 +324,23 @@ public class BulkLoader {
                 ignoredExceptions.add(e);
             }
 
-            return new ExecutionResult(configDiff, true, Collections.unmodifiableList(ignoredExceptions));
+            return new ExecutionResult(configDiff, true, Collections.unmodifiableList(ignoredExceptions), getTaskAttempts());
+        }
+
+        private Map<Integer, Integer> getTaskAttempts() {
+            final LinkedHashMap<Integer, Integer> taskAttempts = new LinkedHashMap<>();
+            if (inputTaskStates != null) {  // null if not initialized yet
+                for (int i = 0; i < inputTaskStates.size(); i++) {
+                    final int attempts = inputTaskStates.get(i).getAttempts();
+                    if (attempts > 1) {
+                        taskAttempts.put(i, attempts);
+                    }
+                }
+            }
+            if (!taskAttempts.isEmpty()) {
+                logger.info("{} input tasks ran more than once: {}", taskAttempts.size(), taskAttempts);
+            }
+            return Collections.unmodifiableMap(taskAttempts);
         }
 
         public ResumeState buildResumeState(ExecSessionInternal exec) {
@@ -1,17 +1,25 @@
 package org.embulk.exec;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import org.embulk.config.ConfigDiff;
 
 public class ExecutionResult {
     private final ConfigDiff configDiff;
     private final boolean skipped;
     private final List<Throwable> ignoredExceptions;
+    private final Map<Integer, Integer> taskAttempts;
 
     public ExecutionResult(ConfigDiff configDiff, boolean skipped, List<Throwable> ignoredExceptions) {
+        this(configDiff, skipped, ignoredExceptions, Collections.emptyMap());
+    }
+
+    public ExecutionResult(ConfigDiff configDiff, boolean skipped, List<Throwable> ignoredExceptions, Map<Integer, Integer> taskAttempts) {
         this.configDiff = configDiff;
         this.skipped = skipped;
         this.ignoredExceptions = ignoredExceptions;
+        this.taskAttempts = taskAttempts;
     }
 
     public ConfigDiff getConfigDiff() {
@@ -25,4 +33,12 @@ public class ExecutionResult {
     public List<Throwable> getIgnoredExceptions() {
         return ignoredExceptions;
     }
+
+    /**
+     * Returns the number of attempts of each input task which ran more than once by retries or speculative execution,
+     * keyed by its task index.
+     */
+    public Map<Integer, Integer> getTaskAttempts() {
+        return taskAttempts;
+    }
 }
@@ -0,0 +1,279 @@
+package org.embulk.exec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.embulk.config.TaskReport;
+import org.embulk.spi.InputSplit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs input tasks on a fixed number of worker threads, and splits running tasks onto idle workers.
+ *
+ * <p>A worker takes a task not started yet if any. Otherwise, it steals a part of remaining work of the running split
+ * with the largest {@link InputSplit#estimateRemainingSize()} by {@link InputSplit#trySplit()}, and runs it. A task
+ * finishes when all of its splits finish.
+ */
+final class InputSplitScheduler {
+    /**
+     * An input task run in splits.
+     */
+    interface SplitTask {
+        /**
+         * Starts the task, and returns the split covering the whole task. It is called in the worker running the first split.
+         */
+        InputSplit open();
+
+        /**
+         * Runs a split. It is called concurrently for splits of the same task.
+         */
+        TaskReport run(InputSplit split);
+
+        /**
+         * Finishes the task after all of its splits finish. {@code reports} is empty if any split fails.
+         */
+        void finish(List<TaskReport> reports, boolean committed);
+    }
+
+    InputSplitScheduler(final ExecutorService executor, final int workerCount) {
+        this.pending = new ArrayDeque<>();
+        this.running = new ArrayList<>();
+        this.workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            this.workers.add(executor.submit(this::work));
+        }
+    }
+
+    /**
+     * Queues a task, and returns a future completed with an exception which the task threw, or {@code null}.
+     */
+    synchronized Future<Throwable> submit(final int taskIndex, final SplitTask task) {
+        final TaskProgress progress = new TaskProgress(taskIndex, task);
+        progress.pieces = 1;
+        this.pending.addLast(new Piece(progress, null));
+        this.notifyAll();
+        return progress.future;
+    }
+
+    /**
+     * Stops the workers. Tasks not started are never started.
+     */
+    void close() {
+        synchronized (this) {
+            this.closed = true;
+            this.notifyAll();
+        }
+        for (final Future<?> worker : this.workers) {
+            worker.cancel(true);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            final Piece piece;
+            try {
+                piece = this.next();
+            } catch (final InterruptedException ex) {
+                return;
+            }
+            if (piece == null) {
+                return;
+            }
+            this.run(piece);
+        }
+    }
+
+    private Piece next() throws InterruptedException {
+        while (true) {
+            final List<Piece> candidates = new ArrayList<>();
+            final List<InputSplit> candidateSplits = new ArrayList<>();
+            synchronized (this) {
+                if (this.closed) {
+                    return null;
+                }
+                final Piece pendingPiece = this.pending.pollFirst();
+                if (pendingPiece != null) {
+                    this.running.add(pendingPiece);
+                    return pendingPiece;
+                }
+                for (final Piece piece : this.running) {
+                    if (piece.split != null && !piece.unsplittable && !piece.progress.failed) {
+                        candidates.add(piece);
+                        candidateSplits.add(piece.split);
+                    }
+                }
+            }
+
+            final Piece stolen = this.steal(candidates, candidateSplits);
+            if (stolen != null) {
+                return stolen;
+            }
+            synchronized (this) {
+                if (!this.closed && this.pending.isEmpty()) {
+                    this.wait(STEAL_RETRY_MILLIS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the running split with the largest remaining size, and returns a new running piece of the split off part.
+     *
+     * <p>The input plugin is called without holding the lock of the scheduler, as estimating and splitting may take long.
+     * The task of the split keeps one more piece while it is being split so that the task does not finish meanwhile.
+     */
+    private Piece steal(final List<Piece> candidates, final List<InputSplit> candidateSplits) {
+        final long[] sizes = new long[candidates.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = candidateSplits.get(i).estimateRemainingSize();
+        }
+
+        while (true) {
+            int largestIndex = -1;
+            for (int i = 0; i < sizes.length; i++) {
+                if (sizes[i] > 0 && (largestIndex < 0 || sizes[i] > sizes[largestIndex])) {
+                    largestIndex = i;
+                }
+            }
+            if (largestIndex < 0) {
+                return null;
+            }
+            sizes[largestIndex] = 0;  // Tried only once.
+            final Piece largest = candidates.get(largestIndex);
+            synchronized (this) {
+                if (!this.running.contains(largest) || largest.unsplittable || largest.progress.failed) {
+                    continue;
+                }
+                largest.progress.pieces++;
+            }
+
+            InputSplit split;
+            try {
+                split = candidateSplits.get(largestIndex).trySplit().orElse(null);
+            } catch (final RuntimeException ex) {
+                logger.warn("Failed to split input task {}. It continues without splitting.", largest.progress.taskIndex, ex);
+                split = null;
+            }
+
+            final boolean taskFinished;
+            synchronized (this) {
+                if (split != null) {
+                    largest.progress.splits++;
+                    final Piece piece = new Piece(largest.progress, split);
+                    this.running.add(piece);
+                    return piece;
+                }
+                largest.unsplittable = true;
+                largest.progress.pieces--;
+                taskFinished = largest.progress.pieces == 0;
+            }
+            if (taskFinished) {
+                this.finish(largest.progress);
+            }
+        }
+    }
+
+    private void run(final Piece piece) {
+        final TaskProgress progress = piece.progress;
+        TaskReport report = null;
+        Throwable error = null;
+        try {
+            if (piece.split == null) {
+                final InputSplit split = progress.task.open();
+                synchronized (this) {
+                    piece.split = split;
+                }
+            }
+            report = progress.task.run(piece.split);
+        } catch (final Throwable ex) {
+            error = ex;
+        }
+
+        final boolean taskFinished;
+        synchronized (this) {
+            this.running.remove(piece);
+            if (error != null) {
+                progress.failed = true;
+                if (progress.error == null) {
+                    progress.error = error;
+                } else {
+                    progress.error.addSuppressed(error);
+                }
+            } else {
+                progress.reports.add(report);
+            }
+            progress.pieces--;
+            taskFinished = progress.pieces == 0;
+            this.notifyAll();
+        }
+
+        if (taskFinished) {
+            this.finish(progress);
+        }
+    }
+
+    private void finish(final TaskProgress progress) {
+        if (progress.splits > 0) {
+            logger.info("Input task {} ran in {} splits", progress.taskIndex, progress.splits + 1);
+        }
+        Throwable error = progress.error;
+        try {
+            progress.task.finish(error == null ? progress.reports : new ArrayList<>(), error == null);
+        } catch (final Throwable ex) {
+            if (error == null) {
+                error = ex;
+            } else {
+                error.addSuppressed(ex);
+            }
+        }
+        progress.future.complete(error);
+    }
+
+    private static final class TaskProgress {
+        TaskProgress(final int taskIndex, final SplitTask task) {
+            this.taskIndex = taskIndex;
+            this.task = task;
+            this.reports = new ArrayList<>();
+            this.future = new CompletableFuture<>();
+        }
+
+        final int taskIndex;
+        final SplitTask task;
+        final List<TaskReport> reports;
+        final CompletableFuture<Throwable> future;
+
+        // Guarded by the scheduler.
+        int pieces;
+        int splits;
+        boolean failed;
+        Throwable error;
+    }
+
+    private static final class Piece {
+        Piece(final TaskProgress progress, final InputSplit split) {
+            this.progress = progress;
+            this.split = split;
+        }
+
+        final TaskProgress progress;
+
+        // Guarded by the scheduler. The first piece of a task has no split until the task is opened.
+        InputSplit split;
+        boolean unsplittable;
+    }
+
+    // Running splits are checked again in a while, though finishing a split always wakes idle workers up.
+    private static final long STEAL_RETRY_MILLIS = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(InputSplitScheduler.class);
+
+    private final ArrayDeque<Piece> pending;
+    private final List<Piece> running;
+    private final List<Future<?>> workers;
+
+    private boolean closed;
+}
@@ -1,74 +1,259 @@
 package org.embulk.exec;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.IllegalFormatException;
 import java.util.List;
+import java.util.Map;
 import java.util.MissingFormatArgumentException;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import org.embulk.EmbulkSystemProperties;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
 import org.embulk.spi.AbortTransactionResource;
 import org.embulk.spi.CloseResource;
+import org.embulk.spi.EstimatableInputPlugin;
 import org.embulk.spi.Exec;
 import org.embulk.spi.ExecInternal;
 import org.embulk.spi.ExecSessionInternal;
 import org.embulk.spi.ExecutorPlugin;
 import org.embulk.spi.FilterPlugin;
+import org.embulk.spi.IdempotentOutputPlugin;
 import org.embulk.spi.InputPlugin;
+import org.embulk.spi.InputSplit;
 import org.embulk.spi.OutputPlugin;
 import org.embulk.spi.Page;
 import org.embulk.spi.PageImpl;
+import org.embulk.spi.PageMemoryBudget;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.ProcessState;
 import org.embulk.spi.ProcessTask;
 import org.embulk.spi.Schema;
+import org.embulk.spi.SplittableInputPlugin;
 import org.embulk.spi.TransactionalPageOutput;
 import org.embulk.spi.util.ExecutorsInternal;
 import org.embulk.spi.util.ExecutorsInternal.ProcessStateCallback;
+import org.embulk.spi.util.FilterPipeline;
 import org.embulk.spi.util.FiltersInternal;
+import org.embulk.spi.util.PageStatisticsCollector;
+import org.embulk.spi.util.SpillingPageOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class LocalExecutorPlugin implements ExecutorPlugin {
-    private int defaultMaxThreads;
+    private String defaultMaxThreads;
     private int defaultMinThreads;
+    private int defaultScatterQueuePages;
+    private String defaultScatterDispatch;
+    private int defaultMaxOutputTasks;
+    private int defaultGatherQueuePages;
+    private boolean defaultSplitInputTasks;
+    private String defaultTaskOrder;
+    private int defaultTaskRetryLimit;
+    private boolean defaultSpeculativeExecution;
 
     public LocalExecutorPlugin(final EmbulkSystemProperties embulkSystemProperties) {
         int cores = Runtime.getRuntime().availableProcessors();
-        this.defaultMaxThreads = embulkSystemProperties.getPropertyAsInteger("max_threads", cores * 2);
+        this.defaultMaxThreads = embulkSystemProperties.getProperty("max_threads", String.valueOf(cores * 2));
         this.defaultMinThreads = embulkSystemProperties.getPropertyAsInteger("min_output_tasks", cores);
+        this.defaultScatterQueuePages = embulkSystemProperties.getPropertyAsInteger("scatter_queue_pages", DEFAULT_SCATTER_QUEUE_PAGES);
+        this.defaultScatterDispatch = embulkSystemProperties.getProperty("scatter_dispatch", "round_robin");
+        this.defaultMaxOutputTasks = embulkSystemProperties.getPropertyAsInteger("max_output_tasks", 0);
+        this.defaultGatherQueuePages = embulkSystemProperties.getPropertyAsInteger("gather_queue_pages", DEFAULT_GATHER_QUEUE_PAGES);
+        this.defaultSplitInputTasks = embulkSystemProperties.getPropertyAsBoolean("split_input_tasks", false);
+        this.defaultTaskOrder = embulkSystemProperties.getProperty("task_order", "index");
+        this.defaultTaskRetryLimit = embulkSystemProperties.getPropertyAsInteger("task_retry_limit", 0);
+        this.defaultSpeculativeExecution = embulkSystemProperties.getPropertyAsBoolean("speculative_execution", false);
     }
 
     @Override
     public void transaction(ConfigSource config, Schema outputSchema, int inputTaskCount,
             ExecutorPlugin.Control control) {
+        TaskOrder taskOrder = TaskOrder.of(config.get(String.class, "task_order", defaultTaskOrder));
+        int retryLimit = config.get(Integer.class, "task_retry_limit", defaultTaskRetryLimit);
+        long retryWaitMillis = config.get(Long.class, "task_retry_wait_millis", DEFAULT_TASK_RETRY_WAIT_MILLIS);
+        long retryMaxWaitMillis = config.get(Long.class, "task_retry_max_wait_millis", DEFAULT_TASK_RETRY_MAX_WAIT_MILLIS);
+        if (retryLimit < 0 || retryWaitMillis < 0 || retryMaxWaitMillis < 0) {
+            throw new ConfigException("\"task_retry_limit\", \"task_retry_wait_millis\", and \"task_retry_max_wait_millis\" must not be negative.");
+        }
+        boolean speculativeExecution = config.get(Boolean.class, "speculative_execution", defaultSpeculativeExecution);
+        double speculativeSlowness = config.get(Double.class, "speculative_slowness", DEFAULT_SPECULATIVE_SLOWNESS);
+        if (speculativeExecution && speculativeSlowness <= 1.0) {
+            throw new ConfigException("\"speculative_slowness\" must be larger than 1.0: " + speculativeSlowness);
+        }
         try (AbstractLocalExecutor exec = newExecutor(config, inputTaskCount)) {
+            exec.setTaskOrder(taskOrder);
+            if (exec instanceof DirectExecutor) {
+                ((DirectExecutor) exec).setRetry(retryLimit, retryWaitMillis, retryMaxWaitMillis);
+                if (speculativeExecution) {
+                    ((DirectExecutor) exec).setSpeculativeSlowness(speculativeSlowness);
+                }
+            } else if (retryLimit > 0 || speculativeExecution) {
+                logger.warn("Tasks are neither retried nor run speculatively as input tasks and output tasks are not one-to-one.");
+            }
             control.transaction(outputSchema, exec.getOutputTaskCount(), exec);
         }
     }
 
     private AbstractLocalExecutor newExecutor(ConfigSource config, int inputTaskCount) {
-        int maxThreads = config.get(Integer.class, "max_threads", defaultMaxThreads);
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final String maxThreadsValue = config.get(String.class, "max_threads", defaultMaxThreads);
+        final boolean autoThreads = "auto".equals(maxThreadsValue);
+        int maxThreads = autoThreads ? cores * 2 : parseMaxThreads(maxThreadsValue);
         int minThreads = config.get(Integer.class, "min_output_tasks", defaultMinThreads);
-        if (inputTaskCount > 0 && inputTaskCount < minThreads) {
+        int maxOutputTasks = config.get(Integer.class, "max_output_tasks", defaultMaxOutputTasks);
+        boolean splitInputTasks = config.get(Boolean.class, "split_input_tasks", defaultSplitInputTasks);
+        Optional<SharedExecutorPool> sharedPool = ExecInternal.sessionInternal().getSharedExecutorPool();
+        if (inputTaskCount > 0 && (splitInputTasks || (maxOutputTasks > 0 && inputTaskCount > maxOutputTasks))) {
+            int queuePages = config.get(Integer.class, "gather_queue_pages", defaultGatherQueuePages);
+            if (queuePages <= 0) {
+                throw new ConfigException("\"gather_queue_pages\" must be positive: " + queuePages);
+            }
+            // Output tasks stay open through the execution. Without max_output_tasks, splitting keeps them as many as threads.
+            int outputTaskCount = maxOutputTasks > 0 ? Math.min(inputTaskCount, maxOutputTasks)
+                    : (splitInputTasks ? Math.min(inputTaskCount, maxThreads) : inputTaskCount);
+            logger.info("Using local thread executor with max_threads={} / input tasks {} gathered into output tasks {} / split_input_tasks={}",
+                        maxThreads, inputTaskCount, outputTaskCount, splitInputTasks);
+            return new GatherExecutor(maxThreads, inputTaskCount, outputTaskCount, queuePages, splitInputTasks);
+        } else if (inputTaskCount > 0 && inputTaskCount < minThreads) {
             int scatterCount = (minThreads + inputTaskCount - 1) / inputTaskCount;
-            logger.info("Using local thread executor with max_threads={} / output tasks {} = input tasks {} * {}",
-                        maxThreads, inputTaskCount * scatterCount, inputTaskCount, scatterCount);
-            return new ScatterExecutor(maxThreads, inputTaskCount, scatterCount);
+            int queuePages = config.get(Integer.class, "scatter_queue_pages", defaultScatterQueuePages);
+            if (queuePages <= 0) {
+                throw new ConfigException("\"scatter_queue_pages\" must be positive: " + queuePages);
+            }
+            ScatterDispatch dispatch = ScatterDispatch.of(config.get(String.class, "scatter_dispatch", defaultScatterDispatch));
+            logger.info("Using local thread executor with max_threads={} / output tasks {} = input tasks {} * {} / scatter_queue_pages={} / scatter_dispatch={}",
+                        maxThreads, inputTaskCount * scatterCount, inputTaskCount, scatterCount, queuePages, dispatch);
+            if (sharedPool.isPresent()) {
+                // Only input tasks run on the shared pool. Output workers wait for pages from them on threads of their own.
+                ExecutorService inputExecutor = sharedPool.get().newRunExecutor(ExecInternal.sessionInternal(), Math.max(maxThreads / scatterCount, 1));
+                return new ScatterExecutor(inputExecutor, inputTaskCount, scatterCount, queuePages, dispatch);
+            }
+            return new ScatterExecutor(maxThreads, inputTaskCount, scatterCount, queuePages, dispatch);
+        } else if (autoThreads) {
+            int minAutoThreads = config.get(Integer.class, "min_auto_threads", Math.max(cores / 2, 1));
+            int maxAutoThreads = config.get(Integer.class, "max_auto_threads", cores * 8);
+            if (minAutoThreads <= 0 || maxAutoThreads < minAutoThreads) {
+                throw new ConfigException("\"min_auto_threads\" and \"max_auto_threads\" must be positive, and min <= max: "
+                                          + minAutoThreads + ", " + maxAutoThreads);
+            }
+            long intervalMillis = config.get(Long.class, "auto_threads_interval_millis", DEFAULT_AUTO_THREADS_INTERVAL_MILLIS);
+            AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(
+                    minAutoThreads, maxAutoThreads, Math.min(maxThreads, inputTaskCount), intervalMillis);
+            logger.info("Using local thread executor with max_threads=auto ({}..{}, starting at {}) / tasks={}",
+                        minAutoThreads, maxAutoThreads, controller.getLimit(), inputTaskCount);
+            return new DirectExecutor(inputTaskCount, controller);
+        } else if (sharedPool.isPresent()) {
+            logger.info("Using local thread executor with max_threads={} on the shared executor pool of {} threads / tasks={}",
+                        maxThreads, sharedPool.get().getThreads(), inputTaskCount);
+            return new DirectExecutor(inputTaskCount, sharedPool.get().newRunExecutor(ExecInternal.sessionInternal(), maxThreads));
         } else {
             logger.info("Using local thread executor with max_threads={} / tasks={}", maxThreads, inputTaskCount);
             return new DirectExecutor(maxThreads, inputTaskCount);
         }
     }
 
+    private static int parseMaxThreads(final String value) {
+        final int maxThreads;
+        try {
+            maxThreads = Integer.parseInt(value);
+        } catch (final NumberFormatException ex) {
+            throw new ConfigException("\"max_threads\" must be a positive integer or \"auto\": " + value, ex);
+        }
+        if (maxThreads <= 0) {
+            throw new ConfigException("\"max_threads\" must be a positive integer or \"auto\": " + value);
+        }
+        return maxThreads;
+    }
+
+    /**
+     * Chooses an output worker of the scatter executor for each page.
+     */
+    public enum ScatterDispatch {
+        /**
+         * Sends pages to output workers in turn. Pages go to the same output tasks when the input task is resumed.
+         */
+        ROUND_ROBIN("round_robin"),
+
+        /**
+         * Sends each page to the output worker with the fewest pages queued so that a slow output does not stall the input.
+         * It falls back to {@link #ROUND_ROBIN} for an input task whose output tasks are partially committed when resumed.
+         */
+        LEAST_LOADED("least_loaded");
+
+        ScatterDispatch(final String name) {
+            this.name = name;
+        }
+
+        static ScatterDispatch of(final String name) {
+            for (final ScatterDispatch dispatch : values()) {
+                if (dispatch.name.equals(name)) {
+                    return dispatch;
+                }
+            }
+            throw new ConfigException("\"scatter_dispatch\" must be \"round_robin\" or \"least_loaded\": " + name);
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+
+        private final String name;
+    }
+
+    /**
+     * Chooses the order to start input tasks in.
+     */
+    public enum TaskOrder {
+        /**
+         * Starts input tasks in order of their indexes.
+         */
+        INDEX("index"),
+
+        /**
+         * Starts larger input tasks first by sizes estimated by {@link EstimatableInputPlugin} so that the largest
+         * task does not start last. Tasks of unknown sizes start after them in order of their indexes.
+         */
+        LARGEST_FIRST("largest_first");
+
+        TaskOrder(final String name) {
+            this.name = name;
+        }
+
+        static TaskOrder of(final String name) {
+            for (final TaskOrder order : values()) {
+                if (order.name.equals(name)) {
+                    return order;
+                }
+            }
+            throw new ConfigException("\"task_order\" must be \"index\" or \"largest_first\": " + name);
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+
+        private final String name;
+    }
+
     private static class ExecutorThreadFactory implements ThreadFactory {
         private ExecutorThreadFactory(final String nameFormat) {
             try {
@@ -96,10 +281,16 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
     private abstract static class AbstractLocalExecutor implements Executor, AutoCloseable {
         protected final int inputTaskCount;
         protected final int outputTaskCount;
+        private TaskOrder taskOrder;
 
         public AbstractLocalExecutor(int inputTaskCount, int outputTaskCount) {
             this.inputTaskCount = inputTaskCount;
             this.outputTaskCount = outputTaskCount;
+            this.taskOrder = TaskOrder.INDEX;
+        }
+
+        void setTaskOrder(TaskOrder taskOrder) {
+            this.taskOrder = taskOrder;
         }
 
         public int getOutputTaskCount() {
@@ -110,12 +301,12 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         public void execute(ProcessTask task, ProcessState state) {
             state.initialize(inputTaskCount, outputTaskCount);
 
-            List<Future<Throwable>> futures = new ArrayList<>(inputTaskCount);
+            List<Future<Throwable>> futures = new ArrayList<>(Collections.<Future<Throwable>>nCopies(inputTaskCount, null));
             try {
-                for (int i = 0; i < inputTaskCount; i++) {
-                    futures.add(startInputTask(task, state, i));
+                for (int i : orderInputTasks(task, state)) {
+                    futures.set(i, startInputTask(task, state, i));
                 }
-                showProgress(state, inputTaskCount);
+                showProgress(state, outputTaskCount);
 
                 for (int i = 0; i < inputTaskCount; i++) {
                     if (futures.get(i) == null) {
@@ -135,7 +326,7 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                     } catch (InterruptedException ex) {
                         state.getInputTaskState(i).setException(new ExecutionInterruptedException(ex));
                     }
-                    showProgress(state, inputTaskCount);
+                    showProgress(state, outputTaskCount);
                 }
             } finally {
                 for (Future<Throwable> future : futures) {
@@ -166,67 +357,321 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         }
 
         protected abstract Future<Throwable> startInputTask(ProcessTask task, ProcessState state, int taskIndex);
+
+        /**
+         * Returns {@code true} if the input task is not started as all its output tasks are committed in the previous run.
+         */
+        protected abstract boolean isResumedInputTask(ProcessState state, int inputTaskIndex);
+
+        private int[] orderInputTasks(ProcessTask task, ProcessState state) {
+            final int[] order = new int[inputTaskCount];
+            for (int i = 0; i < inputTaskCount; i++) {
+                order[i] = i;
+            }
+            if (taskOrder != TaskOrder.LARGEST_FIRST || inputTaskCount <= 1) {
+                return order;
+            }
+
+            final InputPlugin inputPlugin = ExecInternal.newPlugin(InputPlugin.class, task.getInputPluginType());
+            if (!(inputPlugin instanceof EstimatableInputPlugin)) {
+                logger.warn("Input tasks start in order of indexes as the input plugin does not estimate their sizes.");
+                return order;
+            }
+            final long[] sizes = new long[inputTaskCount];
+            int estimated = 0;
+            for (int i = 0; i < inputTaskCount; i++) {
+                if (isResumedInputTask(state, i)) {
+                    sizes[i] = -1;  // resumed
+                    continue;
+                }
+                sizes[i] = ((EstimatableInputPlugin) inputPlugin).estimateTaskSize(task.getInputTaskSource(), task.getInputSchema(), i);
+                if (sizes[i] >= 0) {
+                    estimated++;
+                }
+            }
+            final int[] sorted = sortBySizeDescending(sizes);
+            logger.info("Starting input tasks in order of estimated sizes: {} of {} tasks estimated", estimated, inputTaskCount);
+            if (logger.isDebugEnabled()) {
+                for (int i : sorted) {
+                    logger.debug("Input task {}: estimated size {}", i, sizes[i]);
+                }
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Returns indexes of {@code sizes} from the largest. Negative sizes, which are unknown, follow in order of indexes.
+     */
+    static int[] sortBySizeDescending(final long[] sizes) {
+        final Integer[] boxed = new Integer[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> {  // Arrays.sort of objects is stable.
+            final boolean knownA = sizes[a] >= 0;
+            final boolean knownB = sizes[b] >= 0;
+            if (knownA != knownB) {
+                return knownA ? -1 : 1;
+            }
+            return knownA ? Long.compare(sizes[b], sizes[a]) : 0;
+        });
+        final int[] order = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
     }
 
     public static class DirectExecutor extends AbstractLocalExecutor {
         protected final ExecutorService executor;
+        private final AdaptiveConcurrencyController controller;
+        private final ConcurrentHashMap<Integer, TaskAttempts> runningTasks = new ConcurrentHashMap<>();
+        private final List<Long> finishedNanos = new ArrayList<>();
+        private int retryLimit;
+        private long retryWaitMillis;
+        private long retryMaxWaitMillis;
+        private double speculativeSlowness;
+        private ScheduledExecutorService scheduler;
 
         public DirectExecutor(int maxThreads, int taskCount) {
             super(taskCount, taskCount);
             this.executor = Executors.newFixedThreadPool(maxThreads, new ExecutorThreadFactory("embulk-executor-%d"));
+            this.controller = null;
+        }
+
+        /**
+         * Runs tasks on {@code executor}, such as of {@link SharedExecutorPool}, which is shut down by {@link #close()}.
+         */
+        DirectExecutor(int taskCount, ExecutorService executor) {
+            super(taskCount, taskCount);
+            this.executor = executor;
+            this.controller = null;
+        }
+
+        /**
+         * Runs tasks as many as {@code controller} allows at a time, on threads up to its max limit.
+         */
+        DirectExecutor(int taskCount, AdaptiveConcurrencyController controller) {
+            super(taskCount, taskCount);
+            this.executor = Executors.newFixedThreadPool(Math.max(Math.min(controller.getMaxLimit(), taskCount), 1),
+                                                          new ExecutorThreadFactory("embulk-executor-%d"));
+            this.controller = controller;
+            controller.start();
         }
 
         @Override
         public void close() {
             executor.shutdown();
+            if (controller != null) {
+                controller.close();
+            }
+        }
+
+        void setRetry(int retryLimit, long retryWaitMillis, long retryMaxWaitMillis) {
+            this.retryLimit = retryLimit;
+            this.retryWaitMillis = retryWaitMillis;
+            this.retryMaxWaitMillis = retryMaxWaitMillis;
+        }
+
+        void setSpeculativeSlowness(double speculativeSlowness) {
+            this.speculativeSlowness = speculativeSlowness;
+        }
+
+        /**
+         * Runs tasks, with a scheduler which starts retries after their waits, and speculative attempts of stragglers.
+         */
+        @Override
+        public void execute(ProcessTask task, ProcessState state) {
+            boolean speculative = false;
+            if (speculativeSlowness > 0) {
+                if (ExecInternal.newPlugin(OutputPlugin.class, task.getOutputPluginType()) instanceof IdempotentOutputPlugin) {
+                    speculative = true;
+                } else {
+                    logger.warn("Tasks do not run speculatively as the output plugin is not idempotent.");
+                }
+            }
+            if (speculative || retryLimit > 0) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ExecutorThreadFactory("embulk-task-scheduler-%d"));
+                if (speculative) {
+                    scheduler.scheduleWithFixedDelay(() -> speculate(task, state),
+                            SPECULATION_INTERVAL_MILLIS, SPECULATION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+            try {
+                super.execute(task, state);
+            } finally {
+                if (scheduler != null) {
+                    scheduler.shutdownNow();
+                    scheduler = null;
+                }
+            }
+        }
+
+        @Override
+        protected boolean isResumedInputTask(final ProcessState state, final int inputTaskIndex) {
+            return state.getOutputTaskState(inputTaskIndex).isCommitted();
         }
 
         @Override
         protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
-            if (state.getOutputTaskState(taskIndex).isCommitted()) {
+            if (isResumedInputTask(state, taskIndex)) {
                 logger.warn("Skipped resumed task {}", taskIndex);
                 return null;  // resumed
             }
 
-            return executor.submit(new Callable<Throwable>() {
-                    public Throwable call() {
-                        try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
-                            ExecutorsInternal.process(ExecInternal.sessionInternal(), task, taskIndex, new ProcessStateCallback() {
-                                    public void started() {
-                                        state.getInputTaskState(taskIndex).start();
-                                        state.getOutputTaskState(taskIndex).start();
-                                    }
-
-                                    public void inputCommitted(TaskReport report) {
-                                        state.getInputTaskState(taskIndex).setTaskReport(report);
-                                    }
-
-                                    public void outputCommitted(TaskReport report) {
-                                        state.getOutputTaskState(taskIndex).setTaskReport(report);
-                                    }
-                                });
-                            return null;
-                        } finally {
-                            state.getInputTaskState(taskIndex).finish();
-                            state.getOutputTaskState(taskIndex).finish();
+            final TaskAttempts attempts = new TaskAttempts(taskIndex, retryLimit, retryWaitMillis, retryMaxWaitMillis, () -> {
+                state.getInputTaskState(taskIndex).finish();
+                state.getOutputTaskState(taskIndex).finish();
+            });
+            runningTasks.put(taskIndex, attempts);
+            attempts.getResult().whenComplete((failure, ex) -> {
+                runningTasks.remove(taskIndex);
+                if (failure == null && ex == null) {
+                    synchronized (finishedNanos) {
+                        finishedNanos.add(attempts.getElapsedNanos());
+                    }
+                }
+            });
+            startAttempt(task, state, taskIndex, attempts, false);
+            return attempts.getResult();
+        }
+
+        /**
+         * Runs an attempt of the task on the executor. A failed attempt releases its thread, and its permit of the
+         * controller, before its retry waits on the scheduler.
+         */
+        private void startAttempt(final ProcessTask task, final ProcessState state, final int taskIndex, final TaskAttempts attempts,
+                final boolean retry) {
+            attempts.register(executor.submit(() -> {
+                if (retry) {
+                    attempts.retryStarted();
+                } else {
+                    attempts.attemptStarted();
+                }
+                try {
+                    final long waitMillis;
+                    if (controller != null) {
+                        controller.acquire();
+                    }
+                    try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+                        waitMillis = runAttempt(task, state, taskIndex, attempts);
+                    } finally {
+                        if (controller != null) {
+                            controller.release();
                         }
                     }
-                });
+                    if (waitMillis >= 0) {
+                        attempts.register(scheduler.schedule(
+                                () -> startAttempt(task, state, taskIndex, attempts, true), waitMillis, TimeUnit.MILLISECONDS));
+                    }
+                } finally {
+                    attempts.attemptExited();
+                }
+                return null;
+            }));
+        }
+
+        /**
+         * Runs the task once.
+         *
+         * @return milliseconds to wait before retrying the task, or {@code -1} if it commits, or if it gives up retrying
+         */
+        private long runAttempt(final ProcessTask task, final ProcessState state, final int taskIndex, final TaskAttempts attempts) {
+            if (attempts.isDone()) {
+                return -1;
+            }
+            state.getInputTaskState(taskIndex).startAttempt();
+            state.getOutputTaskState(taskIndex).startAttempt();
+            final TaskReport[] inputTaskReport = new TaskReport[1];
+            try {
+                ExecutorsInternal.process(ExecInternal.sessionInternal(), task, taskIndex, new ProcessStateCallback() {
+                        public void started() {
+                            state.getInputTaskState(taskIndex).start();
+                            state.getOutputTaskState(taskIndex).start();
+                        }
+
+                        public void inputCommitted(TaskReport report) {
+                            // Reported with the output so that the report comes from the attempt which commits.
+                            inputTaskReport[0] = report;
+                        }
+
+                        public void outputCommitted(TaskReport report) {
+                            state.getInputTaskState(taskIndex).setTaskReport(inputTaskReport[0]);
+                            state.getOutputTaskState(taskIndex).setTaskReport(report);
+                        }
+
+                        public PageOutput wrapInput(PageOutput input) {
+                            return controller != null ? controller.counting(input) : input;
+                        }
+
+                        public TransactionalPageOutput wrapOutput(TransactionalPageOutput output) {
+                            return attempts.gate(output);
+                        }
+                    });
+                attempts.succeeded();
+                return -1;
+            } catch (RuntimeException ex) {
+                return attempts.retryAfter(ex);
+            } catch (Error ex) {
+                attempts.failed(ex);
+                throw ex;
+            }
+        }
+
+        /**
+         * Starts another attempt of each task running much longer than the median of finished tasks.
+         */
+        private void speculate(final ProcessTask task, final ProcessState state) {
+            final long medianNanos;
+            synchronized (finishedNanos) {
+                if (finishedNanos.isEmpty() || finishedNanos.size() * 2 < inputTaskCount) {
+                    return;  // Too early to tell stragglers.
+                }
+                final List<Long> sorted = new ArrayList<>(finishedNanos);
+                Collections.sort(sorted);
+                medianNanos = sorted.get(sorted.size() / 2);
+            }
+            final long thresholdNanos = Math.max((long) (medianNanos * speculativeSlowness),
+                                                 TimeUnit.MILLISECONDS.toNanos(SPECULATION_MIN_MILLIS));
+            for (final Map.Entry<Integer, TaskAttempts> running : runningTasks.entrySet()) {
+                if (running.getValue().speculate(thresholdNanos)) {
+                    logger.info("Starting a speculative attempt of task {} running for {} ms, while the median of finished tasks is {} ms",
+                                running.getKey(), TimeUnit.NANOSECONDS.toMillis(running.getValue().getElapsedNanos()),
+                                TimeUnit.NANOSECONDS.toMillis(medianNanos));
+                    startAttempt(task, state, running.getKey(), running.getValue(), false);
+                }
+            }
         }
     }
 
     public static class ScatterExecutor extends AbstractLocalExecutor {
         private final int scatterCount;
         private final int inputTaskCount;
+        private final int queuePages;
+        private final ScatterDispatch dispatch;
         private final ExecutorService inputExecutor;
         private final ExecutorService outputExecutor;
 
         public ScatterExecutor(int maxThreads, int inputTaskCount, int scatterCount) {
+            this(maxThreads, inputTaskCount, scatterCount, DEFAULT_SCATTER_QUEUE_PAGES, ScatterDispatch.ROUND_ROBIN);
+        }
+
+        public ScatterExecutor(int maxThreads, int inputTaskCount, int scatterCount, int queuePages, ScatterDispatch dispatch) {
+            this(Executors.newFixedThreadPool(Math.max(maxThreads / scatterCount, 1), new ExecutorThreadFactory("embulk-input-executor-%d")),
+                 inputTaskCount, scatterCount, queuePages, dispatch);
+        }
+
+        /**
+         * Runs input tasks on {@code inputExecutor}, such as of {@link SharedExecutorPool}, which is shut down by {@link #close()}.
+         */
+        ScatterExecutor(ExecutorService inputExecutor, int inputTaskCount, int scatterCount, int queuePages, ScatterDispatch dispatch) {
             super(inputTaskCount, inputTaskCount * scatterCount);
             this.inputTaskCount = inputTaskCount;
             this.scatterCount = scatterCount;
-            this.inputExecutor = Executors.newFixedThreadPool(
-                    Math.max(maxThreads / scatterCount, 1), new ExecutorThreadFactory("embulk-input-executor-%d"));
+            this.queuePages = queuePages;
+            this.dispatch = dispatch;
+            this.inputExecutor = inputExecutor;
             this.outputExecutor = Executors.newCachedThreadPool(new ExecutorThreadFactory("embulk-output-executor-%d"));
         }
 
@@ -236,9 +681,14 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             outputExecutor.shutdown();
         }
 
+        @Override
+        protected boolean isResumedInputTask(final ProcessState state, final int inputTaskIndex) {
+            return isAllScatterOutputFinished(state, inputTaskIndex);
+        }
+
         @Override
         protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
-            if (isAllScatterOutputFinished(state, taskIndex)) {
+            if (isResumedInputTask(state, taskIndex)) {
                 logger.warn("Skipped resumed input task {}", taskIndex);
                 return null;  // resumed
             }
@@ -268,13 +718,14 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             List<FilterPlugin> filterPlugins = FiltersInternal.newFilterPlugins(exec, task.getFilterPluginTypes());
             OutputPlugin outputPlugin = exec.newPlugin(OutputPlugin.class, task.getOutputPluginType());
 
-            try (ScatterTransactionalPageOutput tran = new ScatterTransactionalPageOutput(state, taskIndex, scatterCount)) {
-                tran.openOutputs(outputPlugin, task.getOutputSchema(), task.getOutputTaskSource());
+            final Optional<PageMemoryBudget> memoryBudget = exec.newTaskPageMemoryBudget();
+            try (ScatterTransactionalPageOutput tran = new ScatterTransactionalPageOutput(state, taskIndex, scatterCount, dispatch, memoryBudget)) {
+                tran.openOutputs(exec, outputPlugin, task.getOutputSchema(), task.getOutputTaskSource());
 
                 try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
                     tran.openFilters(filterPlugins, task.getFilterSchemas(), task.getFilterTaskSources());
 
-                    tran.startWorkers(outputExecutor);
+                    tran.startWorkers(outputExecutor, queuePages);
 
                     // started
                     state.getInputTaskState(taskIndex).start();
@@ -282,7 +733,8 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                         state.getOutputTaskState(taskIndex * scatterCount + i).start();
                     }
 
-                    TaskReport inputTaskReport = inputPlugin.run(task.getInputTaskSource(), task.getInputSchema(), taskIndex, tran);
+                    final PageOutput input = memoryBudget.isPresent() ? memoryBudget.get().accounting((PageOutput) tran) : tran;
+                    TaskReport inputTaskReport = inputPlugin.run(task.getInputTaskSource(), task.getInputSchema(), taskIndex, input);
 
                     // inputCommitted
                     if (inputTaskReport == null) {
@@ -301,51 +753,399 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         }
     }
 
-    private static class ScatterTransactionalPageOutput implements TransactionalPageOutput {
-        private static final Page DONE_PAGE = PageImpl.allocate(0);
+    /**
+     * Runs input tasks gathered into fewer output tasks. Input task {@code i} sends pages to output task
+     * {@code i % outputTaskCount} through a queue shared among input tasks of the output task.
+     *
+     * <p>An output task stays open while its input tasks run one by one, and commits after all of them commit.
+     * It aborts if any of them fails, and then all of them run again when resumed.
+     *
+     * <p>With {@code splitInputTasks}, input tasks of {@link SplittableInputPlugin} run on {@link InputSplitScheduler},
+     * which splits running tasks onto idle threads. All splits of an input task send pages to its output task.
+     */
+    public static class GatherExecutor extends AbstractLocalExecutor {
+        private final int maxThreads;
+        private final int queuePages;
+        private final boolean splitInputTasks;
+        private final ExecutorService inputExecutor;
+        private final ExecutorService outputExecutor;
 
-        private static class OutputWorker implements Callable<Throwable> {
-            private final PageOutput output;
-            private final Future<Throwable> future;
-            private volatile int addWaiting;
-            private volatile Page queued;
+        private GatherOutputTask[] outputTasks;
+        private InputSplitScheduler scheduler;
 
-            public OutputWorker(PageOutput output, ExecutorService executor) {
-                this.output = output;
-                this.addWaiting = 0;
-                this.future = executor.submit(this);
+        public GatherExecutor(int maxThreads, int inputTaskCount, int maxOutputTasks, int queuePages) {
+            this(maxThreads, inputTaskCount, maxOutputTasks, queuePages, false);
+        }
+
+        public GatherExecutor(int maxThreads, int inputTaskCount, int maxOutputTasks, int queuePages, boolean splitInputTasks) {
+            super(inputTaskCount, Math.min(inputTaskCount, maxOutputTasks));
+            this.maxThreads = maxThreads;
+            this.queuePages = queuePages;
+            this.splitInputTasks = splitInputTasks;
+            this.inputExecutor = Executors.newFixedThreadPool(maxThreads, new ExecutorThreadFactory("embulk-input-executor-%d"));
+            this.outputExecutor = Executors.newFixedThreadPool(outputTaskCount, new ExecutorThreadFactory("embulk-output-executor-%d"));
+        }
+
+        @Override
+        public void close() {
+            inputExecutor.shutdown();
+            outputExecutor.shutdown();
+        }
+
+        @Override
+        public void execute(ProcessTask task, ProcessState state) {
+            state.initialize(inputTaskCount, outputTaskCount);
+
+            final ExecSessionInternal exec = ExecInternal.sessionInternal();
+            outputTasks = new GatherOutputTask[outputTaskCount];
+            final List<Future<Throwable>> futures = new ArrayList<>(outputTaskCount);
+            for (int i = 0; i < outputTaskCount; i++) {
+                if (state.getOutputTaskState(i).isCommitted()) {
+                    futures.add(null);
+                    continue;
+                }
+                final int inputTaskCountOfOutput = (inputTaskCount - i + outputTaskCount - 1) / outputTaskCount;
+                final GatherOutputTask outputTask = new GatherOutputTask(i, inputTaskCountOfOutput, queuePages);
+                outputTasks[i] = outputTask;
+                futures.add(outputExecutor.submit(() -> {
+                    try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("output-%04d", outputTask.outputTaskIndex))) {
+                        outputTask.run(exec, task, state);
+                        return null;
+                    }
+                }));
             }
 
-            public synchronized void done() throws InterruptedException {
-                while (true) {
-                    if (queued == null && addWaiting == 0) {
-                        queued = DONE_PAGE;
-                        notifyAll();
-                        return;
-                    } else if (queued == DONE_PAGE) {
-                        return;
+            if (splitInputTasks) {
+                if (exec.newPlugin(InputPlugin.class, task.getInputPluginType()) instanceof SplittableInputPlugin) {
+                    scheduler = new InputSplitScheduler(inputExecutor, maxThreads);
+                } else {
+                    logger.warn("Input tasks are not split as the input plugin does not support splitting.");
+                }
+            }
+
+            try {
+                super.execute(task, state);
+            } finally {
+                if (scheduler != null) {
+                    scheduler.close();
+                }
+                for (int i = 0; i < outputTaskCount; i++) {
+                    if (futures.get(i) == null) {
+                        continue;
+                    }
+                    // Input tasks cancelled before starting never arrive at their output task.
+                    outputTasks[i].abandon();
+                    try {
+                        state.getOutputTaskState(i).setException(futures.get(i).get());
+                    } catch (ExecutionException ex) {
+                        state.getOutputTaskState(i).setException(ex.getCause());
+                    } catch (InterruptedException ex) {
+                        state.getOutputTaskState(i).setException(new ExecutionInterruptedException(ex));
                     }
-                    wait();
+                }
+            }
+        }
+
+        @Override
+        protected boolean isResumedInputTask(final ProcessState state, final int inputTaskIndex) {
+            return state.getOutputTaskState(inputTaskIndex % outputTaskCount).isCommitted();
+        }
+
+        @Override
+        protected Future<Throwable> startInputTask(final ProcessTask task, final ProcessState state, final int taskIndex) {
+            final GatherOutputTask outputTask = outputTasks[taskIndex % outputTaskCount];
+            if (outputTask == null) {
+                logger.warn("Skipped resumed input task {}", taskIndex);
+                return null;  // resumed
+            }
+
+            if (scheduler != null) {
+                return scheduler.submit(taskIndex, new SplitInputTask(ExecInternal.sessionInternal(), task, state, taskIndex, outputTask));
+            }
+
+            return inputExecutor.submit(new Callable<Throwable>() {
+                    public Throwable call() {
+                        try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+                            runInputTask(ExecInternal.sessionInternal(), task, state, taskIndex, outputTask);
+                            return null;
+                        }
+                    }
+                });
+        }
+
+        private void runInputTask(ExecSessionInternal exec, ProcessTask task, ProcessState state, int taskIndex, GatherOutputTask outputTask) {
+            boolean committed = false;
+            try {
+                InputPlugin inputPlugin = exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+
+                state.getInputTaskState(taskIndex).start();
+                TaskReport inputTaskReport = runIntoOutputTask(exec, task, outputTask,
+                        input -> inputPlugin.run(task.getInputTaskSource(), task.getInputSchema(), taskIndex, input));
+                state.getInputTaskState(taskIndex).setTaskReport(inputTaskReport);
+                committed = true;
+            } finally {
+                state.getInputTaskState(taskIndex).finish();
+                outputTask.inputFinished(committed);
+            }
+        }
+
+        private static TaskReport runIntoOutputTask(ExecSessionInternal exec, ProcessTask task, GatherOutputTask outputTask,
+                Function<PageOutput, TaskReport> inputTask) {
+            List<FilterPlugin> filterPlugins = FiltersInternal.newFilterPlugins(exec, task.getFilterPluginTypes());
+
+            final Optional<PageMemoryBudget> memoryBudget = exec.newTaskPageMemoryBudget();
+            try (CloseResource closer = new CloseResource()) {
+                FilterPipeline filtered = FilterPipeline.open(
+                        exec, filterPlugins, task.getFilterTaskSources(), task.getFilterSchemas(), outputTask.newInput());
+                closer.closeThis(filtered);
+
+                final PageOutput input = memoryBudget.isPresent() ? memoryBudget.get().accounting(filtered) : filtered;
+                TaskReport inputTaskReport;
+                try {
+                    inputTaskReport = inputTask.apply(input);
+                    filtered.awaitStages();
+                } finally {
+                    filtered.stopStages();
+                }
+
+                if (inputTaskReport == null) {
+                    inputTaskReport = exec.newTaskReport();
+                }
+                return filtered.addSummaryTo(inputTaskReport);
+            }
+        }
+
+        /**
+         * An input task run in splits, each of which has its own filters.
+         */
+        private static class SplitInputTask implements InputSplitScheduler.SplitTask {
+            private final ExecSessionInternal exec;
+            private final ProcessTask task;
+            private final ProcessState state;
+            private final int taskIndex;
+            private final GatherOutputTask outputTask;
+
+            private SplittableInputPlugin inputPlugin;
+
+            SplitInputTask(ExecSessionInternal exec, ProcessTask task, ProcessState state, int taskIndex, GatherOutputTask outputTask) {
+                this.exec = exec;
+                this.task = task;
+                this.state = state;
+                this.taskIndex = taskIndex;
+                this.outputTask = outputTask;
+            }
+
+            @Override
+            public InputSplit open() {
+                state.getInputTaskState(taskIndex).start();
+                inputPlugin = (SplittableInputPlugin) exec.newPlugin(InputPlugin.class, task.getInputPluginType());
+                return inputPlugin.openSplit(task.getInputTaskSource(), task.getInputSchema(), taskIndex);
+            }
+
+            @Override
+            public TaskReport run(InputSplit split) {
+                try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+                    return runIntoOutputTask(exec, task, outputTask, split::run);
                 }
             }
 
-            public synchronized void add(Page page) throws InterruptedException {
-                addWaiting++;
+            @Override
+            public void finish(List<TaskReport> reports, boolean committed) {
+                boolean merged = false;
                 try {
-                    while (true) {
-                        if (queued == null) {
-                            queued = page;
-                            notifyAll();
-                            return;
-                        } else if (queued == DONE_PAGE) {
-                            page.release();
-                            return;
+                    if (committed) {
+                        TaskReport inputTaskReport = inputPlugin.mergeSplitReports(task.getInputTaskSource(), taskIndex, reports);
+                        if (inputTaskReport == null) {
+                            inputTaskReport = exec.newTaskReport();
                         }
-                        wait();
+                        state.getInputTaskState(taskIndex).setTaskReport(inputTaskReport);
+                        merged = true;
                     }
                 } finally {
-                    addWaiting--;
+                    state.getInputTaskState(taskIndex).finish();
+                    outputTask.inputFinished(merged);
+                }
+            }
+        }
+    }
+
+    /**
+     * An output task of {@link GatherExecutor}, which adds pages from its input tasks into the output in its own thread.
+     */
+    private static class GatherOutputTask {
+        private static final Page DONE_PAGE = PageImpl.allocate(0);
+        private static final long POLL_MILLIS = 100;
+
+        private final int outputTaskIndex;
+        private final ArrayBlockingQueue<Page> queue;
+        private final AtomicInteger remainingInputTasks;
+        private volatile boolean inputFailed;
+        private volatile boolean abandoned;
+        private volatile boolean closed;
+
+        GatherOutputTask(int outputTaskIndex, int inputTaskCount, int queuePages) {
+            this.outputTaskIndex = outputTaskIndex;
+            this.queue = new ArrayBlockingQueue<>(queuePages);
+            this.remainingInputTasks = new AtomicInteger(inputTaskCount);
+        }
+
+        /**
+         * Returns an output for an input task. It does not finish nor close the output task.
+         */
+        PageOutput newInput() {
+            return new PageOutput() {
+                @Override
+                public void add(Page page) {
+                    try {
+                        // Waits with a timeout so that the input task does not block forever after the output task ends.
+                        while (!queue.offer(page, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                            if (closed) {
+                                page.release();
+                                return;
+                            }
+                        }
+                    } catch (InterruptedException ex) {
+                        page.release();
+                        throw new RuntimeException(ex);
+                    }
+                    if (closed) {
+                        releaseQueued();
+                    }
                 }
+
+                @Override
+                public void finish() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        void inputFinished(boolean committed) {
+            if (!committed) {
+                inputFailed = true;
+            }
+            if (remainingInputTasks.decrementAndGet() == 0) {
+                try {
+                    while (!closed && !queue.offer(DONE_PAGE, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        // Waits for the output task to take pages.
+                    }
+                } catch (InterruptedException ex) {
+                    abandon();
+                }
+            }
+        }
+
+        void abandon() {
+            abandoned = true;
+        }
+
+        void run(ExecSessionInternal exec, ProcessTask task, ProcessState state) throws InterruptedException {
+            state.getOutputTaskState(outputTaskIndex).start();
+            try {
+                OutputPlugin outputPlugin = exec.newPlugin(OutputPlugin.class, task.getOutputPluginType());
+                final Optional<PageMemoryBudget> memoryBudget = exec.newTaskPageMemoryBudget();
+                final TransactionalPageOutput tran = openOutput(
+                        exec, outputPlugin, task.getOutputSchema(), task.getOutputTaskSource(), outputTaskIndex, memoryBudget);
+
+                try (CloseResource closer = new CloseResource(tran)) {
+                    try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
+                        if (!addPages(tran)) {
+                            logger.warn("Output task {} is aborted as its input tasks did not complete.", outputTaskIndex);
+                            return;
+                        }
+                        tran.finish();
+                        TaskReport outputTaskReport = tran.commit();
+                        aborter.dontAbort();
+                        if (outputTaskReport == null) {
+                            outputTaskReport = exec.newTaskReport();
+                        }
+                        state.getOutputTaskState(outputTaskIndex).setTaskReport(outputTaskReport);
+                    }
+                }
+            } finally {
+                closed = true;
+                releaseQueued();
+                state.getOutputTaskState(outputTaskIndex).finish();
+            }
+        }
+
+        /**
+         * Adds pages until all input tasks finish, and returns whether all of them are committed.
+         */
+        private boolean addPages(TransactionalPageOutput tran) throws InterruptedException {
+            while (true) {
+                final Page page = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (page == DONE_PAGE) {
+                    return !inputFailed;
+                } else if (page != null) {
+                    tran.add(page);
+                } else if (abandoned) {
+                    return false;
+                }
+            }
+        }
+
+        private void releaseQueued() {
+            Page page;
+            while ((page = queue.poll()) != null) {
+                if (page != DONE_PAGE) {
+                    page.release();
+                }
+            }
+        }
+    }
+
+    private static TransactionalPageOutput openOutput(ExecSessionInternal exec, OutputPlugin outputPlugin, Schema outputSchema,
+            TaskSource outputTaskSource, int outputTaskIndex, Optional<PageMemoryBudget> memoryBudget) {
+        final TransactionalPageOutput opened = PageStatisticsCollector.wrapIfEnabled(
+                exec,
+                SpillingPageOutput.wrapIfEnabled(exec, outputPlugin.open(outputTaskSource, outputSchema, outputTaskIndex), outputSchema),
+                outputSchema);
+        return memoryBudget.isPresent() ? memoryBudget.get().accounting(opened) : opened;
+    }
+
+    private static class ScatterTransactionalPageOutput implements TransactionalPageOutput {
+        private static class OutputWorker implements Callable<Throwable> {
+            private final PageOutput output;
+            private final SpscPageQueue queue;
+            private final Future<Throwable> future;
+
+            // Updated only by the input thread.
+            private long pages;
+            private long depthSum;
+            private int maxDepth;
+
+            public OutputWorker(PageOutput output, ExecutorService executor, int queuePages) {
+                this.output = output;
+                this.queue = new SpscPageQueue(queuePages);
+                this.future = executor.submit(this);
+            }
+
+            public void done() {
+                queue.finish();
+            }
+
+            public int getQueuedPages() {
+                return queue.size();
+            }
+
+            public void add(Page page) throws InterruptedException {
+                final int depth = queue.size();
+                pages++;
+                depthSum += depth;
+                maxDepth = Math.max(maxDepth, depth);
+                queue.put(page);
+            }
+
+            public void logMetrics(int outputTaskIndex) {
+                logger.info("Output task {}: {} pages, average queue depth {} / max {} of {}, input waited {} ms, output waited {} ms",
+                            outputTaskIndex, pages, String.format("%.2f", pages == 0 ? 0.0 : (double) depthSum / pages),
+                            maxDepth, queue.getCapacity(),
+                            TimeUnit.NANOSECONDS.toMillis(queue.getProducerWaitNanos()),
+                            TimeUnit.NANOSECONDS.toMillis(queue.getConsumerWaitNanos()));
             }
 
             public Throwable join() throws InterruptedException {
@@ -357,29 +1157,15 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             }
 
             @Override
-            public synchronized Throwable call() throws InterruptedException {
+            public Throwable call() throws InterruptedException {
                 try {
-                    while (true) {
-                        if (queued != null) {
-                            if (queued == DONE_PAGE) {
-                                return null;
-                            }
-                            output.add(queued);
-                            queued = null;
-                            notifyAll();
-                        }
-                        wait();
+                    Page page;
+                    while ((page = queue.take()) != null) {
+                        output.add(page);
                     }
+                    return null;
                 } finally {
-                    try {
-                        if (queued != null && queued != DONE_PAGE) {
-                            queued.release();
-                            queued = null;
-                        }
-                    } finally {
-                        queued = DONE_PAGE;
-                    }
-                    notifyAll();
+                    queue.close();
                 }
             }
         }
@@ -387,19 +1173,23 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         private final ProcessState state;
         private final int taskIndex;
         private final int scatterCount;
+        private ScatterDispatch dispatch;
 
         private final TransactionalPageOutput[] trans;
         private final PageOutput[] filtereds;
         private final CloseResource[] closeThese;
 
         private final OutputWorker[] outputWorkers;
+        private final Optional<PageMemoryBudget> memoryBudget;
 
         private long pageCount;
 
-        public ScatterTransactionalPageOutput(ProcessState state, int taskIndex, int scatterCount) {
+        public ScatterTransactionalPageOutput(
+                ProcessState state, int taskIndex, int scatterCount, ScatterDispatch dispatch, Optional<PageMemoryBudget> memoryBudget) {
             this.state = state;
             this.taskIndex = taskIndex;
             this.scatterCount = scatterCount;
+            this.dispatch = dispatch;
 
             this.trans = new TransactionalPageOutput[scatterCount];
             this.filtereds = new PageOutput[scatterCount];
@@ -408,13 +1198,14 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                 closeThese[i] = new CloseResource();
             }
             this.outputWorkers = new OutputWorker[scatterCount];
+            this.memoryBudget = memoryBudget;
         }
 
-        public void openOutputs(OutputPlugin outputPlugin, Schema outputSchema, TaskSource outputTaskSource) {
+        public void openOutputs(ExecSessionInternal exec, OutputPlugin outputPlugin, Schema outputSchema, TaskSource outputTaskSource) {
             for (int i = 0; i < scatterCount; i++) {
                 int outputTaskIndex = taskIndex * scatterCount + i;
                 if (!state.getOutputTaskState(outputTaskIndex).isCommitted()) {
-                    final TransactionalPageOutput tran = outputPlugin.open(outputTaskSource, outputSchema, outputTaskIndex);
+                    final TransactionalPageOutput tran = openOutput(exec, outputPlugin, outputSchema, outputTaskSource, outputTaskIndex, memoryBudget);
                     trans[i] = tran;
                     closeThese[i].closeThis(tran);
                 }
@@ -432,27 +1223,63 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             }
         }
 
-        public void startWorkers(ExecutorService outputExecutor) {
+        public void startWorkers(ExecutorService outputExecutor, int queuePages) {
+            int started = 0;
             for (int i = 0; i < scatterCount; i++) {
                 PageOutput filtered = filtereds[i];
                 if (filtered != null) {
-                    outputWorkers[i] = new OutputWorker(filtered, outputExecutor);
+                    outputWorkers[i] = new OutputWorker(filtered, outputExecutor, queuePages);
+                    started++;
                 }
             }
+            if (dispatch == ScatterDispatch.LEAST_LOADED && started < scatterCount) {
+                // Least-loaded dispatch does not keep which pages went to the committed output tasks. Round-robin dispatch
+                // sends the same pages to the same output tasks as the previous run, and drops pages of the committed ones.
+                logger.info("Output tasks of input task {} are partially committed. "
+                            + "Pages are dispatched in round robin instead of \"scatter_dispatch: least_loaded\".", taskIndex);
+                dispatch = ScatterDispatch.ROUND_ROBIN;
+            }
         }
 
         public void add(Page page) {
-            OutputWorker worker = outputWorkers[(int) (pageCount % scatterCount)];
+            final OutputWorker worker;
+            if (dispatch == ScatterDispatch.LEAST_LOADED) {
+                worker = getLeastLoadedWorker();
+            } else {
+                worker = outputWorkers[(int) (pageCount % scatterCount)];
+            }
             if (worker != null) {
                 try {
                     worker.add(page);
                 } catch (InterruptedException ex) {
                     throw new RuntimeException(ex);
                 }
+            } else {
+                page.release();  // The output task is committed.
             }
             pageCount++;
         }
 
+        private OutputWorker getLeastLoadedWorker() {
+            // Starts from the next worker in turn so that idle workers share pages evenly.
+            OutputWorker leastLoaded = null;
+            int leastQueued = Integer.MAX_VALUE;
+            for (int i = 0; i < scatterCount; i++) {
+                final OutputWorker worker = outputWorkers[(int) ((pageCount + i) % scatterCount)];
+                if (worker != null) {
+                    final int queued = worker.getQueuedPages();
+                    if (queued == 0) {
+                        return worker;
+                    }
+                    if (queued < leastQueued) {
+                        leastQueued = queued;
+                        leastLoaded = worker;
+                    }
+                }
+            }
+            return leastLoaded;
+        }
+
         public void finish() {
             completeWorkers();
             for (int i = 0; i < scatterCount; i++) {
@@ -498,11 +1325,7 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
             for (int i = 0; i < scatterCount; i++) {
                 OutputWorker worker = outputWorkers[i];
                 if (worker != null) {
-                    try {
-                        worker.done();
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
-                    }
+                    worker.done();
                     Throwable error = null;
                     try {
                         error = worker.join();
@@ -510,6 +1333,7 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
                         error = ex;
                     }
                     outputWorkers[i] = null;
+                    worker.logMetrics(taskIndex * scatterCount + i);
                     if (error != null) {
                         if (error instanceof RuntimeException) {
                             throw (RuntimeException) error;
@@ -524,5 +1348,15 @@ public class LocalExecutorPlugin implements ExecutorPlugin {
         }
     }
 
+    private static final int DEFAULT_SCATTER_QUEUE_PAGES = 4;
+    private static final int DEFAULT_GATHER_QUEUE_PAGES = 16;
+    private static final long DEFAULT_AUTO_THREADS_INTERVAL_MILLIS = 5000;
+    private static final long DEFAULT_TASK_RETRY_WAIT_MILLIS = 1000;
+    private static final long DEFAULT_TASK_RETRY_MAX_WAIT_MILLIS = 60000;
+    private static final double DEFAULT_SPECULATIVE_SLOWNESS = 3.0;
+    private static final long SPECULATION_INTERVAL_MILLIS = 1000;
+    // Tasks shorter than it do not run speculatively, as a duplicate attempt would not finish much earlier.
+    private static final long SPECULATION_MIN_MILLIS = 10000;
+
     private static final Logger logger = LoggerFactory.getLogger(LocalExecutorPlugin.class);
 }
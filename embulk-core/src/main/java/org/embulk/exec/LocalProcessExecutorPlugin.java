@@ -0,0 +1,229 @@
+package org.embulk.exec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.EmbulkSystemProperties;
+import org.embulk.config.ConfigException;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.ExecutorPlugin;
+import org.embulk.spi.ProcessState;
+import org.embulk.spi.ProcessTask;
+import org.embulk.spi.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks in worker JVMs forked on the local machine, for plugins which do not scale across threads in a JVM.
+ *
+ * <p>It starts {@code max_processes} workers of {@link LocalProcessWorker} with the classpath of this JVM, and each
+ * worker runs tasks one by one as {@link LocalExecutorPlugin} does with {@code DirectExecutor}. Tasks go to workers
+ * through their stdin, and task reports and exceptions come back through their stdout. A worker is reused for tasks
+ * until it fails. Plugins registered by {@code EmbulkEmbed.Bootstrap} are registered in workers by their class names.
+ */
+public class LocalProcessExecutorPlugin implements ExecutorPlugin {
+    private final EmbulkSystemProperties embulkSystemProperties;
+    private final int defaultMaxProcesses;
+
+    public LocalProcessExecutorPlugin(final EmbulkSystemProperties embulkSystemProperties) {
+        this.embulkSystemProperties = embulkSystemProperties;
+        this.defaultMaxProcesses = embulkSystemProperties.getPropertyAsInteger(
+                "max_processes", Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public void transaction(ConfigSource config, Schema outputSchema, int inputTaskCount,
+            ExecutorPlugin.Control control) {
+        int maxProcesses = config.get(Integer.class, "max_processes", defaultMaxProcesses);
+        if (maxProcesses <= 0) {
+            throw new ConfigException("\"max_processes\" must be positive: " + maxProcesses);
+        }
+        @SuppressWarnings("unchecked")
+        List<String> jvmOptions = config.get(List.class, "jvm_options", new ArrayList<String>());
+        int processes = Math.max(Math.min(maxProcesses, inputTaskCount), 1);
+        logger.info("Using local process executor with max_processes={} / tasks={}", processes, inputTaskCount);
+        control.transaction(outputSchema, inputTaskCount, new ProcessExecutor(inputTaskCount, processes, jvmOptions));
+    }
+
+    private class ProcessExecutor implements ExecutorPlugin.Executor {
+        private final int taskCount;
+        private final int processes;
+        private final List<String> jvmOptions;
+
+        ProcessExecutor(int taskCount, int processes, List<String> jvmOptions) {
+            this.taskCount = taskCount;
+            this.processes = processes;
+            this.jvmOptions = jvmOptions;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+        public void execute(ProcessTask task, ProcessState state) {
+            state.initialize(taskCount, taskCount);
+
+            final ExecSessionInternal exec = ExecInternal.sessionInternal();
+            final String execConfig = exec.getModelManager().writeObject(exec.getSessionExecConfig());
+
+            final AtomicInteger nextTaskIndex = new AtomicInteger();
+            final ExecutorService executor = Executors.newFixedThreadPool(processes);
+            try {
+                final List<Future<Void>> futures = new ArrayList<>();
+                for (int i = 0; i < processes; i++) {
+                    final int workerIndex = i;
+                    futures.add(executor.submit(() -> {
+                        runWorker(exec, execConfig, task, state, nextTaskIndex, workerIndex);
+                        return null;
+                    }));
+                }
+                for (final Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ex) {
+                        logger.error("Local process worker failed.", ex.getCause());
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new ExecutionInterruptedException(ex);
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Runs tasks in a worker process, and starts another process when the process fails.
+         */
+        @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+        private void runWorker(ExecSessionInternal exec, String execConfig, ProcessTask task, ProcessState state,
+                AtomicInteger nextTaskIndex, int workerIndex) throws IOException, InterruptedException {
+            WorkerProcess worker = null;
+            try {
+                int taskIndex;
+                while ((taskIndex = nextTaskIndex.getAndIncrement()) < taskCount) {
+                    if (state.getOutputTaskState(taskIndex).isCommitted()) {
+                        logger.warn("Skipped resumed task {}", taskIndex);
+                        continue;
+                    }
+                    if (worker == null) {
+                        try {
+                            worker = new WorkerProcess(exec, execConfig, workerIndex);
+                        } catch (IOException | RuntimeException ex) {
+                            state.getInputTaskState(taskIndex).setException(ex);
+                            throw ex;
+                        }
+                    }
+                    if (!worker.runTask(exec, task, state, taskIndex)) {
+                        worker.close();
+                        worker = null;
+                    }
+                }
+            } finally {
+                if (worker != null) {
+                    worker.close();
+                }
+            }
+        }
+
+        private class WorkerProcess implements AutoCloseable {
+            private final Process process;
+            private final DataOutputStream out;
+            private final DataInputStream in;
+
+            @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+            WorkerProcess(ExecSessionInternal exec, String execConfig, int workerIndex) throws IOException {
+                final List<String> command = new ArrayList<>();
+                command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+                command.addAll(jvmOptions);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(LocalProcessWorker.class.getName());
+                this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                this.out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+                this.in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+                logger.info("Started local process worker {}", workerIndex);
+
+                LocalProcessProtocol.writeMessage(this.out, exec.getModelManager().writeObject(
+                        LocalProcessProtocol.newInitMessage(
+                                exec.getModelManager(), embulkSystemProperties, execConfig, exec.getBuiltinPluginClassNames())));
+            }
+
+            /**
+             * Runs a task, and returns {@code false} if the process fails so that it is not reused.
+             */
+            @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+            boolean runTask(ExecSessionInternal exec, ProcessTask task, ProcessState state, int taskIndex) {
+                final org.embulk.config.ModelManager modelManager = exec.getModelManager();
+                try {
+                    LocalProcessProtocol.writeMessage(this.out, modelManager.writeObject(
+                            LocalProcessProtocol.newTaskMessage(modelManager, task, taskIndex)));
+                    while (true) {
+                        final String json = LocalProcessProtocol.readMessage(this.in);
+                        if (json == null) {
+                            throw new IOException("Local process worker exited while running task " + taskIndex);
+                        }
+                        final TaskSource message = modelManager.readObject(TaskSource.class, json);
+                        final String type = message.get(String.class, "type");
+                        if ("started".equals(type)) {
+                            state.getInputTaskState(taskIndex).start();
+                            state.getOutputTaskState(taskIndex).start();
+                        } else if ("input_committed".equals(type)) {
+                            state.getInputTaskState(taskIndex).setTaskReport(
+                                    modelManager.readObject(TaskReport.class, message.get(String.class, "report")));
+                        } else if ("output_committed".equals(type)) {
+                            state.getOutputTaskState(taskIndex).setTaskReport(
+                                    modelManager.readObject(TaskReport.class, message.get(String.class, "report")));
+                        } else if ("finished".equals(type)) {
+                            final String error = message.get(String.class, "error", null);
+                            if (error != null) {
+                                state.getInputTaskState(taskIndex).setException(new LocalProcessProtocol.RemoteTaskException(error));
+                            }
+                            return true;
+                        }
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    state.getInputTaskState(taskIndex).setException(ex);
+                    return false;
+                } finally {
+                    state.getInputTaskState(taskIndex).finish();
+                    state.getOutputTaskState(taskIndex).finish();
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    this.out.close();  // Tells the worker to exit.
+                } catch (IOException ex) {
+                    logger.debug("Failed to close stdin of a local process worker.", ex);
+                }
+                try {
+                    if (!this.process.waitFor(WORKER_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        this.process.destroyForcibly();
+                    }
+                } catch (InterruptedException ex) {
+                    this.process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static final long WORKER_EXIT_TIMEOUT_SECONDS = 60;
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalProcessExecutorPlugin.class);
+}
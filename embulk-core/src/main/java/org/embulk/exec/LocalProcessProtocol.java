@@ -0,0 +1,163 @@
+package org.embulk.exec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.embulk.config.TaskSource;
+import org.embulk.plugin.PluginType;
+import org.embulk.spi.ProcessTask;
+import org.embulk.spi.Schema;
+
+/**
+ * Messages between {@link LocalProcessExecutorPlugin} and {@link LocalProcessWorker} through stdin and stdout of the worker.
+ *
+ * <p>A message is a JSON object of {@link TaskSource} written by {@code ModelManager}, framed by its length in bytes.
+ * The executor sends an {@code "init"} message first, and then a {@code "task"} message for each task. The worker
+ * sends {@code "started"}, {@code "input_committed"}, {@code "output_committed"}, and {@code "finished"} messages
+ * back for each task. Closing stdin of the worker tells it to exit.
+ */
+final class LocalProcessProtocol {
+    private LocalProcessProtocol() {
+        // No instantiation.
+    }
+
+    static void writeMessage(final DataOutputStream out, final String json) throws IOException {
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Reads a message, or returns {@code null} if the stream ends at a boundary of messages.
+     */
+    static String readMessage(final DataInputStream in) throws IOException {
+        final int length;
+        try {
+            length = in.readInt();
+        } catch (final EOFException ex) {
+            return null;
+        }
+        if (length < 0 || length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Invalid message length from a local process: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    static TaskSource newInitMessage(final org.embulk.config.ModelManager modelManager, final Properties systemProperties,
+            final String execConfigJson, final Map<String, Map<String, String>> builtinPluginClassNames) {
+        final TaskSource message = modelManager.newTaskSource();
+        message.set("type", "init");
+        final TaskSource properties = modelManager.newTaskSource();
+        for (final String name : systemProperties.stringPropertyNames()) {
+            properties.set(name, systemProperties.getProperty(name));
+        }
+        message.set("system_properties", properties);
+        message.set("exec_config", execConfigJson);
+        message.set("builtin_plugins", builtinPluginClassNames);
+        return message;
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    static Properties getSystemProperties(final TaskSource initMessage) {
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, Object> entry : toMap(initMessage.get(Map.class, "system_properties")).entrySet()) {
+            properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        return properties;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<String, String>> getBuiltinPluginClassNames(final TaskSource initMessage) {
+        return (Map<String, Map<String, String>>) initMessage.get(Map.class, "builtin_plugins");
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    static TaskSource newTaskMessage(final org.embulk.config.ModelManager modelManager, final ProcessTask task, final int taskIndex) {
+        final TaskSource message = modelManager.newTaskSource();
+        message.set("type", "task");
+        message.set("task_index", taskIndex);
+        message.set("input_plugin_type", modelManager.writeObject(task.getInputPluginType()));
+        message.set("output_plugin_type", modelManager.writeObject(task.getOutputPluginType()));
+        message.set("filter_plugin_types", writeEach(modelManager, task.getFilterPluginTypes()));
+        message.set("input_task_source", modelManager.writeObject(task.getInputTaskSource()));
+        message.set("output_task_source", modelManager.writeObject(task.getOutputTaskSource()));
+        message.set("filter_task_sources", writeEach(modelManager, task.getFilterTaskSources()));
+        message.set("schemas", writeEach(modelManager, task.getFilterSchemas()));
+        message.set("executor_schema", modelManager.writeObject(task.getExecutorSchema()));
+        return message;
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    static ProcessTask getProcessTask(final org.embulk.config.ModelManager modelManager, final TaskSource taskMessage) {
+        return new ProcessTask(
+                modelManager.readObject(PluginType.class, taskMessage.get(String.class, "input_plugin_type")),
+                modelManager.readObject(PluginType.class, taskMessage.get(String.class, "output_plugin_type")),
+                readEach(modelManager, PluginType.class, taskMessage.get(List.class, "filter_plugin_types")),
+                modelManager.readObject(TaskSource.class, taskMessage.get(String.class, "input_task_source")),
+                modelManager.readObject(TaskSource.class, taskMessage.get(String.class, "output_task_source")),
+                readEach(modelManager, TaskSource.class, taskMessage.get(List.class, "filter_task_sources")),
+                readEach(modelManager, Schema.class, taskMessage.get(List.class, "schemas")),
+                modelManager.readObject(Schema.class, taskMessage.get(String.class, "executor_schema")),
+                null);
+    }
+
+    /**
+     * Describes {@code error} with its stack trace, as exception classes of plugins may not be loaded in the executor.
+     */
+    static String describeError(final Throwable error) {
+        final StringWriter writer = new StringWriter();
+        try (final PrintWriter printer = new PrintWriter(writer)) {
+            error.printStackTrace(printer);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * An exception thrown in a local process, with its stack trace in the message.
+     */
+    static final class RemoteTaskException extends RuntimeException {
+        RemoteTaskException(final String description) {
+            super("Task failed in a local process:\n" + description);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    private static List<String> writeEach(final org.embulk.config.ModelManager modelManager, final List<?> objects) {
+        final ArrayList<String> jsons = new ArrayList<>();
+        for (final Object object : objects) {
+            jsons.add(modelManager.writeObject(object));
+        }
+        return jsons;
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    private static <T> List<T> readEach(final org.embulk.config.ModelManager modelManager, final Class<T> type, final List<?> jsons) {
+        final ArrayList<T> objects = new ArrayList<>();
+        for (final Object json : jsons) {
+            objects.add(modelManager.readObject(type, (String) json));
+        }
+        return objects;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toMap(final Map<?, ?> map) {
+        return (Map<String, Object>) map;
+    }
+
+    // Messages are small as they carry task sources and task reports, not pages.
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024 * 1024;
+}
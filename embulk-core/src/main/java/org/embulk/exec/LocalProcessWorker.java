@@ -0,0 +1,143 @@
+package org.embulk.exec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import org.embulk.EmbulkSystemProperties;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.ProcessTask;
+import org.embulk.spi.util.ExecutorsInternal;
+import org.embulk.spi.util.ExecutorsInternal.ProcessStateCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The main class of a worker process forked by {@link LocalProcessExecutorPlugin}.
+ *
+ * <p>It runs tasks one by one in a session built from the system properties, the exec config, and the builtin plugins of the executor,
+ * and reports them through stdout. Anything else written into stdout, such as by plugins, goes to stderr instead.
+ */
+public final class LocalProcessWorker {
+    private LocalProcessWorker(final DataInputStream in, final DataOutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        new LocalProcessWorker(in, out).run();
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    private void run() throws Exception {
+        final org.embulk.config.ModelManager modelManager = new org.embulk.config.ModelManager();
+
+        final String init = LocalProcessProtocol.readMessage(this.in);
+        if (init == null) {
+            return;
+        }
+        final TaskSource initMessage = modelManager.readObject(TaskSource.class, init);
+        final EmbulkSystemProperties embulkSystemProperties = EmbulkSystemProperties.of(LocalProcessProtocol.getSystemProperties(initMessage));
+        final BufferAllocator bufferAllocator = BoundedBufferAllocator.fromSystemProperties(embulkSystemProperties);
+        final ExecSessionInternal exec = ExecSessionInternal.builderInternal(bufferAllocator, new SimpleTempFileSpaceAllocator())
+                .setModelManager(modelManager)
+                .setEmbulkSystemProperties(embulkSystemProperties)
+                .registerBuiltinPluginClassNames(LocalProcessProtocol.getBuiltinPluginClassNames(initMessage))
+                .setGuessExecutor(new GuessExecutor(embulkSystemProperties))
+                .fromExecConfig(modelManager.readObject(ConfigSource.class, initMessage.get(String.class, "exec_config")))
+                .build();
+
+        try {
+            String task;
+            while ((task = LocalProcessProtocol.readMessage(this.in)) != null) {
+                final TaskSource taskMessage = modelManager.readObject(TaskSource.class, task);
+                final int taskIndex = taskMessage.get(Integer.class, "task_index");
+                final ProcessTask processTask = LocalProcessProtocol.getProcessTask(modelManager, taskMessage);
+                this.runTask(exec, modelManager, processTask, taskIndex);
+            }
+        } finally {
+            exec.cleanup();
+            final BufferAllocator pooled = bufferAllocator instanceof BoundedBufferAllocator
+                    ? ((BoundedBufferAllocator) bufferAllocator).getDelegate() : bufferAllocator;
+            if (pooled instanceof PooledBufferAllocator) {
+                ((PooledBufferAllocator) pooled).reportLeaks();
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    private void runTask(final ExecSessionInternal exec, final org.embulk.config.ModelManager modelManager,
+            final ProcessTask task, final int taskIndex) throws IOException {
+        Throwable error = null;
+        try (SetCurrentThreadName dontCare = new SetCurrentThreadName(String.format("task-%04d", taskIndex))) {
+            ExecInternal.doWith(exec, () -> {
+                ExecutorsInternal.process(exec, task, taskIndex, new ProcessStateCallback() {
+                        public void started() {
+                            send(modelManager, "started", taskIndex, null);
+                        }
+
+                        public void inputCommitted(TaskReport report) {
+                            send(modelManager, "input_committed", taskIndex, modelManager.writeObject(report));
+                        }
+
+                        public void outputCommitted(TaskReport report) {
+                            send(modelManager, "output_committed", taskIndex, modelManager.writeObject(report));
+                        }
+                    });
+                return null;
+            });
+        } catch (final ExecutionException ex) {
+            error = ex.getCause() != null ? ex.getCause() : ex;
+        } catch (final RuntimeException | Error ex) {
+            error = ex;
+        }
+        if (error != null) {
+            logger.error("Task {} failed in a local process.", taskIndex, error);
+        }
+
+        final TaskSource finished = modelManager.newTaskSource();
+        finished.set("type", "finished");
+        finished.set("task_index", taskIndex);
+        if (error != null) {
+            finished.set("error", LocalProcessProtocol.describeError(error));
+        }
+        synchronized (this.out) {
+            LocalProcessProtocol.writeMessage(this.out, modelManager.writeObject(finished));
+        }
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    private void send(final org.embulk.config.ModelManager modelManager, final String type, final int taskIndex, final String report) {
+        final TaskSource message = modelManager.newTaskSource();
+        message.set("type", type);
+        message.set("task_index", taskIndex);
+        if (report != null) {
+            message.set("report", report);
+        }
+        try {
+            synchronized (this.out) {
+                LocalProcessProtocol.writeMessage(this.out, modelManager.writeObject(message));
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalProcessWorker.class);
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+}
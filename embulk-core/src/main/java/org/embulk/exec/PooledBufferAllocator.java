@@ -3,13 +3,33 @@ package org.embulk.exec;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import org.embulk.EmbulkDependencyClassLoader;
+import org.embulk.EmbulkSystemProperties;
 import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.ExecSessionInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class PooledBufferAllocator implements BufferAllocator {
     public static PooledBufferAllocator create(final int pageSize) {
+        return create(pageSize, false);
+    }
+
+    /**
+     * Creates an allocator which pools buffers on Java heap, or out of Java heap if {@code direct} is {@code true}.
+     *
+     * <p>Buffers out of Java heap are {@link org.embulk.spi.DirectBufferImpl}, which are not backed by arrays.
+     */
+    public static PooledBufferAllocator create(final int pageSize, final boolean direct) {
+        return create(pageSize, direct, new BufferLeakDetector(BufferLeakDetector.Level.SAMPLED));
+    }
+
+    /**
+     * Creates an allocator whose buffers are tracked by {@code leakDetector}.
+     */
+    public static PooledBufferAllocator create(final int pageSize, final boolean direct, final BufferLeakDetector leakDetector) {
         try {
-            return CONSTRUCTOR.newInstance(pageSize);
+            return CONSTRUCTOR.newInstance(pageSize, direct, leakDetector);
         } catch (final IllegalAccessException | IllegalArgumentException | InstantiationException ex) {
             throw new LinkageError("Dependencies for Buffer are not loaded correctly: " + CLASS_NAME, ex);
         } catch (final InvocationTargetException ex) {
@@ -28,12 +48,74 @@ public abstract class PooledBufferAllocator implements BufferAllocator {
         return create(DEFAULT_PAGE_SIZE);
     }
 
+    /**
+     * Creates an allocator configured by {@code "page_size"}, {@code "page_buffer_memory"}, and {@code "buffer_leak_detection"}.
+     *
+     * <p>It is shared by {@code EmbulkEmbed} and {@link LocalProcessWorker} so that workers allocate buffers as their parent does.
+     */
+    public static PooledBufferAllocator fromSystemProperties(final EmbulkSystemProperties embulkSystemProperties) {
+        final boolean direct = isDirectBufferMemory(embulkSystemProperties);
+        final BufferLeakDetector leakDetector =
+                new BufferLeakDetector(BufferLeakDetector.parseLevel(embulkSystemProperties.getProperty("buffer_leak_detection")));
+        final int pageSize = (int) embulkSystemProperties.getPropertyAsByteSize("page_size", DEFAULT_PAGE_SIZE);
+        return create(pageSize, direct, leakDetector);
+    }
+
     @Override
     public abstract Buffer allocate();
 
     @Override
     public abstract Buffer allocate(final int minimumCapacity);
 
+    /**
+     * Returns the number of bytes of Java heap used by the pool, or {@code -1} if unknown.
+     */
+    public long getUsedHeapMemory() {
+        return -1L;
+    }
+
+    /**
+     * Returns the number of bytes of memory out of Java heap used by the pool, or {@code -1} if unknown.
+     */
+    public long getUsedDirectMemory() {
+        return -1L;
+    }
+
+    /**
+     * Returns the ratio of allocations served from pooled memory, not allocated apart from the pool, or {@code -1} if unknown.
+     */
+    public double getPoolHitRatio() {
+        return -1.0;
+    }
+
+    /**
+     * Logs buffers tracked by the leak detector which have not been released, and returns the number of them.
+     */
+    public int reportLeaks() {
+        return 0;
+    }
+
+    /**
+     * Logs buffers allocated in {@code session} which have not been released, and returns the number of them.
+     *
+     * <p>Unlike {@link #reportLeaks()}, it does not report buffers of other sessions sharing the pool.
+     */
+    public int reportLeaks(final ExecSessionInternal session) {
+        return 0;
+    }
+
+    // Buffers are out of Java heap only with "page_buffer_memory: direct", as plugins calling Buffer#array() fail with them.
+    private static boolean isDirectBufferMemory(final EmbulkSystemProperties embulkSystemProperties) {
+        final String memory = embulkSystemProperties.getProperty("page_buffer_memory", "heap");
+        if ("direct".equals(memory)) {
+            return true;
+        }
+        if (!"heap".equals(memory)) {
+            logger.warn("\"page_buffer_memory\" is in an invalid value: '" + memory + "'. Buffers are allocated on Java heap.");
+        }
+        return false;
+    }
+
     @SuppressWarnings("unchecked")
     private static Class<PooledBufferAllocator> loadImplClass() {
         try {
@@ -43,7 +125,9 @@ public abstract class PooledBufferAllocator implements BufferAllocator {
         }
     }
 
-    private static final int DEFAULT_PAGE_SIZE = 32 * 1024;
+    public static final int DEFAULT_PAGE_SIZE = 32 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledBufferAllocator.class);
 
     private static final ClassLoader CLASS_LOADER = EmbulkDependencyClassLoader.get();
     private static final String CLASS_NAME = "org.embulk.deps.buffer.PooledBufferAllocatorImpl";
@@ -51,7 +135,7 @@ public abstract class PooledBufferAllocator implements BufferAllocator {
     static {
         final Class<PooledBufferAllocator> clazz = loadImplClass();
         try {
-            CONSTRUCTOR = clazz.getConstructor(int.class);
+            CONSTRUCTOR = clazz.getConstructor(int.class, boolean.class, BufferLeakDetector.class);
         } catch (final NoSuchMethodException ex) {
             throw new LinkageError("Dependencies for Buffer are not loaded correctly: " + CLASS_NAME, ex);
         }
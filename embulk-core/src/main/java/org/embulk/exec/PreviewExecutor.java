@@ -22,7 +22,7 @@ import org.embulk.spi.FilterPlugin;
 import org.embulk.spi.InputPlugin;
 import org.embulk.spi.Page;
 import org.embulk.spi.PageOutput;
-import org.embulk.spi.PageReader;
+import org.embulk.spi.PageReaderImpl;
 import org.embulk.spi.Schema;
 import org.embulk.spi.util.FiltersInternal;
 import org.slf4j.Logger;
@@ -171,7 +171,7 @@ public class PreviewExecutor {
         @Override
         public void add(Page page) {
             pages.add(page);
-            recordCount += PageReader.getRecordCount(page);
+            recordCount += PageReaderImpl.getRecordCount(page);  // It reads the count out of format flags in the header.
             if (recordCount >= sampleRows) {
                 finish();
             }
@@ -0,0 +1,239 @@
+package org.embulk.exec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long-lived pool of threads shared by runs of {@link org.embulk.EmbulkEmbed} in a JVM, so that each run does not start
+ * its own threads.
+ *
+ * <p>A run gets an {@link ExecutorService} from {@link #newRunExecutor(ExecSessionInternal, int)}, which runs up to
+ * {@code maxConcurrency} tasks of the run at a time. Threads take tasks from runs with queued tasks in turn, so that
+ * a run with many tasks does not hold back other runs. Shutting down the executor of a run does not stop the threads.
+ *
+ * <p>Tasks run with the session of their run, as threads of the pool are not created by the run.
+ */
+public final class SharedExecutorPool implements AutoCloseable {
+    private SharedExecutorPool(final int threads) {
+        this.lock = new Object();
+        this.ready = new ArrayDeque<>();
+        this.workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread(this::runWorker, String.format("embulk-shared-executor-%d", i));
+            worker.setDaemon(true);
+            this.workers.add(worker);
+        }
+        for (final Thread worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    public static SharedExecutorPool create(final int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads of a shared executor pool must be positive: " + threads);
+        }
+        return new SharedExecutorPool(threads);
+    }
+
+    /**
+     * Returns the pool of this JVM, which is created with {@code threads} at the first call, and is never closed.
+     *
+     * <p>{@link org.embulk.EmbulkEmbed} is not closed by its embedder, so each of them does not create its own pool
+     * not to leak threads. The threads are daemon threads, which do not keep the JVM running.
+     */
+    public static synchronized SharedExecutorPool ofJvm(final int threads) {
+        if (jvmPool == null) {
+            jvmPool = create(threads);
+        } else if (jvmPool.getThreads() != threads) {
+            logger.warn("The shared executor pool of this JVM is already started with {} threads. It is used instead of {} threads.",
+                        jvmPool.getThreads(), threads);
+        }
+        return jvmPool;
+    }
+
+    public int getThreads() {
+        return this.workers.size();
+    }
+
+    /**
+     * Returns an executor of a run, which runs tasks in the session {@code session} up to {@code maxConcurrency} at a time.
+     */
+    ExecutorService newRunExecutor(final ExecSessionInternal session, final int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency of a run must be positive: " + maxConcurrency);
+        }
+        return new RunExecutor(session, maxConcurrency);
+    }
+
+    /**
+     * Stops the threads. Tasks queued are not run.
+     */
+    @Override
+    public void close() {
+        synchronized (this.lock) {
+            this.closed = true;
+            this.lock.notifyAll();
+        }
+        for (final Thread worker : this.workers) {
+            worker.interrupt();
+        }
+    }
+
+    private void runWorker() {
+        while (true) {
+            final RunExecutor run;
+            final Runnable task;
+            synchronized (this.lock) {
+                while (!this.closed && this.ready.isEmpty()) {
+                    try {
+                        this.lock.wait();
+                    } catch (final InterruptedException ex) {
+                        // Checks closed again.
+                    }
+                }
+                if (this.closed) {
+                    return;
+                }
+                run = this.ready.pollFirst();
+                run.scheduled = false;
+                task = run.queue.pollFirst();
+                run.running++;
+                run.threads.add(Thread.currentThread());
+                this.schedule(run);  // Goes behind other runs if it still has tasks.
+            }
+
+            try {
+                ExecInternal.doWith(run.session, () -> {
+                    task.run();
+                    return null;
+                });
+            } catch (final ExecutionException | RuntimeException ex) {
+                // FutureTask keeps exceptions of the task. It is only from a task submitted by execute.
+                logger.error("A task failed in the shared executor pool.", ex);
+            } finally {
+                synchronized (this.lock) {
+                    run.threads.remove(Thread.currentThread());
+                    run.running--;
+                    this.schedule(run);
+                    this.lock.notifyAll();
+                }
+                Thread.interrupted();  // Clears an interruption to cancel the task not to affect the next task.
+            }
+        }
+    }
+
+    // Called with lock held.
+    private void schedule(final RunExecutor run) {
+        if (!run.scheduled && !run.queue.isEmpty() && run.running < run.maxConcurrency) {
+            this.ready.addLast(run);
+            run.scheduled = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    private final class RunExecutor extends AbstractExecutorService {
+        RunExecutor(final ExecSessionInternal session, final int maxConcurrency) {
+            this.session = session;
+            this.maxConcurrency = maxConcurrency;
+            this.queue = new ArrayDeque<>();
+            this.threads = new HashSet<>();
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            synchronized (lock) {
+                if (this.shutdown || closed) {
+                    throw new RejectedExecutionException("The executor is shut down.");
+                }
+                this.queue.addLast(command);
+                schedule(this);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (lock) {
+                this.shutdown = true;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            synchronized (lock) {
+                this.shutdown = true;
+                final List<Runnable> remaining = new ArrayList<>(this.queue);
+                this.queue.clear();
+                if (this.scheduled) {
+                    ready.remove(this);
+                    this.scheduled = false;
+                }
+                for (final Thread thread : this.threads) {
+                    thread.interrupt();
+                }
+                lock.notifyAll();
+                return remaining;
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (lock) {
+                return this.shutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (lock) {
+                return this.shutdown && this.queue.isEmpty() && this.running == 0;
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (lock) {
+                while (!this.isTerminated()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                return true;
+            }
+        }
+
+        private final ExecSessionInternal session;
+        private final int maxConcurrency;
+        private final ArrayDeque<Runnable> queue;
+        private final Set<Thread> threads;
+
+        private int running;
+        private boolean scheduled;
+        private boolean shutdown;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedExecutorPool.class);
+
+    private static SharedExecutorPool jvmPool;  // Guarded by SharedExecutorPool.class.
+
+    private final Object lock;
+    private final ArrayDeque<RunExecutor> ready;
+    private final List<Thread> workers;
+
+    private boolean closed;
+}
@@ -34,7 +34,11 @@
 package org.embulk.exec;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Objects;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.DirectBufferImpl;
 import sun.misc.Unsafe;
 
 @SuppressWarnings("sunapi")
@@ -74,6 +78,58 @@ public final class Slice {
         return new Slice(array, offset, length);
     }
 
+    /**
+     * Creates a slice over the memory of the specified buffer, from its offset up to its capacity.
+     *
+     * <p>A buffer on Java heap is wrapped through its array, and a {@link DirectBufferImpl} through its memory address.
+     */
+    @SuppressWarnings("deprecation")  // Calling Buffer#array().
+    public static Slice wrappedBuffer(final Buffer buffer) {
+        if (buffer instanceof DirectBufferImpl) {
+            return wrappedMemory(((DirectBufferImpl) buffer).address() + buffer.offset(), buffer.capacity());
+        }
+        return wrappedBuffer(buffer.array(), buffer.offset(), buffer.capacity());
+    }
+
+    /**
+     * Creates a slice over the specified range of memory out of Java heap.
+     *
+     * <p>The memory must be kept allocated while the slice is in use.
+     *
+     * @param address the absolute memory location at which the slice begins
+     * @param length the number of bytes to include in the slice
+     */
+    public static Slice wrappedMemory(final long address, final int length) {
+        if (length == 0) {
+            return EMPTY_SLICE;
+        }
+        return new Slice(address, length);
+    }
+
+    /**
+     * Returns {@code true} if {@link #directBufferAddress(ByteBuffer)} is available in this JVM.
+     */
+    public static boolean isDirectBufferAddressAvailable() {
+        return BufferAddressHolder.ADDRESS_OFFSET >= 0;
+    }
+
+    /**
+     * Returns the absolute memory location at which the content of the direct {@link ByteBuffer} begins.
+     *
+     * <p>The position of the buffer is not counted. The memory is available while the buffer is reachable.
+     *
+     * @throws UnsupportedOperationException if the address is not available in this JVM
+     */
+    public static long directBufferAddress(final ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer is not direct");
+        }
+        if (BufferAddressHolder.ADDRESS_OFFSET < 0) {
+            throw new UnsupportedOperationException("The address of a direct buffer is not available in this JVM.");
+        }
+        return Holder.unsafe.getLong(buffer, BufferAddressHolder.ADDRESS_OFFSET);
+    }
+
     /**
      * Creates an empty slice.
      */
@@ -98,6 +154,25 @@ public final class Slice {
         this.size = length;
     }
 
+    /**
+     * Creates a slice over the specified range of memory out of Java heap.
+     *
+     * @param address the absolute memory location at which the slice begins
+     * @param length the number of bytes to include in the slice
+     */
+    private Slice(final long address, final int length) {
+        if (address == 0) {
+            throw new IllegalArgumentException("address is 0");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("negative length: " + length);
+        }
+
+        this.base = null;
+        this.address = address;
+        this.size = length;
+    }
+
     /**
      * Length of this slice.
      */
@@ -184,6 +259,61 @@ public final class Slice {
         copyMemory(this.base, this.address + index, destination, (long) Unsafe.ARRAY_BYTE_BASE_OFFSET + destinationIndex, length);
     }
 
+    /**
+     * Transfers {@code length} 64-bit long integers from this slice into the specified destination starting at
+     * the specified absolute {@code index}.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less than {@code 0},
+     * if the specified {@code destinationIndex} is less than {@code 0},
+     * if {@code index + length * 8} is greater than {@code this.length()}, or
+     * if {@code destinationIndex + length} is greater than {@code destination.length}
+     */
+    public void getLongs(final int index, final long[] destination, final int destinationIndex, final int length) {
+        this.checkIndexLength(index, length * SIZE_OF_LONG);
+        checkPositionIndexes(destinationIndex, destinationIndex + length, destination.length);
+
+        copyMemory(this.base, this.address + index,
+                   destination, (long) Unsafe.ARRAY_LONG_BASE_OFFSET + (long) destinationIndex * SIZE_OF_LONG,
+                   length * SIZE_OF_LONG);
+    }
+
+    /**
+     * Transfers {@code length} 64-bit doubles from this slice into the specified destination starting at
+     * the specified absolute {@code index}.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less than {@code 0},
+     * if the specified {@code destinationIndex} is less than {@code 0},
+     * if {@code index + length * 8} is greater than {@code this.length()}, or
+     * if {@code destinationIndex + length} is greater than {@code destination.length}
+     */
+    public void getDoubles(final int index, final double[] destination, final int destinationIndex, final int length) {
+        this.checkIndexLength(index, length * SIZE_OF_DOUBLE);
+        checkPositionIndexes(destinationIndex, destinationIndex + length, destination.length);
+
+        copyMemory(this.base, this.address + index,
+                   destination, (long) Unsafe.ARRAY_DOUBLE_BASE_OFFSET + (long) destinationIndex * SIZE_OF_DOUBLE,
+                   length * SIZE_OF_DOUBLE);
+    }
+
+    /**
+     * Decodes the specified portion of this slice into a string with the specified character set.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less than {@code 0}, or
+     * if {@code index + length} is greater than {@code this.length()}
+     */
+    public String toString(final int index, final int length, final Charset charset) {
+        this.checkIndexLength(index, length);
+        if (length == 0) {
+            return "";
+        }
+        if (this.base instanceof byte[]) {
+            return new String((byte[]) this.base, (int) (this.address - Unsafe.ARRAY_BYTE_BASE_OFFSET) + index, length, charset);
+        }
+        final byte[] bytes = new byte[length];
+        this.getBytes(index, bytes, 0, length);
+        return new String(bytes, charset);
+    }
+
     /**
      * Sets the specified byte at the specified absolute {@code index} in this
      * buffer.  The 24 high-order bits of the specified value are ignored.
@@ -271,6 +401,56 @@ public final class Slice {
         copyMemory(source, (long) Unsafe.ARRAY_BYTE_BASE_OFFSET + sourceIndex, this.base, this.address + index, length);
     }
 
+    /**
+     * Transfers data from the specified slice into this buffer starting at
+     * the specified absolute {@code index}.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less than {@code 0},
+     * if the specified {@code sourceIndex} is less than {@code 0},
+     * if {@code index + length} is greater than
+     * {@code this.length()}, or
+     * if {@code sourceIndex + length} is greater than {@code source.length()}
+     */
+    public void setBytes(final int index, final Slice source, final int sourceIndex, final int length) {
+        this.checkIndexLength(index, length);
+        checkPositionIndexes(sourceIndex, sourceIndex + length, source.length());
+        copyMemory(source.base, source.address + sourceIndex, this.base, this.address + index, length);
+    }
+
+    /**
+     * Transfers {@code length} 64-bit long integers from the specified array into this buffer starting at
+     * the specified absolute {@code index}.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less than {@code 0},
+     * if the specified {@code sourceIndex} is less than {@code 0},
+     * if {@code index + length * 8} is greater than {@code this.length()}, or
+     * if {@code sourceIndex + length} is greater than {@code source.length}
+     */
+    public void setLongs(final int index, final long[] source, final int sourceIndex, final int length) {
+        this.checkIndexLength(index, length * SIZE_OF_LONG);
+        checkPositionIndexes(sourceIndex, sourceIndex + length, source.length);
+        copyMemory(source, (long) Unsafe.ARRAY_LONG_BASE_OFFSET + (long) sourceIndex * SIZE_OF_LONG,
+                   this.base, this.address + index,
+                   length * SIZE_OF_LONG);
+    }
+
+    /**
+     * Transfers {@code length} 64-bit doubles from the specified array into this buffer starting at
+     * the specified absolute {@code index}.
+     *
+     * @throws IndexOutOfBoundsException if the specified {@code index} is less than {@code 0},
+     * if the specified {@code sourceIndex} is less than {@code 0},
+     * if {@code index + length * 8} is greater than {@code this.length()}, or
+     * if {@code sourceIndex + length} is greater than {@code source.length}
+     */
+    public void setDoubles(final int index, final double[] source, final int sourceIndex, final int length) {
+        this.checkIndexLength(index, length * SIZE_OF_DOUBLE);
+        checkPositionIndexes(sourceIndex, sourceIndex + length, source.length);
+        copyMemory(source, (long) Unsafe.ARRAY_DOUBLE_BASE_OFFSET + (long) sourceIndex * SIZE_OF_DOUBLE,
+                   this.base, this.address + index,
+                   length * SIZE_OF_DOUBLE);
+    }
+
     private static class Holder {  // Initialization-on-demand holder idiom.
         private static final Unsafe unsafe;
 
@@ -302,6 +482,20 @@ public final class Slice {
         }
     }
 
+    // Apart from Holder, so that a JVM without java.nio.Buffer#address fails only directBufferAddress, not all slices.
+    private static class BufferAddressHolder {  // Initialization-on-demand holder idiom.
+        private static final long ADDRESS_OFFSET = addressOffset();
+
+        private static long addressOffset() {
+            try {
+                // java.nio.Buffer#address is the memory address of a direct buffer
+                return Holder.unsafe.objectFieldOffset(java.nio.Buffer.class.getDeclaredField("address"));
+            } catch (final NoSuchFieldException | RuntimeException ex) {
+                return -1L;
+            }
+        }
+    }
+
     private static void copyMemory(final Object src, final long srcAddress, final Object dest, final long destAddress, final int length) {
         // The Unsafe Javadoc specifies that the transfer size is 8 iff length % 8 == 0
         // so ensure that we copy big chunks whenever possible, even at the expense of two separate copy operations
@@ -0,0 +1,249 @@
+package org.embulk.exec;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.embulk.spi.Page;
+
+/**
+ * A bounded queue of pages from one producer thread to one consumer thread on a ring buffer, without locks in the usual path.
+ *
+ * <p>It follows the single-producer single-consumer queue of JCTools: each index is written only by its own thread, and the
+ * other thread's index is cached to avoid reading it on every page. A thread waiting for a free slot, or for a page, spins
+ * for a while, yields, and then parks until the other thread unparks it.
+ *
+ * <p>{@link #close()} is called by the consumer to abandon the queue. Pages remaining in the queue, and pages put later,
+ * are released then.
+ */
+final class SpscPageQueue {
+    SpscPageQueue(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("SpscPageQueue must have at least one slot.");
+        }
+        this.capacity = capacity;
+        this.slots = new Page[capacity];
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the number of pages in the queue. When called from the producer thread, it is an upper bound as pages may be taken concurrently.
+     */
+    int size() {
+        return (int) (this.producerIndex - this.consumerIndex);
+    }
+
+    /**
+     * Returns nanoseconds which the producer has waited for a free slot. It is read from the producer thread,
+     * or after the producer ends.
+     */
+    long getProducerWaitNanos() {
+        return this.producerWaitNanos;
+    }
+
+    /**
+     * Returns nanoseconds which the consumer has waited for a page. It is read from the consumer thread,
+     * or after the consumer ends.
+     */
+    long getConsumerWaitNanos() {
+        return this.consumerWaitNanos;
+    }
+
+    /**
+     * Puts {@code page}, waiting while the queue is full. It is called only from the producer thread.
+     */
+    void put(final Page page) throws InterruptedException {
+        if (this.closed) {
+            page.release();
+            return;
+        }
+
+        final long index = this.producerIndex;
+        if (index - this.cachedConsumerIndex >= this.capacity) {
+            this.cachedConsumerIndex = this.consumerIndex;
+            if (index - this.cachedConsumerIndex >= this.capacity && !this.awaitSlot(index)) {
+                page.release();
+                return;
+            }
+        }
+
+        this.slots[(int) (index % this.capacity)] = page;
+        this.producerIndex = index + 1;  // Publishes the page to the consumer.
+        unpark(this.parkedConsumer);
+
+        if (this.closed) {
+            // The consumer may have abandoned the queue before the page is published.
+            this.releaseRemaining();
+        }
+    }
+
+    /**
+     * Tells that no more pages are put. It is called only from the producer thread.
+     */
+    void finish() {
+        this.finished = true;
+        unpark(this.parkedConsumer);
+    }
+
+    /**
+     * Takes the oldest page, waiting while the queue is empty. It returns {@code null} when the queue is finished and
+     * empty, or closed. It is called only from the consumer thread.
+     */
+    Page take() throws InterruptedException {
+        if (this.closed) {
+            return null;
+        }
+
+        final long index = this.consumerIndex;
+        if (index >= this.cachedProducerIndex) {
+            this.cachedProducerIndex = this.producerIndex;
+            if (index >= this.cachedProducerIndex && !this.awaitPage(index)) {
+                return null;
+            }
+        }
+
+        final int slot = (int) (index % this.capacity);
+        final Page page = this.slots[slot];
+        this.slots[slot] = null;
+        this.consumerIndex = index + 1;  // Frees the slot for the producer.
+        unpark(this.parkedProducer);
+        return page;
+    }
+
+    /**
+     * Abandons the queue, and releases pages remaining in the queue. It is called only from the consumer thread.
+     */
+    void close() {
+        this.closed = true;
+        unpark(this.parkedProducer);
+        this.releaseRemaining();
+    }
+
+    private boolean awaitSlot(final long index) throws InterruptedException {
+        final long startedAt = System.nanoTime();
+        try {
+            return this.awaitSlotInternal(index);
+        } finally {
+            this.producerWaitNanos += System.nanoTime() - startedAt;
+        }
+    }
+
+    private boolean awaitSlotInternal(final long index) throws InterruptedException {
+        int tries = 0;
+        while (true) {
+            if (this.closed) {
+                return false;
+            }
+            final long consumed = this.consumerIndex;
+            if (index - consumed < this.capacity) {
+                this.cachedConsumerIndex = consumed;
+                return true;
+            }
+            if (tries < SPIN_TRIES) {
+                tries++;
+            } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+                tries++;
+                Thread.yield();
+            } else {
+                this.parkedProducer = Thread.currentThread();
+                if (index - this.consumerIndex >= this.capacity && !this.closed) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                this.parkedProducer = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private boolean awaitPage(final long index) throws InterruptedException {
+        final long startedAt = System.nanoTime();
+        try {
+            return this.awaitPageInternal(index);
+        } finally {
+            this.consumerWaitNanos += System.nanoTime() - startedAt;
+        }
+    }
+
+    private boolean awaitPageInternal(final long index) throws InterruptedException {
+        int tries = 0;
+        while (true) {
+            if (this.closed) {
+                return false;
+            }
+            // |finished| is read before |producerIndex| so that pages put before finish() are not missed.
+            final boolean finished = this.finished;
+            final long produced = this.producerIndex;
+            if (index < produced) {
+                this.cachedProducerIndex = produced;
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            if (tries < SPIN_TRIES) {
+                tries++;
+            } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+                tries++;
+                Thread.yield();
+            } else {
+                this.parkedConsumer = Thread.currentThread();
+                if (index >= this.producerIndex && !this.finished && !this.closed) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                this.parkedConsumer = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Releases pages remaining after the queue is closed. Both threads may call it, then the consumer index is updated only in it.
+     */
+    private synchronized void releaseRemaining() {
+        long index = this.consumerIndex;
+        while (index < this.producerIndex) {
+            final int slot = (int) (index % this.capacity);
+            final Page page = this.slots[slot];
+            this.slots[slot] = null;
+            index++;
+            this.consumerIndex = index;
+            if (page != null) {
+                page.release();
+            }
+        }
+    }
+
+    private static void unpark(final Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+
+    // Parking is bounded as a safety net though the other thread always unparks a parked thread.
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int capacity;
+    private final Page[] slots;
+
+    // Written only by the producer.
+    private volatile long producerIndex;
+    private long cachedConsumerIndex;
+    private long producerWaitNanos;
+    private volatile Thread parkedProducer;
+    private volatile boolean finished;
+
+    // Written only by the consumer, or in releaseRemaining() after closed.
+    private volatile long consumerIndex;
+    private long cachedProducerIndex;
+    private long consumerWaitNanos;
+    private volatile Thread parkedConsumer;
+    private volatile boolean closed;
+}
@@ -0,0 +1,254 @@
+package org.embulk.exec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.embulk.config.TaskReport;
+import org.embulk.spi.Page;
+import org.embulk.spi.TransactionalPageOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Attempts of a task of {@code DirectExecutor} in {@link LocalExecutorPlugin}, retried after failures and run
+ * speculatively when the task is slow.
+ *
+ * <p>The result completes with {@code null} when an attempt commits, or with the exception of the last failure when
+ * all attempts fail after retries. Only one attempt can commit its output. The others fail to commit, and are aborted.
+ *
+ * <p>A failed attempt does not wait for its retry. The retry is scheduled, and the result does not complete while it
+ * is pending even if no attempts are running.
+ */
+final class TaskAttempts {
+    TaskAttempts(final int taskIndex, final int retryLimit, final long retryWaitMillis, final long retryMaxWaitMillis,
+            final Runnable beforeCompletion) {
+        this.taskIndex = taskIndex;
+        this.beforeCompletion = beforeCompletion;
+        this.retryLimit = retryLimit;
+        this.retryWaitMillis = retryWaitMillis;
+        this.retryMaxWaitMillis = retryMaxWaitMillis;
+        this.result = new CompletableFuture<>();
+        this.committing = new AtomicBoolean(false);
+        this.futures = new ArrayList<>();
+        this.threads = new HashSet<>();
+
+        this.result.whenComplete((value, ex) -> {
+            if (this.result.isCancelled()) {
+                this.cancelOthers();
+            }
+        });
+    }
+
+    CompletableFuture<Throwable> getResult() {
+        return this.result;
+    }
+
+    boolean isDone() {
+        return this.result.isDone();
+    }
+
+    synchronized void register(final Future<?> future) {
+        if (this.result.isDone()) {
+            future.cancel(false);
+        } else {
+            this.futures.add(future);
+        }
+    }
+
+    /**
+     * Called in the thread of an attempt before it runs.
+     */
+    synchronized void attemptStarted() {
+        if (!this.attempted) {
+            this.attempted = true;
+            this.startNanos = System.nanoTime();
+        }
+        this.threads.add(Thread.currentThread());
+    }
+
+    /**
+     * Called in the thread of an attempt retried after waiting, instead of {@link #attemptStarted()}.
+     */
+    synchronized void retryStarted() {
+        this.pendingRetries--;
+        this.attemptStarted();
+    }
+
+    /**
+     * Called in the thread of an attempt after it stops, whether it succeeded or not.
+     */
+    void attemptExited() {
+        final Throwable failure;
+        synchronized (this) {
+            this.threads.remove(Thread.currentThread());
+            if (!this.threads.isEmpty() || this.pendingRetries > 0 || this.result.isDone()) {
+                return;
+            }
+            failure = this.lastFailure != null ? this.lastFailure : new IllegalStateException("Task " + this.taskIndex + " stopped without committing.");
+        }
+        this.complete(failure);
+    }
+
+    /**
+     * Records a failure of an attempt which is not retried, such as an {@link Error}.
+     */
+    synchronized void failed(final Throwable failure) {
+        this.lastFailure = failure;
+    }
+
+    void succeeded() {
+        synchronized (this) {
+            this.elapsedNanos = System.nanoTime() - this.startNanos;
+        }
+        if (this.complete(null)) {
+            this.cancelOthers();
+        }
+    }
+
+    /**
+     * Decides whether to run the attempt again after {@code failure}, and how long to wait before it.
+     *
+     * <p>The retry is pending from then until {@link #retryStarted()} is called.
+     *
+     * @return milliseconds to wait before the attempt runs again, or {@code -1} if it does not run again
+     */
+    long retryAfter(final Throwable failure) {
+        if (this.result.isDone() || failure instanceof AttemptLostException) {
+            return -1;  // Another attempt committed, or the task is cancelled.
+        }
+        final long waitMillis;
+        final int failures;
+        synchronized (this) {
+            this.lastFailure = failure;
+            failures = ++this.failures;
+            if (failures > this.retryLimit) {
+                if (this.threads.size() > 1 || this.pendingRetries > 0) {
+                    return -1;  // Leaves the result to another attempt still running, or to be retried.
+                }
+                if (this.retryLimit > 0) {
+                    logger.error("Task {} failed after {} retries.", this.taskIndex, this.retryLimit);
+                }
+                this.complete(failure);
+                return -1;
+            }
+            waitMillis = Math.min(this.retryMaxWaitMillis, this.retryWaitMillis << Math.min(failures - 1, 30));
+            this.pendingRetries++;
+        }
+        logger.warn("Retrying task {} in {} ms after failure {}/{}.", this.taskIndex, waitMillis, failures, this.retryLimit, failure);
+        return waitMillis;
+    }
+
+    /**
+     * Returns whether a speculative attempt should start, and marks that it starts.
+     */
+    synchronized boolean speculate(final long thresholdNanos) {
+        if (!this.attempted || this.speculated || this.result.isDone() || this.threads.size() != 1) {
+            return false;
+        }
+        if (System.nanoTime() - this.startNanos < thresholdNanos) {
+            return false;
+        }
+        this.speculated = true;
+        return true;
+    }
+
+    synchronized long getElapsedNanos() {
+        return this.elapsedNanos > 0 ? this.elapsedNanos : System.nanoTime() - this.startNanos;
+    }
+
+    /**
+     * Wraps the output of an attempt so that only one attempt can commit at a time.
+     */
+    TransactionalPageOutput gate(final TransactionalPageOutput output) {
+        return new TransactionalPageOutput() {
+            @Override
+            public void add(final Page page) {
+                output.add(page);
+            }
+
+            @Override
+            public void finish() {
+                output.finish();
+            }
+
+            @Override
+            public void close() {
+                output.close();
+            }
+
+            @Override
+            public void abort() {
+                output.abort();
+            }
+
+            @Override
+            public TaskReport commit() {
+                if (result.isDone() || !committing.compareAndSet(false, true)) {
+                    throw new AttemptLostException(taskIndex);
+                }
+                try {
+                    return output.commit();
+                } catch (final RuntimeException | Error ex) {
+                    committing.set(false);  // Another attempt can commit instead.
+                    throw ex;
+                }
+            }
+        };
+    }
+
+    private boolean complete(final Throwable failure) {
+        if (this.result.isDone()) {
+            return false;
+        }
+        this.beforeCompletion.run();
+        return this.result.complete(failure);
+    }
+
+    private void cancelOthers() {
+        synchronized (this) {
+            for (final Future<?> future : this.futures) {
+                future.cancel(false);  // Cancels only attempts not started yet. Running ones are interrupted below.
+            }
+            for (final Thread thread : this.threads) {
+                if (thread != Thread.currentThread()) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown to abort an attempt which tries to commit after another attempt.
+     */
+    static final class AttemptLostException extends RuntimeException {
+        AttemptLostException(final int taskIndex) {
+            super("Another attempt of task " + taskIndex + " has committed.");
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskAttempts.class);
+
+    private final int taskIndex;
+    private final Runnable beforeCompletion;
+    private final int retryLimit;
+    private final long retryWaitMillis;
+    private final long retryMaxWaitMillis;
+    private final CompletableFuture<Throwable> result;
+    private final AtomicBoolean committing;
+    private final List<Future<?>> futures;
+    private final Set<Thread> threads;
+
+    private boolean attempted;
+    private long startNanos;
+    private long elapsedNanos;
+    private int failures;
+    private int pendingRetries;
+    private Throwable lastFailure;
+    private boolean speculated;
+}
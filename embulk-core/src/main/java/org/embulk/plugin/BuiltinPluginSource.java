@@ -146,6 +146,61 @@ public class BuiltinPluginSource implements PluginSource {
             return this;
         }
 
+        /**
+         * Registers plugins by names of their classes returned from {@link BuiltinPluginSource#getPluginClassNames()}.
+         */
+        public Builder registerPluginClassNames(final Map<String, Map<String, String>> pluginClassNames, final ClassLoader classLoader) {
+            for (final Map.Entry<String, Map<String, String>> category : pluginClassNames.entrySet()) {
+                for (final Map.Entry<String, String> plugin : category.getValue().entrySet()) {
+                    final String name = plugin.getKey();
+                    final Class<?> impl;
+                    try {
+                        impl = Class.forName(plugin.getValue(), true, classLoader);
+                    } catch (final ClassNotFoundException ex) {
+                        throw new IllegalStateException("A class of a plugin \"" + name + "\" is not found: " + plugin.getValue(), ex);
+                    }
+                    switch (category.getKey()) {
+                        case "decoder":
+                            this.registerDecoderPlugin(name, impl.asSubclass(DecoderPlugin.class));
+                            break;
+                        case "encoder":
+                            this.registerEncoderPlugin(name, impl.asSubclass(EncoderPlugin.class));
+                            break;
+                        case "executor":
+                            this.registerExecutorPlugin(name, impl.asSubclass(ExecutorPlugin.class));
+                            break;
+                        case "file_input":
+                            this.registerFileInputPlugin(name, impl.asSubclass(FileInputPlugin.class));
+                            break;
+                        case "file_output":
+                            this.registerFileOutputPlugin(name, impl.asSubclass(FileOutputPlugin.class));
+                            break;
+                        case "filter":
+                            this.registerFilterPlugin(name, impl.asSubclass(FilterPlugin.class));
+                            break;
+                        case "formatter":
+                            this.registerFormatterPlugin(name, impl.asSubclass(FormatterPlugin.class));
+                            break;
+                        case "guess":
+                            this.registerGuessPlugin(name, impl.asSubclass(GuessPlugin.class));
+                            break;
+                        case "input":
+                            this.registerInputPlugin(name, impl.asSubclass(InputPlugin.class));
+                            break;
+                        case "output":
+                            this.registerOutputPlugin(name, impl.asSubclass(OutputPlugin.class));
+                            break;
+                        case "parser":
+                            this.registerParserPlugin(name, impl.asSubclass(ParserPlugin.class));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown category of plugins: " + category.getKey());
+                    }
+                }
+            }
+            return this;
+        }
+
         public Builder setEmbulkSystemProperties(final EmbulkSystemProperties embulkSystemProperties) {
             this.embulkSystemProperties = embulkSystemProperties;
             return this;
@@ -186,6 +241,27 @@ public class BuiltinPluginSource implements PluginSource {
         return new Builder();
     }
 
+    /**
+     * Returns names of the registered plugin classes by plugin names, in categories such as {@code "input"} and {@code "parser"}.
+     *
+     * <p>It is for another JVM, such as a worker of {@code LocalProcessExecutorPlugin}, to register the same plugins.
+     */
+    public Map<String, Map<String, String>> getPluginClassNames() {
+        final LinkedHashMap<String, Map<String, String>> names = new LinkedHashMap<>();
+        names.put("decoder", getClassNames(this.decoderPlugins));
+        names.put("encoder", getClassNames(this.encoderPlugins));
+        names.put("executor", getClassNames(this.executorPlugins));
+        names.put("file_input", getClassNames(this.fileInputPlugins));
+        names.put("file_output", getClassNames(this.fileOutputPlugins));
+        names.put("filter", getClassNames(this.filterPlugins));
+        names.put("formatter", getClassNames(this.formatterPlugins));
+        names.put("guess", getClassNames(this.guessPlugins));
+        names.put("input", getClassNames(this.inputPlugins));
+        names.put("output", getClassNames(this.outputPlugins));
+        names.put("parser", getClassNames(this.parserPlugins));
+        return names;
+    }
+
     @Override
     public <T> T newPlugin(final Class<T> pluginInterface, final PluginType type) throws PluginSourceNotMatchException {
         if (type.getSourceType() != PluginSource.Type.DEFAULT) {
@@ -244,6 +320,14 @@ public class BuiltinPluginSource implements PluginSource {
         throw new PluginSourceNotMatchException();
     }
 
+    private static Map<String, String> getClassNames(final Map<String, ? extends Class<?>> plugins) {
+        final LinkedHashMap<String, String> names = new LinkedHashMap<>();
+        for (final Map.Entry<String, ? extends Class<?>> plugin : plugins.entrySet()) {
+            names.put(plugin.getKey(), plugin.getValue().getName());
+        }
+        return names;
+    }
+
     private final EmbulkSystemProperties embulkSystemProperties;
     private final Map<String, Class<? extends DecoderPlugin>> decoderPlugins;
     private final Map<String, Class<? extends EncoderPlugin>> encoderPlugins;
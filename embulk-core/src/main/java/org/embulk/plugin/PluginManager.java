@@ -4,11 +4,13 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import org.embulk.EmbulkSystemProperties;
 import org.embulk.config.ConfigException;
 import org.embulk.exec.GuessExecutor;
 import org.embulk.exec.LocalExecutorPlugin;
+import org.embulk.exec.LocalProcessExecutorPlugin;
 import org.embulk.exec.SamplingParserPlugin;
 import org.embulk.jruby.JRubyPluginSource;
 import org.embulk.plugin.maven.MavenPluginSource;
@@ -43,6 +45,13 @@ public class PluginManager {
                 jrubySource);
     }
 
+    /**
+     * Returns names of the builtin plugin classes. See {@link BuiltinPluginSource#getPluginClassNames()}.
+     */
+    public Map<String, Map<String, String>> getBuiltinPluginClassNames() {
+        return this.builtinSource.getPluginClassNames();
+    }
+
     public <T> T newPlugin(Class<T> iface, PluginType type) {
         if (type == null) {
             throw new ConfigException(String.format(
@@ -66,6 +75,9 @@ public class PluginManager {
         if (ExecutorPlugin.class.equals(iface) && "local".equals(type.getName())) {
             return iface.cast(new LocalExecutorPlugin(this.embulkSystemProperties));
         }
+        if (ExecutorPlugin.class.equals(iface) && "local_process".equals(type.getName())) {
+            return iface.cast(new LocalProcessExecutorPlugin(this.embulkSystemProperties));
+        }
 
         // The order is intentional.
         // * BuiltinPluginSource comes first because "built-in" ones are there always much intentionally (e.g. for testing).
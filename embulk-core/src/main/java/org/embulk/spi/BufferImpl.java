@@ -92,6 +92,10 @@ public class BufferImpl extends Buffer {
     @SuppressWarnings("deprecation")  // Calling Buffer#array().
     @Override
     public void setBytes(int index, Buffer source, int sourceIndex, int length) {
+        if (source instanceof DirectBufferImpl) {
+            source.getBytes(sourceIndex, array, offset + index, length);
+            return;
+        }
         setBytes(index, source.array(), source.offset() + sourceIndex, length);
     }
 
@@ -103,6 +107,10 @@ public class BufferImpl extends Buffer {
     @SuppressWarnings("deprecation")  // Calling Buffer#array().
     @Override
     public void getBytes(int index, Buffer dest, int destIndex, int length) {
+        if (dest instanceof DirectBufferImpl) {
+            dest.setBytes(destIndex, array, offset + index, length);
+            return;
+        }
         getBytes(index, dest.array(), dest.offset() + destIndex, length);
     }
 
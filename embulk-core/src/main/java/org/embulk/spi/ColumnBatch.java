@@ -0,0 +1,116 @@
+package org.embulk.spi;
+
+import java.lang.reflect.Array;
+import java.time.Instant;
+import org.embulk.spi.json.JsonValue;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+/**
+ * A batch of records in columns of arrays to be appended at once by {@link PageBuilderImpl#appendBatch(int, ColumnBatch)}.
+ *
+ * <p>Every column of the schema must be given an array of values, and optionally a null mask. A value is null if its
+ * element in the null mask is {@code true}, or if its element in an object array is {@code null}.
+ *
+ * <p>A batch only refers to the given arrays without copying them. The arrays can be reused for the next batch after
+ * {@link PageBuilderImpl#appendBatch(int, ColumnBatch)} returns.
+ */
+public final class ColumnBatch {
+    public ColumnBatch(final Schema schema) {
+        this.schema = schema;
+        this.values = new Object[schema.getColumnCount()];
+        this.nulls = new boolean[schema.getColumnCount()][];
+    }
+
+    public Schema getSchema() {
+        return this.schema;
+    }
+
+    public ColumnBatch setBooleans(final int columnIndex, final boolean[] values, final boolean[] nulls) {
+        return this.set(columnIndex, Types.BOOLEAN, values, nulls);
+    }
+
+    public ColumnBatch setLongs(final int columnIndex, final long[] values, final boolean[] nulls) {
+        return this.set(columnIndex, Types.LONG, values, nulls);
+    }
+
+    public ColumnBatch setDoubles(final int columnIndex, final double[] values, final boolean[] nulls) {
+        return this.set(columnIndex, Types.DOUBLE, values, nulls);
+    }
+
+    public ColumnBatch setStrings(final int columnIndex, final String[] values, final boolean[] nulls) {
+        return this.set(columnIndex, Types.STRING, values, nulls);
+    }
+
+    public ColumnBatch setTimestamps(final int columnIndex, final Instant[] values, final boolean[] nulls) {
+        return this.set(columnIndex, Types.TIMESTAMP, values, nulls);
+    }
+
+    public ColumnBatch setJsons(final int columnIndex, final JsonValue[] values, final boolean[] nulls) {
+        return this.set(columnIndex, Types.JSON, values, nulls);
+    }
+
+    /**
+     * Removes all the arrays from this batch.
+     */
+    public void clear() {
+        for (int i = 0; i < this.values.length; i++) {
+            this.values[i] = null;
+            this.nulls[i] = null;
+        }
+    }
+
+    Object getValues(final int columnIndex) {
+        return this.values[columnIndex];
+    }
+
+    boolean[] getNulls(final int columnIndex) {
+        return this.nulls[columnIndex];
+    }
+
+    boolean isNull(final int columnIndex, final int row) {
+        final boolean[] nullMask = this.nulls[columnIndex];
+        if (nullMask != null && nullMask[row]) {
+            return true;
+        }
+        final Object array = this.values[columnIndex];
+        return array instanceof Object[] && ((Object[]) array)[row] == null;
+    }
+
+    void validate(final Schema schema, final int rowCount) {
+        if (this.schema.getColumnCount() != schema.getColumnCount()) {
+            throw new IllegalArgumentException("ColumnBatch has " + this.schema.getColumnCount()
+                    + " columns while the page has " + schema.getColumnCount() + " columns.");
+        }
+        for (int i = 0; i < this.values.length; i++) {
+            final Object array = this.values[i];
+            if (array == null) {
+                throw new IllegalArgumentException("ColumnBatch has no values for a column: " + schema.getColumn(i).getName());
+            }
+            if (!this.schema.getColumnType(i).equals(schema.getColumnType(i))) {
+                throw new IllegalArgumentException("ColumnBatch has a different type for a column: " + schema.getColumn(i).getName()
+                        + ", " + this.schema.getColumnType(i) + " for " + schema.getColumnType(i));
+            }
+            if (Array.getLength(array) < rowCount || (this.nulls[i] != null && this.nulls[i].length < rowCount)) {
+                throw new IllegalArgumentException("ColumnBatch has less than " + rowCount + " values for a column: " + schema.getColumn(i).getName());
+            }
+        }
+    }
+
+    private ColumnBatch set(final int columnIndex, final Type type, final Object values, final boolean[] nulls) {
+        final Column column = this.schema.getColumn(columnIndex);
+        if (!column.getType().equals(type)) {
+            throw new IllegalArgumentException("Setting " + type + " values to a " + column.getType() + " column: " + column.getName());
+        }
+        if (values == null) {
+            throw new NullPointerException("values must not be null.");
+        }
+        this.values[columnIndex] = values;
+        this.nulls[columnIndex] = nulls;
+        return this;
+    }
+
+    private final Schema schema;
+    private final Object[] values;
+    private final boolean[][] nulls;
+}
@@ -0,0 +1,227 @@
+package org.embulk.spi;
+
+import java.time.Instant;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+/**
+ * Statistics of values in a column, collected while pages are built.
+ *
+ * <p>Minimum and maximum values are available for BOOLEAN, LONG, DOUBLE, STRING and TIMESTAMP columns. They are
+ * {@link Boolean}, {@link Long}, {@link Double}, {@link String} and {@link Instant} respectively. NaN is not counted in them.
+ * The number of distinct values is an estimate by HyperLogLog. It is not available for JSON columns.
+ *
+ * @see PageStatistics
+ */
+public final class ColumnStatistics {
+    ColumnStatistics(final Type type) {
+        this.type = type;
+        this.distinct = type.equals(Types.JSON) ? null : new HyperLogLog();
+    }
+
+    private ColumnStatistics(final ColumnStatistics source) {
+        this.type = source.type;
+        this.nullCount = source.nullCount;
+        this.nonNullCount = source.nonNullCount;
+        this.hasMinMax = source.hasMinMax;
+        this.minLong = source.minLong;
+        this.maxLong = source.maxLong;
+        this.minDouble = source.minDouble;
+        this.maxDouble = source.maxDouble;
+        this.min = source.min;
+        this.max = source.max;
+        this.distinct = source.distinct == null ? null : source.distinct.copy();
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public long getNullCount() {
+        return this.nullCount;
+    }
+
+    public long getNonNullCount() {
+        return this.nonNullCount;
+    }
+
+    /**
+     * Returns whether all the values are null, including the case of no values.
+     */
+    public boolean isAllNull() {
+        return this.nonNullCount == 0;
+    }
+
+    /**
+     * Returns the minimum value, or {@code null} if not available.
+     */
+    public Object getMin() {
+        if (!this.hasMinMax) {
+            return null;
+        }
+        if (this.type.equals(Types.LONG)) {
+            return this.minLong;
+        } else if (this.type.equals(Types.DOUBLE)) {
+            return this.minDouble;
+        }
+        return this.min;
+    }
+
+    /**
+     * Returns the maximum value, or {@code null} if not available.
+     */
+    public Object getMax() {
+        if (!this.hasMinMax) {
+            return null;
+        }
+        if (this.type.equals(Types.LONG)) {
+            return this.maxLong;
+        } else if (this.type.equals(Types.DOUBLE)) {
+            return this.maxDouble;
+        }
+        return this.max;
+    }
+
+    /**
+     * Returns an estimate of the number of distinct non-null values, or {@code -1} if not available.
+     */
+    public long getDistinctCountEstimate() {
+        if (this.distinct == null) {
+            return -1;
+        }
+        return this.distinct.estimate();
+    }
+
+    /**
+     * Merges statistics of another set of values in the same column into this.
+     */
+    public void merge(final ColumnStatistics other) {
+        if (!this.type.equals(other.type)) {
+            throw new IllegalArgumentException("Merging statistics of " + other.type + " into " + this.type + ".");
+        }
+        this.nullCount += other.nullCount;
+        this.nonNullCount += other.nonNullCount;
+        if (other.hasMinMax) {
+            if (this.type.equals(Types.LONG)) {
+                this.updateLong(other.minLong);
+                this.updateLong(other.maxLong);
+            } else if (this.type.equals(Types.DOUBLE)) {
+                this.updateDouble(other.minDouble);
+                this.updateDouble(other.maxDouble);
+            } else {
+                this.updateMinMax(other.min);
+                this.updateMinMax(other.max);
+            }
+        }
+        if (this.distinct != null && other.distinct != null) {
+            this.distinct.merge(other.distinct);
+        }
+    }
+
+    public ColumnStatistics copy() {
+        return new ColumnStatistics(this);
+    }
+
+    void addNull() {
+        this.nullCount++;
+    }
+
+    void addBoolean(final boolean value) {
+        this.nonNullCount++;
+        this.updateMinMax(value);
+        this.distinct.addHash(HyperLogLog.hashLong(value ? 1L : 0L));
+    }
+
+    void addLong(final long value) {
+        this.nonNullCount++;
+        this.updateLong(value);
+        this.distinct.addHash(HyperLogLog.hashLong(value));
+    }
+
+    void addDouble(final double value) {
+        this.nonNullCount++;
+        if (!Double.isNaN(value)) {
+            this.updateDouble(value);
+        }
+        this.distinct.addHash(HyperLogLog.hashLong(Double.doubleToLongBits(value)));
+    }
+
+    void addString(final String value) {
+        this.nonNullCount++;
+        this.updateMinMax(value);
+        this.distinct.addHash(HyperLogLog.hashString(value));
+    }
+
+    void addTimestamp(final Instant value) {
+        this.nonNullCount++;
+        this.updateMinMax(value);
+        this.distinct.addHash(HyperLogLog.hashLong(HyperLogLog.hashLong(value.getEpochSecond()) ^ value.getNano()));
+    }
+
+    void addJson() {
+        this.nonNullCount++;
+    }
+
+    /**
+     * Stops counting a value which has moved to another page. Its minimum and maximum values and its hash are kept.
+     */
+    void uncount(final boolean isNull) {
+        if (isNull) {
+            this.nullCount--;
+        } else {
+            this.nonNullCount--;
+        }
+    }
+
+    private void updateLong(final long value) {
+        if (!this.hasMinMax) {
+            this.minLong = value;
+            this.maxLong = value;
+            this.hasMinMax = true;
+        } else if (value < this.minLong) {
+            this.minLong = value;
+        } else if (value > this.maxLong) {
+            this.maxLong = value;
+        }
+    }
+
+    private void updateDouble(final double value) {
+        if (!this.hasMinMax) {
+            this.minDouble = value;
+            this.maxDouble = value;
+            this.hasMinMax = true;
+        } else if (value < this.minDouble) {
+            this.minDouble = value;
+        } else if (value > this.maxDouble) {
+            this.maxDouble = value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void updateMinMax(final Object value) {
+        if (!this.hasMinMax) {
+            this.min = value;
+            this.max = value;
+            this.hasMinMax = true;
+        } else if (((Comparable<Object>) value).compareTo(this.min) < 0) {
+            this.min = value;
+        } else if (((Comparable<Object>) value).compareTo(this.max) > 0) {
+            this.max = value;
+        }
+    }
+
+    private final Type type;
+    private final HyperLogLog distinct;
+
+    private long nullCount;
+    private long nonNullCount;
+
+    // Minimum and maximum values are kept in primitives for LONG and DOUBLE not to box them for every value.
+    private boolean hasMinMax;
+    private long minLong;
+    private long maxLong;
+    private double minDouble;
+    private double maxDouble;
+    private Object min;
+    private Object max;
+}
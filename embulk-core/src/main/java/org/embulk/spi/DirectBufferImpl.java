@@ -0,0 +1,95 @@
+package org.embulk.spi;
+
+import org.embulk.exec.Slice;
+
+/**
+ * A {@link Buffer} on memory out of Java heap, which is not backed by an array.
+ *
+ * <p>{@link #array()} is not available. Its bytes are accessed through {@link #getBytes} and {@link #setBytes}, or
+ * through {@link Slice#wrappedBuffer(Buffer)}.
+ */
+public class DirectBufferImpl extends Buffer {
+    public DirectBufferImpl(final long address, final int capacity) {
+        if (address == 0) {
+            throw new IllegalArgumentException("address is 0");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity: " + capacity);
+        }
+        this.address = address;
+        this.offset = 0;
+        this.filled = 0;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the absolute memory location at which the buffer begins, regardless of its offset.
+     */
+    public long address() {
+        return this.address;
+    }
+
+    @Deprecated
+    @Override
+    public byte[] array() {
+        throw new UnsupportedOperationException("A buffer out of Java heap is not backed by an array.");
+    }
+
+    @Override
+    public int offset() {
+        return this.offset;
+    }
+
+    @Override
+    public Buffer offset(final int offset) {
+        this.offset = offset;
+        return this;
+    }
+
+    @Override
+    public int limit() {
+        return this.filled - this.offset;
+    }
+
+    @Override
+    public Buffer limit(final int limit) {
+        if (this.capacity < limit) {
+            throw new IllegalStateException("limit index out of bound: capacity=" + this.capacity + " limit=" + limit);
+        }
+        this.filled = this.offset + limit;
+        return this;
+    }
+
+    @Override
+    public int capacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public void setBytes(final int index, final byte[] source, final int sourceIndex, final int length) {
+        Slice.wrappedBuffer(this).setBytes(index, source, sourceIndex, length);
+    }
+
+    @Override
+    public void setBytes(final int index, final Buffer source, final int sourceIndex, final int length) {
+        Slice.wrappedBuffer(this).setBytes(index, Slice.wrappedBuffer(source), sourceIndex, length);
+    }
+
+    @Override
+    public void getBytes(final int index, final byte[] dest, final int destIndex, final int length) {
+        Slice.wrappedBuffer(this).getBytes(index, dest, destIndex, length);
+    }
+
+    @Override
+    public void getBytes(final int index, final Buffer dest, final int destIndex, final int length) {
+        Slice.wrappedBuffer(dest).setBytes(destIndex, Slice.wrappedBuffer(this), index, length);
+    }
+
+    @Override
+    public void release() {}
+
+    private final long address;
+    private int offset;
+    private int filled;
+    private final int capacity;
+}
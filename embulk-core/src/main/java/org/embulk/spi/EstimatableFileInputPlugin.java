@@ -0,0 +1,16 @@
+package org.embulk.spi;
+
+import org.embulk.config.TaskSource;
+
+/**
+ * A {@link FileInputPlugin} which can estimate the size of each input task before running it.
+ *
+ * <p>{@link FileInputRunner} gives the estimate to the executor as {@link EstimatableInputPlugin}. A plugin usually
+ * returns the total bytes of files of the task, which it has listed with their sizes in {@code transaction}.
+ */
+public interface EstimatableFileInputPlugin extends FileInputPlugin {
+    /**
+     * Returns an estimated size of the task of {@code taskIndex}, or a negative value if unknown.
+     */
+    long estimateTaskSize(TaskSource taskSource, int taskIndex);
+}
@@ -0,0 +1,19 @@
+package org.embulk.spi;
+
+import org.embulk.config.TaskSource;
+
+/**
+ * An {@link InputPlugin} which can estimate the size of each input task before running it.
+ *
+ * <p>{@link org.embulk.exec.LocalExecutorPlugin} with {@code "task_order: largest_first"} starts larger tasks first
+ * so that the largest task does not start last and prolong the execution.
+ */
+public interface EstimatableInputPlugin extends InputPlugin {
+    /**
+     * Returns an estimated size of the task of {@code taskIndex}, or a negative value if unknown.
+     *
+     * <p>The size is compared only among tasks of the same transaction, such as the total bytes of files to read.
+     * It is called before the task runs, and should not take as long as the task itself.
+     */
+    long estimateTaskSize(TaskSource taskSource, Schema schema, int taskIndex);
+}
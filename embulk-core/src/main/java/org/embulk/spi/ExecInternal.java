@@ -40,6 +40,13 @@ public class ExecInternal {
         return sessionInternal;
     }
 
+    /**
+     * Returns the session of the current thread, or {@code null} outside of {@link #doWith}.
+     */
+    public static ExecSessionInternal sessionInternalOrNull() {
+        return ExecInternal.sessionInternal.get();
+    }
+
     @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
     public static org.embulk.config.ModelManager getModelManager() {
         return sessionInternal().getModelManager();
@@ -4,17 +4,20 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import org.embulk.EmbulkSystemProperties;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.Task;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
 import org.embulk.exec.GuessExecutor;
+import org.embulk.exec.SharedExecutorPool;
 import org.embulk.jruby.JRubyPluginSource;
 import org.embulk.jruby.LazyScriptingContainerDelegate;
 import org.embulk.jruby.ScriptingContainerDelegate;
@@ -27,6 +30,7 @@ import org.embulk.plugin.SelfContainedPluginSource;
 import org.embulk.plugin.maven.MavenPluginSource;
 import org.embulk.spi.TempFileSpaceAllocator;
 import org.embulk.spi.time.Instants;
+import org.embulk.spi.util.SpillablePageQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +50,7 @@ public class ExecSessionInternal extends ExecSession {
 
     private final EmbulkSystemProperties embulkSystemProperties;
     private final GuessExecutor guessExecutor;
+    private final SharedExecutorPool sharedExecutorPool;
 
     @Deprecated  // https://github.com/embulk/embulk/issues/1304
     private final org.embulk.config.ModelManager modelManager;
@@ -59,6 +64,20 @@ public class ExecSessionInternal extends ExecSession {
     private final Instant transactionTime;
     private final TempFileSpace tempFileSpace;
 
+    private final boolean columnarPages;
+    private final String pageStrings;
+    private final boolean directPageBuilder;
+    private final boolean pageStatistics;
+    private final boolean adaptivePageSize;
+    private final int pageTargetRecords;
+    private final int pageMaxSize;
+    private final long pageMemoryBudgetPerTask;
+    private final int pageMemoryBudgetWaitTimeoutMillis;
+    private final PageMemoryBudget globalPageMemoryBudget;
+    private final int pageSpillThresholdPages;
+    private final PageCompression pageSpillCompression;
+    private final int filterPipelineQueuePages;
+
     private final boolean preview;
 
     @Deprecated  // TODO: Remove it.
@@ -74,6 +93,7 @@ public class ExecSessionInternal extends ExecSession {
 
         private EmbulkSystemProperties embulkSystemProperties;
         private GuessExecutor guessExecutor;
+        private SharedExecutorPool sharedExecutorPool;
         private BuiltinPluginSource.Builder builtinPluginSourceBuilder;
         private Instant transactionTime;
 
@@ -111,6 +131,11 @@ public class ExecSessionInternal extends ExecSession {
             return this;
         }
 
+        public Builder setSharedExecutorPool(final SharedExecutorPool sharedExecutorPool) {
+            this.sharedExecutorPool = sharedExecutorPool;
+            return this;
+        }
+
         public Builder registerDecoderPlugin(final String name, final Class<? extends DecoderPlugin> decoderImpl) {
             this.builtinPluginSourceBuilder.registerDecoderPlugin(name, decoderImpl);
             return this;
@@ -166,6 +191,14 @@ public class ExecSessionInternal extends ExecSession {
             return this;
         }
 
+        /**
+         * Registers builtin plugins by names of their classes. See {@link ExecSessionInternal#getBuiltinPluginClassNames()}.
+         */
+        public Builder registerBuiltinPluginClassNames(final Map<String, Map<String, String>> pluginClassNames) {
+            this.builtinPluginSourceBuilder.registerPluginClassNames(pluginClassNames, Thread.currentThread().getContextClassLoader());
+            return this;
+        }
+
         public Builder setEmbulkSystemProperties(final EmbulkSystemProperties embulkSystemProperties) {
             this.embulkSystemProperties = embulkSystemProperties;
             this.builtinPluginSourceBuilder.setEmbulkSystemProperties(embulkSystemProperties);
@@ -198,6 +231,7 @@ public class ExecSessionInternal extends ExecSession {
                     this.bufferAllocator,
                     this.tempFileSpaceAllocator,
                     this.guessExecutor,
+                    this.sharedExecutorPool,
                     this.builtinPluginSourceBuilder.build(),
                     this.modelManager);
         }
@@ -216,10 +250,12 @@ public class ExecSessionInternal extends ExecSession {
             final BufferAllocator bufferAllocator,
             final TempFileSpaceAllocator tempFileSpaceAllocator,
             final GuessExecutor guessExecutor,
+            final SharedExecutorPool sharedExecutorPool,
             final BuiltinPluginSource builtinPluginSource,
             final org.embulk.config.ModelManager modelManager) {
         this.embulkSystemProperties = embulkSystemProperties;
         this.guessExecutor = guessExecutor;
+        this.sharedExecutorPool = sharedExecutorPool;
         this.modelManager = modelManager;
 
         this.jrubyScriptingContainerDelegate = LazyScriptingContainerDelegate.withEmbulkSpecific(
@@ -239,12 +275,32 @@ public class ExecSessionInternal extends ExecSession {
 
         this.tempFileSpace = tempFileSpaceAllocator.newSpace(ISO8601_BASIC.format(this.transactionTime));
 
+        this.columnarPages = isColumnarPageLayout(embulkSystemProperties);
+        this.pageStrings = getPageStrings(embulkSystemProperties, this.columnarPages);
+        this.directPageBuilder = embulkSystemProperties.getPropertyAsBoolean("page_builder_direct", false);
+        this.pageStatistics = embulkSystemProperties.getPropertyAsBoolean("page_statistics", false);
+        this.adaptivePageSize = isAdaptivePageSize(embulkSystemProperties);
+        this.pageTargetRecords = getPageTargetRecords(embulkSystemProperties);
+        this.pageMaxSize = getPageMaxSize(embulkSystemProperties);
+        this.pageMemoryBudgetPerTask = embulkSystemProperties.getPropertyAsByteSize("page_memory_budget_per_task", 0L);
+        this.pageMemoryBudgetWaitTimeoutMillis = embulkSystemProperties.getPropertyAsInteger("page_memory_budget_wait_timeout_millis", 60000);
+        final long globalPageMemoryBudget = embulkSystemProperties.getPropertyAsByteSize("page_memory_budget", 0L);
+        if (globalPageMemoryBudget > 0 || this.pageMemoryBudgetPerTask > 0) {
+            this.globalPageMemoryBudget = new PageMemoryBudget(globalPageMemoryBudget, null, this.pageMemoryBudgetWaitTimeoutMillis);
+        } else {
+            this.globalPageMemoryBudget = null;
+        }
+        this.pageSpillThresholdPages = embulkSystemProperties.getPropertyAsInteger("page_spill_threshold_pages", 0);
+        this.pageSpillCompression = getPageSpillCompression(embulkSystemProperties);
+        this.filterPipelineQueuePages = embulkSystemProperties.getPropertyAsInteger("filter_pipeline_queue_pages", 0);
+
         this.preview = false;
     }
 
     private ExecSessionInternal(ExecSessionInternal copy, boolean preview) {
         this.embulkSystemProperties = copy.embulkSystemProperties;
         this.guessExecutor = copy.guessExecutor;
+        this.sharedExecutorPool = copy.sharedExecutorPool;
         this.modelManager = copy.modelManager;
         this.jrubyScriptingContainerDelegate = copy.jrubyScriptingContainerDelegate;
         this.pluginClassLoaderFactory = copy.pluginClassLoaderFactory;
@@ -254,6 +310,20 @@ public class ExecSessionInternal extends ExecSession {
         this.transactionTime = copy.transactionTime;
         this.tempFileSpace = copy.tempFileSpace;
 
+        this.columnarPages = copy.columnarPages;
+        this.pageStrings = copy.pageStrings;
+        this.directPageBuilder = copy.directPageBuilder;
+        this.pageStatistics = copy.pageStatistics;
+        this.adaptivePageSize = copy.adaptivePageSize;
+        this.pageTargetRecords = copy.pageTargetRecords;
+        this.pageMaxSize = copy.pageMaxSize;
+        this.pageMemoryBudgetPerTask = copy.pageMemoryBudgetPerTask;
+        this.pageMemoryBudgetWaitTimeoutMillis = copy.pageMemoryBudgetWaitTimeoutMillis;
+        this.globalPageMemoryBudget = copy.globalPageMemoryBudget;
+        this.pageSpillThresholdPages = copy.pageSpillThresholdPages;
+        this.pageSpillCompression = copy.pageSpillCompression;
+        this.filterPipelineQueuePages = copy.filterPipelineQueuePages;
+
         this.preview = preview;
     }
 
@@ -308,7 +378,95 @@ public class ExecSessionInternal extends ExecSession {
 
     @Override
     public PageBuilder getPageBuilder(final BufferAllocator allocator, final Schema schema, final PageOutput output) {
-        return new PageBuilderImpl(allocator, schema, output);
+        return this.getPageBuilder(allocator, schema, output, this.directPageBuilder);
+    }
+
+    /**
+     * Returns a {@link PageBuilder}, which writes values directly into pages without staging if {@code direct} is {@code true}.
+     *
+     * <p>A direct {@link PageBuilder} requires every column to be set exactly once for each record.
+     * See {@link PageBuilderImpl.Builder#setDirect(boolean)}.
+     */
+    public PageBuilder getPageBuilder(final BufferAllocator allocator, final Schema schema, final PageOutput output, final boolean direct) {
+        return this.getPageBuilder(allocator, schema, output, direct, this.newPageSizing().orElse(null));
+    }
+
+    /**
+     * Returns a {@link PageBuilder} whose page buffers are sized by {@code pageSizing}, or sized for a record if it is {@code null}.
+     *
+     * <p>A task can override sizes of its pages with its own {@link PageSizing}. See {@link PageBuilderImpl.Builder#setPageSizing(PageSizing)}.
+     */
+    public PageBuilder getPageBuilder(
+            final BufferAllocator allocator, final Schema schema, final PageOutput output, final boolean direct, final PageSizing pageSizing) {
+        return PageBuilderImpl.builder(allocator, schema, output)
+                .setColumnar(this.columnarPages)
+                .setInlineStrings("inline".equals(this.pageStrings))
+                .setDictionaryStrings("dictionary".equals(this.pageStrings))
+                .setDirect(direct)
+                .setStatistics(this.pageStatistics)
+                .setPageSizing(pageSizing)
+                .build();
+    }
+
+    /**
+     * Returns a new sizing of pages for a page builder.
+     *
+     * <p>It is empty unless {@code page_size_policy} is {@code adaptive}. Pages are then sized for {@code page_target_records}
+     * records (4096 by default) up to {@code page_max_size} (1 MiB by default).
+     */
+    public Optional<PageSizing> newPageSizing() {
+        if (!this.adaptivePageSize) {
+            return Optional.empty();
+        }
+        return Optional.of(PageSizing.adaptive(this.pageTargetRecords, this.pageMaxSize));
+    }
+
+    /**
+     * Returns whether pages are built with statistics of columns, which are summarized into task reports.
+     */
+    public boolean isPageStatisticsEnabled() {
+        return this.pageStatistics;
+    }
+
+    /**
+     * Returns a new memory budget for pages of a task, whose parent is the global budget shared in this session.
+     *
+     * <p>It is empty unless {@code page_memory_budget} or {@code page_memory_budget_per_task} is configured.
+     */
+    public Optional<PageMemoryBudget> newTaskPageMemoryBudget() {
+        if (this.globalPageMemoryBudget == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new PageMemoryBudget(this.pageMemoryBudgetPerTask, this.globalPageMemoryBudget, this.pageMemoryBudgetWaitTimeoutMillis));
+    }
+
+    /**
+     * Returns a new queue of pages in {@code schema} which keeps {@code page_spill_threshold_pages} pages in memory,
+     * and spills the others into the temp file space of this session.
+     *
+     * <p>It is empty unless {@code page_spill_threshold_pages} is configured.
+     */
+    public Optional<SpillablePageQueue> newSpillablePageQueue(final Schema schema) {
+        if (this.pageSpillThresholdPages <= 0) {
+            return Optional.empty();
+        }
+        final PageCodec codec = PageCodec.builder(schema, this.bufferAllocator).setCompression(this.pageSpillCompression).build();
+        return Optional.of(new SpillablePageQueue(this.pageSpillThresholdPages, codec, this.tempFileSpace));
+    }
+
+    /**
+     * Returns the number of pages queued between filters running in their own threads, or {@code 0} if filters run in
+     * the thread of the input. It is {@code filter_pipeline_queue_pages}.
+     */
+    public int getFilterPipelineQueuePages() {
+        return this.filterPipelineQueuePages;
+    }
+
+    /**
+     * Returns the pool of threads shared by runs, or empty if each run starts its own threads.
+     */
+    public Optional<SharedExecutorPool> getSharedExecutorPool() {
+        return Optional.ofNullable(this.sharedExecutorPool);
     }
 
     @Override
@@ -321,6 +479,13 @@ public class ExecSessionInternal extends ExecSession {
         return modelManager;
     }
 
+    /**
+     * Returns names of the classes of builtin plugins, which are registered in a worker process with the same classpath.
+     */
+    public Map<String, Map<String, String>> getBuiltinPluginClassNames() {
+        return this.pluginManager.getBuiltinPluginClassNames();
+    }
+
     @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1309
     public <T> T newPlugin(Class<T> iface, PluginType type) {
         return pluginManager.newPlugin(iface, type);
@@ -366,6 +531,74 @@ public class ExecSessionInternal extends ExecSession {
         return this.guessExecutor;
     }
 
+    private static boolean isColumnarPageLayout(final EmbulkSystemProperties embulkSystemProperties) {
+        final String layout = embulkSystemProperties.getProperty("page_layout", "row");
+        if ("columnar".equals(layout)) {
+            return true;
+        }
+        if (!"row".equals(layout)) {
+            logger.warn("\"page_layout\" is in an invalid value: '" + layout + "'. Pages are built in the row-oriented layout.");
+        }
+        return false;
+    }
+
+    private static boolean isAdaptivePageSize(final EmbulkSystemProperties embulkSystemProperties) {
+        final String policy = embulkSystemProperties.getProperty("page_size_policy", "fixed");
+        if ("adaptive".equals(policy)) {
+            return true;
+        }
+        if (!"fixed".equals(policy)) {
+            logger.warn("\"page_size_policy\" is in an invalid value: '" + policy + "'. Pages are sized for a record.");
+        }
+        return false;
+    }
+
+    private static int getPageTargetRecords(final EmbulkSystemProperties embulkSystemProperties) {
+        final int records = embulkSystemProperties.getPropertyAsInteger("page_target_records", 4096);
+        if (records <= 0) {
+            throw new ConfigException("\"page_target_records\" must be positive: " + records);
+        }
+        return records;
+    }
+
+    private static int getPageMaxSize(final EmbulkSystemProperties embulkSystemProperties) {
+        final long bytes = embulkSystemProperties.getPropertyAsByteSize("page_max_size", 1024L * 1024L);
+        if (bytes <= PageFormat.PAGE_HEADER_SIZE || bytes > Integer.MAX_VALUE) {
+            throw new ConfigException(String.format(
+                    "\"page_max_size\" must be larger than %d bytes, and up to %d bytes: %d", PageFormat.PAGE_HEADER_SIZE, Integer.MAX_VALUE, bytes));
+        }
+        return (int) bytes;
+    }
+
+    private static String getPageStrings(final EmbulkSystemProperties embulkSystemProperties, final boolean columnarPages) {
+        final String strings = embulkSystemProperties.getProperty("page_strings", "reference");
+        if ("inline".equals(strings)) {
+            if (columnarPages) {
+                logger.warn("\"page_strings: inline\" is not available with \"page_layout: columnar\". Strings are stored as references.");
+                return "reference";
+            }
+            return strings;
+        }
+        if ("dictionary".equals(strings)) {
+            return strings;
+        }
+        if (!"reference".equals(strings)) {
+            logger.warn("\"page_strings\" is in an invalid value: '" + strings + "'. Strings are stored as references.");
+        }
+        return "reference";
+    }
+
+    private static PageCompression getPageSpillCompression(final EmbulkSystemProperties embulkSystemProperties) {
+        final String compression = embulkSystemProperties.getProperty("page_spill_compression", "none");
+        if ("deflate".equals(compression)) {
+            return PageCompression.DEFLATE;
+        }
+        if (!"none".equals(compression)) {
+            logger.warn("\"page_spill_compression\" is in an invalid value: '" + compression + "'. Spilled pages are not compressed.");
+        }
+        return PageCompression.NONE;
+    }
+
     private static Optional<Instant> toInstantFromString(final String string) {
         if (string == null) {
             return Optional.empty();
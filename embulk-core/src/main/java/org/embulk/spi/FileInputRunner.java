@@ -18,7 +18,7 @@ import org.embulk.exec.SamplingParserPlugin;
 import org.embulk.plugin.PluginType;
 import org.embulk.spi.util.DecodersInternal;
 
-public class FileInputRunner implements InputPlugin, ConfigurableGuessInputPlugin {
+public class FileInputRunner implements EstimatableInputPlugin, ConfigurableGuessInputPlugin {
     public FileInputRunner(final FileInputPlugin fileInputPlugin, final EmbulkSystemProperties embulkSystemProperties) {
         this.fileInputPlugin = fileInputPlugin;
         this.embulkSystemProperties = embulkSystemProperties;
@@ -144,6 +144,15 @@ public class FileInputRunner implements InputPlugin, ConfigurableGuessInputPlugi
         }
     }
 
+    @Override
+    public long estimateTaskSize(TaskSource taskSource, Schema schema, int taskIndex) {
+        if (!(fileInputPlugin instanceof EstimatableFileInputPlugin)) {
+            return -1;
+        }
+        final RunnerTask task = loadRunnerTaskFromTaskSource(taskSource);
+        return ((EstimatableFileInputPlugin) fileInputPlugin).estimateTaskSize(task.getFileInputTaskSource(), taskIndex);
+    }
+
     @SuppressWarnings("deprecation") // https://github.com/embulk/embulk/issues/1301
     public static TaskSource getFileInputTaskSource(TaskSource runnerTaskSource) {
         return runnerTaskSource.loadTask(RunnerTask.class).getFileInputTaskSource();
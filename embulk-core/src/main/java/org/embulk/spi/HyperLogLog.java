@@ -0,0 +1,81 @@
+package org.embulk.spi;
+
+/**
+ * A HyperLogLog sketch to estimate the number of distinct values from their 64-bit hashes.
+ *
+ * <p>It has 2^10 registers, which estimate with a standard error of about 3%.
+ */
+final class HyperLogLog {
+    HyperLogLog() {
+        this.registers = new byte[REGISTERS];
+    }
+
+    private HyperLogLog(final byte[] registers) {
+        this.registers = registers;
+    }
+
+    void addHash(final long hash) {
+        final int index = (int) (hash >>> (64 - PRECISION));
+        // The sentinel bit limits the rank not to exceed the remaining (64 - PRECISION) bits.
+        final int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (this.registers[index] < rank) {
+            this.registers[index] = (byte) rank;
+        }
+    }
+
+    long estimate() {
+        double sum = 0.0;
+        int zeros = 0;
+        for (final byte register : this.registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // Linear counting for small cardinalities.
+            return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    void merge(final HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (this.registers[i] < other.registers[i]) {
+                this.registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    HyperLogLog copy() {
+        return new HyperLogLog(this.registers.clone());
+    }
+
+    static long hashLong(final long value) {
+        // The finalizer of MurmurHash3 to spread all bits.
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static long hashString(final String value) {
+        // FNV-1a on chars, and then spread.
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return hashLong(h);
+    }
+
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1.0 + 1.079 / REGISTERS);
+
+    private final byte[] registers;
+}
@@ -0,0 +1,11 @@
+package org.embulk.spi;
+
+/**
+ * An {@link OutputPlugin} whose output task can run in more than one attempt at a time for the same task index.
+ *
+ * <p>Committing one of the attempts and aborting the others must leave the same result as running the task once.
+ * {@link org.embulk.exec.LocalExecutorPlugin} with {@code "speculative_execution"} runs a duplicate attempt of a slow
+ * task only for such outputs.
+ */
+public interface IdempotentOutputPlugin extends OutputPlugin {
+}
@@ -0,0 +1,30 @@
+package org.embulk.spi;
+
+import java.util.Optional;
+import org.embulk.config.TaskReport;
+
+/**
+ * A part of an input task of {@link SplittableInputPlugin}, whose remaining work can be split off while it runs.
+ *
+ * <p>A split is, for example, a byte range of a file, or a key range of a table. {@link #trySplit()} shrinks the range
+ * of a running split, and returns the other part as a new split to run in another thread.
+ */
+public interface InputSplit {
+    /**
+     * Reads records in the range of this split into {@code output}. The range may shrink while running.
+     */
+    TaskReport run(PageOutput output);
+
+    /**
+     * Splits off a part of remaining work of this split, or returns {@link Optional#empty()} if remaining work is too
+     * small to split. Once it returns empty, it is not called again for this split.
+     *
+     * <p>It is called from a thread other than the one running {@link #run(PageOutput)}, concurrently with it.
+     */
+    Optional<InputSplit> trySplit();
+
+    /**
+     * Returns an estimate of remaining work, such as bytes. It chooses the split to split among splits of the same plugin.
+     */
+    long estimateRemainingSize();
+}
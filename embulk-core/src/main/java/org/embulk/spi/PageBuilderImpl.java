@@ -1,9 +1,11 @@
 package org.embulk.spi;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import org.embulk.exec.Slice;
 import org.embulk.spi.json.JsonValue;
 import org.embulk.spi.type.Type;
@@ -17,6 +19,29 @@ public class PageBuilderImpl extends PageBuilder {
     private final int[] columnOffsets;
     private final int fixedRecordSize;
 
+    private final boolean columnar;
+    private final int[] columnWidths;
+    private final int fixedColumnarRecordSize;
+    private final int[] nullBitmapOffsets;
+    private final int[] valueOffsets;
+    private int recordCapacity;
+
+    private final boolean inlineStrings;
+    private final int[] jsonColumnIndexes;
+    private final int[] referenceColumnIndexes;
+
+    private final StringDictionary dictionary;
+
+    private final boolean direct;
+    private final Type[] columnTypes;
+    private final byte[] setBitSet;
+    private int setCount;
+
+    private final boolean statistics;
+    private PageStatistics pageStatistics;
+    private final PageSizing pageSizing;
+    private ColumnStatistics[] columnStatistics;
+
     private Buffer buffer;
     private Slice bufferSlice;
 
@@ -30,6 +55,19 @@ public class PageBuilderImpl extends PageBuilder {
     private int nextVariableLengthDataOffset;
 
     public PageBuilderImpl(BufferAllocator allocator, Schema schema, PageOutput output) {
+        this(allocator, schema, output, false, false, false, false, false, null);
+    }
+
+    private PageBuilderImpl(
+            final BufferAllocator allocator,
+            final Schema schema,
+            final PageOutput output,
+            final boolean columnar,
+            final boolean inlineStrings,
+            final boolean dictionaryStrings,
+            final boolean direct,
+            final boolean statistics,
+            final PageSizing pageSizing) {
         this.allocator = allocator;
         this.output = output;
         this.schema = schema;
@@ -39,17 +77,165 @@ public class PageBuilderImpl extends PageBuilder {
         this.row = Row.newRow(schema);
         this.fixedRecordSize = PageFormat.recordHeaderSize(schema) + PageFormat.totalColumnSize(schema);
         this.nextVariableLengthDataOffset = fixedRecordSize;
+        this.columnar = columnar;
+        this.columnWidths = PageFormat.columnWidths(schema);
+        this.fixedColumnarRecordSize = schema.getFixedStorageSize();
+        this.nullBitmapOffsets = new int[schema.getColumnCount()];
+        this.valueOffsets = new int[schema.getColumnCount()];
+        this.inlineStrings = inlineStrings;
+        this.jsonColumnIndexes = columnIndexes(schema, Types.JSON);
+        this.referenceColumnIndexes = columnIndexes(schema, Types.STRING, Types.JSON);
+        this.dictionary = dictionaryStrings ? new StringDictionary() : null;
+        this.direct = direct;
+        this.columnTypes = new Type[schema.getColumnCount()];
+        for (int i = 0; i < columnTypes.length; i++) {
+            this.columnTypes[i] = schema.getColumnType(i);
+        }
+        this.setBitSet = new byte[PageFormat.nullBitSetSize(schema)];
+        this.setCount = 0;
+        this.statistics = statistics;
+        this.pageSizing = pageSizing;
         newBuffer();
     }
 
+    public static Builder builder(final BufferAllocator allocator, final Schema schema, final PageOutput output) {
+        return new Builder(allocator, schema, output);
+    }
+
+    /**
+     * Builds {@link PageBuilderImpl} with optional page formats.
+     */
+    public static final class Builder {
+        private final BufferAllocator allocator;
+        private final Schema schema;
+        private final PageOutput output;
+
+        private boolean columnar;
+        private boolean inlineStrings;
+        private boolean dictionaryStrings;
+        private boolean direct;
+        private boolean statistics;
+        private PageSizing pageSizing;
+
+        private Builder(final BufferAllocator allocator, final Schema schema, final PageOutput output) {
+            this.allocator = allocator;
+            this.schema = schema;
+            this.output = output;
+            this.columnar = false;
+            this.inlineStrings = false;
+            this.dictionaryStrings = false;
+            this.direct = false;
+            this.statistics = false;
+            this.pageSizing = null;
+        }
+
+        /**
+         * Builds pages in the columnar layout, a null bitmap and a contiguous value vector for each column.
+         *
+         * <p>Pages in the columnar layout are still readable record by record through {@link PageReaderImpl}.
+         * Batch accessors such as {@link PageReaderImpl#readLongs(int, long[])} read them without walking records.
+         */
+        public Builder setColumnar(final boolean columnar) {
+            this.columnar = columnar;
+            return this;
+        }
+
+        /**
+         * Stores strings as UTF-8 bytes in the page buffer instead of references to {@link String} objects.
+         *
+         * <p>The bytes are stored in the variable-length part of each record. It is available only in the row-oriented layout.
+         * {@link PageReaderImpl} decodes them only when {@link PageReaderImpl#getString(int)} is called, and
+         * {@link PageReaderImpl#getStringBytes(int)} returns the bytes without decoding.
+         */
+        public Builder setInlineStrings(final boolean inlineStrings) {
+            this.inlineStrings = inlineStrings;
+            return this;
+        }
+
+        /**
+         * Encodes strings with a per-page dictionary so that a value repeated in a page is stored only once.
+         *
+         * <p>STRING columns store codes of the dictionary, which are shared among all STRING columns in the page.
+         * {@link PageReaderImpl#getStringCode(int)} and {@link PageReaderImpl#getDictionary()} read them without
+         * looking up the strings again. It is not available with inline strings.
+         */
+        public Builder setDictionaryStrings(final boolean dictionaryStrings) {
+            this.dictionaryStrings = dictionaryStrings;
+            return this;
+        }
+
+        /**
+         * Writes values into the page buffer as soon as they are set, without staging them until {@link #addRecord()}.
+         *
+         * <p>It is strict unlike the default mode. Every column must be set exactly once for each record. Setting a column
+         * twice in a record, setting a value of a wrong type, or adding a record with unset columns throws
+         * {@link IllegalStateException}. Values are not repeated from the previous record.
+         */
+        public Builder setDirect(final boolean direct) {
+            this.direct = direct;
+            return this;
+        }
+
+        /**
+         * Collects statistics of each column while building pages, and attaches them to the pages.
+         *
+         * <p>They are null counts, minimum and maximum values, and estimates of the number of distinct values.
+         * {@link PageStatistics#of(Page)} returns them from a page.
+         */
+        public Builder setStatistics(final boolean statistics) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        /**
+         * Chooses sizes of page buffers with {@code pageSizing}, instead of the minimum size for a record.
+         *
+         * <p>The minimum size for a record gets a buffer of the page size of the allocator, or larger for a wide record.
+         * {@link PageSizing} requests larger buffers to hold its target number of records in a page.
+         */
+        public Builder setPageSizing(final PageSizing pageSizing) {
+            this.pageSizing = pageSizing;
+            return this;
+        }
+
+        public PageBuilderImpl build() {
+            if (this.columnar && this.inlineStrings) {
+                throw new IllegalStateException("Inline strings are not available in the columnar page layout.");
+            }
+            if (this.inlineStrings && this.dictionaryStrings) {
+                throw new IllegalStateException("Inline strings cannot be encoded with a dictionary.");
+            }
+            return new PageBuilderImpl(
+                    this.allocator, this.schema, this.output, this.columnar, this.inlineStrings, this.dictionaryStrings, this.direct, this.statistics,
+                    this.pageSizing);
+        }
+    }
+
     private void newBuffer() {
-        this.buffer = allocator.allocate(PageFormat.PAGE_HEADER_SIZE + fixedRecordSize);
-        this.bufferSlice = Slice.wrappedBuffer(buffer.array(), buffer.offset(), buffer.capacity());
+        if (this.columnar) {
+            this.buffer = allocator.allocate(pageBytes(fixedColumnarRecordSize, PageFormat.columnarPageSize(schema, 1)));
+            this.recordCapacity = PageFormat.columnarRecordCapacity(schema, buffer.capacity());
+            PageFormat.columnarOffsets(schema, recordCapacity, nullBitmapOffsets, valueOffsets);
+        } else {
+            this.buffer = allocator.allocate(pageBytes(fixedRecordSize, PageFormat.PAGE_HEADER_SIZE + fixedRecordSize));
+        }
+        this.bufferSlice = Slice.wrappedBuffer(buffer);
         this.count = 0;
         this.position = PageFormat.PAGE_HEADER_SIZE;
         this.stringReferences = new ArrayList<>();
         this.jsonValueReferences = new ArrayList<>();
         this.referenceSize = 0;
+        if (this.dictionary != null) {
+            this.dictionary.clear();
+        }
+        newStatistics();
+    }
+
+    private void newStatistics() {
+        if (this.statistics) {
+            this.pageStatistics = new PageStatistics(schema);
+            this.columnStatistics = this.pageStatistics.getColumnsInternal();
+        }
     }
 
     public Schema getSchema() {
@@ -61,6 +247,11 @@ public class PageBuilderImpl extends PageBuilder {
     }
 
     public void setNull(int columnIndex) {
+        if (direct) {
+            markSet(columnIndex);
+            writeNull(columnIndex);
+            return;
+        }
         row.setNull(columnIndex);
     }
 
@@ -70,6 +261,12 @@ public class PageBuilderImpl extends PageBuilder {
     }
 
     public void setBoolean(int columnIndex, boolean value) {
+        if (direct) {
+            checkType(columnIndex, Types.BOOLEAN);
+            markSet(columnIndex);
+            writeBoolean(columnIndex, value);
+            return;
+        }
         row.setBoolean(columnIndex, value);
     }
 
@@ -79,6 +276,12 @@ public class PageBuilderImpl extends PageBuilder {
     }
 
     public void setLong(int columnIndex, long value) {
+        if (direct) {
+            checkType(columnIndex, Types.LONG);
+            markSet(columnIndex);
+            writeLong(columnIndex, value);
+            return;
+        }
         row.setLong(columnIndex, value);
     }
 
@@ -88,6 +291,12 @@ public class PageBuilderImpl extends PageBuilder {
     }
 
     public void setDouble(int columnIndex, double value) {
+        if (direct) {
+            checkType(columnIndex, Types.DOUBLE);
+            markSet(columnIndex);
+            writeDouble(columnIndex, value);
+            return;
+        }
         row.setDouble(columnIndex, value);
     }
 
@@ -99,6 +308,10 @@ public class PageBuilderImpl extends PageBuilder {
     public void setString(int columnIndex, String value) {
         if (value == null) {
             setNull(columnIndex);
+        } else if (direct) {
+            checkType(columnIndex, Types.STRING);
+            markSet(columnIndex);
+            writeString(columnIndex, value);
         } else {
             row.setString(columnIndex, value);
         }
@@ -128,6 +341,10 @@ public class PageBuilderImpl extends PageBuilder {
     public void setJson(final int columnIndex, final JsonValue value) {
         if (value == null) {
             setNull(columnIndex);
+        } else if (direct) {
+            checkType(columnIndex, Types.JSON);
+            markSet(columnIndex);
+            writeJson(columnIndex, value);
         } else {
             row.setJson(columnIndex, value);
         }
@@ -154,13 +371,83 @@ public class PageBuilderImpl extends PageBuilder {
     public void setTimestamp(final int columnIndex, final Instant value) {
         if (value == null) {
             setNull(columnIndex);
+        } else if (direct) {
+            checkType(columnIndex, Types.TIMESTAMP);
+            markSet(columnIndex);
+            writeTimestamp(columnIndex, value);
         } else {
             row.setTimestamp(columnIndex, value);
         }
     }
 
+    private void checkType(final int columnIndex, final Type type) {
+        final Type columnType = columnTypes[columnIndex];
+        if (columnType != type && !columnType.equals(type)) {
+            final Column column = schema.getColumn(columnIndex);
+            throw new IllegalStateException(
+                    "Setting a " + type.getName().toUpperCase(Locale.ENGLISH) + " value to a " + columnType.getName().toUpperCase(Locale.ENGLISH) + " column: "
+                    + column.getName() + ", " + columnType);
+        }
+    }
+
+    private void markSet(final int columnIndex) {
+        final int bit = 1 << (columnIndex & 7);
+        if ((setBitSet[columnIndex >>> 3] & bit) != 0) {
+            throw new IllegalStateException("Setting a value twice to a column in a record: " + schema.getColumn(columnIndex).getName());
+        }
+        setBitSet[columnIndex >>> 3] |= bit;
+        setCount++;
+    }
+
+    private void checkNotInRecord() {
+        if (setCount > 0) {
+            // The values already written directly in the buffer would be lost.
+            throw new IllegalStateException("Flushing in the middle of a record.");
+        }
+    }
+
+    private void checkAllSet() {
+        if (setCount < columnTypes.length) {
+            for (int i = 0; i < columnTypes.length; i++) {
+                if ((setBitSet[i >>> 3] & (1 << (i & 7))) == 0) {
+                    throw new IllegalStateException("Adding a record without setting a value to a column: " + schema.getColumn(i).getName());
+                }
+            }
+        }
+        Arrays.fill(setBitSet, (byte) 0);
+        setCount = 0;
+    }
+
     private void writeNull(int columnIndex) {
         nullBitSet[columnIndex >>> 3] |= (1 << (columnIndex & 7));
+        if (statistics) {
+            columnStatistics[columnIndex].addNull();
+        }
+        if (columnar) {
+            // Values of nulls are zero in the columnar layout so that batch readers do not see garbage.
+            clearColumnarValue(columnIndex);
+        }
+    }
+
+    private void clearColumnarValue(final int columnIndex) {
+        final int offset = getOffset(columnIndex);
+        switch (columnWidths[columnIndex]) {
+            case 1:
+                bufferSlice.setByte(offset, 0);
+                break;
+            case 4:
+                bufferSlice.setInt(offset, 0);
+                break;
+            case 8:
+                bufferSlice.setLong(offset, 0L);
+                break;
+            case 12:
+                bufferSlice.setLong(offset, 0L);
+                bufferSlice.setInt(offset + 8, 0);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected fixed storage size: " + columnWidths[columnIndex]);
+        }
     }
 
     private void clearNull(int columnIndex) {
@@ -170,32 +457,219 @@ public class PageBuilderImpl extends PageBuilder {
     private void writeBoolean(int columnIndex, boolean value) {
         bufferSlice.setByte(getOffset(columnIndex), value ? (byte) 1 : (byte) 0);
         clearNull(columnIndex);
+        if (statistics) {
+            columnStatistics[columnIndex].addBoolean(value);
+        }
     }
 
     private void writeLong(int columnIndex, long value) {
         bufferSlice.setLong(getOffset(columnIndex), value);
         clearNull(columnIndex);
+        if (statistics) {
+            columnStatistics[columnIndex].addLong(value);
+        }
     }
 
     private void writeDouble(int columnIndex, double value) {
         bufferSlice.setDouble(getOffset(columnIndex), value);
         clearNull(columnIndex);
+        if (statistics) {
+            columnStatistics[columnIndex].addDouble(value);
+        }
     }
 
     private void writeString(int columnIndex, String value) {
+        if (inlineStrings) {
+            writeInlineString(columnIndex, value);
+            return;
+        }
+        bufferSlice.setInt(getOffset(columnIndex), addStringReference(value));
+        clearNull(columnIndex);
+        if (statistics) {
+            columnStatistics[columnIndex].addString(value);
+        }
+    }
+
+    private int addStringReference(final String value) {
+        if (dictionary != null) {
+            final int code = dictionary.find(value);
+            if (code >= 0) {
+                return code;  // only new entries of the dictionary take memory
+            }
+            dictionary.put(value, stringReferences.size());
+        }
         int index = stringReferences.size();
         stringReferences.add(value);
-        bufferSlice.setInt(getOffset(columnIndex), index);
         referenceSize += value.length() * 2 + 4;  // assuming size of char = size of byte * 2 + length
+        return index;
+    }
+
+    private void writeInlineString(final int columnIndex, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final int offset = nextVariableLengthDataOffset;
+        ensureVariableLengthDataCapacity(columnIndex, offset + 4 + bytes.length);
+        bufferSlice.setInt(position + offset, bytes.length);
+        bufferSlice.setBytes(position + offset + 4, bytes);
+        bufferSlice.setInt(getOffset(columnIndex), offset);  // offset from the record position
+        nextVariableLengthDataOffset += 4 + bytes.length;
         clearNull(columnIndex);
+        if (statistics) {
+            columnStatistics[columnIndex].addString(value);
+        }
+    }
+
+    private void ensureVariableLengthDataCapacity(final int columnIndex, final int requiredOffsetFromPosition) {
+        if (buffer.capacity() < position + requiredOffsetFromPosition) {
+            flushAndTakeOverRemainingData(columnIndex, requiredOffsetFromPosition);
+        }
+    }
+
+    /**
+     * Flushes the records completed so far, and moves the record being written to the head of a new buffer.
+     *
+     * <p>Values in the variable-length part are located with offsets from the record position, so the record is
+     * moved as it is. References of JSON values written for the record are moved into the new page.
+     *
+     * <p>Values written for the moved record are counted in statistics of the new page instead. Minimum and maximum
+     * values and distinct estimates of the flushed page may still include them, which are just wider than exact.
+     *
+     * <p>The record is copied aside so that the current buffer is flushed, or released, before the new buffer is
+     * allocated. Otherwise, a builder could wait for its own buffer under {@code "buffer_memory_limit"}.
+     */
+    private void flushAndTakeOverRemainingData(final int columnIndex, final int requiredOffsetFromPosition) {
+        final byte[] remainingData = new byte[nextVariableLengthDataOffset];
+        buffer.getBytes(position, remainingData, 0, nextVariableLengthDataOffset);
+
+        final ArrayList<JsonValue> remainingJsonValues = new ArrayList<>();
+        final int firstIndex;
+        if (count > 0) {
+            firstIndex = jsonValueReferences.size() - countJsonValuesInRecord();
+            remainingJsonValues.addAll(jsonValueReferences.subList(firstIndex, jsonValueReferences.size()));
+            jsonValueReferences.subList(firstIndex, jsonValueReferences.size()).clear();
+            if (statistics) {
+                uncountTakenOverValuesInStatistics(columnIndex);
+            }
+            doFlush();
+        } else {
+            firstIndex = 0;
+            remainingJsonValues.addAll(jsonValueReferences);
+            buffer.release();
+            buffer = null;
+            bufferSlice = null;
+        }
+
+        final Buffer newBuffer = allocator.allocate(
+                pageBytes(fixedRecordSize, PageFormat.PAGE_HEADER_SIZE + Math.max(fixedRecordSize, requiredOffsetFromPosition)));
+        final Slice newBufferSlice = Slice.wrappedBuffer(newBuffer);
+        newBuffer.setBytes(PageFormat.PAGE_HEADER_SIZE, remainingData, 0, remainingData.length);
+        if (firstIndex > 0) {
+            for (final int jsonColumnIndex : jsonColumnIndexes) {
+                if ((nullBitSet[jsonColumnIndex >>> 3] & (1 << (jsonColumnIndex & 7))) == 0) {
+                    final int columnOffset = PageFormat.PAGE_HEADER_SIZE + columnOffsets[jsonColumnIndex];
+                    newBufferSlice.setInt(columnOffset, newBufferSlice.getInt(columnOffset) - firstIndex);
+                }
+            }
+        }
+        if (count > 0 && statistics) {
+            newStatistics();
+            addTakenOverValuesToStatistics(columnIndex, newBufferSlice);
+        }
+
+        this.buffer = newBuffer;
+        this.bufferSlice = newBufferSlice;
+        this.count = 0;
+        this.position = PageFormat.PAGE_HEADER_SIZE;
+        this.stringReferences = new ArrayList<>();
+        this.jsonValueReferences = remainingJsonValues;
+        this.referenceSize = 0;
+        for (final JsonValue value : remainingJsonValues) {
+            this.referenceSize += value.presumeReferenceSizeInBytes();
+        }
+    }
+
+    private void uncountTakenOverValuesInStatistics(final int columnIndex) {
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (isWrittenBefore(i, columnIndex)) {
+                columnStatistics[i].uncount((nullBitSet[i >>> 3] & (1 << (i & 7))) != 0);
+            }
+        }
+    }
+
+    /**
+     * Counts values of the record moved to the head of {@code slice}, which are written before the column {@code columnIndex}.
+     */
+    private void addTakenOverValuesToStatistics(final int columnIndex, final Slice slice) {
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (!isWrittenBefore(i, columnIndex)) {
+                continue;
+            }
+            if ((nullBitSet[i >>> 3] & (1 << (i & 7))) != 0) {
+                columnStatistics[i].addNull();
+                continue;
+            }
+            final int offset = PageFormat.PAGE_HEADER_SIZE + columnOffsets[i];
+            final Type type = columnTypes[i];
+            if (type.equals(Types.BOOLEAN)) {
+                columnStatistics[i].addBoolean(slice.getByte(offset) != 0);
+            } else if (type.equals(Types.LONG)) {
+                columnStatistics[i].addLong(slice.getLong(offset));
+            } else if (type.equals(Types.DOUBLE)) {
+                columnStatistics[i].addDouble(slice.getDouble(offset));
+            } else if (type.equals(Types.STRING)) {
+                final int stringOffset = PageFormat.PAGE_HEADER_SIZE + slice.getInt(offset);
+                columnStatistics[i].addString(slice.toString(stringOffset + 4, slice.getInt(stringOffset), StandardCharsets.UTF_8));
+            } else if (type.equals(Types.TIMESTAMP)) {
+                columnStatistics[i].addTimestamp(Instant.ofEpochSecond(slice.getLong(offset), slice.getInt(offset + 8)));
+            } else if (type.equals(Types.JSON)) {
+                columnStatistics[i].addJson();
+            }
+        }
+    }
+
+    private boolean isWrittenBefore(final int columnIndex, final int currentColumnIndex) {
+        if (direct && setCount > 0) {
+            return columnIndex != currentColumnIndex && (setBitSet[columnIndex >>> 3] & (1 << (columnIndex & 7))) != 0;
+        }
+        return columnIndex < currentColumnIndex;  // Rows and batches are written in the order of columns.
+    }
+
+    private int countJsonValuesInRecord() {
+        int jsonValues = 0;
+        for (final int jsonColumnIndex : jsonColumnIndexes) {
+            if ((nullBitSet[jsonColumnIndex >>> 3] & (1 << (jsonColumnIndex & 7))) == 0) {
+                jsonValues++;
+            }
+        }
+        return jsonValues;
+    }
+
+    private static int[] columnIndexes(final Schema schema, final Type... types) {
+        final ArrayList<Integer> indexes = new ArrayList<>();
+        for (final Column column : schema.getColumns()) {
+            if (Arrays.asList(types).contains(column.getType())) {
+                indexes.add(column.getIndex());
+            }
+        }
+        final int[] array = new int[indexes.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indexes.get(i);
+        }
+        return array;
     }
 
     private void writeJson(final int columnIndex, final JsonValue value) {
+        this.bufferSlice.setInt(this.getOffset(columnIndex), this.addJsonReference(value));
+        this.clearNull(columnIndex);
+        if (this.statistics) {
+            this.columnStatistics[columnIndex].addJson();
+        }
+    }
+
+    private int addJsonReference(final JsonValue value) {
         final int index = this.jsonValueReferences.size();
         this.jsonValueReferences.add(value);
-        this.bufferSlice.setInt(this.getOffset(columnIndex), index);
         this.referenceSize += value.presumeReferenceSizeInBytes();
-        this.clearNull(columnIndex);
+        return index;
     }
 
     @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1292
@@ -204,16 +678,34 @@ public class PageBuilderImpl extends PageBuilder {
         bufferSlice.setLong(offset, value.getEpochSecond());
         bufferSlice.setInt(offset + 8, value.getNano());
         clearNull(columnIndex);
+        if (statistics) {
+            columnStatistics[columnIndex].addTimestamp(value);
+        }
     }
 
     private int getOffset(int columnIndex) {
+        if (columnar) {
+            return valueOffsets[columnIndex] + count * columnWidths[columnIndex];
+        }
         return position + columnOffsets[columnIndex];
     }
 
     public void addRecord() {
+        if (columnar) {
+            addColumnarRecord();
+            return;
+        }
+
         // record
-        row.write(this);
+        if (direct) {
+            checkAllSet();
+        } else {
+            row.write(this);
+        }
+        finishRecord();
+    }
 
+    private void finishRecord() {
         // record header
         bufferSlice.setInt(position, nextVariableLengthDataOffset);  // nextVariableLengthDataOffset means record size
         bufferSlice.setBytes(position + 4, nullBitSet);
@@ -223,29 +715,271 @@ public class PageBuilderImpl extends PageBuilder {
         this.nextVariableLengthDataOffset = fixedRecordSize;
         Arrays.fill(nullBitSet, (byte) -1);
 
-        // flush if next record will not fit in this buffer
-        if (buffer.capacity() < position + nextVariableLengthDataOffset + referenceSize) {
+        // flush if next record will not fit in this buffer, if the dictionary is too large to be useful,
+        // or if the page header cannot count more records with the format flags
+        if (buffer.capacity() < position + nextVariableLengthDataOffset + referenceSize || isDictionaryFull()
+                || (count >= PageFormat.MAX_FORMATTED_RECORDS && format() != PageFormat.FORMAT_ROW)) {
             flush();
         }
     }
 
+    private void addColumnarRecord() {
+        if (direct) {
+            checkAllSet();
+        } else {
+            row.write(this);
+        }
+
+        final int bitmapIndex = count >>> 3;
+        final int bit = 1 << (count & 7);
+        for (int i = 0; i < columnWidths.length; i++) {
+            final int offset = nullBitmapOffsets[i] + bitmapIndex;
+            if ((nullBitSet[i >>> 3] & (1 << (i & 7))) != 0) {
+                bufferSlice.setByte(offset, bufferSlice.getByte(offset) | bit);
+            } else {
+                bufferSlice.setByte(offset, bufferSlice.getByte(offset) & ~bit);
+            }
+        }
+        count++;
+        Arrays.fill(nullBitSet, (byte) -1);
+
+        // flush if the value vectors are full, or if the references are as large as the buffer
+        if (recordCapacity <= count || buffer.capacity() < (count + 1) * fixedColumnarRecordSize + referenceSize || isDictionaryFull()) {
+            flush();
+        }
+    }
+
+    /**
+     * Appends {@code rowCount} records from the arrays of {@code batch} at once.
+     *
+     * <p>Values are copied into pages in loops for each column in the columnar layout, and for each record in the
+     * row-oriented layout, without staging. Pages are flushed in the middle of the batch when they are full.
+     * Values staged with the setters for the next {@link #addRecord()} are not affected.
+     *
+     * @throws IllegalArgumentException if {@code batch} does not match the schema, or has less than {@code rowCount} values
+     */
+    public void appendBatch(final int rowCount, final ColumnBatch batch) {
+        checkNotInRecord();
+        batch.validate(schema, rowCount);
+        if (columnar) {
+            appendColumnarBatch(rowCount, batch);
+        } else {
+            appendRowBatch(rowCount, batch);
+        }
+    }
+
+    private void appendRowBatch(final int rowCount, final ColumnBatch batch) {
+        final int columnCount = columnTypes.length;
+        for (int row = 0; row < rowCount; row++) {
+            for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+                writeBatchValue(columnIndex, batch, row);
+            }
+            finishRecord();
+        }
+    }
+
+    private void writeBatchValue(final int columnIndex, final ColumnBatch batch, final int row) {
+        if (batch.isNull(columnIndex, row)) {
+            writeNull(columnIndex);
+            return;
+        }
+        final Object values = batch.getValues(columnIndex);
+        if (values instanceof long[]) {
+            writeLong(columnIndex, ((long[]) values)[row]);
+        } else if (values instanceof double[]) {
+            writeDouble(columnIndex, ((double[]) values)[row]);
+        } else if (values instanceof boolean[]) {
+            writeBoolean(columnIndex, ((boolean[]) values)[row]);
+        } else if (values instanceof String[]) {
+            writeString(columnIndex, ((String[]) values)[row]);
+        } else if (values instanceof Instant[]) {
+            writeTimestamp(columnIndex, ((Instant[]) values)[row]);
+        } else {
+            writeJson(columnIndex, ((JsonValue[]) values)[row]);
+        }
+    }
+
+    private void appendColumnarBatch(final int rowCount, final ColumnBatch batch) {
+        int offset = 0;
+        while (offset < rowCount) {
+            // References are written first to find how many records fit in this page.
+            final int rows = writeColumnarReferences(batch, offset, Math.min(rowCount - offset, recordCapacity - count));
+            for (int columnIndex = 0; columnIndex < columnWidths.length; columnIndex++) {
+                writeColumnarValues(columnIndex, batch, offset, rows);
+                writeColumnarNulls(columnIndex, batch, offset, rows);
+            }
+            if (statistics) {
+                addBatchToStatistics(batch, offset, rows);
+            }
+            count += rows;
+            offset += rows;
+
+            if (recordCapacity <= count || buffer.capacity() < (count + 1) * fixedColumnarRecordSize + referenceSize || isDictionaryFull()) {
+                flush();
+            }
+        }
+    }
+
+    private int writeColumnarReferences(final ColumnBatch batch, final int offset, final int maxRows) {
+        if (referenceColumnIndexes.length == 0) {
+            return maxRows;
+        }
+        int rows = 0;
+        while (rows < maxRows) {
+            final int record = count + rows;
+            for (final int columnIndex : referenceColumnIndexes) {
+                final int slot = valueOffsets[columnIndex] + record * PageFormat.VARIABLE_LENGTH_COLUMN_SIZE;
+                final Object values = batch.getValues(columnIndex);
+                if (batch.isNull(columnIndex, offset + rows)) {
+                    bufferSlice.setInt(slot, 0);
+                } else if (values instanceof String[]) {
+                    bufferSlice.setInt(slot, addStringReference(((String[]) values)[offset + rows]));
+                } else {
+                    bufferSlice.setInt(slot, addJsonReference(((JsonValue[]) values)[offset + rows]));
+                }
+            }
+            rows++;
+            if (buffer.capacity() < (count + rows + 1) * fixedColumnarRecordSize + referenceSize || isDictionaryFull()) {
+                break;
+            }
+        }
+        return rows;
+    }
+
+    private void writeColumnarValues(final int columnIndex, final ColumnBatch batch, final int offset, final int rows) {
+        final Object values = batch.getValues(columnIndex);
+        final boolean[] nulls = batch.getNulls(columnIndex);
+        final int base = valueOffsets[columnIndex] + count * columnWidths[columnIndex];
+        if (values instanceof long[]) {
+            final long[] longs = (long[]) values;
+            if (nulls == null) {
+                bufferSlice.setLongs(base, longs, offset, rows);
+            } else {
+                for (int i = 0; i < rows; i++) {
+                    bufferSlice.setLong(base + i * 8, nulls[offset + i] ? 0L : longs[offset + i]);
+                }
+            }
+        } else if (values instanceof double[]) {
+            final double[] doubles = (double[]) values;
+            if (nulls == null) {
+                bufferSlice.setDoubles(base, doubles, offset, rows);
+            } else {
+                for (int i = 0; i < rows; i++) {
+                    bufferSlice.setDouble(base + i * 8, nulls[offset + i] ? 0.0 : doubles[offset + i]);
+                }
+            }
+        } else if (values instanceof boolean[]) {
+            final boolean[] booleans = (boolean[]) values;
+            for (int i = 0; i < rows; i++) {
+                final boolean value = booleans[offset + i] && (nulls == null || !nulls[offset + i]);
+                bufferSlice.setByte(base + i, value ? (byte) 1 : (byte) 0);
+            }
+        } else if (values instanceof Instant[]) {
+            final Instant[] instants = (Instant[]) values;
+            for (int i = 0; i < rows; i++) {
+                final Instant value = (nulls != null && nulls[offset + i]) ? null : instants[offset + i];
+                bufferSlice.setLong(base + i * 12, value == null ? 0L : value.getEpochSecond());
+                bufferSlice.setInt(base + i * 12 + 8, value == null ? 0 : value.getNano());
+            }
+        }
+        // STRING and JSON values are written in writeColumnarReferences.
+    }
+
+    private void writeColumnarNulls(final int columnIndex, final ColumnBatch batch, final int offset, final int rows) {
+        for (int i = 0; i < rows; i++) {
+            final int record = count + i;
+            final int bitmapOffset = nullBitmapOffsets[columnIndex] + (record >>> 3);
+            final int bit = 1 << (record & 7);
+            if (batch.isNull(columnIndex, offset + i)) {
+                bufferSlice.setByte(bitmapOffset, bufferSlice.getByte(bitmapOffset) | bit);
+            } else {
+                bufferSlice.setByte(bitmapOffset, bufferSlice.getByte(bitmapOffset) & ~bit);
+            }
+        }
+    }
+
+    private void addBatchToStatistics(final ColumnBatch batch, final int offset, final int rows) {
+        for (int columnIndex = 0; columnIndex < columnStatistics.length; columnIndex++) {
+            final ColumnStatistics column = columnStatistics[columnIndex];
+            final Object values = batch.getValues(columnIndex);
+            for (int i = offset; i < offset + rows; i++) {
+                if (batch.isNull(columnIndex, i)) {
+                    column.addNull();
+                } else if (values instanceof long[]) {
+                    column.addLong(((long[]) values)[i]);
+                } else if (values instanceof double[]) {
+                    column.addDouble(((double[]) values)[i]);
+                } else if (values instanceof boolean[]) {
+                    column.addBoolean(((boolean[]) values)[i]);
+                } else if (values instanceof String[]) {
+                    column.addString(((String[]) values)[i]);
+                } else if (values instanceof Instant[]) {
+                    column.addTimestamp(((Instant[]) values)[i]);
+                } else {
+                    column.addJson();
+                }
+            }
+        }
+    }
+
+    private int pageBytes(final int fixedRecordBytes, final int minimumBytes) {
+        if (this.pageSizing == null) {
+            return minimumBytes;
+        }
+        return this.pageSizing.nextPageBytes(fixedRecordBytes, minimumBytes);
+    }
+
+    private boolean isDictionaryFull() {
+        return dictionary != null && dictionary.size() >= PageFormat.MAX_DICTIONARY_SIZE;
+    }
+
     private void doFlush() {
         if (buffer != null && count > 0) {
             // write page header
-            bufferSlice.setInt(0, count);
-            buffer.limit(position);
+            bufferSlice.setInt(0, PageFormat.pageHeader(format(), count));
+            if (columnar) {
+                for (int i = 0; i < columnWidths.length; i++) {
+                    bufferSlice.setInt(PageFormat.PAGE_HEADER_SIZE + i * 8, nullBitmapOffsets[i]);
+                    bufferSlice.setInt(PageFormat.PAGE_HEADER_SIZE + i * 8 + 4, valueOffsets[i]);
+                }
+                buffer.limit(PageFormat.columnarPageSize(schema, recordCapacity));
+            } else {
+                buffer.limit(position);
+            }
+            if (pageSizing != null) {
+                pageSizing.observe(count, (columnar ? (long) count * fixedColumnarRecordSize : position - PageFormat.PAGE_HEADER_SIZE) + referenceSize);
+            }
 
             // flush page
             final PageImpl page = PageImpl.wrap(buffer)
                     .setStringReferencesInternal(this.stringReferences)
                     .setJsonValueReferencesInternal(this.jsonValueReferences);
+            if (statistics) {
+                pageStatistics.setRecordCountInternal(count);
+                page.setStatisticsInternal(pageStatistics);
+            }
             buffer = null;
             bufferSlice = null;
             output.add(page);
         }
     }
 
+    private int format() {
+        int format = PageFormat.FORMAT_ROW;
+        if (columnar) {
+            format |= PageFormat.FORMAT_COLUMNAR;
+        }
+        if (inlineStrings) {
+            format |= PageFormat.FORMAT_INLINE_STRINGS;
+        }
+        if (dictionary != null) {
+            format |= PageFormat.FORMAT_DICTIONARY_STRINGS;
+        }
+        return format;
+    }
+
     public void flush() {
+        checkNotInRecord();
         doFlush();
         if (buffer == null) {
             newBuffer();
@@ -253,7 +987,11 @@ public class PageBuilderImpl extends PageBuilder {
     }
 
     public void finish() {
+        checkNotInRecord();
         doFlush();
+        if (pageSizing != null) {
+            pageSizing.logSummary(schema);
+        }
         output.finish();
     }
 
@@ -671,107 +1409,4 @@ public class PageBuilderImpl extends PageBuilder {
             pageBuilder.writeTimestamp(column.getIndex(), value);
         }
     }
-
-    /* TODO for variable-length types
-    private void flushAndTakeOverRemaingData()
-    {
-        if (page != null) {
-            // page header
-            page.setInt(0, count);
-
-            Page lastPage = page;
-
-            this.page = allocator.allocatePage(Page.PAGE_HEADER_SIZE + fixedRecordSize + nextVariableLengthDataOffset);
-            page.setBytes(Page.PAGE_HEADER_SIZE, lastPage, position, nextVariableLengthDataOffset);
-            this.count = 0;
-            this.position = Page.PAGE_HEADER_SIZE;
-
-            output.add(lastPage);
-        }
-    }
-
-    public int getVariableLengthDataOffset()
-    {
-        return nextVariableLengthDataOffset;
-    }
-
-    public VariableLengthDataWriter setVariableLengthData(int columnIndex, int intData)
-    {
-        // Page.VARIABLE_LENGTH_COLUMN_SIZE is 4 bytes
-        page.setInt(position + columnOffsets[columnIndex], intData);
-        return new VariableLengthDataWriter(nextVariableLengthDataOffset);
-    }
-
-    Page ensureVariableLengthDataCapacity(int requiredOffsetFromPosition)
-    {
-        if (page.capacity() < position + requiredOffsetFromPosition) {
-            flushAndTakeOverRemaingData();
-        }
-        return page;
-    }
-
-    public class VariableLengthDataWriter
-    {
-        private int offsetFromPosition;
-
-        VariableLengthDataWriter(int offsetFromPosition)
-        {
-            this.offsetFromPosition = offsetFromPosition;
-        }
-
-        public void writeByte(byte value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 1);
-            page.setByte(position + offsetFromPosition, value);
-            offsetFromPosition += 1;
-        }
-
-        public void writeShort(short value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 2);
-            page.setShort(position + offsetFromPosition, value);
-            offsetFromPosition += 2;
-        }
-
-        public void writeInt(int value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 4);
-            page.setInt(position + offsetFromPosition, value);
-            offsetFromPosition += 4;
-        }
-
-        public void writeLong(long value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 8);
-            page.setLong(position + offsetFromPosition, value);
-            offsetFromPosition += 8;
-        }
-
-        public void writeFloat(float value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 4);
-            page.setFloat(position + offsetFromPosition, value);
-            offsetFromPosition += 4;
-        }
-
-        public void writeDouble(double value)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + 8);
-            page.setDouble(position + offsetFromPosition, value);
-            offsetFromPosition += 8;
-        }
-
-        public void writeBytes(byte[] data)
-        {
-            writeBytes(data, 0, data.length);
-        }
-
-        public void writeBytes(byte[] data, int off, int len)
-        {
-            ensureVariableLengthDataCapacity(offsetFromPosition + len);
-            page.setBytes(position + offsetFromPosition, data, off, len);
-            offsetFromPosition += len;
-        }
-    }
-    */
 }
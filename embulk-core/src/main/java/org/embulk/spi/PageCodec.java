@@ -0,0 +1,347 @@
+package org.embulk.spi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.embulk.exec.Slice;
+import org.embulk.spi.json.JsonValue;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+/**
+ * Serializes pages into channels, and deserializes them, to spill pages to files or to transfer them between processes.
+ *
+ * <p>A serialized page is a frame of a fixed-size header, the page buffer, and its string and JSON references in MessagePack.
+ * The header has the page format flags in {@link PageFormat} and a fingerprint of the schema, which is verified when
+ * the page is read. Uncompressed buffers are written from, and read into, page buffers without intermediate copies.
+ *
+ * <p>Frames are self-delimited. Multiple pages can be written into a channel one by one, and read back in the order.
+ */
+public final class PageCodec {
+    private PageCodec(
+            final Schema schema,
+            final BufferAllocator allocator,
+            final PageCompression compression,
+            final Map<Byte, PageCompression> compressions) {
+        this.schema = schema;
+        this.allocator = allocator;
+        this.compression = compression;
+        this.compressions = compressions;
+        this.fingerprint = fingerprint(schema);
+    }
+
+    public static Builder builder(final Schema schema, final BufferAllocator allocator) {
+        return new Builder(schema, allocator);
+    }
+
+    public static final class Builder {
+        private final Schema schema;
+        private final BufferAllocator allocator;
+        private final HashMap<Byte, PageCompression> compressions;
+
+        private PageCompression compression;
+
+        private Builder(final Schema schema, final BufferAllocator allocator) {
+            this.schema = schema;
+            this.allocator = allocator;
+            this.compressions = new HashMap<>();
+            this.compressions.put(PageCompression.NONE.getId(), PageCompression.NONE);
+            this.compressions.put(PageCompression.DEFLATE.getId(), PageCompression.DEFLATE);
+            this.compression = PageCompression.NONE;
+        }
+
+        /**
+         * Compresses pages to write with {@code compression}. It is {@link PageCompression#NONE} by default.
+         */
+        public Builder setCompression(final PageCompression compression) {
+            this.addCompression(compression);
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Registers {@code compression} to read pages compressed with it.
+         *
+         * @throws IllegalArgumentException if another compression is registered with the same ID
+         */
+        public Builder addCompression(final PageCompression compression) {
+            final PageCompression existing = this.compressions.putIfAbsent(compression.getId(), compression);
+            if (existing != null && existing != compression) {
+                throw new IllegalArgumentException("Compression ID " + compression.getId() + " is already used by " + existing + ".");
+            }
+            return this;
+        }
+
+        public PageCodec build() {
+            return new PageCodec(this.schema, this.allocator, this.compression, Collections.unmodifiableMap(new HashMap<>(this.compressions)));
+        }
+    }
+
+    public Schema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Writes {@code page} into {@code channel}. The page is not released.
+     *
+     * <p>A projected page is written in its projected schema as it is materialized.
+     */
+    public void write(final Page page, final WritableByteChannel channel) throws IOException {
+        if (page instanceof ProjectedPage) {
+            for (final Page materialized : materialize((ProjectedPage) page)) {
+                try {
+                    this.write(materialized, channel);
+                } finally {
+                    materialized.release();
+                }
+            }
+            return;
+        }
+
+        final Buffer buffer = page.buffer();
+        final int bufferLength = buffer.limit();
+        final byte[] references = packReferences(page);
+        final boolean compressed = this.compression != PageCompression.NONE;
+        // A buffer out of Java heap is copied through an array, which is what compressions and channels take.
+        final boolean direct = buffer instanceof DirectBufferImpl;
+        final byte[] bufferArray = direct ? new byte[bufferLength] : buffer.array();
+        final int bufferOffset = direct ? 0 : buffer.offset();
+        if (direct) {
+            buffer.getBytes(0, bufferArray, 0, bufferLength);
+        }
+        final byte[] storedBuffer = compressed ? this.compression.compress(bufferArray, bufferOffset, bufferLength) : null;
+        final byte[] storedReferences = compressed ? this.compression.compress(references, 0, references.length) : references;
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.put(VERSION);
+        header.put(this.compression.getId());
+        header.putShort((short) 0);
+        header.putInt(PageFormat.formatOfHeader(Slice.wrappedBuffer(buffer).getInt(0)));
+        header.putLong(this.fingerprint);
+        header.putInt(bufferLength);
+        header.putInt(compressed ? storedBuffer.length : bufferLength);
+        header.putInt(references.length);
+        header.putInt(storedReferences.length);
+        header.flip();
+
+        writeFully(channel, header);
+        if (compressed) {
+            writeFully(channel, ByteBuffer.wrap(storedBuffer));
+        } else {
+            writeFully(channel, ByteBuffer.wrap(bufferArray, bufferOffset, bufferLength));
+        }
+        writeFully(channel, ByteBuffer.wrap(storedReferences));
+    }
+
+    /**
+     * Reads a page from {@code channel}, or returns {@code null} at the end of the channel.
+     *
+     * @throws IOException if the channel ends in the middle of a page, or the page is broken
+     * @throws IllegalArgumentException if the page is written in another schema
+     */
+    public Page read(final ReadableByteChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header, true)) {
+            return null;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a serialized page.");
+        }
+        final byte version = header.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of a serialized page: " + version);
+        }
+        final byte compressionId = header.get();
+        final PageCompression compression = this.compressions.get(compressionId);
+        if (compression == null) {
+            throw new IOException("Unknown compression of a serialized page: " + compressionId);
+        }
+        header.getShort();
+        final int format = header.getInt();
+        if (header.getLong() != this.fingerprint) {
+            throw new IllegalArgumentException("Serialized page is written in a schema different from " + this.schema + ".");
+        }
+        final int bufferLength = header.getInt();
+        final int storedBufferLength = header.getInt();
+        final int referencesLength = header.getInt();
+        final int storedReferencesLength = header.getInt();
+
+        final Buffer buffer = this.allocator.allocate(bufferLength);
+        try {
+            final boolean direct = buffer instanceof DirectBufferImpl;
+            final byte[] bufferArray = direct ? new byte[bufferLength] : buffer.array();
+            final int bufferOffset = direct ? 0 : buffer.offset();
+            if (compression == PageCompression.NONE) {
+                readFully(channel, ByteBuffer.wrap(bufferArray, bufferOffset, bufferLength), false);
+            } else {
+                final byte[] storedBuffer = new byte[storedBufferLength];
+                readFully(channel, ByteBuffer.wrap(storedBuffer), false);
+                compression.decompress(storedBuffer, 0, storedBufferLength, bufferArray, bufferOffset, bufferLength);
+            }
+            if (direct) {
+                buffer.setBytes(0, bufferArray, 0, bufferLength);
+            }
+            buffer.limit(bufferLength);
+
+            final byte[] storedReferences = new byte[storedReferencesLength];
+            readFully(channel, ByteBuffer.wrap(storedReferences), false);
+            final byte[] references;
+            if (compression == PageCompression.NONE) {
+                references = storedReferences;
+            } else {
+                references = new byte[referencesLength];
+                compression.decompress(storedReferences, 0, storedReferencesLength, references, 0, referencesLength);
+            }
+
+            final PageImpl page = PageImpl.wrap(buffer);
+            if (page.getFormatInternal() != format) {
+                throw new IOException("Serialized page has a format different from its header: " + format);
+            }
+            unpackReferences(references, page);
+            return page;
+        } catch (final IOException | RuntimeException ex) {
+            buffer.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns a fingerprint of names and types of columns in {@code schema}.
+     */
+    public static long fingerprint(final Schema schema) {
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (final Column column : schema.getColumns()) {
+            final String signature = column.getName() + ":" + column.getType().getName() + ";";
+            for (int i = 0; i < signature.length(); i++) {
+                hash ^= signature.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    private List<Page> materialize(final ProjectedPage page) {
+        // The view is over a buffer which is not released so that the projected page is still available to the caller.
+        final Buffer buffer = page.buffer();
+        final Buffer unreleased;
+        if (buffer instanceof DirectBufferImpl) {
+            unreleased = new DirectBufferImpl(((DirectBufferImpl) buffer).address() + buffer.offset(), buffer.capacity());
+        } else {
+            unreleased = BufferImpl.wrap(buffer.array(), buffer.offset(), buffer.capacity());
+        }
+        unreleased.limit(buffer.limit());
+        final PageImpl source = PageImpl.wrap(unreleased)
+                .setStringReferencesInternal(page.getStringReferencesInternal())
+                .setJsonValueReferencesInternal(page.getJsonValueReferencesInternal());
+        final Page view = ProjectedPage.of(source, page.getSourceSchema(), page.getSchema(), page.getColumnMapping());
+
+        final ArrayList<Page> pages = new ArrayList<>();
+        PageProjection.materialize(view, this.allocator, new PageOutput() {
+            @Override
+            public void add(final Page page) {
+                pages.add(page);
+            }
+
+            @Override
+            public void finish() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return pages;
+    }
+
+    @SuppressWarnings("deprecation")  // For use of JsonValue#toMsgpack()
+    private static byte[] packReferences(final Page page) throws IOException {
+        final List<String> strings;
+        final List<JsonValue> jsonValues;
+        if (page instanceof PageImpl) {
+            strings = ((PageImpl) page).getStringReferencesInternal();
+            jsonValues = ((PageImpl) page).getJsonValueReferencesInternal();
+        } else {
+            strings = null;
+            jsonValues = null;
+        }
+
+        try (final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(strings == null ? 0 : strings.size());
+            if (strings != null) {
+                for (final String value : strings) {
+                    packer.packString(value);
+                }
+            }
+            packer.packArrayHeader(jsonValues == null ? 0 : jsonValues.size());
+            if (jsonValues != null) {
+                for (final JsonValue value : jsonValues) {
+                    packer.packValue(value.toMsgpack());
+                }
+            }
+            return packer.toByteArray();
+        }
+    }
+
+    @SuppressWarnings("deprecation")  // For use of JsonValue.fromMsgpack(Value)
+    private static void unpackReferences(final byte[] references, final PageImpl page) throws IOException {
+        try (final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(references, 0, references.length)) {
+            final int stringCount = unpacker.unpackArrayHeader();
+            final ArrayList<String> strings = new ArrayList<>(stringCount);
+            for (int i = 0; i < stringCount; i++) {
+                strings.add(unpacker.unpackString());
+            }
+            final int jsonValueCount = unpacker.unpackArrayHeader();
+            final ArrayList<JsonValue> jsonValues = new ArrayList<>(jsonValueCount);
+            for (int i = 0; i < jsonValueCount; i++) {
+                jsonValues.add(JsonValue.fromMsgpack(unpacker.unpackValue()));
+            }
+            page.setStringReferencesInternal(Collections.unmodifiableList(strings));
+            page.setJsonValueReferencesInternal(Collections.unmodifiableList(jsonValues));
+        }
+    }
+
+    private static void writeFully(final WritableByteChannel channel, final ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    /**
+     * Reads bytes until {@code destination} is full. It returns {@code false} if the channel ends before any byte only when
+     * {@code allowEmpty} is {@code true}.
+     */
+    private static boolean readFully(final ReadableByteChannel channel, final ByteBuffer destination, final boolean allowEmpty) throws IOException {
+        while (destination.hasRemaining()) {
+            if (channel.read(destination) < 0) {
+                if (allowEmpty && destination.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Serialized page ends unexpectedly.");
+            }
+        }
+        return true;
+    }
+
+    private static final int MAGIC = 0x454d5047;  // "EMPG"
+    private static final byte VERSION = 1;
+
+    // magic, version, compression, reserved, format, fingerprint, and uncompressed and stored lengths of the buffer and the references
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 2 + 4 + 8 + 4 + 4 + 4 + 4;
+
+    private final Schema schema;
+    private final BufferAllocator allocator;
+    private final PageCompression compression;
+    private final Map<Byte, PageCompression> compressions;
+    private final long fingerprint;
+}
@@ -0,0 +1,124 @@
+package org.embulk.spi;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses blocks of pages serialized by {@link PageCodec}.
+ *
+ * <p>Each compression has an ID stored in serialized pages, so that {@link PageCodec} finds the compression to read them.
+ * IDs from {@code 0} to {@code 63} are reserved for compressions of Embulk. Other compressions, such as LZ4 or Zstandard
+ * implemented with their libraries, can be registered with {@link PageCodec.Builder#addCompression(PageCompression)}.
+ */
+public interface PageCompression {
+    /**
+     * Returns the ID of this compression stored in serialized pages.
+     */
+    byte getId();
+
+    /**
+     * Returns {@code length} bytes from {@code source} at {@code offset} compressed.
+     */
+    byte[] compress(byte[] source, int offset, int length);
+
+    /**
+     * Decompresses {@code source} into {@code destination} at {@code destinationOffset}, which is {@code destinationLength} bytes.
+     *
+     * @throws IOException if {@code source} is broken
+     */
+    void decompress(byte[] source, int sourceOffset, int sourceLength, byte[] destination, int destinationOffset, int destinationLength)
+            throws IOException;
+
+    /**
+     * Stores blocks as they are.
+     */
+    PageCompression NONE = new PageCompression() {
+        @Override
+        public byte getId() {
+            return 0;
+        }
+
+        @Override
+        public byte[] compress(final byte[] source, final int offset, final int length) {
+            return Arrays.copyOfRange(source, offset, offset + length);
+        }
+
+        @Override
+        public void decompress(
+                final byte[] source, final int sourceOffset, final int sourceLength,
+                final byte[] destination, final int destinationOffset, final int destinationLength) throws IOException {
+            if (sourceLength != destinationLength) {
+                throw new IOException("Uncompressed block has " + sourceLength + " bytes while " + destinationLength + " bytes are expected.");
+            }
+            System.arraycopy(source, sourceOffset, destination, destinationOffset, destinationLength);
+        }
+
+        @Override
+        public String toString() {
+            return "none";
+        }
+    };
+
+    /**
+     * Compresses blocks with {@link Deflater} in the fastest level, which is available without additional libraries.
+     */
+    PageCompression DEFLATE = new PageCompression() {
+        @Override
+        public byte getId() {
+            return 1;
+        }
+
+        @Override
+        public byte[] compress(final byte[] source, final int offset, final int length) {
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(source, offset, length);
+                deflater.finish();
+                byte[] compressed = new byte[Math.max(64, length / 2)];
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+                return Arrays.copyOf(compressed, compressedLength);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public void decompress(
+                final byte[] source, final int sourceOffset, final int sourceLength,
+                final byte[] destination, final int destinationOffset, final int destinationLength) throws IOException {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(source, sourceOffset, sourceLength);
+                int inflated = 0;
+                while (inflated < destinationLength) {
+                    final int length = inflater.inflate(destination, destinationOffset + inflated, destinationLength - inflated);
+                    if (length == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    inflated += length;
+                }
+                if (inflated != destinationLength) {
+                    throw new IOException("Deflated block has " + inflated + " bytes while " + destinationLength + " bytes are expected.");
+                }
+            } catch (final DataFormatException ex) {
+                throw new IOException("Deflated block is broken.", ex);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "deflate";
+        }
+    };
+}
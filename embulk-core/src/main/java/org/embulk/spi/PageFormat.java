@@ -15,6 +15,58 @@ abstract class PageFormat {
     // uses 4 bytes integer
     static final int VARIABLE_LENGTH_COLUMN_SIZE = 4;
 
+    // Format flags of a Page
+    static final int FORMAT_ROW = 0;
+    static final int FORMAT_COLUMNAR = 0x1;
+    static final int FORMAT_INLINE_STRINGS = 0x2;
+    static final int FORMAT_DICTIONARY_STRINGS = 0x4;
+
+    // PageHeader of a page in a format other than FORMAT_ROW
+    // +---+---------+
+    // | 1 |    3    |
+    // +---+---------+
+    // 0x80 | format flags, and count (number of records)
+    //
+    // The flags are kept in the buffer so that a page wrapped again from its buffer is read in its format. The header
+    // of a row-oriented page is the count as is, and never has the top bit as the count is not negative.
+    static final int FORMAT_HEADER_MARK = 0x80000000;
+    static final int MAX_FORMATTED_RECORDS = (1 << 24) - 1;
+
+    static int pageHeader(final int format, final int count) {
+        if (format == FORMAT_ROW) {
+            return count;
+        }
+        if (count > MAX_FORMATTED_RECORDS) {
+            throw new IllegalStateException("Too many records in a page: " + count);
+        }
+        return FORMAT_HEADER_MARK | (format << 24) | count;
+    }
+
+    static int formatOfHeader(final int header) {
+        if ((header & FORMAT_HEADER_MARK) == 0) {
+            return FORMAT_ROW;
+        }
+        return (header >>> 24) & 0x7f;
+    }
+
+    static int recordCountOfHeader(final int header) {
+        if ((header & FORMAT_HEADER_MARK) == 0) {
+            return header;
+        }
+        return header & MAX_FORMATTED_RECORDS;
+    }
+
+    // A page with a string dictionary has no duplicates in its string references. The references are the dictionary,
+    // and the 4-byte slot of a STRING column is the code, an index of the references, as in pages without a dictionary.
+    // The dictionary is capped not to grow too large for high cardinality columns. A page is flushed when it is full.
+    static final int MAX_DICTIONARY_SIZE = 1 << 14;
+
+    // Inline strings in the row-oriented format
+    // +----------------------------+       +---+-------------------+
+    // | 4 (in the fixed part)      | ----> | 4 | length bytes      |
+    // +----------------------------+       +---+-------------------+
+    // offset from the record position        length and UTF-8 bytes in the variable-length part of the record
+
     static int nullBitSetSize(Schema schema) {
         return (schema.getColumnCount() + 7) / 8;
     }
@@ -39,4 +91,73 @@ abstract class PageFormat {
 
         return offsets;
     }
+
+    // Columnar PageHeader
+    // +---+-----------------------------+
+    // | 4 | (4 + 4) * number of columns |
+    // +---+-----------------------------+
+    // count  offsets of (null bitmap, values) for each column
+    //
+    // The header is followed by a null bitmap and a contiguous value vector for each column, each aligned to 8 bytes.
+    // A value vector stores fixed-length values in the same representation as the row-oriented format.
+
+    // Not to make a page too large for a schema with few (or no) columns.
+    static final int MAX_COLUMNAR_RECORDS = 1 << 16;
+
+    static int columnarHeaderSize(Schema schema) {
+        return align(PAGE_HEADER_SIZE + schema.getColumnCount() * 8);
+    }
+
+    static int[] columnWidths(Schema schema) {
+        final int[] widths = new int[schema.getColumnCount()];
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            widths[i] = schema.getColumnType(i).getFixedStorageSize();
+        }
+        return widths;
+    }
+
+    /**
+     * Calculates the offsets of null bitmaps and value vectors for {@code recordCapacity} records.
+     *
+     * @return the page size required
+     */
+    static int columnarOffsets(Schema schema, int recordCapacity, int[] nullBitmapOffsets, int[] valueOffsets) {
+        int offset = columnarHeaderSize(schema);
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            nullBitmapOffsets[i] = offset;
+            offset += align((recordCapacity + 7) / 8);
+            valueOffsets[i] = offset;
+            offset += align(recordCapacity * schema.getColumnType(i).getFixedStorageSize());
+        }
+        return offset;
+    }
+
+    static int columnarPageSize(Schema schema, int recordCapacity) {
+        int size = columnarHeaderSize(schema);
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            size += align((recordCapacity + 7) / 8);
+            size += align(recordCapacity * schema.getColumnType(i).getFixedStorageSize());
+        }
+        return size;
+    }
+
+    static int columnarRecordCapacity(Schema schema, int pageCapacity) {
+        final long bitsPerRecord = 8L * schema.getFixedStorageSize() + schema.getColumnCount();
+        if (bitsPerRecord == 0) {
+            return MAX_COLUMNAR_RECORDS;
+        }
+        final long available = (long) pageCapacity - columnarHeaderSize(schema) - 16L * schema.getColumnCount();
+        int records = (int) Math.max(0L, Math.min(MAX_COLUMNAR_RECORDS, available * 8 / bitsPerRecord));
+        while (records > 0 && columnarPageSize(schema, records) > pageCapacity) {
+            records--;
+        }
+        while (records < MAX_COLUMNAR_RECORDS && columnarPageSize(schema, records + 1) <= pageCapacity) {
+            records++;
+        }
+        return records;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
 }
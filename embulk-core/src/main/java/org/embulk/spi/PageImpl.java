@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.embulk.exec.Slice;
 import org.embulk.spi.json.JsonValue;
 import org.msgpack.value.ImmutableValue;
 import org.slf4j.Logger;
@@ -22,13 +23,14 @@ import org.slf4j.LoggerFactory;
  * allocates so many Pages at the same time. Recent Embulk is streaming-driven instead of
  * multithreaded queue-based.
  *
- * Page is NOT for inter-process communication. For multi-process execution such as MapReduce
- * Executor, the executor plugin takes responsibility about interoperable serialization.
+ * Page is NOT for inter-process communication by itself. For multi-process execution such as MapReduce
+ * Executor, or spilling pages to files, {@link PageCodec} serializes pages with their references.
  */
 public class PageImpl extends Page {
     private final Buffer buffer;
     private List<String> stringReferences;
     private List<JsonValue> jsonValueReferences;
+    private PageStatistics statistics;
 
     protected PageImpl(Buffer buffer) {
         this.buffer = buffer;
@@ -99,6 +101,48 @@ public class PageImpl extends Page {
         return this.jsonValueReferences;
     }
 
+    /**
+     * Returns format flags of this page in {@link PageFormat}, such as {@code PageFormat.FORMAT_COLUMNAR}.
+     *
+     * <p>They are read from the page header in the buffer.
+     */
+    int getFormatInternal() {
+        return PageFormat.formatOfHeader(Slice.wrappedBuffer(this.buffer).getInt(0));
+    }
+
+    PageImpl setStatisticsInternal(final PageStatistics statistics) {
+        this.statistics = statistics;
+        return this;
+    }
+
+    /**
+     * Returns statistics of columns in this page, or {@code null} if it is built without statistics.
+     */
+    PageStatistics getStatisticsInternal() {
+        return this.statistics;
+    }
+
+    /**
+     * Returns an estimate of bytes retained by this page in the heap, including its buffer and its referenced values.
+     *
+     * <p>Unlike the size estimated by {@link PageBuilderImpl} to flush pages, it counts headers of {@link String} objects.
+     * It walks the references, then it is not for every page in hot paths.
+     */
+    public long getRetainedBytes() {
+        long bytes = this.buffer.capacity();
+        if (this.stringReferences != null) {
+            for (final String value : this.stringReferences) {
+                bytes += STRING_OVERHEAD_BYTES + (long) value.length() * 2;
+            }
+        }
+        if (this.jsonValueReferences != null) {
+            for (final JsonValue value : this.jsonValueReferences) {
+                bytes += value.presumeReferenceSizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
     @Override
     public String getStringReference(int index) {
         return stringReferences.get(index);
@@ -142,6 +186,9 @@ public class PageImpl extends Page {
 
     private static final Logger logger = LoggerFactory.getLogger(PageImpl.class);
 
+    // Headers of a String and its array, the hash, and the array reference in a 64-bit JVM.
+    private static final long STRING_OVERHEAD_BYTES = 40;
+
     private static final AtomicBoolean hasLoggedSetStringReferences = new AtomicBoolean(false);
 
     private static final AtomicBoolean hasLoggedSetValueReferences = new AtomicBoolean(false);
@@ -0,0 +1,248 @@
+package org.embulk.spi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.embulk.config.TaskReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits bytes of pages in flight, and blocks adding pages into outputs while the limit is exhausted.
+ *
+ * <p>Pages are accounted with {@link PageImpl#getRetainedBytes()} when they are added into an output wrapped by
+ * {@link #accounting(PageOutput)}. The output receives the page over a buffer wrapped by {@link ReleaseHooks}, and
+ * the page is unaccounted when its buffer is released, either by {@link Page#release()} or by
+ * {@code page.buffer().release()}. A budget of a task can have a parent budget shared among tasks, which is acquired
+ * together.
+ *
+ * <p>A page is always accepted when no other pages are in flight so that a single large page does not block forever.
+ * A page is also accepted beyond the limit after waiting for the timeout, as an output plugin may keep pages until
+ * it finishes. It is counted as an overcommit, and later pages are accepted without waiting until the usage goes
+ * down within the limit again, not to wait for the timeout on every page.
+ */
+public final class PageMemoryBudget {
+    PageMemoryBudget(final long limitBytes, final PageMemoryBudget parent, final long waitTimeoutMillis) {
+        this.limitBytes = limitBytes;
+        this.parent = parent;
+        this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+    }
+
+    /**
+     * Returns the limit in bytes, or {@code 0} if unlimited.
+     */
+    public long getLimitBytes() {
+        return this.limitBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return this.peakBytes;
+    }
+
+    public synchronized long getBlockedCount() {
+        return this.blockedCount;
+    }
+
+    public synchronized long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.blockedNanos);
+    }
+
+    public synchronized long getOvercommitCount() {
+        return this.overcommitCount;
+    }
+
+    /**
+     * Acquires {@code bytes} from this budget and its parent, blocking while the limit is exhausted.
+     */
+    public void acquire(final long bytes) throws InterruptedException {
+        this.acquireInternal(bytes);
+        if (this.parent != null) {
+            try {
+                this.parent.acquire(bytes);
+            } catch (final InterruptedException | RuntimeException ex) {
+                this.releaseInternal(bytes);
+                throw ex;
+            }
+        }
+    }
+
+    public void release(final long bytes) {
+        this.releaseInternal(bytes);
+        if (this.parent != null) {
+            this.parent.release(bytes);
+        }
+    }
+
+    /**
+     * Returns a {@link PageOutput} which accounts pages in this budget before adding them into {@code output}.
+     *
+     * <p>Pages already accounted in another output are added as they are.
+     */
+    public PageOutput accounting(final PageOutput output) {
+        return new PageOutput() {
+            @Override
+            public void add(final Page page) {
+                output.add(account(page));
+            }
+
+            @Override
+            public void finish() {
+                output.finish();
+            }
+
+            @Override
+            public void close() {
+                output.close();
+            }
+        };
+    }
+
+    /**
+     * Returns a {@link TransactionalPageOutput} which accounts pages in this budget, and reports the usage as
+     * {@code "page_memory"} in its task report.
+     */
+    public TransactionalPageOutput accounting(final TransactionalPageOutput output) {
+        return new TransactionalPageOutput() {
+            @Override
+            public void add(final Page page) {
+                output.add(account(page));
+            }
+
+            @Override
+            public void finish() {
+                output.finish();
+            }
+
+            @Override
+            public void close() {
+                output.close();
+            }
+
+            @Override
+            public void abort() {
+                output.abort();
+            }
+
+            @Override
+            public TaskReport commit() {
+                TaskReport report = output.commit();
+                if (report == null) {
+                    report = Exec.newTaskReport();
+                }
+                report.set("page_memory", summarize());
+                return report;
+            }
+        };
+    }
+
+    private Page account(final Page page) {
+        if (!(page instanceof PageImpl) || ReleaseHooks.getHook(page.buffer()) instanceof Unaccounting) {
+            return page;  // Pages of other implementations are not estimated. Pages accounted already are as they are.
+        }
+        final PageImpl pageImpl = (PageImpl) page;
+        final long bytes = pageImpl.getRetainedBytes();
+        try {
+            this.acquire(bytes);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        return rewrap(pageImpl, ReleaseHooks.wrap(pageImpl.buffer(), new Unaccounting(bytes)));
+    }
+
+    // Builds the same page over the wrapped buffer, so that releasing the buffer directly unaccounts the page as well.
+    private static Page rewrap(final PageImpl page, final Buffer buffer) {
+        final PageImpl source = PageImpl.wrap(buffer)
+                .setStringReferencesInternal(page.getStringReferencesInternal())
+                .setJsonValueReferencesInternal(page.getJsonValueReferencesInternal());
+        if (!(page instanceof ProjectedPage)) {
+            return source.setStatisticsInternal(page.getStatisticsInternal());
+        }
+        final ProjectedPage projected = (ProjectedPage) page;
+        return ProjectedPage.of(source, projected.getSourceSchema(), projected.getSchema(), projected.getColumnMapping())
+                .setStatisticsInternal(projected.getStatisticsInternal());
+    }
+
+    private final class Unaccounting implements Runnable {
+        Unaccounting(final long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            PageMemoryBudget.this.release(this.bytes);
+        }
+
+        private final long bytes;
+    }
+
+    private Map<String, Object> summarize() {
+        final LinkedHashMap<String, Object> summary = new LinkedHashMap<>();
+        summary.put("peak_bytes", this.getPeakBytes());
+        summary.put("limit_bytes", this.limitBytes);
+        summary.put("blocked_count", this.getBlockedCount());
+        summary.put("blocked_millis", this.getBlockedMillis());
+        summary.put("overcommit_count", this.getOvercommitCount());
+        if (this.parent != null) {
+            summary.put("global_peak_bytes", this.parent.getPeakBytes());
+        }
+        return summary;
+    }
+
+    private synchronized void acquireInternal(final long bytes) throws InterruptedException {
+        if (this.overcommitting && this.usedBytes + bytes > this.limitBytes) {
+            this.overcommitCount++;
+        } else if (this.limitBytes > 0 && this.usedBytes > 0 && this.usedBytes + bytes > this.limitBytes) {
+            this.blockedCount++;
+            final long startedAt = System.nanoTime();
+            try {
+                while (!this.overcommitting && this.usedBytes > 0 && this.usedBytes + bytes > this.limitBytes) {
+                    final long remaining = startedAt + this.waitTimeoutNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        if (this.overcommitCount == 0) {
+                            logger.warn("Pages in flight exceed the memory budget of {} bytes after waiting for {} ms. "
+                                        + "An output plugin may keep pages until it finishes, or may not release pages. "
+                                        + "Pages are accepted without waiting until the usage goes down within the budget.",
+                                        this.limitBytes, TimeUnit.NANOSECONDS.toMillis(this.waitTimeoutNanos));
+                        }
+                        this.overcommitCount++;
+                        this.overcommitting = true;
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } finally {
+                this.blockedNanos += System.nanoTime() - startedAt;
+            }
+        }
+        this.usedBytes += bytes;
+        if (this.peakBytes < this.usedBytes) {
+            this.peakBytes = this.usedBytes;
+        }
+    }
+
+    private synchronized void releaseInternal(final long bytes) {
+        this.usedBytes -= bytes;
+        if (this.usedBytes <= this.limitBytes) {
+            this.overcommitting = false;
+        }
+        this.notifyAll();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PageMemoryBudget.class);
+
+    private final long limitBytes;
+    private final PageMemoryBudget parent;
+    private final long waitTimeoutNanos;
+
+    private long usedBytes;
+    private long peakBytes;
+    private long blockedCount;
+    private long blockedNanos;
+    private long overcommitCount;
+    private boolean overcommitting;
+}
@@ -0,0 +1,221 @@
+package org.embulk.spi;
+
+import java.util.List;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+/**
+ * Projects pages onto a subset of their columns, possibly reordered, without copying records.
+ *
+ * <p>A projected page is a view of its source page. {@link PageReaderImpl} reads it with the projected schema through
+ * the column mapping. A filter which only removes or reorders columns can pass projected pages to the next plugin.
+ *
+ * <p>A projected page still has the physical layout of its source page in its buffer. Code which reads {@link Page#buffer()}
+ * directly, not through {@link PageReaderImpl}, needs to materialize it with {@link #materialize(Page, BufferAllocator, PageOutput)}
+ * or {@link #materializing(PageOutput, BufferAllocator)}.
+ */
+public final class PageProjection {
+    private PageProjection(final Schema sourceSchema, final Schema schema, final int[] columnMapping) {
+        this.sourceSchema = sourceSchema;
+        this.schema = schema;
+        this.columnMapping = columnMapping;
+    }
+
+    /**
+     * Creates a projection onto the columns at {@code columnIndexes} of {@code sourceSchema} in the order.
+     */
+    public static PageProjection of(final Schema sourceSchema, final int... columnIndexes) {
+        final Schema.Builder builder = Schema.builder();
+        for (final int columnIndex : columnIndexes) {
+            final Column column = sourceSchema.getColumn(columnIndex);
+            builder.add(column.getName(), column.getType());
+        }
+        return of(sourceSchema, builder.build(), columnIndexes);
+    }
+
+    /**
+     * Creates a projection onto the columns named {@code columnNames} of {@code sourceSchema} in the order.
+     *
+     * @throws IllegalArgumentException if a column is not found
+     */
+    public static PageProjection ofColumnNames(final Schema sourceSchema, final List<String> columnNames) {
+        final int[] columnIndexes = new int[columnNames.size()];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = indexOf(sourceSchema, columnNames.get(i));
+        }
+        return of(sourceSchema, columnIndexes);
+    }
+
+    /**
+     * Creates a projection onto {@code schema}, whose column {@code i} is the column {@code columnMapping[i]} of {@code sourceSchema}.
+     *
+     * <p>Columns can be renamed, but their types must be the same as the source columns.
+     *
+     * @throws IllegalArgumentException if the mapping does not match the schemas
+     */
+    public static PageProjection of(final Schema sourceSchema, final Schema schema, final int[] columnMapping) {
+        if (schema.getColumnCount() != columnMapping.length) {
+            throw new IllegalArgumentException(
+                    "Column mapping has " + columnMapping.length + " columns while the schema has " + schema.getColumnCount() + " columns.");
+        }
+        for (int i = 0; i < columnMapping.length; i++) {
+            if (columnMapping[i] < 0 || sourceSchema.getColumnCount() <= columnMapping[i]) {
+                throw new IllegalArgumentException("Column mapping refers to a column out of the source schema: " + columnMapping[i]);
+            }
+            if (!schema.getColumnType(i).equals(sourceSchema.getColumnType(columnMapping[i]))) {
+                throw new IllegalArgumentException("Column '" + schema.getColumnName(i) + "' is " + schema.getColumnType(i)
+                        + " while the source column '" + sourceSchema.getColumnName(columnMapping[i]) + "' is "
+                        + sourceSchema.getColumnType(columnMapping[i]) + ".");
+            }
+        }
+        return new PageProjection(sourceSchema, schema, columnMapping.clone());
+    }
+
+    public Schema getSourceSchema() {
+        return this.sourceSchema;
+    }
+
+    public Schema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Returns a view of {@code page} in the projected schema. The buffer of {@code page} is taken over by the view.
+     *
+     * @throws IllegalArgumentException if {@code page} is not built by {@link PageBuilderImpl}
+     */
+    public Page project(final Page page) {
+        if (!(page instanceof PageImpl)) {
+            throw new IllegalArgumentException("Page to project must be built by PageBuilderImpl: " + page.getClass().getName());
+        }
+        if (page instanceof ProjectedPage && ((ProjectedPage) page).getSchema().getColumnCount() != this.sourceSchema.getColumnCount()) {
+            throw new IllegalArgumentException("Page to project does not have the source schema of the projection.");
+        }
+        return ProjectedPage.of((PageImpl) page, this.sourceSchema, this.schema, this.columnMapping);
+    }
+
+    /**
+     * Returns whether {@code page} is a view which does not have the physical layout of its schema.
+     */
+    public static boolean isProjected(final Page page) {
+        return page instanceof ProjectedPage;
+    }
+
+    /**
+     * Adds {@code page} into {@code output} in its physical layout, copying its records if it is projected.
+     *
+     * <p>A projected page is released after it is copied.
+     */
+    public static void materialize(final Page page, final BufferAllocator allocator, final PageOutput output) {
+        if (!(page instanceof ProjectedPage)) {
+            output.add(page);
+            return;
+        }
+
+        final ProjectedPage projected = (ProjectedPage) page;
+        final Schema schema = projected.getSchema();
+        final int format = projected.getFormatInternal();
+        final PageBuilderImpl builder = PageBuilderImpl.builder(allocator, schema, new ForwardingPageOutput(output))
+                .setColumnar((format & PageFormat.FORMAT_COLUMNAR) != 0)
+                .setInlineStrings((format & PageFormat.FORMAT_INLINE_STRINGS) != 0)
+                .setDictionaryStrings((format & PageFormat.FORMAT_DICTIONARY_STRINGS) != 0)
+                .setDirect(true)
+                .build();
+        final PageReaderImpl reader = new PageReaderImpl(schema);
+        try {
+            reader.setPage(projected);
+            while (reader.nextRecord()) {
+                copyRecord(schema, reader, builder);
+            }
+            builder.flush();
+        } finally {
+            reader.close();  // It releases the projected page.
+            builder.close();
+        }
+    }
+
+    /**
+     * Returns a {@link PageOutput} which materializes projected pages before adding them into {@code output}.
+     */
+    public static PageOutput materializing(final PageOutput output, final BufferAllocator allocator) {
+        return new PageOutput() {
+            @Override
+            public void add(final Page page) {
+                materialize(page, allocator, output);
+            }
+
+            @Override
+            public void finish() {
+                output.finish();
+            }
+
+            @Override
+            public void close() {
+                output.close();
+            }
+        };
+    }
+
+    private static void copyRecord(final Schema schema, final PageReaderImpl reader, final PageBuilderImpl builder) {
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            if (reader.isNull(i)) {
+                builder.setNull(i);
+                continue;
+            }
+            final Type type = schema.getColumnType(i);
+            if (type.equals(Types.BOOLEAN)) {
+                builder.setBoolean(i, reader.getBoolean(i));
+            } else if (type.equals(Types.LONG)) {
+                builder.setLong(i, reader.getLong(i));
+            } else if (type.equals(Types.DOUBLE)) {
+                builder.setDouble(i, reader.getDouble(i));
+            } else if (type.equals(Types.STRING)) {
+                builder.setString(i, reader.getString(i));
+            } else if (type.equals(Types.TIMESTAMP)) {
+                builder.setTimestamp(i, reader.getTimestampInstant(i));
+            } else if (type.equals(Types.JSON)) {
+                builder.setJson(i, reader.getJsonValue(i));
+            } else {
+                throw new IllegalStateException("Unsupported type " + type.getName());
+            }
+        }
+        builder.addRecord();
+    }
+
+    private static int indexOf(final Schema schema, final String columnName) {
+        for (final Column column : schema.getColumns()) {
+            if (column.getName().equals(columnName)) {
+                return column.getIndex();
+            }
+        }
+        throw new IllegalArgumentException("Column '" + columnName + "' is not found.");
+    }
+
+    /**
+     * Adds pages into the output, but does not finish nor close it as the output is shared with other pages.
+     */
+    private static class ForwardingPageOutput implements PageOutput {
+        ForwardingPageOutput(final PageOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void add(final Page page) {
+            this.output.add(page);
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private final PageOutput output;
+    }
+
+    private final Schema sourceSchema;
+    private final Schema schema;
+    private final int[] columnMapping;
+}
@@ -1,13 +1,19 @@
 package org.embulk.spi;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
 import org.embulk.exec.Slice;
 import org.embulk.spi.json.JsonValue;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
 import org.msgpack.value.Value;
 
 public class PageReaderImpl extends PageReader {
     private final Schema schema;
-    private final int[] columnOffsets;
+    private final int[] schemaColumnOffsets;
+    private int[] columnOffsets;
 
     private Page page = SENTINEL;
     private Slice pageSlice = null;
@@ -15,38 +21,102 @@ public class PageReaderImpl extends PageReader {
 
     private int readCount = 0;
     private int position;
-    private final byte[] nullBitSet;
+    private final byte[] schemaNullBitSet;
+    private byte[] nullBitSet;
 
-    private static final Page SENTINEL = PageImpl.wrap(BufferImpl.wrap(new byte[4]));  // buffer().release() does nothing
+    // Physical column indexes in the page for each column. They are different from the indexes in the schema
+    // only while reading a projected page.
+    private final int[] identityColumns;
+    private int[] physicalColumns;
+    private final int[] projectedColumnOffsets;
+
+    private boolean columnar = false;
+    private boolean inlineStrings = false;
+    private boolean dictionaryStrings = false;
+    private final int[] columnWidths;
+    private final int[] nullBitmapOffsets;
+    private final int[] valueOffsets;
+
+    private static final Page SENTINEL = PageImpl.wrap(BufferImpl.wrap(new byte[4]));  // release() does nothing
 
     public PageReaderImpl(Schema schema) {
         this.schema = schema;
-        this.columnOffsets = PageFormat.columnOffsets(schema);
-        this.nullBitSet = new byte[PageFormat.nullBitSetSize(schema)];
+        this.schemaColumnOffsets = PageFormat.columnOffsets(schema);
+        this.columnOffsets = this.schemaColumnOffsets;
+        this.schemaNullBitSet = new byte[PageFormat.nullBitSetSize(schema)];
+        this.nullBitSet = this.schemaNullBitSet;
+        this.identityColumns = new int[schema.getColumnCount()];
+        for (int i = 0; i < this.identityColumns.length; i++) {
+            this.identityColumns[i] = i;
+        }
+        this.physicalColumns = this.identityColumns;
+        this.projectedColumnOffsets = new int[schema.getColumnCount()];
+        this.columnWidths = PageFormat.columnWidths(schema);
+        this.nullBitmapOffsets = new int[schema.getColumnCount()];
+        this.valueOffsets = new int[schema.getColumnCount()];
     }
 
     public static int getRecordCount(Page page) {
         Buffer pageBuffer = page.buffer();
-        final Slice pageSlice = Slice.wrappedBuffer(pageBuffer.array(), pageBuffer.offset(), pageBuffer.capacity());
-        return pageSlice.getInt(0);  // see page format
+        final Slice pageSlice = Slice.wrappedBuffer(pageBuffer);
+        return PageFormat.recordCountOfHeader(pageSlice.getInt(0));  // see page format
     }
 
     @Override
     public void setPage(Page page) {
-        this.page.buffer().release();
+        this.page.release();
         this.page = SENTINEL;
 
         Buffer pageBuffer = page.buffer();
-        final Slice pageSlice = Slice.wrappedBuffer(pageBuffer.array(), pageBuffer.offset(), pageBuffer.capacity());
+        final Slice pageSlice = Slice.wrappedBuffer(pageBuffer);
 
-        pageRecordCount = pageSlice.getInt(0);  // see page format
+        final int header = pageSlice.getInt(0);  // see page format
+        pageRecordCount = PageFormat.recordCountOfHeader(header);
         readCount = 0;
         position = PageFormat.PAGE_HEADER_SIZE;
 
+        final int format = PageFormat.formatOfHeader(header);
+        columnar = (format & PageFormat.FORMAT_COLUMNAR) != 0;
+        inlineStrings = (format & PageFormat.FORMAT_INLINE_STRINGS) != 0;
+        dictionaryStrings = (format & PageFormat.FORMAT_DICTIONARY_STRINGS) != 0;
+        if (page instanceof ProjectedPage) {
+            setProjection((ProjectedPage) page);
+        } else {
+            physicalColumns = identityColumns;
+            columnOffsets = schemaColumnOffsets;
+            nullBitSet = schemaNullBitSet;
+        }
+        if (columnar) {
+            for (int i = 0; i < columnWidths.length; i++) {
+                nullBitmapOffsets[i] = pageSlice.getInt(PageFormat.PAGE_HEADER_SIZE + physicalColumns[i] * 8);
+                valueOffsets[i] = pageSlice.getInt(PageFormat.PAGE_HEADER_SIZE + physicalColumns[i] * 8 + 4);
+            }
+        }
+
         this.page = page;
         this.pageSlice = pageSlice;
     }
 
+    private void setProjection(final ProjectedPage projected) {
+        if (projected.getSchema().getColumnCount() != schema.getColumnCount()) {
+            throw new IllegalArgumentException("Projected page has " + projected.getSchema().getColumnCount()
+                    + " columns while the reader has " + schema.getColumnCount() + " columns.");
+        }
+        final Schema sourceSchema = projected.getSourceSchema();
+        physicalColumns = projected.getColumnMapping();
+        if (!columnar) {
+            final int[] sourceColumnOffsets = PageFormat.columnOffsets(sourceSchema);
+            for (int i = 0; i < physicalColumns.length; i++) {
+                projectedColumnOffsets[i] = sourceColumnOffsets[physicalColumns[i]];
+            }
+            columnOffsets = projectedColumnOffsets;
+            final int sourceNullBitSetSize = PageFormat.nullBitSetSize(sourceSchema);
+            if (nullBitSet == schemaNullBitSet || nullBitSet.length != sourceNullBitSetSize) {
+                nullBitSet = new byte[sourceNullBitSetSize];
+            }
+        }
+    }
+
     @Override
     public Schema getSchema() {
         return schema;
@@ -59,7 +129,12 @@ public class PageReaderImpl extends PageReader {
 
     @Override
     public boolean isNull(int columnIndex) {
-        return (nullBitSet[columnIndex >>> 3] & (1 << (columnIndex & 7))) != 0;
+        if (columnar) {
+            final int recordIndex = readCount - 1;
+            return (pageSlice.getByte(nullBitmapOffsets[columnIndex] + (recordIndex >>> 3)) & (1 << (recordIndex & 7))) != 0;
+        }
+        final int physicalColumn = physicalColumns[columnIndex];
+        return (nullBitSet[physicalColumn >>> 3] & (1 << (physicalColumn & 7))) != 0;
     }
 
     @Override
@@ -106,10 +181,92 @@ public class PageReaderImpl extends PageReader {
         if (isNull(columnIndex)) {
             return null;
         }
+        if (inlineStrings) {
+            final int offset = position + pageSlice.getInt(getOffset(columnIndex));
+            return pageSlice.toString(offset + 4, pageSlice.getInt(offset), StandardCharsets.UTF_8);
+        }
         int index = pageSlice.getInt(getOffset(columnIndex));
         return page.getStringReference(index);
     }
 
+    /**
+     * Returns a STRING value as UTF-8 bytes.
+     *
+     * <p>It copies the bytes without decoding them when the page stores strings inline.
+     *
+     * @return UTF-8 bytes of the value, or {@code null} if the value is null
+     */
+    public byte[] getStringBytes(final Column column) {
+        return getStringBytes(column.getIndex());
+    }
+
+    /**
+     * Returns a STRING value as UTF-8 bytes.
+     *
+     * <p>It copies the bytes without decoding them when the page stores strings inline.
+     *
+     * @return UTF-8 bytes of the value, or {@code null} if the value is null
+     */
+    public byte[] getStringBytes(final int columnIndex) {
+        if (isNull(columnIndex)) {
+            return null;
+        }
+        if (inlineStrings) {
+            final int offset = position + pageSlice.getInt(getOffset(columnIndex));
+            final byte[] bytes = new byte[pageSlice.getInt(offset)];
+            pageSlice.getBytes(offset + 4, bytes, 0, bytes.length);
+            return bytes;
+        }
+        return page.getStringReference(pageSlice.getInt(getOffset(columnIndex))).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the code of a STRING value in the dictionary of the current page.
+     *
+     * <p>Codes are shared among all STRING columns in a page. The same value has the same code in a page whose strings
+     * are encoded with a dictionary, but codes of different pages are not comparable.
+     *
+     * @return the code, an index of {@link #getDictionary()}, or {@code -1} if the value is null
+     * @throws IllegalStateException if the page stores strings inline
+     */
+    public int getStringCode(final Column column) {
+        return getStringCode(column.getIndex());
+    }
+
+    /**
+     * Returns the code of a STRING value in the dictionary of the current page.
+     *
+     * @see #getStringCode(Column)
+     */
+    public int getStringCode(final int columnIndex) {
+        if (inlineStrings) {
+            throw new IllegalStateException("The page stores strings inline without codes.");
+        }
+        if (isNull(columnIndex)) {
+            return -1;
+        }
+        return pageSlice.getInt(getOffset(columnIndex));
+    }
+
+    /**
+     * Returns whether the strings in the current page are encoded with a dictionary without duplicates.
+     */
+    public boolean hasDictionary() {
+        return dictionaryStrings;
+    }
+
+    /**
+     * Returns the dictionary of the current page, STRING values indexed by their codes.
+     *
+     * @throws IllegalStateException if the strings in the page are not encoded with a dictionary
+     */
+    public List<String> getDictionary() {
+        if (!dictionaryStrings) {
+            throw new IllegalStateException("The strings in the page are not encoded with a dictionary.");
+        }
+        return Collections.unmodifiableList(((PageImpl) page).getStringReferencesInternal());
+    }
+
     /**
      * Returns a Timestamp value.
      *
@@ -207,7 +364,128 @@ public class PageReaderImpl extends PageReader {
         return this.page.getJsonValueReference(index);
     }
 
+    /**
+     * Returns the number of records in the current page.
+     */
+    public int getPageRecordCount() {
+        return pageRecordCount;
+    }
+
+    /**
+     * Reads all the LONG values of the column in the current page into {@code dst} regardless of the current record.
+     *
+     * <p>It copies the value vector at once from a page in the columnar layout. Values of nulls are {@code 0}.
+     *
+     * @param columnIndex  the index of the LONG column
+     * @param dst  the array to read into, which must be as long as {@link #getPageRecordCount()} at least
+     * @return the number of values read
+     */
+    public int readLongs(final int columnIndex, final long[] dst) {
+        checkBatch(columnIndex, Types.LONG, dst.length);
+        if (columnar) {
+            pageSlice.getLongs(valueOffsets[columnIndex], dst, 0, pageRecordCount);
+            return pageRecordCount;
+        }
+        int recordPosition = PageFormat.PAGE_HEADER_SIZE;
+        for (int i = 0; i < pageRecordCount; i++) {
+            dst[i] = isNullInRecord(recordPosition, columnIndex) ? 0L : pageSlice.getLong(recordPosition + columnOffsets[columnIndex]);
+            recordPosition += pageSlice.getInt(recordPosition);
+        }
+        return pageRecordCount;
+    }
+
+    /**
+     * Reads all the DOUBLE values of the column in the current page into {@code dst} regardless of the current record.
+     *
+     * <p>It copies the value vector at once from a page in the columnar layout. Values of nulls are {@code 0.0}.
+     *
+     * @param columnIndex  the index of the DOUBLE column
+     * @param dst  the array to read into, which must be as long as {@link #getPageRecordCount()} at least
+     * @return the number of values read
+     */
+    public int readDoubles(final int columnIndex, final double[] dst) {
+        checkBatch(columnIndex, Types.DOUBLE, dst.length);
+        if (columnar) {
+            pageSlice.getDoubles(valueOffsets[columnIndex], dst, 0, pageRecordCount);
+            return pageRecordCount;
+        }
+        int recordPosition = PageFormat.PAGE_HEADER_SIZE;
+        for (int i = 0; i < pageRecordCount; i++) {
+            dst[i] = isNullInRecord(recordPosition, columnIndex) ? 0.0 : pageSlice.getDouble(recordPosition + columnOffsets[columnIndex]);
+            recordPosition += pageSlice.getInt(recordPosition);
+        }
+        return pageRecordCount;
+    }
+
+    /**
+     * Reads all the BOOLEAN values of the column in the current page into {@code dst} regardless of the current record.
+     *
+     * <p>Values of nulls are {@code false}.
+     *
+     * @param columnIndex  the index of the BOOLEAN column
+     * @param dst  the array to read into, which must be as long as {@link #getPageRecordCount()} at least
+     * @return the number of values read
+     */
+    public int readBooleans(final int columnIndex, final boolean[] dst) {
+        checkBatch(columnIndex, Types.BOOLEAN, dst.length);
+        if (columnar) {
+            final int offset = valueOffsets[columnIndex];
+            for (int i = 0; i < pageRecordCount; i++) {
+                dst[i] = pageSlice.getByte(offset + i) != (byte) 0;
+            }
+            return pageRecordCount;
+        }
+        int recordPosition = PageFormat.PAGE_HEADER_SIZE;
+        for (int i = 0; i < pageRecordCount; i++) {
+            dst[i] = !isNullInRecord(recordPosition, columnIndex) && pageSlice.getByte(recordPosition + columnOffsets[columnIndex]) != (byte) 0;
+            recordPosition += pageSlice.getInt(recordPosition);
+        }
+        return pageRecordCount;
+    }
+
+    /**
+     * Reads the null mask of the column in the current page into {@code dst} regardless of the current record.
+     *
+     * @param columnIndex  the index of the column
+     * @param dst  the array to read into, {@code true} for null, which must be as long as {@link #getPageRecordCount()} at least
+     * @return the number of records read
+     */
+    public int readNulls(final int columnIndex, final boolean[] dst) {
+        checkBatch(columnIndex, null, dst.length);
+        if (columnar) {
+            final int offset = nullBitmapOffsets[columnIndex];
+            for (int i = 0; i < pageRecordCount; i++) {
+                dst[i] = (pageSlice.getByte(offset + (i >>> 3)) & (1 << (i & 7))) != 0;
+            }
+            return pageRecordCount;
+        }
+        int recordPosition = PageFormat.PAGE_HEADER_SIZE;
+        for (int i = 0; i < pageRecordCount; i++) {
+            dst[i] = isNullInRecord(recordPosition, columnIndex);
+            recordPosition += pageSlice.getInt(recordPosition);
+        }
+        return pageRecordCount;
+    }
+
+    private void checkBatch(final int columnIndex, final Type expectedType, final int length) {
+        if (expectedType != null && !schema.getColumnType(columnIndex).equals(expectedType)) {
+            throw new IllegalArgumentException(
+                    "Reading " + expectedType + " values from a " + schema.getColumnType(columnIndex) + " column: " + schema.getColumnName(columnIndex));
+        }
+        if (length < pageRecordCount) {
+            throw new IllegalArgumentException("The destination is shorter than the records in the page: " + length + " < " + pageRecordCount);
+        }
+    }
+
+    private boolean isNullInRecord(final int recordPosition, final int columnIndex) {
+        final int physicalColumn = physicalColumns[columnIndex];
+        return (pageSlice.getByte(recordPosition + 4 + (physicalColumn >>> 3)) & (1 << (physicalColumn & 7))) != 0;
+    }
+
     private int getOffset(int columnIndex) {
+        if (columnar) {
+            return valueOffsets[columnIndex] + (readCount - 1) * columnWidths[columnIndex];
+        }
         return position + columnOffsets[columnIndex];
     }
 
@@ -217,6 +495,11 @@ public class PageReaderImpl extends PageReader {
             return false;
         }
 
+        if (columnar) {
+            readCount++;
+            return true;
+        }
+
         if (readCount > 0) {
             // advance position excepting the first record
             int lastRecordSize = pageSlice.getInt(position);
@@ -231,7 +514,7 @@ public class PageReaderImpl extends PageReader {
 
     @Override
     public void close() {
-        page.buffer().release();
+        page.release();
         page = SENTINEL;
     }
 
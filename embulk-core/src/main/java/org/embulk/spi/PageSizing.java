@@ -0,0 +1,100 @@
+package org.embulk.spi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the size of buffers of pages built by a {@link PageBuilderImpl} to hold a target number of records.
+ *
+ * <p>The size starts from the fixed size of a record in the schema, and follows the average size of records observed
+ * in pages flushed so far, including variable-length data and references. It is capped by the maximum size so that
+ * a page of a wide schema still has some records, and a page of a narrow schema is not too small for its handoff.
+ *
+ * <p>An instance keeps observations of a page builder. It is not shared among page builders.
+ */
+public final class PageSizing {
+    private PageSizing(final int targetRecordsPerPage, final int maxPageBytes) {
+        this.targetRecordsPerPage = targetRecordsPerPage;
+        this.maxPageBytes = maxPageBytes;
+    }
+
+    /**
+     * Returns a new sizing which requests buffers for {@code targetRecordsPerPage} records up to {@code maxPageBytes}.
+     */
+    public static PageSizing adaptive(final int targetRecordsPerPage, final int maxPageBytes) {
+        if (targetRecordsPerPage <= 0) {
+            throw new IllegalArgumentException("Target records per page must be positive: " + targetRecordsPerPage);
+        }
+        if (maxPageBytes <= PageFormat.PAGE_HEADER_SIZE) {
+            throw new IllegalArgumentException("Maximum page size is too small: " + maxPageBytes);
+        }
+        return new PageSizing(targetRecordsPerPage, maxPageBytes);
+    }
+
+    public int getTargetRecordsPerPage() {
+        return this.targetRecordsPerPage;
+    }
+
+    public int getMaxPageBytes() {
+        return this.maxPageBytes;
+    }
+
+    /**
+     * Returns the size of a buffer to request for the next page, at least {@code minimumBytes}.
+     *
+     * @param fixedRecordBytes  the fixed size of a record, used until records are observed
+     * @param minimumBytes  the size required for the next page
+     */
+    int nextPageBytes(final int fixedRecordBytes, final int minimumBytes) {
+        final double recordBytes = this.records > 0 ? (double) this.recordBytes / this.records : fixedRecordBytes;
+        final long target = PageFormat.PAGE_HEADER_SIZE + (long) Math.ceil(recordBytes * this.targetRecordsPerPage);
+        final int bytes = (int) Math.min(target, this.maxPageBytes);
+        this.requestedBytes = Math.max(bytes, minimumBytes);
+        return this.requestedBytes;
+    }
+
+    /**
+     * Observes a page flushed with {@code records} records in {@code usedBytes} bytes, excluding the page header.
+     */
+    void observe(final int records, final long usedBytes) {
+        this.pages++;
+        this.records += records;
+        this.recordBytes += usedBytes;
+    }
+
+    public long getPageCount() {
+        return this.pages;
+    }
+
+    public long getRecordCount() {
+        return this.records;
+    }
+
+    public double getAverageRecordsPerPage() {
+        return this.pages > 0 ? (double) this.records / this.pages : 0.0;
+    }
+
+    public double getAverageRecordBytes() {
+        return this.records > 0 ? (double) this.recordBytes / this.records : 0.0;
+    }
+
+    void logSummary(final Schema schema) {
+        if (this.pages == 0) {
+            return;
+        }
+        logger.info("Built {} pages of {} columns: {} records per page, {} bytes per record on average. Requested {} bytes per page at last.",
+                    this.pages, schema.getColumnCount(),
+                    String.format("%.1f", this.getAverageRecordsPerPage()), String.format("%.1f", this.getAverageRecordBytes()),
+                    this.requestedBytes);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PageSizing.class);
+
+    private final int targetRecordsPerPage;
+    private final int maxPageBytes;
+
+    private long pages;
+    private long records;
+    private long recordBytes;
+    private int requestedBytes;
+}
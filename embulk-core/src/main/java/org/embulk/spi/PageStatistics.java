@@ -0,0 +1,90 @@
+package org.embulk.spi;
+
+import java.util.Optional;
+
+/**
+ * Statistics of columns in a page, collected by {@link PageBuilderImpl} while it builds the page.
+ *
+ * <p>They are attached to pages only when {@link PageBuilderImpl.Builder#setStatistics(boolean)} is enabled.
+ * Output plugins can use them to skip work, for example, on columns which are all null in a page.
+ */
+public final class PageStatistics {
+    PageStatistics(final Schema schema) {
+        this.columns = new ColumnStatistics[schema.getColumnCount()];
+        for (int i = 0; i < this.columns.length; i++) {
+            this.columns[i] = new ColumnStatistics(schema.getColumnType(i));
+        }
+        this.recordCount = 0;
+    }
+
+    private PageStatistics(final ColumnStatistics[] columns, final long recordCount) {
+        this.columns = columns;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Returns statistics attached to {@code page}, or empty if the page is built without statistics.
+     */
+    public static Optional<PageStatistics> of(final Page page) {
+        if (page instanceof PageImpl) {
+            return Optional.ofNullable(((PageImpl) page).getStatisticsInternal());
+        }
+        return Optional.empty();
+    }
+
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    public ColumnStatistics getColumn(final int columnIndex) {
+        return this.columns[columnIndex];
+    }
+
+    /**
+     * Merges statistics of another page in the same schema into this.
+     */
+    public void merge(final PageStatistics other) {
+        if (this.columns.length != other.columns.length) {
+            throw new IllegalArgumentException(
+                    "Merging statistics of " + other.columns.length + " columns into " + this.columns.length + " columns.");
+        }
+        for (int i = 0; i < this.columns.length; i++) {
+            this.columns[i].merge(other.columns[i]);
+        }
+        this.recordCount += other.recordCount;
+    }
+
+    public PageStatistics copy() {
+        final ColumnStatistics[] copied = new ColumnStatistics[this.columns.length];
+        for (int i = 0; i < copied.length; i++) {
+            copied[i] = this.columns[i].copy();
+        }
+        return new PageStatistics(copied, this.recordCount);
+    }
+
+    ColumnStatistics[] getColumnsInternal() {
+        return this.columns;
+    }
+
+    void setRecordCountInternal(final long recordCount) {
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Returns statistics of the columns at {@code columnMapping} in the order, sharing statistics of each column.
+     */
+    PageStatistics project(final int[] columnMapping) {
+        final ColumnStatistics[] projected = new ColumnStatistics[columnMapping.length];
+        for (int i = 0; i < projected.length; i++) {
+            projected[i] = this.columns[columnMapping[i]];
+        }
+        return new PageStatistics(projected, this.recordCount);
+    }
+
+    private final ColumnStatistics[] columns;
+    private long recordCount;
+}
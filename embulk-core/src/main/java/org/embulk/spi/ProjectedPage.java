@@ -0,0 +1,62 @@
+package org.embulk.spi;
+
+/**
+ * A view of a {@link PageImpl} with a subset of its columns, possibly reordered.
+ *
+ * <p>It shares the buffer and the references of the source page without copying them. Releasing a projected page releases
+ * the buffer of the source page. Columns of the view are mapped to physical columns of the source page by
+ * {@link #getColumnMapping()}. A projected page never wraps another projected page as projections are composed.
+ *
+ * @see PageProjection
+ */
+final class ProjectedPage extends PageImpl {
+    private ProjectedPage(
+            final PageImpl source, final Schema sourceSchema, final Schema schema, final int[] columnMapping, final int[] localColumnMapping) {
+        super(source.buffer());
+        this.setStringReferencesInternal(source.getStringReferencesInternal());
+        this.setJsonValueReferencesInternal(source.getJsonValueReferencesInternal());
+        if (source.getStatisticsInternal() != null) {
+            this.setStatisticsInternal(source.getStatisticsInternal().project(localColumnMapping));
+        }
+        this.sourceSchema = sourceSchema;
+        this.schema = schema;
+        this.columnMapping = columnMapping;
+    }
+
+    static ProjectedPage of(final PageImpl source, final Schema sourceSchema, final Schema schema, final int[] columnMapping) {
+        if (source instanceof ProjectedPage) {
+            final ProjectedPage projected = (ProjectedPage) source;
+            final int[] composed = new int[columnMapping.length];
+            for (int i = 0; i < columnMapping.length; i++) {
+                composed[i] = projected.columnMapping[columnMapping[i]];
+            }
+            return new ProjectedPage(projected, projected.sourceSchema, schema, composed, columnMapping);
+        }
+        return new ProjectedPage(source, sourceSchema, schema, columnMapping, columnMapping);
+    }
+
+    /**
+     * Returns the schema of the physical source page.
+     */
+    Schema getSourceSchema() {
+        return this.sourceSchema;
+    }
+
+    /**
+     * Returns the schema of this view.
+     */
+    Schema getSchema() {
+        return this.schema;
+    }
+
+    /**
+     * Returns indexes of physical columns in the source page for each column of this view.
+     */
+    int[] getColumnMapping() {
+        return this.columnMapping;
+    }
+
+    private final Schema sourceSchema;
+    private final Schema schema;
+    private final int[] columnMapping;
+}
@@ -0,0 +1,132 @@
+package org.embulk.spi;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps buffers to run a hook when they are released, such as to give back bytes accounted for them.
+ *
+ * <p>A wrapped buffer shares the memory of the original buffer. A {@link DirectBufferImpl} is wrapped into a
+ * {@link DirectBufferImpl} so that it is still accessed by its memory address. The hook runs once at the first release,
+ * and every release is passed to the original buffer so that the original buffer can detect a double release.
+ */
+public final class ReleaseHooks {
+    private ReleaseHooks() {
+        // No instantiation.
+    }
+
+    public static Buffer wrap(final Buffer buffer, final Runnable hook) {
+        if (buffer instanceof DirectBufferImpl) {
+            return new HookedDirectBuffer((DirectBufferImpl) buffer, hook);
+        }
+        return new HookedBuffer(buffer, hook);
+    }
+
+    /**
+     * Returns the hook of {@code buffer} wrapped by {@link #wrap(Buffer, Runnable)}, or {@code null} if it is not wrapped.
+     */
+    public static Runnable getHook(final Buffer buffer) {
+        if (buffer instanceof HookedBuffer) {
+            return ((HookedBuffer) buffer).hook;
+        }
+        if (buffer instanceof HookedDirectBuffer) {
+            return ((HookedDirectBuffer) buffer).hook;
+        }
+        return null;
+    }
+
+    private static final class HookedBuffer extends Buffer {
+        HookedBuffer(final Buffer buffer, final Runnable hook) {
+            this.buffer = buffer;
+            this.hook = hook;
+        }
+
+        @Deprecated
+        @Override
+        @SuppressWarnings("deprecation")  // Calling Buffer#array().
+        public byte[] array() {
+            return this.buffer.array();
+        }
+
+        @Override
+        public int offset() {
+            return this.buffer.offset();
+        }
+
+        @Override
+        public Buffer offset(final int offset) {
+            this.buffer.offset(offset);
+            return this;
+        }
+
+        @Override
+        public int limit() {
+            return this.buffer.limit();
+        }
+
+        @Override
+        public Buffer limit(final int limit) {
+            this.buffer.limit(limit);
+            return this;
+        }
+
+        @Override
+        public int capacity() {
+            return this.buffer.capacity();
+        }
+
+        @Override
+        public void setBytes(final int index, final byte[] source, final int sourceIndex, final int length) {
+            this.buffer.setBytes(index, source, sourceIndex, length);
+        }
+
+        @Override
+        public void setBytes(final int index, final Buffer source, final int sourceIndex, final int length) {
+            this.buffer.setBytes(index, source, sourceIndex, length);
+        }
+
+        @Override
+        public void getBytes(final int index, final byte[] dest, final int destIndex, final int length) {
+            this.buffer.getBytes(index, dest, destIndex, length);
+        }
+
+        @Override
+        public void getBytes(final int index, final Buffer dest, final int destIndex, final int length) {
+            this.buffer.getBytes(index, dest, destIndex, length);
+        }
+
+        @Override
+        public void release() {
+            if (this.released.compareAndSet(false, true)) {
+                this.hook.run();
+            }
+            this.buffer.release();
+        }
+
+        private final Buffer buffer;
+        private final Runnable hook;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+    }
+
+    // Extends DirectBufferImpl to be accessed by its memory address, with its own offset and limit over the same memory.
+    private static final class HookedDirectBuffer extends DirectBufferImpl {
+        HookedDirectBuffer(final DirectBufferImpl buffer, final Runnable hook) {
+            super(buffer.address(), buffer.capacity());
+            this.buffer = buffer;
+            this.hook = hook;
+            this.offset(buffer.offset());
+            this.limit(buffer.limit());
+        }
+
+        @Override
+        public void release() {
+            if (this.released.compareAndSet(false, true)) {
+                this.hook.run();
+            }
+            this.buffer.release();
+        }
+
+        private final DirectBufferImpl buffer;
+        private final Runnable hook;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+    }
+}
@@ -0,0 +1,26 @@
+package org.embulk.spi;
+
+import java.util.List;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+
+/**
+ * An {@link InputPlugin} whose input tasks can be split into {@link InputSplit}s while running.
+ *
+ * <p>{@link org.embulk.exec.LocalExecutorPlugin} with {@code "split_input_tasks"} runs a task by
+ * {@link #openSplit(TaskSource, Schema, int)} instead of {@link #run(TaskSource, Schema, int, PageOutput)}, and splits
+ * remaining work of a running task onto idle threads. Records from all splits of a task go to the same output task.
+ * Other executors call {@link #run(TaskSource, Schema, int, PageOutput)} as usual.
+ */
+public interface SplittableInputPlugin extends InputPlugin {
+    /**
+     * Returns a split covering the whole task of {@code taskIndex}.
+     */
+    InputSplit openSplit(TaskSource taskSource, Schema schema, int taskIndex);
+
+    /**
+     * Merges task reports of all splits of a task into the task report of the task, which is given to {@code resume}
+     * and {@code cleanup} as usual.
+     */
+    TaskReport mergeSplitReports(TaskSource taskSource, int taskIndex, List<TaskReport> splitReports);
+}
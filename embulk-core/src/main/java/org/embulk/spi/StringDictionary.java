@@ -0,0 +1,98 @@
+package org.embulk.spi;
+
+import java.util.Arrays;
+
+/**
+ * A per-page dictionary from STRING values to their codes, indexes of the page's string references.
+ *
+ * <p>It is an open-addressing hash table with linear probing so that looking up a value does not allocate.
+ * It is cleared for every page.
+ */
+final class StringDictionary {
+    StringDictionary() {
+        this.keys = new String[INITIAL_CAPACITY];
+        this.codes = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the code of the value, or {@code -1} if the value is not in the dictionary.
+     */
+    int find(final String value) {
+        final int mask = this.keys.length - 1;
+        int slot = hash(value) & mask;
+        while (true) {
+            final String key = this.keys[slot];
+            if (key == null) {
+                return -1;
+            }
+            if (key == value || key.equals(value)) {
+                return this.codes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Puts a value which is not in the dictionary yet.
+     */
+    void put(final String value, final int code) {
+        if ((this.size + 1) * 2 > this.keys.length) {
+            this.grow();
+        }
+        this.insert(value, code);
+        this.size++;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    void clear() {
+        if (this.size == 0) {
+            return;
+        }
+        if (this.keys.length > INITIAL_CAPACITY * 16) {
+            // Not to keep a large table only for a page with high cardinality.
+            this.keys = new String[INITIAL_CAPACITY];
+            this.codes = new int[INITIAL_CAPACITY];
+        } else {
+            Arrays.fill(this.keys, null);
+        }
+        this.size = 0;
+    }
+
+    private void insert(final String value, final int code) {
+        final int mask = this.keys.length - 1;
+        int slot = hash(value) & mask;
+        while (this.keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = value;
+        this.codes[slot] = code;
+    }
+
+    private void grow() {
+        final String[] oldKeys = this.keys;
+        final int[] oldCodes = this.codes;
+        this.keys = new String[oldKeys.length * 2];
+        this.codes = new int[oldCodes.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                this.insert(oldKeys[i], oldCodes[i]);
+            }
+        }
+    }
+
+    private static int hash(final String value) {
+        // Spreads the higher bits as String#hashCode is weak in lower bits for short similar values.
+        final int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] keys;
+    private int[] codes;
+    private int size;
+}
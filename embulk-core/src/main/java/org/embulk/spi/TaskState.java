@@ -1,6 +1,7 @@
 package org.embulk.spi;
 
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.embulk.config.TaskReport;
 
 public class TaskState {
@@ -8,11 +9,20 @@ public class TaskState {
     private volatile boolean finished = false;
     private volatile Optional<TaskReport> taskReport = Optional.empty();
     private volatile Optional<Throwable> exception = Optional.empty();
+    private final AtomicInteger attempts = new AtomicInteger();
 
     public void start() {
         this.started = true;
     }
 
+    /**
+     * Counts an attempt to run the task, which is more than once if the executor retries the task or runs it speculatively.
+     */
+    public void startAttempt() {
+        this.started = true;
+        this.attempts.incrementAndGet();
+    }
+
     public void finish() {
         this.started = true;
         this.finished = true;
@@ -52,4 +62,8 @@ public class TaskState {
     public Optional<Throwable> getException() {
         return exception;
     }
+
+    public int getAttempts() {
+        return attempts.get();
+    }
 }
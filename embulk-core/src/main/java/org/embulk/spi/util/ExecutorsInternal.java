@@ -1,6 +1,7 @@
 package org.embulk.spi.util;
 
 import java.util.List;
+import java.util.Optional;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
 import org.embulk.spi.AbortTransactionResource;
@@ -9,6 +10,7 @@ import org.embulk.spi.ExecSessionInternal;
 import org.embulk.spi.FilterPlugin;
 import org.embulk.spi.InputPlugin;
 import org.embulk.spi.OutputPlugin;
+import org.embulk.spi.PageMemoryBudget;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.ProcessTask;
 import org.embulk.spi.Schema;
@@ -23,6 +25,20 @@ public abstract class ExecutorsInternal {
         public void inputCommitted(TaskReport report);
 
         public void outputCommitted(TaskReport report);
+
+        /**
+         * Wraps the output which the input plugin adds pages into, such as to measure throughput of the task.
+         */
+        public default PageOutput wrapInput(PageOutput input) {
+            return input;
+        }
+
+        /**
+         * Wraps the output of the task, such as to let only one of attempts of the task commit.
+         */
+        public default TransactionalPageOutput wrapOutput(TransactionalPageOutput output) {
+            return output;
+        }
     }
 
     public static void process(ExecSessionInternal exec,
@@ -46,7 +62,10 @@ public abstract class ExecutorsInternal {
             List<FilterPlugin> filterPlugins, List<Schema> filterSchemas, List<TaskSource> filterTaskSources,
             OutputPlugin outputPlugin, Schema outputSchema, TaskSource outputTaskSource,
             ProcessStateCallback callback) {
-        final TransactionalPageOutput tran = outputPlugin.open(outputTaskSource, outputSchema, taskIndex);
+        final Optional<PageMemoryBudget> memoryBudget = exec.newTaskPageMemoryBudget();
+        final TransactionalPageOutput opened = PageStatisticsCollector.wrapIfEnabled(
+                exec, SpillingPageOutput.wrapIfEnabled(exec, outputPlugin.open(outputTaskSource, outputSchema, taskIndex), outputSchema), outputSchema);
+        final TransactionalPageOutput tran = callback.wrapOutput(memoryBudget.isPresent() ? memoryBudget.get().accounting(opened) : opened);
 
         callback.started();
         // here needs to use try-with-resource to add exception happend at close() or abort()
@@ -54,15 +73,24 @@ public abstract class ExecutorsInternal {
         // essential exception.
         try (CloseResource closer = new CloseResource(tran)) {
             try (AbortTransactionResource aborter = new AbortTransactionResource(tran)) {
-                PageOutput filtered = FiltersInternal.open(filterPlugins, filterTaskSources, filterSchemas, tran);
+                FilterPipeline filtered = FilterPipeline.open(exec, filterPlugins, filterTaskSources, filterSchemas, tran);
                 closer.closeThis(filtered);
 
-                TaskReport inputTaskReport = inputPlugin.run(inputTaskSource, inputSchema, taskIndex, filtered);
+                // Pages from the input plugin are accounted until filters release them, and pages from filters until the output releases them.
+                final PageOutput input = memoryBudget.isPresent() ? memoryBudget.get().accounting(filtered) : filtered;
+
+                TaskReport inputTaskReport;
+                try {
+                    inputTaskReport = inputPlugin.run(inputTaskSource, inputSchema, taskIndex, callback.wrapInput(input));
+                    filtered.awaitStages();
+                } finally {
+                    filtered.stopStages();
+                }
 
                 if (inputTaskReport == null) {
                     inputTaskReport = exec.newTaskReport();
                 }
-                callback.inputCommitted(inputTaskReport);
+                callback.inputCommitted(filtered.addSummaryTo(inputTaskReport));
 
                 TaskReport outputTaskReport = tran.commit();
                 aborter.dontAbort();
@@ -3,6 +3,7 @@ package org.embulk.spi.util;
 import java.io.InputStream;
 import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferImpl;
+import org.embulk.spi.DirectBufferImpl;
 import org.embulk.spi.FileInput;
 
 @Deprecated  // Externalized to embulk-util-file
@@ -10,6 +11,7 @@ public class FileInputInputStream extends InputStream {
     private final FileInput in;
     private int pos;
     private Buffer buffer = BufferImpl.EMPTY;
+    private final byte[] oneByte = new byte[1];
 
     public FileInputInputStream(FileInput in) {
         this.in = in;
@@ -37,7 +39,13 @@ public class FileInputInputStream extends InputStream {
                 return -1;
             }
         }
-        byte b = buffer.array()[buffer.offset() + pos];
+        final byte b;
+        if (buffer instanceof DirectBufferImpl) {
+            buffer.getBytes(pos, oneByte, 0, 1);
+            b = oneByte[0];
+        } else {
+            b = buffer.array()[buffer.offset() + pos];
+        }
         pos++;
         if (pos >= buffer.limit()) {
             releaseBuffer();
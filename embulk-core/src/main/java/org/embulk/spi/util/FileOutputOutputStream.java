@@ -4,6 +4,7 @@ import java.io.OutputStream;
 import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferAllocator;
 import org.embulk.spi.BufferImpl;
+import org.embulk.spi.DirectBufferImpl;
 import org.embulk.spi.FileOutput;
 
 @Deprecated  // Externalized to embulk-util-file
@@ -13,6 +14,7 @@ public class FileOutputOutputStream extends OutputStream {
     private final CloseMode closeMode;
     private int pos;
     private Buffer buffer;
+    private final byte[] oneByte = new byte[1];
 
     public static enum CloseMode {
         FLUSH,
@@ -40,7 +42,12 @@ public class FileOutputOutputStream extends OutputStream {
     @SuppressWarnings("deprecation")  // Calling Buffer#array().
     @Override
     public void write(int b) {
-        buffer.array()[buffer.offset() + pos] = (byte) b;
+        if (buffer instanceof DirectBufferImpl) {
+            oneByte[0] = (byte) b;
+            buffer.setBytes(pos, oneByte, 0, 1);
+        } else {
+            buffer.array()[buffer.offset() + pos] = (byte) b;
+        }
         pos++;
         if (pos >= buffer.capacity()) {
             flush();
@@ -0,0 +1,119 @@
+package org.embulk.spi.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.FilterPlugin;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+
+/**
+ * A chain of filters opened like {@link FiltersInternal#open(List, List, List, PageOutput)}, where each filter runs in
+ * its own thread if {@code filter_pipeline_queue_pages} is configured. Stages are connected by queues of the pages.
+ *
+ * <p>{@link #awaitStages()} is called after the input finishes, and before the output is committed, so that all pages
+ * reach the output. {@link #stopStages()} is called before the output is aborted, or closed, so that no stage thread
+ * adds pages into the output then. Each stage is summarized into the input task report as {@code "filter_pipeline"}
+ * so that the bottleneck stage can be found.
+ */
+public final class FilterPipeline implements PageOutput {
+    private FilterPipeline(final PageOutput head, final List<PipelinedPageOutput> stages) {
+        this.head = head;
+        this.stages = stages;
+    }
+
+    public static FilterPipeline open(final ExecSessionInternal exec, final List<FilterPlugin> plugins, final List<TaskSource> taskSources,
+            final List<Schema> filterSchemas, final PageOutput output) {
+        final int queuePages = exec.getFilterPipelineQueuePages();
+        if (queuePages <= 0 || plugins.isEmpty()) {
+            return new FilterPipeline(FiltersInternal.open(plugins, taskSources, filterSchemas, output), Collections.emptyList());
+        }
+
+        final String threadName = Thread.currentThread().getName();
+        final ArrayList<PipelinedPageOutput> stages = new ArrayList<>();
+        PageOutput out = output;
+        int pos = plugins.size() - 1;
+        try {
+            while (pos >= 0) {
+                out = plugins.get(pos).open(taskSources.get(pos), filterSchemas.get(pos), filterSchemas.get(pos + 1), out);
+                final PipelinedPageOutput stage = new PipelinedPageOutput(out, queuePages, threadName + "-filter-" + pos);
+                stages.add(0, stage);
+                out = stage;
+                pos--;
+            }
+        } catch (final RuntimeException ex) {
+            for (final PipelinedPageOutput stage : stages) {
+                stage.stop();
+            }
+            throw ex;
+        }
+        return new FilterPipeline(out, Collections.unmodifiableList(stages));
+    }
+
+    public boolean isPipelined() {
+        return !this.stages.isEmpty();
+    }
+
+    @Override
+    public void add(final Page page) {
+        this.head.add(page);
+    }
+
+    @Override
+    public void finish() {
+        this.head.finish();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.head.close();
+        } finally {
+            this.stopStages();
+        }
+    }
+
+    /**
+     * Waits until all pages added so far pass through all stages.
+     */
+    public void awaitStages() {
+        for (final PipelinedPageOutput stage : this.stages) {
+            stage.awaitIdle();
+        }
+    }
+
+    /**
+     * Stops threads of all stages. Pages which have not passed through yet are released.
+     */
+    public void stopStages() {
+        for (final PipelinedPageOutput stage : this.stages) {
+            stage.stop();
+        }
+    }
+
+    /**
+     * Puts the summary of stages into {@code report} as {@code "filter_pipeline"} if pipelined.
+     */
+    public TaskReport addSummaryTo(final TaskReport report) {
+        if (this.isPipelined()) {
+            final ArrayList<Map<String, Object>> summaries = new ArrayList<>();
+            for (int i = 0; i < this.stages.size(); i++) {
+                final LinkedHashMap<String, Object> summary = new LinkedHashMap<>();
+                summary.put("filter", i);
+                summary.putAll(this.stages.get(i).summarize());
+                summaries.add(summary);
+            }
+            report.set("filter_pipeline", summaries);
+        }
+        return report;
+    }
+
+    private final PageOutput head;
+    private final List<PipelinedPageOutput> stages;
+}
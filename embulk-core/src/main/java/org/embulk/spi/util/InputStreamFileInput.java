@@ -7,6 +7,7 @@ import java.util.Iterator;
 import java.util.Optional;
 import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.DirectBufferImpl;
 import org.embulk.spi.FileInput;
 
 @Deprecated  // Externalized to embulk-util-file
@@ -128,6 +129,7 @@ public class InputStreamFileInput implements FileInput {
     private final BufferAllocator allocator;
     private final Provider provider;
     private InputStreamWithHints current;
+    private byte[] transfer;
 
     public InputStreamFileInput(BufferAllocator allocator, Provider provider) {
         this.allocator = allocator;
@@ -150,7 +152,19 @@ public class InputStreamFileInput implements FileInput {
         }
         Buffer buffer = allocator.allocate();
         try {
-            int n = current.getInputStream().read(buffer.array(), buffer.offset(), buffer.capacity());
+            final int n;
+            if (buffer instanceof DirectBufferImpl) {
+                // A buffer out of Java heap is filled through an array, which InputStream takes.
+                if (transfer == null || transfer.length < buffer.capacity()) {
+                    transfer = new byte[buffer.capacity()];
+                }
+                n = current.getInputStream().read(transfer, 0, buffer.capacity());
+                if (n > 0) {
+                    buffer.setBytes(0, transfer, 0, n);
+                }
+            } else {
+                n = current.getInputStream().read(buffer.array(), buffer.offset(), buffer.capacity());
+            }
             if (n < 0) {
                 return null;
             }
@@ -0,0 +1,166 @@
+package org.embulk.spi.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Optional;
+import org.embulk.exec.Slice;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.BufferImpl;
+import org.embulk.spi.DirectBufferImpl;
+import org.embulk.spi.FileInput;
+
+/**
+ * A {@link FileInput} of local files, which maps the files into memory and gives buffers pointing into the mappings.
+ *
+ * <p>Bytes of the files are not copied into buffers from a {@link org.embulk.spi.BufferAllocator}. Buffers are
+ * {@link DirectBufferImpl}, which are not backed by arrays, so that they must be read through {@link Buffer#getBytes}
+ * or {@link Slice#wrappedBuffer(Buffer)}. {@link FileInputInputStream} reads them as well.
+ *
+ * <p>A file is mapped in windows of 64 MiB at most, and a window is unmapped when it is no longer reachable from its
+ * buffers after they are released. The files must not be truncated while they are read.
+ *
+ * <p>If addresses of mappings are not available in the JVM, bytes are copied from the mappings into buffers on Java heap.
+ */
+public class MappedFileInput implements FileInput {
+    public MappedFileInput(final Iterable<Path> files) {
+        this(files, DEFAULT_BUFFER_BYTES);
+    }
+
+    /**
+     * Creates an input which gives buffers of {@code bufferBytes} bytes at most.
+     */
+    public MappedFileInput(final Iterable<Path> files, final int bufferBytes) {
+        this(files, bufferBytes, MAX_WINDOW_BYTES, Slice.isDirectBufferAddressAvailable());
+    }
+
+    MappedFileInput(final Iterable<Path> files, final int bufferBytes, final long windowBytes, final boolean zeroCopy) {
+        if (bufferBytes <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferBytes);
+        }
+        this.files = files.iterator();
+        this.bufferBytes = bufferBytes;
+        this.windowBytes = Math.min(Math.max(windowBytes, bufferBytes), Integer.MAX_VALUE);
+        this.zeroCopy = zeroCopy;
+    }
+
+    @Override
+    public boolean nextFile() {
+        this.closeCurrent();
+        if (!this.files.hasNext()) {
+            return false;
+        }
+        final Path path = this.files.next();
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.size = this.channel.size();
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        this.path = path;
+        this.position = 0;
+        return true;
+    }
+
+    @Override
+    public Buffer poll() {
+        if (this.path == null) {
+            throw new IllegalStateException("nextFile() must be called before poll()");
+        }
+        if (this.position >= this.size) {
+            return null;
+        }
+        if (this.window == null || this.windowPosition >= this.window.capacity()) {
+            this.mapNextWindow();
+        }
+        final int length = Math.min(this.bufferBytes, this.window.capacity() - this.windowPosition);
+        final Buffer buffer;
+        if (this.zeroCopy) {
+            buffer = new MappedBuffer(this.window, this.windowAddress + this.windowPosition, length);
+        } else {
+            final byte[] bytes = new byte[length];
+            this.window.get(bytes);  // The position of the window follows windowPosition.
+            buffer = BufferImpl.wrap(bytes);
+        }
+        buffer.limit(length);
+        this.windowPosition += length;
+        this.position += length;
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        this.closeCurrent();
+    }
+
+    @Override
+    public Optional<String> hintOfCurrentInputFileNameForLogging() {
+        if (this.path == null) {
+            return Optional.empty();
+        }
+        return Optional.of(this.path.toString());
+    }
+
+    private void mapNextWindow() {
+        final long length = Math.min(this.windowBytes, this.size - this.position);
+        try {
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, length);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (this.zeroCopy) {
+            this.windowAddress = Slice.directBufferAddress(this.window);
+        }
+        this.windowPosition = 0;
+    }
+
+    private void closeCurrent() {
+        // Mappings stay valid after the channel is closed, so buffers given already are still available.
+        this.window = null;
+        this.path = null;
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                this.channel = null;
+            }
+        }
+    }
+
+    private static class MappedBuffer extends DirectBufferImpl {
+        private MappedBuffer(final MappedByteBuffer window, final long address, final int capacity) {
+            super(address, capacity);
+            this.window = window;
+        }
+
+        // It does not unmap the window, which is shared with other buffers. The window is unmapped by GC when it is
+        // no longer reachable, so a buffer used after released does not read unmapped memory.
+        @Override
+        public void release() {}
+
+        @SuppressWarnings("unused")  // Keeps the mapping reachable while the buffer is.
+        private final MappedByteBuffer window;
+    }
+
+    private static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+    private static final long MAX_WINDOW_BYTES = 64L * 1024L * 1024L;
+
+    private final Iterator<Path> files;
+    private final int bufferBytes;
+    private final long windowBytes;
+    private final boolean zeroCopy;
+
+    private Path path;
+    private FileChannel channel;
+    private long size;
+    private long position;
+    private MappedByteBuffer window;
+    private long windowAddress;
+    private int windowPosition;
+}
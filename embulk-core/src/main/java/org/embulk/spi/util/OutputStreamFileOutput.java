@@ -4,6 +4,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import org.embulk.spi.Buffer;
+import org.embulk.spi.DirectBufferImpl;
 import org.embulk.spi.FileOutput;
 
 @Deprecated  // Externalized to embulk-util-file
@@ -18,6 +19,7 @@ public class OutputStreamFileOutput implements FileOutput {
 
     private final Provider provider;
     private OutputStream current;
+    private byte[] transfer;
 
     public OutputStreamFileOutput(Provider provider) {
         this.provider = provider;
@@ -39,7 +41,16 @@ public class OutputStreamFileOutput implements FileOutput {
             throw new IllegalStateException("nextFile() must be called before poll()");
         }
         try {
-            current.write(buffer.array(), buffer.offset(), buffer.limit());
+            if (buffer instanceof DirectBufferImpl) {
+                // A buffer out of Java heap is written through an array, which OutputStream takes.
+                if (transfer == null || transfer.length < buffer.limit()) {
+                    transfer = new byte[buffer.limit()];
+                }
+                buffer.getBytes(0, transfer, 0, buffer.limit());
+                current.write(transfer, 0, buffer.limit());
+            } else {
+                current.write(buffer.array(), buffer.offset(), buffer.limit());
+            }
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         } finally {
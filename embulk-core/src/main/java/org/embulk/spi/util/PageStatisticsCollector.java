@@ -0,0 +1,113 @@
+package org.embulk.spi.util;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.embulk.config.TaskReport;
+import org.embulk.spi.ColumnStatistics;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageStatistics;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TransactionalPageOutput;
+
+/**
+ * Collects statistics of pages added into an output, and summarizes them into its task report as {@code "page_statistics"}.
+ *
+ * <p>Only pages built with statistics are summarized. See {@link org.embulk.spi.PageBuilderImpl.Builder#setStatistics(boolean)}.
+ */
+public class PageStatisticsCollector implements TransactionalPageOutput {
+    private PageStatisticsCollector(final TransactionalPageOutput output, final Schema schema) {
+        this.output = output;
+        this.schema = schema;
+        this.statistics = null;
+    }
+
+    /**
+     * Wraps {@code output} to collect statistics if page statistics are enabled in {@code exec}, or returns {@code output} as is.
+     */
+    public static TransactionalPageOutput wrapIfEnabled(final ExecSessionInternal exec, final TransactionalPageOutput output, final Schema schema) {
+        if (!exec.isPageStatisticsEnabled()) {
+            return output;
+        }
+        return new PageStatisticsCollector(output, schema);
+    }
+
+    @Override
+    public void add(final Page page) {
+        final Optional<PageStatistics> pageStatistics = PageStatistics.of(page);
+        if (pageStatistics.isPresent() && pageStatistics.get().getColumnCount() == this.schema.getColumnCount()) {
+            if (this.statistics == null) {
+                this.statistics = pageStatistics.get().copy();
+            } else {
+                this.statistics.merge(pageStatistics.get());
+            }
+        }
+        this.output.add(page);
+    }
+
+    @Override
+    public void finish() {
+        this.output.finish();
+    }
+
+    @Override
+    public void close() {
+        this.output.close();
+    }
+
+    @Override
+    public void abort() {
+        this.output.abort();
+    }
+
+    @Override
+    public TaskReport commit() {
+        TaskReport report = this.output.commit();
+        if (this.statistics == null) {
+            return report;
+        }
+        if (report == null) {
+            report = Exec.newTaskReport();
+        }
+        report.set("page_statistics", this.summarize());
+        return report;
+    }
+
+    private Map<String, Object> summarize() {
+        final LinkedHashMap<String, Object> columns = new LinkedHashMap<>();
+        for (int i = 0; i < this.statistics.getColumnCount(); i++) {
+            final ColumnStatistics column = this.statistics.getColumn(i);
+            final LinkedHashMap<String, Object> summary = new LinkedHashMap<>();
+            summary.put("null_count", column.getNullCount());
+            summary.put("non_null_count", column.getNonNullCount());
+            if (column.getMin() != null) {
+                summary.put("min", toReportValue(column.getMin()));
+                summary.put("max", toReportValue(column.getMax()));
+            }
+            if (column.getDistinctCountEstimate() >= 0) {
+                summary.put("distinct_estimate", column.getDistinctCountEstimate());
+            }
+            columns.put(this.schema.getColumnName(i), summary);
+        }
+
+        final LinkedHashMap<String, Object> summary = new LinkedHashMap<>();
+        summary.put("records", this.statistics.getRecordCount());
+        summary.put("columns", columns);
+        return summary;
+    }
+
+    private static Object toReportValue(final Object value) {
+        if (value instanceof Instant) {
+            return value.toString();
+        }
+        return value;
+    }
+
+    private final TransactionalPageOutput output;
+    private final Schema schema;
+
+    private PageStatistics statistics;
+}
@@ -0,0 +1,174 @@
+package org.embulk.spi.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageOutput;
+
+/**
+ * A stage of {@link FilterPipeline}, which adds pages into {@code output} in its own thread through a bounded queue.
+ *
+ * <p>{@link #finish()} waits until the stage thread adds all pages, and then finishes {@code output} in the caller thread.
+ * {@link #close()} stops the stage thread, and then closes {@code output} in the caller thread. An exception from
+ * {@code output} in the stage thread is thrown from the next {@link #add(Page)}, {@link #finish()}, or {@link #awaitIdle()}.
+ */
+final class PipelinedPageOutput implements PageOutput {
+    PipelinedPageOutput(final PageOutput output, final int queuePages, final String threadName) {
+        this.output = output;
+        this.queue = new ArrayBlockingQueue<>(queuePages);
+        this.consumer = new Thread(this::consume, threadName);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    @Override
+    public void add(final Page page) {
+        this.throwIfFailed(page);
+        try {
+            if (!this.queue.offer(page)) {
+                final long startedAt = System.nanoTime();
+                try {
+                    while (!this.queue.offer(page, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        this.throwIfFailed(page);
+                    }
+                } finally {
+                    this.blockedNanos += System.nanoTime() - startedAt;
+                }
+            }
+        } catch (final InterruptedException ex) {
+            page.release();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        this.addedPages++;
+    }
+
+    @Override
+    public void finish() {
+        this.awaitIdle();
+        this.output.finish();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.stop();
+        } finally {
+            this.output.close();
+        }
+    }
+
+    /**
+     * Waits until the stage thread adds all pages added so far into {@code output}.
+     */
+    void awaitIdle() {
+        synchronized (this) {
+            try {
+                while (this.processedPages < this.addedPages && this.error == null && !this.stopped) {
+                    this.wait(POLL_MILLIS);
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+        }
+        this.throwIfFailed(null);
+    }
+
+    /**
+     * Stops the stage thread without closing {@code output}. Pages not added into {@code output} yet are released.
+     */
+    void stop() {
+        this.stopped = true;
+        try {
+            this.consumer.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Page page;
+        while ((page = this.queue.poll()) != null) {
+            page.release();
+        }
+    }
+
+    /**
+     * Returns pages, and milliseconds which the stage thread spent in adding pages ({@code busy_millis}) and in waiting
+     * for pages ({@code idle_millis}), and which the previous stage was blocked by the full queue ({@code blocked_millis}).
+     */
+    synchronized Map<String, Object> summarize() {
+        final LinkedHashMap<String, Object> summary = new LinkedHashMap<>();
+        summary.put("pages", this.processedPages);
+        summary.put("busy_millis", TimeUnit.NANOSECONDS.toMillis(this.busyNanos));
+        summary.put("idle_millis", TimeUnit.NANOSECONDS.toMillis(this.idleNanos));
+        summary.put("blocked_millis", TimeUnit.NANOSECONDS.toMillis(this.blockedNanos));
+        return summary;
+    }
+
+    private void consume() {
+        try {
+            while (!this.stopped) {
+                final long waitingAt = System.nanoTime();
+                final Page page = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                final long addingAt = System.nanoTime();
+                if (page == null) {
+                    synchronized (this) {
+                        this.idleNanos += addingAt - waitingAt;
+                    }
+                    continue;
+                }
+                this.output.add(page);
+                synchronized (this) {
+                    this.idleNanos += addingAt - waitingAt;
+                    this.busyNanos += System.nanoTime() - addingAt;
+                    this.processedPages++;
+                    this.notifyAll();
+                }
+            }
+        } catch (final Throwable ex) {
+            synchronized (this) {
+                this.error = ex;
+                this.notifyAll();
+            }
+        }
+    }
+
+    private void throwIfFailed(final Page page) {
+        final Throwable error = this.error;
+        if (error == null && !this.stopped) {
+            return;
+        }
+        if (page != null) {
+            page.release();
+        }
+        if (error == null) {
+            throw new IllegalStateException("The filter pipeline is already stopped.");
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new RuntimeException(error);
+    }
+
+    private static final long POLL_MILLIS = 100;
+
+    private final PageOutput output;
+    private final ArrayBlockingQueue<Page> queue;
+    private final Thread consumer;
+
+    // Written only by the caller thread.
+    private volatile long addedPages;
+    private long blockedNanos;
+
+    // Guarded by this, and written only by the stage thread.
+    private long processedPages;
+    private long busyNanos;
+    private long idleNanos;
+
+    private volatile Throwable error;
+    private volatile boolean stopped;
+}
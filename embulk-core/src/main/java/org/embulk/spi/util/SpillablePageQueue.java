@@ -0,0 +1,253 @@
+package org.embulk.spi.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageCodec;
+import org.embulk.spi.TempFileException;
+import org.embulk.spi.TempFileSpace;
+
+/**
+ * Queues pages from a producer thread to a consumer thread, keeping a limited number of pages in memory and spilling
+ * the others into a temporary file.
+ *
+ * <p>{@link #put(Page)} never blocks. Once the in-memory pages reach the limit, pages are serialized by {@link PageCodec}
+ * into a file created in {@link TempFileSpace}, and released. They are read back in the order of {@link #put(Page)} when
+ * the consumer catches up. The file is deleted once all pages in it are read, and pages are kept in memory again.
+ *
+ * <p>The file is written and read outside the lock of the queue, through separate channels for the producer and the
+ * consumer. They share only the counts of pages under the lock, so that the producer does not wait for the consumer
+ * reading the file, nor the consumer for the producer writing it.
+ */
+public final class SpillablePageQueue implements AutoCloseable {
+    public SpillablePageQueue(final int maxPagesInMemory, final PageCodec codec, final TempFileSpace tempFileSpace) {
+        if (maxPagesInMemory <= 0) {
+            throw new IllegalArgumentException("SpillablePageQueue must keep at least one page in memory.");
+        }
+        this.maxPagesInMemory = maxPagesInMemory;
+        this.codec = codec;
+        this.tempFileSpace = tempFileSpace;
+        this.pages = new ArrayDeque<>();
+        this.writeLock = new Object();
+        this.readLock = new Object();
+    }
+
+    /**
+     * Puts {@code page} into the queue without blocking. The page is released immediately if the queue is already closed.
+     *
+     * @throws TempFileException if the page fails to be spilled
+     */
+    public void put(final Page page) {
+        synchronized (this.writeLock) {
+            SpillFile file;
+            synchronized (this) {
+                if (this.closed) {
+                    page.release();
+                    return;
+                }
+                if (this.finished) {
+                    page.release();
+                    throw new IllegalStateException("SpillablePageQueue is already finished.");
+                }
+                if (this.unreadSpilledPages == 0 && this.pages.size() < this.maxPagesInMemory) {
+                    this.pages.addLast(page);
+                    this.notifyAll();
+                    return;
+                }
+                this.writing = true;
+                file = this.spillFile;
+            }
+
+            long bytes = -1;
+            try {
+                if (file == null) {
+                    file = new SpillFile(this.tempFileSpace.createTempFile("pages"));
+                }
+                final long position = file.writer.position();
+                this.codec.write(page, file.writer);
+                bytes = file.writer.position() - position;
+            } catch (final IOException ex) {
+                throw new TempFileException(ex);
+            } finally {
+                page.release();
+                final SpillFile detached;
+                synchronized (this) {
+                    this.writing = false;
+                    if (file != null && this.spillFile == null) {
+                        this.spillFile = file;
+                    }
+                    if (bytes >= 0 && !this.closed) {
+                        this.spilledPageCount++;
+                        this.spilledBytes += bytes;
+                        this.unreadSpilledPages++;
+                        this.notifyAll();
+                    }
+                    detached = this.detachSpillFileIfUnused();
+                }
+                if (detached != null) {
+                    detached.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest page, blocking until a page is put. It returns {@code null} when the queue is finished and empty,
+     * or closed.
+     *
+     * @throws TempFileException if a spilled page fails to be read
+     */
+    public Page take() throws InterruptedException {
+        synchronized (this.readLock) {
+            final SpillFile file;
+            synchronized (this) {
+                while (!this.closed && !this.finished && this.pages.isEmpty() && this.unreadSpilledPages == 0) {
+                    this.wait();
+                }
+                if (this.closed) {
+                    return null;
+                }
+                if (!this.pages.isEmpty()) {
+                    return this.pages.removeFirst();
+                }
+                if (this.unreadSpilledPages == 0) {
+                    return null;
+                }
+                this.reading = true;
+                file = this.spillFile;
+            }
+
+            Page page = null;
+            try {
+                page = this.codec.read(file.reader);
+                if (page == null) {
+                    throw new EOFException("Spill file " + file.path + " ends before the pages spilled.");
+                }
+            } catch (final IOException ex) {
+                throw new TempFileException(ex);
+            } finally {
+                final SpillFile detached;
+                synchronized (this) {
+                    this.reading = false;
+                    if (this.closed) {
+                        if (page != null) {
+                            page.release();
+                            page = null;
+                        }
+                    } else if (page != null) {
+                        this.unreadSpilledPages--;
+                    }
+                    detached = this.detachSpillFileIfUnused();
+                }
+                if (detached != null) {
+                    detached.delete();
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Tells that no more pages are put. Pages already put are still taken.
+     */
+    public synchronized void finish() {
+        this.finished = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Releases pages remaining in the queue, and deletes the spill file. Pages put later are released immediately.
+     *
+     * <p>If the file is being written or read, it is deleted by the producer or the consumer after that.
+     */
+    @Override
+    public void close() {
+        final SpillFile detached;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            while (!this.pages.isEmpty()) {
+                this.pages.removeFirst().release();
+            }
+            this.unreadSpilledPages = 0;
+            detached = this.detachSpillFileIfUnused();
+            this.notifyAll();
+        }
+        if (detached != null) {
+            detached.delete();
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return this.closed;
+    }
+
+    public synchronized long getSpilledPageCount() {
+        return this.spilledPageCount;
+    }
+
+    public synchronized long getSpilledBytes() {
+        return this.spilledBytes;
+    }
+
+    // Called with the lock of the queue. The file is deleted after the lock is released.
+    private SpillFile detachSpillFileIfUnused() {
+        if (this.spillFile == null || this.writing || this.reading || this.unreadSpilledPages > 0) {
+            return null;
+        }
+        final SpillFile file = this.spillFile;
+        this.spillFile = null;
+        return file;
+    }
+
+    private static final class SpillFile {
+        SpillFile(final File file) throws IOException {
+            this.path = file.toPath();
+            this.writer = FileChannel.open(this.path, StandardOpenOption.WRITE);
+            try {
+                this.reader = FileChannel.open(this.path, StandardOpenOption.READ);
+            } catch (final IOException ex) {
+                this.writer.close();
+                throw ex;
+            }
+        }
+
+        void delete() {
+            try {
+                this.writer.close();
+                this.reader.close();
+                Files.deleteIfExists(this.path);
+            } catch (final IOException ex) {
+                // The file is deleted when the temp file space is cleaned up anyway.
+            }
+        }
+
+        private final Path path;
+        private final FileChannel writer;
+        private final FileChannel reader;
+    }
+
+    private final int maxPagesInMemory;
+    private final PageCodec codec;
+    private final TempFileSpace tempFileSpace;
+    private final ArrayDeque<Page> pages;
+    private final Object writeLock;
+    private final Object readLock;
+
+    private SpillFile spillFile;
+    private long unreadSpilledPages;
+    private long spilledPageCount;
+    private long spilledBytes;
+    private boolean writing;
+    private boolean reading;
+    private boolean finished;
+    private boolean closed;
+}
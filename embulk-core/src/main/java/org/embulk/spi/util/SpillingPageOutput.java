@@ -0,0 +1,141 @@
+package org.embulk.spi.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.embulk.config.TaskReport;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.Page;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TransactionalPageOutput;
+
+/**
+ * Adds pages into an output in a separate thread through a {@link SpillablePageQueue}, so that the input and filters go
+ * ahead of a slow output instead of waiting for it. Pages beyond the queue in memory are spilled into temporary files.
+ *
+ * <p>{@link #finish()} returns without waiting for the output so that the input can release its resources early. The
+ * output is finished in the consumer thread after all pages are added. {@link #commit()}, {@link #abort()}, and
+ * {@link #close()} wait for the consumer thread, and are called on the output in the caller thread. The queue is
+ * summarized into the task report as {@code "page_spill"}.
+ */
+public class SpillingPageOutput implements TransactionalPageOutput {
+    private SpillingPageOutput(final TransactionalPageOutput output, final SpillablePageQueue queue) {
+        this.output = output;
+        this.queue = queue;
+        this.consumer = new Thread(this::consume, Thread.currentThread().getName() + "-output");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Wraps {@code output} to queue pages in {@code schema} if page spilling is enabled in {@code exec}, or returns {@code output} as is.
+     */
+    public static TransactionalPageOutput wrapIfEnabled(final ExecSessionInternal exec, final TransactionalPageOutput output, final Schema schema) {
+        final Optional<SpillablePageQueue> queue = exec.newSpillablePageQueue(schema);
+        if (!queue.isPresent()) {
+            return output;
+        }
+        return new SpillingPageOutput(output, queue.get());
+    }
+
+    @Override
+    public void add(final Page page) {
+        if (this.error != null) {
+            page.release();
+            this.stopConsumer();
+        }
+        this.queue.put(page);
+    }
+
+    @Override
+    public void finish() {
+        this.finishing = true;
+        this.queue.finish();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.queue.close();
+            this.joinConsumer();
+        } finally {
+            this.output.close();
+        }
+    }
+
+    @Override
+    public void abort() {
+        try {
+            this.queue.close();
+            this.joinConsumer();
+        } finally {
+            this.output.abort();
+        }
+    }
+
+    @Override
+    public TaskReport commit() {
+        this.joinConsumer();
+        TaskReport report = this.output.commit();
+        if (report == null) {
+            report = Exec.newTaskReport();
+        }
+        report.set("page_spill", this.summarize());
+        return report;
+    }
+
+    private void consume() {
+        try {
+            Page page;
+            while ((page = this.queue.take()) != null) {
+                this.output.add(page);
+            }
+            if (this.finishing && !this.queue.isClosed()) {
+                this.output.finish();
+            }
+        } catch (final Throwable ex) {
+            this.error = ex;
+            this.queue.close();
+        }
+    }
+
+    private void stopConsumer() {
+        this.queue.close();
+        this.joinConsumer();
+    }
+
+    private void joinConsumer() {
+        try {
+            this.consumer.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        final Throwable error = this.error;
+        if (error != null) {
+            this.error = null;
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            throw new RuntimeException(error);
+        }
+    }
+
+    private Map<String, Object> summarize() {
+        final LinkedHashMap<String, Object> summary = new LinkedHashMap<>();
+        summary.put("spilled_pages", this.queue.getSpilledPageCount());
+        summary.put("spilled_bytes", this.queue.getSpilledBytes());
+        return summary;
+    }
+
+    private final TransactionalPageOutput output;
+    private final SpillablePageQueue queue;
+    private final Thread consumer;
+
+    private volatile boolean finishing;
+    private volatile Throwable error;
+}
@@ -104,6 +104,21 @@ public class TestEmbulkSystemProperties {
         assertBooleanInvalidFormat("foo");
     }
 
+    @Test
+    public void testParseByteSize() {
+        assertEquals(1234L, EmbulkSystemProperties.parseByteSize("1234"));
+        assertEquals(512L, EmbulkSystemProperties.parseByteSize("512B"));
+        assertEquals(32L * 1024, EmbulkSystemProperties.parseByteSize("32KB"));
+        assertEquals(3L * 1024 * 1024 * 1024 / 2, EmbulkSystemProperties.parseByteSize("1.5 GB"));
+        assertEquals(8L * 1024 * 1024 * 1024, EmbulkSystemProperties.parseByteSize("8gb"));
+        try {
+            EmbulkSystemProperties.parseByteSize("8 gigabytes");
+            fail("\"8 gigabytes\" was unexpectedly parsed successfully.");
+        } catch (final IllegalArgumentException ex) {
+            // Success.
+        }
+    }
+
     private static void assertInteger(final String text, final int expectedValue, final int defaultValue) {
         final Properties properties = new Properties();
         properties.setProperty("key", text);
@@ -0,0 +1,58 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestAdaptiveConcurrencyController {
+    @Test
+    public void testIncreaseWhileThroughputGrows() throws InterruptedException {
+        final AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 4, 2, 1000);
+        acquire(controller, 2);
+        controller.adjust(100.0, 0.5);
+        assertEquals(3, controller.getLimit());
+        acquire(controller, 1);
+        controller.adjust(150.0, 0.5);
+        assertEquals(4, controller.getLimit());
+        acquire(controller, 1);
+        controller.adjust(200.0, 0.5);
+        assertEquals(4, controller.getLimit());  // Bounded by the max limit.
+    }
+
+    @Test
+    public void testDecreaseWhenThroughputDropsAfterIncrease() throws InterruptedException {
+        final AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 16, 8, 1000);
+        acquire(controller, 8);
+        controller.adjust(1000.0, -1.0);
+        assertEquals(9, controller.getLimit());
+        acquire(controller, 1);
+        controller.adjust(500.0, -1.0);
+        assertEquals(6, controller.getLimit());
+    }
+
+    @Test
+    public void testDecreaseWhenCpuSaturates() throws InterruptedException {
+        final AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(2, 16, 4, 1000);
+        acquire(controller, 4);
+        controller.adjust(1000.0, 0.95);
+        assertEquals(3, controller.getLimit());
+        controller.adjust(1000.0, 0.95);
+        assertEquals(2, controller.getLimit());
+        controller.adjust(1000.0, 0.95);
+        assertEquals(2, controller.getLimit());  // Bounded by the min limit.
+    }
+
+    @Test
+    public void testKeepWhileLimitIsNotReached() throws InterruptedException {
+        final AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(1, 16, 4, 1000);
+        acquire(controller, 2);
+        controller.adjust(1000.0, 0.1);
+        assertEquals(4, controller.getLimit());
+    }
+
+    private static void acquire(final AdaptiveConcurrencyController controller, final int tasks) throws InterruptedException {
+        for (int i = 0; i < tasks; i++) {
+            controller.acquire();
+        }
+    }
+}
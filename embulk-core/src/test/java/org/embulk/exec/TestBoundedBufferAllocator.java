@@ -0,0 +1,180 @@
+package org.embulk.exec;
+
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.embulk.spi.Buffer;
+import org.embulk.spi.BufferAllocator;
+import org.embulk.spi.BufferImpl;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilderImpl;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.Schema;
+import org.junit.Test;
+
+public class TestBoundedBufferAllocator {
+    @Test
+    public void testFailFast() {
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(new HeapAllocator(), 1024, 1500, 0);
+        final Buffer first = allocator.allocate();
+        try {
+            allocator.allocate();
+            fail();
+        } catch (final BufferMemoryLimitExceededException ex) {
+            // Expected.
+        }
+        assertEquals(1, allocator.getRejectedCount());
+        assertEquals(1024, allocator.getOutstandingBytes());
+
+        first.release();
+        first.release();  // Not uncounted twice.
+        assertEquals(0, allocator.getOutstandingBytes());
+        allocator.allocate().release();
+        assertEquals(2, allocator.getAllocationCount());
+        assertEquals(1024, allocator.getPeakBytes());
+    }
+
+    @Test
+    public void testWaitForRelease() throws Exception {
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(new HeapAllocator(), 1024, 1500, 10000);
+        final Buffer first = allocator.allocate();
+        final Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException ex) {
+                // Releases anyway.
+            }
+            first.release();
+        });
+        releaser.start();
+        final Buffer second = allocator.allocate();
+        releaser.join();
+        assertEquals(1, allocator.getWaitCount());
+        assertTrue(allocator.getWaitMillis() > 0);
+        assertEquals(1024, allocator.getOutstandingBytes());
+        second.release();
+    }
+
+    @Test
+    public void testLargeBufferWithoutOthers() {
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(new HeapAllocator(), 1024, 1500, 0);
+        final Buffer buffer = allocator.allocate(4096);
+        assertEquals(4096, buffer.capacity());
+        assertEquals(4096, allocator.getOutstandingBytes());
+        buffer.release();
+    }
+
+    @Test
+    public void testNotAllocateWhileWaiting() throws Exception {
+        final HeapAllocator delegate = new HeapAllocator();
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(delegate, 1024, 1500, 10000);
+        final Buffer first = allocator.allocate();
+        final Thread waiter = new Thread(() -> allocator.allocate().release());
+        waiter.start();
+        while (allocator.getWaitCount() == 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, delegate.allocations);  // The waiting thread does not hold a buffer uncounted.
+        first.release();
+        waiter.join();
+        assertEquals(2, delegate.allocations);
+        assertEquals(0, allocator.getOutstandingBytes());
+    }
+
+    @Test
+    public void testReturnReservationOnFailure() {
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(new BufferAllocator() {
+                @Override
+                public Buffer allocate() {
+                    throw new OutOfMemoryError("Expected.");
+                }
+
+                @Override
+                public Buffer allocate(final int minimumCapacity) {
+                    throw new OutOfMemoryError("Expected.");
+                }
+            }, 1024, 1500, 0);
+        try {
+            allocator.allocate();
+            fail();
+        } catch (final OutOfMemoryError ex) {
+            // Expected.
+        }
+        assertEquals(0, allocator.getOutstandingBytes());
+    }
+
+    @Test
+    public void testCountActualCapacity() {
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(new HeapAllocator(), 512, 4096, 0);
+        final Buffer buffer = allocator.allocate(100);  // Reserves 512 bytes, and gets 1024 bytes.
+        assertEquals(1024, allocator.getOutstandingBytes());
+        assertEquals(1024, allocator.getPeakBytes());
+        buffer.release();
+        assertEquals(0, allocator.getOutstandingBytes());
+    }
+
+    @Test
+    public void testTakeOverRecordWithinLimitOfOnePage() {
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(new HeapAllocator(), 1024, 1500, 0);
+        final Schema schema = Schema.builder().add("name", STRING).build();
+        final PageOutput output = new PageOutput() {
+                @Override
+                public void add(final Page page) {
+                    page.release();
+                }
+
+                @Override
+                public void finish() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        // The current page is flushed before a new page is allocated for the record overflowing it.
+        try (final PageBuilderImpl builder = PageBuilderImpl.builder(allocator, schema, output).setInlineStrings(true).build()) {
+            for (int i = 0; i < 100; i++) {
+                builder.setString(0, "name-" + i);
+                builder.addRecord();
+            }
+            final StringBuilder longName = new StringBuilder();
+            for (int i = 0; i < 300; i++) {
+                longName.append("long");
+            }
+            builder.setString(0, longName.toString());  // Longer than a page.
+            builder.addRecord();
+            builder.finish();
+        }
+        assertEquals(0, allocator.getRejectedCount());
+        assertEquals(0, allocator.getOutstandingBytes());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")  // Calling Buffer#array().
+    public void testDelegateBytes() {
+        final BoundedBufferAllocator allocator = new BoundedBufferAllocator(new HeapAllocator(), 1024, 4096, 0);
+        final Buffer buffer = allocator.allocate();
+        buffer.setBytes(0, new byte[] { 1, 2, 3 }, 0, 3);
+        buffer.limit(3);
+        assertEquals(3, buffer.limit());
+        assertEquals(2, buffer.array()[buffer.offset() + 1]);
+        buffer.release();
+    }
+
+    private static class HeapAllocator implements BufferAllocator {
+        @Override
+        public Buffer allocate() {
+            return this.allocate(1024);
+        }
+
+        @Override
+        public synchronized Buffer allocate(final int minimumCapacity) {
+            this.allocations++;
+            return BufferImpl.allocate(Math.max(1024, minimumCapacity));
+        }
+
+        volatile int allocations;
+    }
+}
@@ -0,0 +1,60 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class TestBufferLeakDetector {
+    @Test
+    public void testDisabled() {
+        final BufferLeakDetector detector = new BufferLeakDetector(BufferLeakDetector.Level.DISABLED);
+        assertNull(detector.track());
+        assertEquals(0, detector.reportLeaks());
+    }
+
+    @Test
+    public void testReportOnlyBuffersNotReleased() {
+        final BufferLeakDetector detector = new BufferLeakDetector(BufferLeakDetector.Level.PARANOID);
+        final BufferLeakDetector.Tracker released = detector.track();
+        detector.track();
+        detector.track();
+        assertNull(released.getReleasedAt());
+        released.released();
+        assertNotNull(released.getReleasedAt());
+        assertEquals(2, detector.reportLeaks());
+        assertEquals(0, detector.reportLeaks());  // Reported only once.
+    }
+
+    @Test
+    public void testReportOnlyBuffersOfSession() {
+        final BufferLeakDetector detector = new BufferLeakDetector(BufferLeakDetector.Level.PARANOID);
+        final Object session = new Object();
+        final Object otherSession = new Object();
+        detector.track(session);
+        detector.track(otherSession);
+        detector.track(otherSession);
+        assertEquals(1, detector.reportLeaksOf(session));
+        assertEquals(0, detector.reportLeaksOf(session));  // Reported only once.
+        assertEquals(2, detector.reportLeaks());  // Buffers of the other session are left for later.
+    }
+
+    @Test
+    public void testSampled() {
+        final BufferLeakDetector detector = new BufferLeakDetector(BufferLeakDetector.Level.SAMPLED, 1);
+        assertNotNull(detector.track());
+        final BufferLeakDetector.Tracker released = detector.track();
+        released.released();
+        assertNull(released.getReleasedAt());  // Not captured on release.
+        assertEquals(1, detector.reportLeaks());
+    }
+
+    @Test
+    public void testParseLevel() {
+        assertEquals(BufferLeakDetector.Level.SAMPLED, BufferLeakDetector.parseLevel(null));
+        assertEquals(BufferLeakDetector.Level.PARANOID, BufferLeakDetector.parseLevel("paranoid"));
+        assertEquals(BufferLeakDetector.Level.DISABLED, BufferLeakDetector.parseLevel("disabled"));
+        assertEquals(BufferLeakDetector.Level.SAMPLED, BufferLeakDetector.parseLevel("unknown"));
+    }
+}
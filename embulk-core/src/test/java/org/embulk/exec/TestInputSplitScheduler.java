@@ -0,0 +1,193 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.embulk.config.TaskReport;
+import org.embulk.spi.InputSplit;
+import org.embulk.spi.PageOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestInputSplitScheduler {
+    private ExecutorService executor;
+    private InputSplitScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newFixedThreadPool(4);
+        this.scheduler = new InputSplitScheduler(this.executor, 4);
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.close();
+        this.executor.shutdown();
+    }
+
+    @Test
+    public void testSplitOntoIdleWorkers() throws Exception {
+        final AtomicIntegerArray reads = new AtomicIntegerArray(400);
+        final AtomicInteger reportCount = new AtomicInteger();
+        final AtomicReference<Boolean> committed = new AtomicReference<>();
+        final Future<Throwable> future = this.scheduler.submit(0, new InputSplitScheduler.SplitTask() {
+                @Override
+                public InputSplit open() {
+                    return new RangeSplit(reads, 0, reads.length());
+                }
+
+                @Override
+                public TaskReport run(final InputSplit split) {
+                    return split.run(null);
+                }
+
+                @Override
+                public void finish(final List<TaskReport> reports, final boolean result) {
+                    reportCount.set(reports.size());
+                    committed.set(result);
+                }
+            });
+
+        assertNull(future.get(60, TimeUnit.SECONDS));
+        assertTrue(committed.get());
+        assertTrue(reportCount.get() > 1);
+        for (int i = 0; i < reads.length(); i++) {
+            assertEquals(1, reads.get(i));  // Every unit is read exactly once across splits.
+        }
+    }
+
+    @Test
+    public void testSplitWithoutHoldingLock() throws Exception {
+        final AtomicIntegerArray reads = new AtomicIntegerArray(400);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger lockedCalls = new AtomicInteger();
+        final Future<Throwable> future = this.scheduler.submit(0, new InputSplitScheduler.SplitTask() {
+                @Override
+                public InputSplit open() {
+                    return new RangeSplit(reads, 0, reads.length()) {
+                        @Override
+                        public synchronized Optional<InputSplit> trySplit() {
+                            this.countCall();
+                            return super.trySplit();
+                        }
+
+                        @Override
+                        public synchronized long estimateRemainingSize() {
+                            this.countCall();
+                            return super.estimateRemainingSize();
+                        }
+
+                        private void countCall() {
+                            calls.incrementAndGet();
+                            if (Thread.holdsLock(scheduler)) {
+                                lockedCalls.incrementAndGet();
+                            }
+                        }
+                    };
+                }
+
+                @Override
+                public TaskReport run(final InputSplit split) {
+                    return split.run(null);
+                }
+
+                @Override
+                public void finish(final List<TaskReport> reports, final boolean result) {
+                }
+            });
+
+        assertNull(future.get(60, TimeUnit.SECONDS));
+        assertTrue(calls.get() > 0);
+        assertEquals(0, lockedCalls.get());  // The input plugin is not called under the lock of the scheduler.
+        for (int i = 0; i < reads.length(); i++) {
+            assertEquals(1, reads.get(i));
+        }
+    }
+
+    @Test
+    public void testFailedSplit() throws Exception {
+        final RuntimeException failure = new RuntimeException("failed");
+        final AtomicReference<Boolean> committed = new AtomicReference<>();
+        final Future<Throwable> future = this.scheduler.submit(0, new InputSplitScheduler.SplitTask() {
+                @Override
+                public InputSplit open() {
+                    return new RangeSplit(new AtomicIntegerArray(10), 0, 10);
+                }
+
+                @Override
+                public TaskReport run(final InputSplit split) {
+                    throw failure;
+                }
+
+                @Override
+                public void finish(final List<TaskReport> reports, final boolean result) {
+                    assertTrue(reports.isEmpty());
+                    committed.set(result);
+                }
+            });
+
+        assertSame(failure, future.get(60, TimeUnit.SECONDS));
+        assertFalse(committed.get());
+    }
+
+    private static class RangeSplit implements InputSplit {
+        RangeSplit(final AtomicIntegerArray reads, final int start, final int end) {
+            this.reads = reads;
+            this.next = start;
+            this.end = end;
+        }
+
+        @Override
+        public TaskReport run(final PageOutput output) {
+            while (true) {
+                final int index;
+                synchronized (this) {
+                    if (this.next >= this.end) {
+                        return null;
+                    }
+                    index = this.next++;
+                }
+                this.reads.incrementAndGet(index);
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        }
+
+        @Override
+        public synchronized Optional<InputSplit> trySplit() {
+            final int remaining = this.end - this.next;
+            if (remaining < 4) {
+                return Optional.empty();
+            }
+            final int middle = this.next + remaining / 2;
+            final RangeSplit split = new RangeSplit(this.reads, middle, this.end);
+            this.end = middle;
+            return Optional.of(split);
+        }
+
+        @Override
+        public synchronized long estimateRemainingSize() {
+            return this.end - this.next;
+        }
+
+        private final AtomicIntegerArray reads;
+        private int next;
+        private int end;
+    }
+}
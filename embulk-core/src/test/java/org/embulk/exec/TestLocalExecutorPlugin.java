@@ -0,0 +1,427 @@
+package org.embulk.exec;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.embulk.EmbulkSystemProperties;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.plugin.DefaultPluginType;
+import org.embulk.spi.EstimatableInputPlugin;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.ExecutorPlugin;
+import org.embulk.spi.InputPlugin;
+import org.embulk.spi.OutputPlugin;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilderImpl;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReaderImpl;
+import org.embulk.spi.ProcessState;
+import org.embulk.spi.ProcessTask;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TaskState;
+import org.embulk.spi.TransactionalPageOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLocalExecutorPlugin {
+    private static final Schema SCHEMA = Schema.builder()
+            .add("input", LONG)
+            .add("seq", LONG)
+            .build();
+
+    // The plugins are instantiated by the session. They share their settings and results through static fields.
+    private static volatile int pagesPerTask;
+    private static volatile int slowInputTask;
+    private static volatile Set<Integer> failingInputTasks;
+    private static final Set<Integer> failingOnceInputTasks = ConcurrentHashMap.newKeySet();
+    private static volatile long[] inputTaskSizes;
+    private static final Map<Integer, List<String>> committedRecords = new ConcurrentHashMap<>();
+    private static final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    private ExecSessionInternal exec;
+
+    @Before
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    public void setUp() {
+        pagesPerTask = 1;
+        slowInputTask = -1;
+        failingInputTasks = Collections.emptySet();
+        failingOnceInputTasks.clear();
+        inputTaskSizes = null;
+        committedRecords.clear();
+        events.clear();
+        this.exec = ExecSessionInternal
+                .builderInternal(PooledBufferAllocator.create(), new SimpleTempFileSpaceAllocator())
+                .setModelManager(new org.embulk.config.ModelManager())
+                .registerInputPlugin("test", TestInputPlugin.class)
+                .registerOutputPlugin("test", TestOutputPlugin.class)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        this.exec.cleanup();
+    }
+
+    @Test
+    public void testScatterLeastLoaded() throws Exception {
+        pagesPerTask = 20;
+        final TestProcessState state = new TestProcessState(2, 6);
+        this.execute(new LocalExecutorPlugin.ScatterExecutor(2, 2, 3, 1, LocalExecutorPlugin.ScatterDispatch.LEAST_LOADED), state);
+
+        final List<String> records = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(state.getOutputTaskState(i).isCommitted());
+            records.addAll(committedRecords.get(i));
+        }
+        assertEquals(recordsOf(0, 1), sorted(records));  // Each record is sent to only one of the output tasks.
+    }
+
+    @Test
+    public void testScatterLeastLoadedFallsBackToRoundRobinWhenResumed() throws Exception {
+        pagesPerTask = 6;
+        final TestProcessState state = new TestProcessState(1, 2);
+        state.getOutputTaskState(1).setTaskReport(this.exec.newTaskReport());  // Committed in the previous run with pages 1, 3, and 5 in round robin.
+        this.execute(new LocalExecutorPlugin.ScatterExecutor(2, 1, 2, 1, LocalExecutorPlugin.ScatterDispatch.LEAST_LOADED), state);
+
+        assertTrue(state.getOutputTaskState(0).isCommitted());
+        assertEquals(Arrays.asList(record(0, 0), record(0, 2), record(0, 4)), committedRecords.get(0));
+        assertNull(committedRecords.get(1));
+    }
+
+    @Test
+    public void testGatherInputTasksIntoOutputTasks() throws Exception {
+        pagesPerTask = 3;
+        final TestProcessState state = new TestProcessState(5, 2);
+        this.execute(new LocalExecutorPlugin.GatherExecutor(2, 5, 2, 1), state);
+
+        // Input task i goes to output task (i % 2).
+        assertTrue(state.getOutputTaskState(0).isCommitted());
+        assertTrue(state.getOutputTaskState(1).isCommitted());
+        assertEquals(recordsOf(0, 2, 4), sorted(committedRecords.get(0)));
+        assertEquals(recordsOf(1, 3), sorted(committedRecords.get(1)));
+    }
+
+    @Test
+    public void testGatherOutputTaskCommitsAfterAllInputTasks() throws Exception {
+        slowInputTask = 4;
+        final TestProcessState state = new TestProcessState(5, 2);
+        this.execute(new LocalExecutorPlugin.GatherExecutor(3, 5, 2, 1), state);
+
+        for (int input = 0; input < 5; input++) {
+            assertTrue(state.getInputTaskState(input).isCommitted());
+            assertTrue(events.indexOf("input " + input) < events.indexOf("commit " + (input % 2)));
+        }
+        assertEquals(recordsOf(0, 2, 4), sorted(committedRecords.get(0)));
+    }
+
+    @Test
+    public void testGatherOutputTaskAbortsWhenInputTaskFails() throws Exception {
+        failingInputTasks = Collections.singleton(3);
+        final TestProcessState state = new TestProcessState(4, 2);
+        this.execute(new LocalExecutorPlugin.GatherExecutor(2, 4, 2, 1), state);
+
+        assertTrue(state.getInputTaskState(3).getException().isPresent());
+        assertTrue(state.getInputTaskState(1).isCommitted());
+        assertFalse(state.getOutputTaskState(1).isCommitted());
+        assertTrue(events.contains("abort 1"));
+        assertNull(committedRecords.get(1));
+
+        assertTrue(state.getOutputTaskState(0).isCommitted());
+        assertEquals(recordsOf(0, 2), sorted(committedRecords.get(0)));
+    }
+
+    @Test
+    public void testGatherSkipsInputTasksOfCommittedOutputTask() throws Exception {
+        final TestProcessState state = new TestProcessState(4, 2);
+        state.getOutputTaskState(0).setTaskReport(this.exec.newTaskReport());  // Committed in the previous run.
+        this.execute(new LocalExecutorPlugin.GatherExecutor(2, 4, 2, 1), state);
+
+        assertFalse(events.contains("start 0"));
+        assertFalse(events.contains("start 2"));
+        assertNull(committedRecords.get(0));
+        assertTrue(state.getOutputTaskState(1).isCommitted());
+        assertEquals(recordsOf(1, 3), sorted(committedRecords.get(1)));
+    }
+
+    @Test
+    public void testGatherLargestFirstSkipsInputTasksOfCommittedOutputTask() throws Exception {
+        inputTaskSizes = new long[] {10, 40, 30, 20};
+        final TestProcessState state = new TestProcessState(4, 2);
+        state.getOutputTaskState(1).setTaskReport(this.exec.newTaskReport());  // Committed in the previous run.
+        final LocalExecutorPlugin.GatherExecutor executor = new LocalExecutorPlugin.GatherExecutor(1, 4, 2, 1);
+        executor.setTaskOrder(LocalExecutorPlugin.TaskOrder.LARGEST_FIRST);
+        this.execute(executor, state);
+
+        // Input tasks 1 and 3 of the output task 1 are resumed, though there are only 2 output tasks for 4 input tasks.
+        assertEquals(Arrays.asList(2, 0), startedInputTasks());
+        assertEquals(recordsOf(0, 2), sorted(committedRecords.get(0)));
+    }
+
+    @Test
+    public void testScatterLargestFirstSkipsInputTasksOfCommittedOutputTasks() throws Exception {
+        inputTaskSizes = new long[] {10, 50, 20};
+        final TestProcessState state = new TestProcessState(3, 6);
+        state.getOutputTaskState(2).setTaskReport(this.exec.newTaskReport());  // Output tasks of the input task 1.
+        state.getOutputTaskState(3).setTaskReport(this.exec.newTaskReport());
+        final LocalExecutorPlugin.ScatterExecutor executor =
+                new LocalExecutorPlugin.ScatterExecutor(2, 3, 2, 1, LocalExecutorPlugin.ScatterDispatch.ROUND_ROBIN);
+        executor.setTaskOrder(LocalExecutorPlugin.TaskOrder.LARGEST_FIRST);
+        this.execute(executor, state);
+
+        // The input task 2 is not taken as resumed for the output task 2, which belongs to the input task 1.
+        assertEquals(Arrays.asList(2, 0), startedInputTasks());
+    }
+
+    @Test
+    public void testRetryReleasesThreadWhileWaiting() throws Exception {
+        failingOnceInputTasks.add(0);
+        final TestProcessState state = new TestProcessState(2, 2);
+        final LocalExecutorPlugin.DirectExecutor executor = new LocalExecutorPlugin.DirectExecutor(1, 2);
+        executor.setRetry(1, 500, 500);
+        this.execute(executor, state);
+
+        assertTrue(state.getOutputTaskState(0).isCommitted());
+        assertTrue(state.getOutputTaskState(1).isCommitted());
+        assertEquals(Arrays.asList(0, 1, 0), startedInputTasks());  // Task 1 runs on the only thread while task 0 waits to retry.
+    }
+
+    @Test
+    public void testSplitInputTasksGatheredIntoThreads() throws Exception {
+        final LocalExecutorPlugin plugin = new LocalExecutorPlugin(EmbulkSystemProperties.of(new Properties()));
+        final ConfigSource config = this.exec.newConfigSource()
+                .set("max_threads", "2")
+                .set("min_output_tasks", 1)
+                .set("split_input_tasks", true);
+        assertEquals(2, this.getOutputTaskCount(plugin, config, 4));  // Gathered into as many output tasks as threads.
+    }
+
+    @Test
+    public void testSplitInputTasksOnlyIfSplittable() throws Exception {
+        final TestProcessState state = new TestProcessState(4, 2);
+        // The executor finds that TestInputPlugin is not a SplittableInputPlugin from the task, and runs input tasks as they are.
+        this.execute(new LocalExecutorPlugin.GatherExecutor(2, 4, 2, 1, true), state);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3), sorted(startedInputTasks()));
+        assertEquals(recordsOf(0, 2), sorted(committedRecords.get(0)));
+        assertEquals(recordsOf(1, 3), sorted(committedRecords.get(1)));
+    }
+
+    private int getOutputTaskCount(final LocalExecutorPlugin plugin, final ConfigSource config, final int inputTaskCount) throws Exception {
+        final int[] outputTaskCount = new int[1];
+        ExecInternal.doWith(this.exec, () -> {
+            plugin.transaction(config, SCHEMA, inputTaskCount, (executorSchema, count, executor) -> outputTaskCount[0] = count);
+            return null;
+        });
+        return outputTaskCount[0];
+    }
+
+    private <T extends ExecutorPlugin.Executor & AutoCloseable> void execute(final T executor, final ProcessState state) throws Exception {
+        final ProcessTask task = new ProcessTask(
+                DefaultPluginType.create("test"), DefaultPluginType.create("test"), Collections.emptyList(),
+                this.exec.newTaskSource(), this.exec.newTaskSource(), Collections.emptyList(),
+                Collections.singletonList(SCHEMA), SCHEMA, this.exec.newTaskSource());
+        try {
+            ExecInternal.doWith(this.exec, () -> {
+                executor.execute(task, state);
+                return null;
+            });
+        } finally {
+            executor.close();
+        }
+    }
+
+    private static String record(final long input, final long seq) {
+        return input + ":" + seq;
+    }
+
+    private static List<String> recordsOf(final int... inputs) {
+        final List<String> records = new ArrayList<>();
+        for (final int input : inputs) {
+            for (int seq = 0; seq < pagesPerTask; seq++) {
+                records.add(record(input, seq));
+            }
+        }
+        return sorted(records);
+    }
+
+    private static List<Integer> startedInputTasks() {
+        final List<Integer> started = new ArrayList<>();
+        synchronized (events) {
+            for (final String event : events) {
+                if (event.startsWith("start ")) {
+                    started.add(Integer.parseInt(event.substring("start ".length())));
+                }
+            }
+        }
+        return started;
+    }
+
+    private static <T extends Comparable<? super T>> List<T> sorted(final List<T> records) {
+        final List<T> sorted = new ArrayList<>(records);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static class TestProcessState implements ProcessState {
+        private final TaskState[] inputTaskStates;
+        private final TaskState[] outputTaskStates;
+
+        TestProcessState(final int inputTaskCount, final int outputTaskCount) {
+            this.inputTaskStates = new TaskState[inputTaskCount];
+            this.outputTaskStates = new TaskState[outputTaskCount];
+            for (int i = 0; i < inputTaskCount; i++) {
+                this.inputTaskStates[i] = new TaskState();
+            }
+            for (int i = 0; i < outputTaskCount; i++) {
+                this.outputTaskStates[i] = new TaskState();
+            }
+        }
+
+        @Override
+        public void initialize(final int inputTaskCount, final int outputTaskCount) {
+            assertEquals(this.inputTaskStates.length, inputTaskCount);
+            assertEquals(this.outputTaskStates.length, outputTaskCount);
+        }
+
+        @Override
+        public TaskState getInputTaskState(final int inputTaskIndex) {
+            return this.inputTaskStates[inputTaskIndex];
+        }
+
+        @Override
+        public TaskState getOutputTaskState(final int outputTaskIndex) {
+            return this.outputTaskStates[outputTaskIndex];
+        }
+    }
+
+    /**
+     * Adds {@code pagesPerTask} pages of one record each, whose values are the input task index and the sequence number.
+     * It fails after adding the pages if the task is in {@code failingInputTasks}, or in {@code failingOnceInputTasks} for the
+     * first time. Its size is estimated from {@code inputTaskSizes}.
+     */
+    public static class TestInputPlugin implements EstimatableInputPlugin {
+        @Override
+        public ConfigDiff transaction(final ConfigSource config, final InputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ConfigDiff resume(final TaskSource taskSource, final Schema schema, final int taskCount, final InputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cleanup(final TaskSource taskSource, final Schema schema, final int taskCount, final List<TaskReport> successTaskReports) {
+        }
+
+        @Override
+        public TaskReport run(final TaskSource taskSource, final Schema schema, final int taskIndex, final PageOutput output) {
+            events.add("start " + taskIndex);
+            if (taskIndex == slowInputTask) {
+                try {
+                    Thread.sleep(500);
+                } catch (final InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            try (final PageBuilderImpl builder = new PageBuilderImpl(Exec.getBufferAllocator(), schema, output)) {
+                for (int i = 0; i < pagesPerTask; i++) {
+                    builder.setLong(0, taskIndex);
+                    builder.setLong(1, i);
+                    builder.addRecord();
+                    builder.flush();
+                }
+                builder.finish();
+            }
+            if (failingInputTasks.contains(taskIndex) || failingOnceInputTasks.remove(taskIndex)) {
+                throw new RuntimeException("Input task " + taskIndex + " failed.");
+            }
+            events.add("input " + taskIndex);
+            return Exec.newTaskReport();
+        }
+
+        @Override
+        public long estimateTaskSize(final TaskSource taskSource, final Schema schema, final int taskIndex) {
+            return inputTaskSizes == null ? -1 : inputTaskSizes[taskIndex];
+        }
+
+        @Override
+        public ConfigDiff guess(final ConfigSource config) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Keeps records of each output task in {@code committedRecords} when the output task commits.
+     * Commits and aborts are logged in {@code events}.
+     */
+    public static class TestOutputPlugin implements OutputPlugin {
+        @Override
+        public ConfigDiff transaction(final ConfigSource config, final Schema schema, final int taskCount, final OutputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ConfigDiff resume(final TaskSource taskSource, final Schema schema, final int taskCount, final OutputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cleanup(final TaskSource taskSource, final Schema schema, final int taskCount, final List<TaskReport> successTaskReports) {
+        }
+
+        @Override
+        public TransactionalPageOutput open(final TaskSource taskSource, final Schema schema, final int taskIndex) {
+            final List<String> records = new ArrayList<>();
+            final PageReaderImpl reader = new PageReaderImpl(schema);
+            return new TransactionalPageOutput() {
+                @Override
+                public void add(final Page page) {
+                    reader.setPage(page);
+                    while (reader.nextRecord()) {
+                        records.add(record(reader.getLong(0), reader.getLong(1)));
+                    }
+                }
+
+                @Override
+                public void finish() {
+                }
+
+                @Override
+                public void close() {
+                    reader.close();
+                }
+
+                @Override
+                public void abort() {
+                    events.add("abort " + taskIndex);
+                }
+
+                @Override
+                public TaskReport commit() {
+                    events.add("commit " + taskIndex);
+                    committedRecords.put(taskIndex, records);
+                    return Exec.newTaskReport();
+                }
+            };
+        }
+    }
+}
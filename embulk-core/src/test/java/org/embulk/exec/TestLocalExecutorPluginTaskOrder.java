@@ -0,0 +1,22 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+public class TestLocalExecutorPluginTaskOrder {
+    @Test
+    public void testSortBySizeDescending() {
+        assertArrayEquals(new int[] {2, 0, 3, 1}, LocalExecutorPlugin.sortBySizeDescending(new long[] {30, 10, 50, 20}));
+    }
+
+    @Test
+    public void testUnknownSizesFollowInOrder() {
+        assertArrayEquals(new int[] {3, 1, 0, 2, 4}, LocalExecutorPlugin.sortBySizeDescending(new long[] {-1, 5, -1, 7, -1}));
+    }
+
+    @Test
+    public void testEqualSizesKeepOrder() {
+        assertArrayEquals(new int[] {1, 0, 2}, LocalExecutorPlugin.sortBySizeDescending(new long[] {3, 4, 3}));
+    }
+}
@@ -0,0 +1,258 @@
+package org.embulk.exec;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.embulk.EmbulkSystemProperties;
+import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigSource;
+import org.embulk.config.TaskReport;
+import org.embulk.config.TaskSource;
+import org.embulk.plugin.DefaultPluginType;
+import org.embulk.spi.Exec;
+import org.embulk.spi.ExecInternal;
+import org.embulk.spi.ExecSessionInternal;
+import org.embulk.spi.InputPlugin;
+import org.embulk.spi.OutputPlugin;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilderImpl;
+import org.embulk.spi.PageOutput;
+import org.embulk.spi.PageReaderImpl;
+import org.embulk.spi.ProcessState;
+import org.embulk.spi.ProcessTask;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TaskState;
+import org.embulk.spi.TransactionalPageOutput;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tasks in worker processes forked from this JVM.
+ *
+ * <p>The plugins run in the workers, so that they get their settings from the task source, and report their results
+ * through task reports, instead of static fields.
+ */
+public class TestLocalProcessExecutorPlugin {
+    private static final Schema SCHEMA = Schema.builder()
+            .add("input", LONG)
+            .add("seq", LONG)
+            .build();
+
+    private ExecSessionInternal exec;
+
+    @Before
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    public void setUp() {
+        this.exec = ExecSessionInternal
+                .builderInternal(PooledBufferAllocator.create(), new SimpleTempFileSpaceAllocator())
+                .setModelManager(new org.embulk.config.ModelManager())
+                .setEmbulkSystemProperties(EmbulkSystemProperties.of(new Properties()))
+                .registerInputPlugin("test", TestInputPlugin.class)
+                .registerOutputPlugin("test", TestOutputPlugin.class)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        this.exec.cleanup();
+    }
+
+    @Test
+    public void testRunTasksInWorkers() throws Exception {
+        final TestProcessState state = new TestProcessState(3);
+        this.execute(state, -1);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(state.getInputTaskState(i).isCommitted());
+            assertTrue(state.getOutputTaskState(i).isCommitted());
+            assertNotEquals(ManagementFactory.getRuntimeMXBean().getName(),
+                            state.getInputTaskState(i).getTaskReport().get().get(String.class, "jvm"));
+            assertEquals(Arrays.asList(i + ":0", i + ":1"), getRecords(state.getOutputTaskState(i)));
+        }
+    }
+
+    @Test
+    public void testPropagateFailureFromWorker() throws Exception {
+        final TestProcessState state = new TestProcessState(3);
+        this.execute(state, 1);
+
+        final Throwable exception = state.getInputTaskState(1).getException().get();
+        assertTrue(exception instanceof LocalProcessProtocol.RemoteTaskException);
+        assertTrue(exception.getMessage().contains("Input task 1 failed."));
+        assertFalse(state.getOutputTaskState(1).isCommitted());
+
+        // The worker is reused for other tasks after a task fails.
+        assertTrue(state.getOutputTaskState(0).isCommitted());
+        assertTrue(state.getOutputTaskState(2).isCommitted());
+        assertEquals(Arrays.asList("2:0", "2:1"), getRecords(state.getOutputTaskState(2)));
+    }
+
+    @Test
+    public void testSkipCommittedTasks() throws Exception {
+        final TestProcessState state = new TestProcessState(3);
+        state.getOutputTaskState(1).setTaskReport(this.exec.newTaskReport().set("records", Collections.emptyList()));  // Committed in the previous run.
+        this.execute(state, -1);
+
+        assertFalse(state.getInputTaskState(1).isStarted());
+        assertEquals(Collections.emptyList(), getRecords(state.getOutputTaskState(1)));
+        assertEquals(Arrays.asList("0:0", "0:1"), getRecords(state.getOutputTaskState(0)));
+        assertEquals(Arrays.asList("2:0", "2:1"), getRecords(state.getOutputTaskState(2)));
+    }
+
+    private void execute(final TestProcessState state, final int failingTask) throws Exception {
+        final LocalProcessExecutorPlugin plugin = new LocalProcessExecutorPlugin(EmbulkSystemProperties.of(new Properties()));
+        final ConfigSource config = this.exec.newConfigSource().set("max_processes", 2);
+        final ProcessTask task = new ProcessTask(
+                DefaultPluginType.create("test"), DefaultPluginType.create("test"), Collections.emptyList(),
+                this.exec.newTaskSource().set("failing_task", failingTask), this.exec.newTaskSource(), Collections.emptyList(),
+                Collections.singletonList(SCHEMA), SCHEMA, this.exec.newTaskSource());
+        ExecInternal.doWith(this.exec, () -> {
+            plugin.transaction(config, SCHEMA, state.getTaskCount(), (executorSchema, outputTaskCount, executor) -> {
+                executor.execute(task, state);
+            });
+            return null;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> getRecords(final TaskState outputTaskState) {
+        return (List<String>) outputTaskState.getTaskReport().get().get(List.class, "records");
+    }
+
+    private static class TestProcessState implements ProcessState {
+        private final TaskState[] inputTaskStates;
+        private final TaskState[] outputTaskStates;
+
+        TestProcessState(final int taskCount) {
+            this.inputTaskStates = new TaskState[taskCount];
+            this.outputTaskStates = new TaskState[taskCount];
+            for (int i = 0; i < taskCount; i++) {
+                this.inputTaskStates[i] = new TaskState();
+                this.outputTaskStates[i] = new TaskState();
+            }
+        }
+
+        int getTaskCount() {
+            return this.inputTaskStates.length;
+        }
+
+        @Override
+        public void initialize(final int inputTaskCount, final int outputTaskCount) {
+            assertEquals(this.inputTaskStates.length, inputTaskCount);
+            assertEquals(this.outputTaskStates.length, outputTaskCount);
+        }
+
+        @Override
+        public TaskState getInputTaskState(final int inputTaskIndex) {
+            return this.inputTaskStates[inputTaskIndex];
+        }
+
+        @Override
+        public TaskState getOutputTaskState(final int outputTaskIndex) {
+            return this.outputTaskStates[outputTaskIndex];
+        }
+    }
+
+    /**
+     * Adds two records, whose values are the task index and the sequence number, and reports the name of its JVM.
+     * It fails after adding the records if the task is {@code "failing_task"}.
+     */
+    public static class TestInputPlugin implements InputPlugin {
+        @Override
+        public ConfigDiff transaction(final ConfigSource config, final InputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ConfigDiff resume(final TaskSource taskSource, final Schema schema, final int taskCount, final InputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cleanup(final TaskSource taskSource, final Schema schema, final int taskCount, final List<TaskReport> successTaskReports) {
+        }
+
+        @Override
+        public TaskReport run(final TaskSource taskSource, final Schema schema, final int taskIndex, final PageOutput output) {
+            try (final PageBuilderImpl builder = new PageBuilderImpl(Exec.getBufferAllocator(), schema, output)) {
+                for (int i = 0; i < 2; i++) {
+                    builder.setLong(0, taskIndex);
+                    builder.setLong(1, i);
+                    builder.addRecord();
+                }
+                builder.finish();
+            }
+            if (taskIndex == taskSource.get(Integer.class, "failing_task")) {
+                throw new RuntimeException("Input task " + taskIndex + " failed.");
+            }
+            return Exec.newTaskReport().set("jvm", ManagementFactory.getRuntimeMXBean().getName());
+        }
+
+        @Override
+        public ConfigDiff guess(final ConfigSource config) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reports records of each output task in its task report.
+     */
+    public static class TestOutputPlugin implements OutputPlugin {
+        @Override
+        public ConfigDiff transaction(final ConfigSource config, final Schema schema, final int taskCount, final OutputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ConfigDiff resume(final TaskSource taskSource, final Schema schema, final int taskCount, final OutputPlugin.Control control) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cleanup(final TaskSource taskSource, final Schema schema, final int taskCount, final List<TaskReport> successTaskReports) {
+        }
+
+        @Override
+        public TransactionalPageOutput open(final TaskSource taskSource, final Schema schema, final int taskIndex) {
+            final List<String> records = new ArrayList<>();
+            final PageReaderImpl reader = new PageReaderImpl(schema);
+            return new TransactionalPageOutput() {
+                @Override
+                public void add(final Page page) {
+                    reader.setPage(page);
+                    while (reader.nextRecord()) {
+                        records.add(reader.getLong(0) + ":" + reader.getLong(1));
+                    }
+                }
+
+                @Override
+                public void finish() {
+                }
+
+                @Override
+                public void close() {
+                    reader.close();
+                }
+
+                @Override
+                public void abort() {
+                }
+
+                @Override
+                public TaskReport commit() {
+                    return Exec.newTaskReport().set("records", records);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class TestLocalProcessProtocol {
+    @Test
+    public void testReadWrittenMessages() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        LocalProcessProtocol.writeMessage(out, "{\"type\":\"init\"}");
+        LocalProcessProtocol.writeMessage(out, "{\"name\":\"あ\"}");
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals("{\"type\":\"init\"}", LocalProcessProtocol.readMessage(in));
+        assertEquals("{\"name\":\"あ\"}", LocalProcessProtocol.readMessage(in));
+        assertNull(LocalProcessProtocol.readMessage(in));  // Ends at a boundary of messages.
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedMessage() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(10);
+        out.write(new byte[3]);
+        LocalProcessProtocol.readMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void testDescribeError() {
+        final String description = LocalProcessProtocol.describeError(new IllegalStateException("broken", new RuntimeException("cause")));
+        assertTrue(description.startsWith("java.lang.IllegalStateException: broken"));
+        assertTrue(description.contains("Caused by: java.lang.RuntimeException: cause"));
+        assertTrue(new LocalProcessProtocol.RemoteTaskException(description).getMessage().contains(description));
+    }
+}
@@ -0,0 +1,103 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestSharedExecutorPool {
+    @After
+    public void tearDown() {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+    }
+
+    @Test
+    public void testLimitConcurrencyOfRun() throws Exception {
+        this.pool = SharedExecutorPool.create(4);
+        final ExecutorService run = this.pool.newRunExecutor(null, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(run.submit(() -> {
+                final int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                Thread.sleep(10);
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(maxRunning.get() <= 2);
+        run.shutdown();
+        assertTrue(run.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTakeTasksOfRunsInTurn() throws Exception {
+        this.pool = SharedExecutorPool.create(1);
+        final ExecutorService runA = this.pool.newRunExecutor(null, 4);
+        final ExecutorService runB = this.pool.newRunExecutor(null, 4);
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        final List<Future<?>> futures = new ArrayList<>();
+        futures.add(runA.submit(() -> {
+            blocked.await();
+            order.add("a0");
+            return null;
+        }));
+        for (int i = 1; i < 5; i++) {
+            final String name = "a" + i;
+            futures.add(runA.submit(() -> order.add(name)));
+        }
+        futures.add(runB.submit(() -> order.add("b0")));
+        blocked.countDown();
+        for (final Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(6, order.size());
+        assertTrue(order.indexOf("b0") <= 2);  // Not after all tasks of the run submitted earlier.
+    }
+
+    @Test
+    public void testShutdownRunWithoutStoppingPool() throws Exception {
+        this.pool = SharedExecutorPool.create(2);
+        final ExecutorService first = this.pool.newRunExecutor(null, 2);
+        first.submit(() -> null).get(10, TimeUnit.SECONDS);
+        first.shutdownNow();
+        assertTrue(first.awaitTermination(10, TimeUnit.SECONDS));
+
+        final ExecutorService second = this.pool.newRunExecutor(null, 2);
+        assertEquals("done", second.submit(() -> "done").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShareOnePoolInJvm() throws Exception {
+        final SharedExecutorPool jvmPool = SharedExecutorPool.ofJvm(2);  // Not closed as it is of the JVM.
+        assertSame(jvmPool, SharedExecutorPool.ofJvm(2));
+        assertSame(jvmPool, SharedExecutorPool.ofJvm(3));  // Not another pool with another number of threads.
+        assertEquals(2, jvmPool.getThreads());
+
+        final ExecutorService run = jvmPool.newRunExecutor(null, 2);
+        assertEquals(Boolean.TRUE, run.submit(() -> Thread.currentThread().isDaemon()).get(10, TimeUnit.SECONDS));
+        run.shutdown();
+        assertTrue(run.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private SharedExecutorPool pool;
+}
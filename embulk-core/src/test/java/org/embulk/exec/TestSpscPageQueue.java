@@ -0,0 +1,128 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.embulk.spi.BufferImpl;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageImpl;
+import org.junit.Test;
+
+public class TestSpscPageQueue {
+    @Test
+    public void testTakeInOrder() throws Exception {
+        for (final int capacity : new int[] { 1, 4, 16 }) {
+            final Page[] pages = new Page[10000];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = PageImpl.allocate(0);
+            }
+            final SpscPageQueue queue = new SpscPageQueue(capacity);
+            final AtomicInteger taken = new AtomicInteger();
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            final Thread consumer = new Thread(() -> {
+                try {
+                    Page page;
+                    while ((page = queue.take()) != null) {
+                        assertSame(pages[taken.getAndIncrement()], page);
+                    }
+                } catch (final Throwable ex) {
+                    error.set(ex);
+                }
+            });
+            consumer.start();
+
+            for (final Page page : pages) {
+                queue.put(page);
+            }
+            queue.finish();
+            consumer.join();
+            assertNull(error.get());
+            assertEquals(pages.length, taken.get());
+        }
+    }
+
+    @Test
+    public void testReleaseAfterClosed() throws Exception {
+        final SpscPageQueue queue = new SpscPageQueue(2);
+        final Thread consumer = new Thread(() -> {
+            try {
+                queue.take();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                queue.close();
+            }
+        });
+        consumer.start();
+
+        final AtomicInteger released = new AtomicInteger();
+        queue.put(newCountingPage(released));
+        consumer.join();
+
+        // Pages put after the consumer abandons the queue are released without blocking.
+        for (int i = 0; i < 10; i++) {
+            queue.put(newCountingPage(released));
+        }
+        assertEquals(10, released.get());
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void testSizeAndWaitTime() throws Exception {
+        final SpscPageQueue queue = new SpscPageQueue(2);
+        queue.put(PageImpl.allocate(0));
+        queue.put(PageImpl.allocate(0));
+        assertEquals(2, queue.size());
+
+        final Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                while (queue.take() != null) {
+                    // Drains the queue.
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        queue.put(PageImpl.allocate(0));  // Waits for the consumer to take a page.
+        queue.finish();
+        consumer.join();
+        assertEquals(0, queue.size());
+        assertTrue(queue.getProducerWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testInterruptWhileWaiting() throws Exception {
+        final SpscPageQueue queue = new SpscPageQueue(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread consumer = new Thread(() -> {
+            try {
+                queue.take();
+            } catch (final Throwable ex) {
+                error.set(ex);
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+        consumer.interrupt();
+        consumer.join(10000);
+        assertFalse(consumer.isAlive());
+        assertEquals(InterruptedException.class, error.get().getClass());
+    }
+
+    private static Page newCountingPage(final AtomicInteger released) {
+        return PageImpl.wrap(new BufferImpl(new byte[16], 0, 16) {
+                @Override
+                public void release() {
+                    released.incrementAndGet();
+                }
+            });
+    }
+}
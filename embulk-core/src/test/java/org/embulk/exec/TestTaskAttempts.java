@@ -0,0 +1,132 @@
+package org.embulk.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.config.TaskReport;
+import org.embulk.spi.Page;
+import org.embulk.spi.TransactionalPageOutput;
+import org.junit.Test;
+
+public class TestTaskAttempts {
+    @Test
+    public void testRetryUntilLimit() throws Exception {
+        final AtomicInteger completed = new AtomicInteger();
+        final TaskAttempts attempts = new TaskAttempts(0, 2, 1, 1, completed::incrementAndGet);
+        attempts.attemptStarted();
+        assertEquals(1L, attempts.retryAfter(new RuntimeException("first")));
+        attempts.attemptExited();
+        assertFalse(attempts.isDone());  // The retry is pending.
+        attempts.retryStarted();
+        assertEquals(1L, attempts.retryAfter(new RuntimeException("second")));
+        attempts.attemptExited();
+        attempts.retryStarted();
+        final RuntimeException last = new RuntimeException("third");
+        assertEquals(-1L, attempts.retryAfter(last));
+        assertSame(last, attempts.getResult().get());
+        assertEquals(1, completed.get());
+    }
+
+    @Test
+    public void testSucceedAfterRetry() throws Exception {
+        final TaskAttempts attempts = new TaskAttempts(0, 1, 1, 1, () -> { });
+        attempts.attemptStarted();
+        assertEquals(1L, attempts.retryAfter(new RuntimeException("transient")));
+        attempts.attemptExited();
+        attempts.retryStarted();
+        attempts.succeeded();
+        attempts.attemptExited();
+        assertNull(attempts.getResult().get());
+    }
+
+    @Test
+    public void testBackOffUpToMaxWait() {
+        final TaskAttempts attempts = new TaskAttempts(0, 3, 100, 300, () -> { });
+        attempts.attemptStarted();
+        assertEquals(100L, attempts.retryAfter(new RuntimeException("first")));
+        assertEquals(200L, attempts.retryAfter(new RuntimeException("second")));
+        assertEquals(300L, attempts.retryAfter(new RuntimeException("third")));
+    }
+
+    @Test
+    public void testOnlyOneAttemptCommits() throws Exception {
+        final TaskAttempts attempts = new TaskAttempts(0, 0, 1, 1, () -> { });
+        final CountingOutput first = new CountingOutput();
+        final CountingOutput second = new CountingOutput();
+        final TransactionalPageOutput firstGated = attempts.gate(first);
+        final TransactionalPageOutput secondGated = attempts.gate(second);
+
+        firstGated.commit();
+        attempts.succeeded();
+        try {
+            secondGated.commit();
+            fail();
+        } catch (final TaskAttempts.AttemptLostException ex) {
+            // Expected.
+        }
+        assertEquals(1, first.commits);
+        assertEquals(0, second.commits);
+        assertEquals(-1L, attempts.retryAfter(new TaskAttempts.AttemptLostException(0)));
+        assertNull(attempts.getResult().get());
+    }
+
+    @Test
+    public void testCommitAgainAfterFailedCommit() {
+        final TaskAttempts attempts = new TaskAttempts(0, 0, 1, 1, () -> { });
+        final TransactionalPageOutput failing = attempts.gate(new CountingOutput() {
+                @Override
+                public TaskReport commit() {
+                    throw new RuntimeException("failed to commit");
+                }
+            });
+        try {
+            failing.commit();
+            fail();
+        } catch (final RuntimeException ex) {
+            assertEquals("failed to commit", ex.getMessage());
+        }
+        final CountingOutput other = new CountingOutput();
+        attempts.gate(other).commit();
+        assertEquals(1, other.commits);
+    }
+
+    @Test
+    public void testSpeculateOnlyOnce() {
+        final TaskAttempts attempts = new TaskAttempts(0, 0, 1, 1, () -> { });
+        assertFalse(attempts.speculate(0));  // Not started yet.
+        attempts.attemptStarted();
+        assertTrue(attempts.speculate(0));
+        assertFalse(attempts.speculate(0));
+    }
+
+    private static class CountingOutput implements TransactionalPageOutput {
+        @Override
+        public void add(final Page page) {
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+        }
+
+        @Override
+        public TaskReport commit() {
+            this.commits++;
+            return null;
+        }
+
+        int commits;
+    }
+}
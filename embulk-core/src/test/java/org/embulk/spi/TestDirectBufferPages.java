@@ -0,0 +1,186 @@
+package org.embulk.spi;
+
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import org.embulk.exec.PooledBufferAllocator;
+import org.embulk.spi.json.JsonArray;
+import org.embulk.spi.json.JsonLong;
+import org.embulk.spi.json.JsonObject;
+import org.embulk.spi.json.JsonString;
+import org.embulk.spi.json.JsonValue;
+import org.embulk.test.EmbulkTestRuntime;
+import org.embulk.test.TestPageBuilderReader;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Builds, reads, and serializes pages on buffers out of Java heap, which are not backed by arrays.
+ *
+ * <p>Pages are small so that long strings and JSON values take over records into new pages.
+ */
+public class TestDirectBufferPages {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    // JSON is before STRING so that a JSON value is already written when an inline string overflows the page.
+    private static final Schema SCHEMA = Schema.builder()
+            .add("id", LONG)
+            .add("json", JSON)
+            .add("name", STRING)
+            .add("score", DOUBLE)
+            .build();
+
+    private static final int RECORDS = 200;
+
+    private final BufferAllocator allocator = PooledBufferAllocator.create(128, true);
+
+    @Test
+    public void testRowOriented() throws IOException {
+        this.assertRoundTrip(builder -> builder);
+    }
+
+    @Test
+    public void testInlineStrings() throws IOException {
+        this.assertRoundTrip(builder -> builder.setInlineStrings(true));
+    }
+
+    @Test
+    public void testInlineStringsWrittenDirectly() throws IOException {
+        this.assertRoundTrip(builder -> builder.setInlineStrings(true).setDirect(true));
+    }
+
+    @Test
+    public void testDictionaryStrings() throws IOException {
+        this.assertRoundTrip(builder -> builder.setDictionaryStrings(true));
+    }
+
+    @Test
+    public void testColumnar() throws IOException {
+        this.assertRoundTrip(builder -> builder.setColumnar(true));
+    }
+
+    private void assertRoundTrip(final UnaryOperator<PageBuilderImpl.Builder> options) throws IOException {
+        final List<Page> pages = this.buildPages(options);
+        assertTrue(pages.size() > 1);
+
+        for (final PageCompression compression : new PageCompression[] { PageCompression.NONE, PageCompression.DEFLATE }) {
+            final PageCodec codec = PageCodec.builder(SCHEMA, this.allocator).setCompression(compression).build();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final WritableByteChannel out = Channels.newChannel(bytes);
+            for (final Page page : pages) {
+                assertTrue(page.buffer() instanceof DirectBufferImpl);
+                codec.write(page, out);
+            }
+
+            final ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+            int records = 0;
+            try (final PageReaderImpl reader = new PageReaderImpl(SCHEMA)) {
+                Page page;
+                while ((page = codec.read(in)) != null) {
+                    assertTrue(page.buffer() instanceof DirectBufferImpl);
+                    reader.setPage(page);
+                    while (reader.nextRecord()) {
+                        assertRecord(reader, records++);
+                    }
+                }
+            }
+            assertEquals(RECORDS, records);
+        }
+
+        int records = 0;
+        try (final PageReaderImpl reader = new PageReaderImpl(SCHEMA)) {
+            for (final Page page : pages) {
+                reader.setPage(page);
+                while (reader.nextRecord()) {
+                    assertRecord(reader, records++);
+                }
+            }
+        }
+        assertEquals(RECORDS, records);
+    }
+
+    private List<Page> buildPages(final UnaryOperator<PageBuilderImpl.Builder> options) {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        try (final PageBuilderImpl builder = options.apply(PageBuilderImpl.builder(this.allocator, SCHEMA, output)).build()) {
+            for (int i = 0; i < RECORDS; i++) {
+                builder.setLong(0, i);
+                final JsonValue json = jsonOf(i);
+                if (json == null) {
+                    builder.setNull(1);
+                } else {
+                    builder.setJson(1, json);
+                }
+                final String name = nameOf(i);
+                if (name == null) {
+                    builder.setNull(2);
+                } else {
+                    builder.setString(2, name);
+                }
+                builder.setDouble(3, i * 0.5);
+                builder.addRecord();
+            }
+            builder.finish();
+        }
+        return output.pages;
+    }
+
+    private static void assertRecord(final PageReaderImpl reader, final int i) {
+        assertEquals(i, reader.getLong(0));
+        final JsonValue json = jsonOf(i);
+        if (json == null) {
+            assertTrue(reader.isNull(1));
+        } else {
+            assertEquals(json, reader.getJsonValue(1));
+        }
+        final String name = nameOf(i);
+        if (name == null) {
+            assertTrue(reader.isNull(2));
+        } else {
+            assertEquals(name, reader.getString(2));
+        }
+        assertEquals(i * 0.5, reader.getDouble(3), 0.0);
+    }
+
+    private static String nameOf(final int i) {
+        switch (i % 5) {
+            case 0:
+                return null;
+            case 1:
+                return "";
+            case 2:
+                return "name" + i;
+            case 3:
+                return "名前" + i;  // Multi-byte characters in UTF-8.
+            default:
+                return repeat("long-" + i + "-", 40);  // Longer than a page.
+        }
+    }
+
+    private static JsonValue jsonOf(final int i) {
+        if (i % 4 == 0) {
+            return null;
+        }
+        return JsonArray.of(JsonObject.of("id", JsonLong.of(i)), JsonString.of(i % 3 == 0 ? repeat("json", 50) : "json" + i));
+    }
+
+    private static String repeat(final String s, final int times) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}
@@ -6,14 +6,17 @@ import static org.embulk.spi.type.Types.JSON;
 import static org.embulk.spi.type.Types.LONG;
 import static org.embulk.spi.type.Types.STRING;
 import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.msgpack.value.ValueFactory.newBoolean;
 import static org.msgpack.value.ValueFactory.newInteger;
 import static org.msgpack.value.ValueFactory.newMap;
 import static org.msgpack.value.ValueFactory.newString;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
 import org.embulk.test.EmbulkTestRuntime;
@@ -350,4 +353,415 @@ public class TestPageBuilderReaderImpl {
         builder.flush();
         builder.flush();
     }
+
+    @Test
+    public void testColumnarLayout() {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final Schema schema = Schema.builder()
+                .add("col0", LONG)
+                .add("col1", STRING)
+                .add("col2", TIMESTAMP)
+                .build();
+
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, output).setColumnar(true).build();
+        builder.setLong(0, 42L);
+        builder.setString(1, "v0");
+        builder.setTimestamp(2, Instant.ofEpochSecond(10, 20));
+        builder.addRecord();
+        builder.setNull(0);
+        builder.setNull(1);
+        builder.setTimestamp(2, Instant.ofEpochSecond(30, 40));
+        builder.addRecord();
+        builder.finish();
+        builder.close();
+
+        reader = new PageReaderImpl(schema);
+        assertEquals(1, output.pages.size());
+        reader.setPage(output.pages.get(0));
+        assertTrue(reader.nextRecord());
+        assertEquals(42L, reader.getLong(0));
+        assertEquals("v0", reader.getString(1));
+        assertEquals(Instant.ofEpochSecond(10, 20), reader.getTimestampInstant(2));
+        assertTrue(reader.nextRecord());
+        assertTrue(reader.isNull(0));
+        assertTrue(reader.isNull(1));
+        assertEquals(Instant.ofEpochSecond(30, 40), reader.getTimestampInstant(2));
+        assertFalse(reader.nextRecord());
+    }
+
+    @Test
+    public void testColumnarPageWrappedAgain() {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final Schema schema = Schema.builder().add("col0", LONG).add("col1", STRING).build();
+
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, output).setColumnar(true).build();
+        builder.setLong(0, 42L);
+        builder.setString(1, "v0");
+        builder.addRecord();
+        builder.setLong(0, 43L);
+        builder.setNull(1);
+        builder.addRecord();
+        builder.finish();
+        builder.close();
+
+        // The format is kept in the buffer, not only in the PageImpl instance built.
+        final PageImpl built = (PageImpl) output.pages.get(0);
+        final Page wrapped = PageImpl.wrap(built.buffer()).setStringReferencesInternal(built.getStringReferencesInternal());
+        assertEquals(2, PageReaderImpl.getRecordCount(wrapped));
+        reader = new PageReaderImpl(schema);
+        reader.setPage(wrapped);
+        assertTrue(reader.nextRecord());
+        assertEquals(42L, reader.getLong(0));
+        assertEquals("v0", reader.getString(1));
+        assertTrue(reader.nextRecord());
+        assertEquals(43L, reader.getLong(0));
+        assertTrue(reader.isNull(1));
+        assertFalse(reader.nextRecord());
+    }
+
+    @Test
+    public void testReadLongsInBatch() {
+        final Schema schema = Schema.builder().add("col0", STRING).add("col1", LONG).build();
+        for (final boolean columnar : new boolean[] { false, true }) {
+            final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+            builder = PageBuilderImpl.builder(bufferAllocator, schema, output).setColumnar(columnar).build();
+            for (long i = 0; i < 100; i++) {
+                builder.setString(0, "record" + i);
+                if (i % 10 == 0) {
+                    builder.setNull(1);
+                } else {
+                    builder.setLong(1, i);
+                }
+                builder.addRecord();
+            }
+            builder.finish();
+            builder.close();
+
+            final PageReaderImpl pageReader = new PageReaderImpl(schema);
+            reader = pageReader;
+            assertEquals(1, output.pages.size());
+            pageReader.setPage(output.pages.get(0));
+            final long[] values = new long[100];
+            final boolean[] nulls = new boolean[100];
+            assertEquals(100, pageReader.readLongs(1, values));
+            assertEquals(100, pageReader.readNulls(1, nulls));
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i % 10 == 0, nulls[i]);
+                assertEquals(i % 10 == 0 ? 0L : (long) i, values[i]);
+            }
+            pageReader.close();
+        }
+    }
+
+    @Test
+    public void testInlineStrings() {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final Schema schema = Schema.builder()
+                .add("col0", STRING)
+                .add("col1", JSON)
+                .add("col2", STRING)
+                .build();
+
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, output).setInlineStrings(true).build();
+        builder.setString(0, "foo");
+        builder.setJson(1, getJsonSampleData());
+        builder.setString(2, "\u3042\u3044\u3046");
+        builder.addRecord();
+        builder.setNull(0);
+        builder.setNull(1);
+        builder.setString(2, "");
+        builder.addRecord();
+        builder.finish();
+        builder.close();
+
+        final PageReaderImpl pageReader = new PageReaderImpl(schema);
+        reader = pageReader;
+        assertEquals(1, output.pages.size());
+        assertEquals(0, ((PageImpl) output.pages.get(0)).getStringReferencesInternal().size());
+        pageReader.setPage(output.pages.get(0));
+        assertTrue(pageReader.nextRecord());
+        assertEquals("foo", pageReader.getString(0));
+        assertEquals(getJsonSampleData(), pageReader.getJson(1));
+        assertEquals("\u3042\u3044\u3046", pageReader.getString(2));
+        assertArrayEquals("\u3042\u3044\u3046".getBytes(StandardCharsets.UTF_8), pageReader.getStringBytes(2));
+        assertTrue(pageReader.nextRecord());
+        assertTrue(pageReader.isNull(0));
+        assertNull(pageReader.getStringBytes(0));
+        assertEquals("", pageReader.getString(2));
+        assertFalse(pageReader.nextRecord());
+    }
+
+    @Test
+    public void testInlineStringsTakenOverToNextPage() {
+        // Allocates buffers just as large as requested so that strings overflow in the middle of a record.
+        final BufferAllocator smallBufferAllocator = new BufferAllocator() {
+            @Override
+            public Buffer allocate() {
+                return allocate(64);
+            }
+
+            @Override
+            public Buffer allocate(final int minimumCapacity) {
+                return BufferImpl.allocate(Math.max(64, minimumCapacity));
+            }
+        };
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final Schema schema = Schema.builder()
+                .add("col0", JSON)
+                .add("col1", STRING)
+                .add("col2", STRING)
+                .build();
+
+        builder = PageBuilderImpl.builder(smallBufferAllocator, schema, output).setInlineStrings(true).build();
+        for (int i = 0; i < 10; i++) {
+            builder.setJson(0, newInteger(i));
+            builder.setString(1, "short" + i);
+            builder.setString(2, "a longer string which does not fit in the rest of the buffer " + i);
+            builder.addRecord();
+        }
+        builder.finish();
+        builder.close();
+
+        reader = new PageReaderImpl(schema);
+        int records = 0;
+        for (final Page page : output.pages) {
+            reader.setPage(page);
+            while (reader.nextRecord()) {
+                assertEquals(newInteger(records), reader.getJson(0));
+                assertEquals("short" + records, reader.getString(1));
+                assertEquals("a longer string which does not fit in the rest of the buffer " + records, reader.getString(2));
+                records++;
+            }
+        }
+        assertEquals(10, records);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInlineStringsInColumnarLayout() {
+        PageBuilderImpl.builder(bufferAllocator, Schema.builder().add("col0", STRING).build(), new TestPageBuilderReader.MockPageOutput())
+                .setColumnar(true)
+                .setInlineStrings(true)
+                .build();
+    }
+
+    @Test
+    public void testDictionaryStrings() {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final Schema schema = Schema.builder()
+                .add("col0", STRING)
+                .add("col1", STRING)
+                .build();
+
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, output).setDictionaryStrings(true).build();
+        for (int i = 0; i < 100; i++) {
+            builder.setString(0, "status" + (i % 3));
+            if (i % 10 == 0) {
+                builder.setNull(1);
+            } else {
+                builder.setString(1, "status" + (i % 2));
+            }
+            builder.addRecord();
+        }
+        builder.finish();
+        builder.close();
+
+        final PageReaderImpl pageReader = new PageReaderImpl(schema);
+        reader = pageReader;
+        assertEquals(1, output.pages.size());
+        pageReader.setPage(output.pages.get(0));
+        assertTrue(pageReader.hasDictionary());
+        final List<String> dictionary = pageReader.getDictionary();
+        assertEquals(3, dictionary.size());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(pageReader.nextRecord());
+            assertEquals("status" + (i % 3), pageReader.getString(0));
+            assertEquals("status" + (i % 3), dictionary.get(pageReader.getStringCode(0)));
+            if (i % 10 == 0) {
+                assertEquals(-1, pageReader.getStringCode(1));
+                assertNull(pageReader.getString(1));
+            } else {
+                assertEquals("status" + (i % 2), dictionary.get(pageReader.getStringCode(1)));
+            }
+        }
+        assertFalse(pageReader.nextRecord());
+    }
+
+    @Test
+    public void testDictionaryStringsInColumnarLayout() {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final Schema schema = Schema.builder().add("col0", STRING).build();
+
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, output).setColumnar(true).setDictionaryStrings(true).build();
+        builder.setString(0, "a");
+        builder.addRecord();
+        builder.setString(0, "b");
+        builder.addRecord();
+        builder.setString(0, "a");
+        builder.addRecord();
+        builder.finish();
+        builder.close();
+
+        final PageReaderImpl pageReader = new PageReaderImpl(schema);
+        reader = pageReader;
+        pageReader.setPage(output.pages.get(0));
+        assertEquals(2, pageReader.getDictionary().size());
+        assertTrue(pageReader.nextRecord());
+        final int codeOfA = pageReader.getStringCode(0);
+        assertTrue(pageReader.nextRecord());
+        assertEquals("b", pageReader.getString(0));
+        assertTrue(pageReader.nextRecord());
+        assertEquals(codeOfA, pageReader.getStringCode(0));
+    }
+
+    @Test
+    public void testDirect() {
+        final Schema schema = Schema.builder()
+                .add("col0", BOOLEAN)
+                .add("col1", LONG)
+                .add("col2", DOUBLE)
+                .add("col3", STRING)
+                .add("col4", TIMESTAMP)
+                .add("col5", JSON)
+                .build();
+        for (final boolean columnar : new boolean[] { false, true }) {
+            final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+            builder = PageBuilderImpl.builder(bufferAllocator, schema, output).setColumnar(columnar).setDirect(true).build();
+            // Columns can be set in any order.
+            builder.setString(3, "foo");
+            builder.setBoolean(0, true);
+            builder.setLong(1, 42L);
+            builder.setDouble(2, 1.5);
+            builder.setTimestamp(4, Instant.ofEpochSecond(10, 20));
+            builder.setJson(5, getJsonSampleData());
+            builder.addRecord();
+            builder.setNull(0);
+            builder.setNull(1);
+            builder.setNull(2);
+            builder.setNull(3);
+            builder.setNull(4);
+            builder.setNull(5);
+            builder.addRecord();
+            builder.finish();
+            builder.close();
+
+            reader = new PageReaderImpl(schema);
+            assertEquals(1, output.pages.size());
+            reader.setPage(output.pages.get(0));
+            assertTrue(reader.nextRecord());
+            assertTrue(reader.getBoolean(0));
+            assertEquals(42L, reader.getLong(1));
+            assertEquals(1.5, reader.getDouble(2), 0.0);
+            assertEquals("foo", reader.getString(3));
+            assertEquals(Instant.ofEpochSecond(10, 20), reader.getTimestampInstant(4));
+            assertEquals(getJsonSampleData(), reader.getJson(5));
+            assertTrue(reader.nextRecord());
+            for (int i = 0; i < schema.getColumnCount(); i++) {
+                assertTrue(reader.isNull(i));
+            }
+            assertFalse(reader.nextRecord());
+            reader.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDirectSettingTwice() {
+        final Schema schema = Schema.builder().add("col0", LONG).build();
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, new TestPageBuilderReader.MockPageOutput()).setDirect(true).build();
+        builder.setLong(0, 1L);
+        builder.setLong(0, 2L);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDirectWithUnsetColumn() {
+        final Schema schema = Schema.builder().add("col0", LONG).add("col1", STRING).build();
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, new TestPageBuilderReader.MockPageOutput()).setDirect(true).build();
+        builder.setLong(0, 1L);
+        builder.addRecord();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDirectWithWrongType() {
+        final Schema schema = Schema.builder().add("col0", LONG).build();
+        builder = PageBuilderImpl.builder(bufferAllocator, schema, new TestPageBuilderReader.MockPageOutput()).setDirect(true).build();
+        builder.setString(0, "foo");
+    }
+
+    @Test
+    public void testAppendBatch() {
+        this.bufferAllocator = new BufferAllocator() {
+            @Override
+            public Buffer allocate() {
+                return BufferImpl.allocate(256);
+            }
+
+            @Override
+            public Buffer allocate(int minimumCapacity) {
+                return BufferImpl.allocate(Math.max(256, minimumCapacity));
+            }
+        };
+        final Schema schema = Schema.builder()
+                .add("col0", LONG)
+                .add("col1", DOUBLE)
+                .add("col2", BOOLEAN)
+                .add("col3", STRING)
+                .add("col4", TIMESTAMP)
+                .build();
+        final long[] longs = new long[100];
+        final boolean[] longNulls = new boolean[100];
+        final double[] doubles = new double[100];
+        final boolean[] booleans = new boolean[100];
+        final String[] strings = new String[100];
+        final Instant[] instants = new Instant[100];
+        for (int i = 0; i < 100; i++) {
+            longs[i] = i;
+            longNulls[i] = i % 10 == 0;
+            doubles[i] = i * 0.5;
+            booleans[i] = i % 2 == 0;
+            strings[i] = i % 3 == 0 ? null : "value" + i;
+            instants[i] = Instant.ofEpochSecond(i, i);
+        }
+        final ColumnBatch batch = new ColumnBatch(schema)
+                .setLongs(0, longs, longNulls)
+                .setDoubles(1, doubles, null)
+                .setBooleans(2, booleans, null)
+                .setStrings(3, strings, null)
+                .setTimestamps(4, instants, null);
+
+        for (final boolean columnar : new boolean[] { false, true }) {
+            final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+            final PageBuilderImpl pageBuilder = PageBuilderImpl.builder(bufferAllocator, schema, output).setColumnar(columnar).build();
+            builder = pageBuilder;
+            pageBuilder.appendBatch(100, batch);
+            pageBuilder.finish();
+            pageBuilder.close();
+            assertTrue(output.pages.size() > 1);
+
+            reader = new PageReaderImpl(schema);
+            int i = 0;
+            for (final Page page : output.pages) {
+                reader.setPage(page);
+                while (reader.nextRecord()) {
+                    assertEquals(i % 10 == 0, reader.isNull(0));
+                    if (i % 10 != 0) {
+                        assertEquals((long) i, reader.getLong(0));
+                    }
+                    assertEquals(i * 0.5, reader.getDouble(1), 0.0);
+                    assertEquals(i % 2 == 0, reader.getBoolean(2));
+                    assertEquals(i % 3 == 0 ? null : "value" + i, reader.getString(3));
+                    assertEquals(Instant.ofEpochSecond(i, i), reader.getTimestampInstant(4));
+                    i++;
+                }
+            }
+            assertEquals(100, i);
+            reader.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendBatchWithMissingColumn() {
+        final Schema schema = Schema.builder().add("col0", LONG).add("col1", STRING).build();
+        final PageBuilderImpl pageBuilder = PageBuilderImpl.builder(bufferAllocator, schema, new TestPageBuilderReader.MockPageOutput()).build();
+        builder = pageBuilder;
+        pageBuilder.appendBatch(1, new ColumnBatch(schema).setLongs(0, new long[] { 1L }, null));
+    }
 }
@@ -0,0 +1,146 @@
+package org.embulk.spi;
+
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import org.embulk.spi.json.JsonLong;
+import org.embulk.test.EmbulkTestRuntime;
+import org.embulk.test.TestPageBuilderReader;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestPageCodec {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final Schema SCHEMA = Schema.builder()
+            .add("id", LONG)
+            .add("name", STRING)
+            .add("score", DOUBLE)
+            .add("time", TIMESTAMP)
+            .add("json", JSON)
+            .build();
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        for (final PageCompression compression : new PageCompression[] { PageCompression.NONE, PageCompression.DEFLATE }) {
+            for (final boolean columnar : new boolean[] { false, true }) {
+                final List<Page> pages = buildPages(columnar, 300);
+                final PageCodec codec = PageCodec.builder(SCHEMA, runtime.getBufferAllocator()).setCompression(compression).build();
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final WritableByteChannel out = Channels.newChannel(bytes);
+                for (final Page page : pages) {
+                    codec.write(page, out);
+                }
+
+                final ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray()));
+                int records = 0;
+                try (final PageReaderImpl reader = new PageReaderImpl(SCHEMA)) {
+                    Page page;
+                    while ((page = codec.read(in)) != null) {
+                        reader.setPage(page);
+                        while (reader.nextRecord()) {
+                            assertRecord(reader, records++);
+                        }
+                    }
+                }
+                assertEquals(300, records);
+            }
+        }
+    }
+
+    @Test
+    public void testWriteProjectedPage() throws IOException {
+        final PageProjection projection = PageProjection.of(SCHEMA, 4, 1);
+        final PageCodec codec = PageCodec.builder(projection.getSchema(), runtime.getBufferAllocator()).build();
+        final Page projected = projection.project(buildPages(false, 3).get(0));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(projected, Channels.newChannel(bytes));
+
+        final Page page = codec.read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(!PageProjection.isProjected(page));
+        try (final PageReaderImpl reader = new PageReaderImpl(projection.getSchema())) {
+            reader.setPage(page);
+            assertTrue(reader.nextRecord());
+            assertTrue(reader.nextRecord());
+            assertEquals(JsonLong.of(1L), reader.getJsonValue(0));
+            assertEquals("name1", reader.getString(1));
+        }
+        projected.release();
+    }
+
+    @Test
+    public void testReadInDifferentSchema() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PageCodec.builder(SCHEMA, runtime.getBufferAllocator()).build().write(buildPages(false, 1).get(0), Channels.newChannel(bytes));
+
+        final Schema schema = Schema.builder().add("id", LONG).build();
+        try {
+            PageCodec.builder(schema, runtime.getBufferAllocator()).build().read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("A page in a different schema was unexpectedly read.");
+        } catch (final IllegalArgumentException ex) {
+            // Success.
+        }
+    }
+
+    @Test
+    public void testReadTruncated() throws IOException {
+        final PageCodec codec = PageCodec.builder(SCHEMA, runtime.getBufferAllocator()).build();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(buildPages(false, 1).get(0), Channels.newChannel(bytes));
+
+        assertNull(codec.read(Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+        final byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+        try {
+            codec.read(Channels.newChannel(new ByteArrayInputStream(truncated)));
+            fail("A truncated page was unexpectedly read.");
+        } catch (final EOFException ex) {
+            // Success.
+        }
+    }
+
+    private static void assertRecord(final PageReaderImpl reader, final int i) {
+        assertEquals(i, reader.getLong(0));
+        if (i % 3 == 0) {
+            assertTrue(reader.isNull(1));
+        } else {
+            assertEquals("name" + i, reader.getString(1));
+        }
+        assertEquals(i * 0.5, reader.getDouble(2), 0.0);
+        assertEquals(Instant.ofEpochSecond(i, i), reader.getTimestampInstant(3));
+        assertEquals(JsonLong.of(i), reader.getJsonValue(4));
+    }
+
+    private List<Page> buildPages(final boolean columnar, final int records) {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        try (final PageBuilderImpl builder = PageBuilderImpl.builder(runtime.getBufferAllocator(), SCHEMA, output).setColumnar(columnar).build()) {
+            for (int i = 0; i < records; i++) {
+                builder.setLong(0, i);
+                builder.setString(1, i % 3 == 0 ? null : "name" + i);
+                builder.setDouble(2, i * 0.5);
+                builder.setTimestamp(3, Instant.ofEpochSecond(i, i));
+                builder.setJson(4, JsonLong.of(i));
+                builder.addRecord();
+            }
+            builder.finish();
+        }
+        return output.pages;
+    }
+}
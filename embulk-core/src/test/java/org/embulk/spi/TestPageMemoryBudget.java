@@ -0,0 +1,169 @@
+package org.embulk.spi;
+
+import static org.embulk.spi.type.Types.JSON;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.embulk.spi.json.JsonString;
+import org.embulk.test.EmbulkTestRuntime;
+import org.embulk.test.TestPageBuilderReader;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestPageMemoryBudget {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final Schema SCHEMA = Schema.builder()
+            .add("id", LONG)
+            .add("name", STRING)
+            .add("json", JSON)
+            .build();
+
+    @Test
+    public void testRetainedBytes() {
+        final PageImpl page = (PageImpl) buildPages(1).get(0);
+        assertTrue(page.getRetainedBytes() > page.buffer().capacity() + "name0".length() * 2);
+        page.release();
+    }
+
+    @Test
+    public void testAccountUntilReleased() {
+        final PageMemoryBudget global = new PageMemoryBudget(0, null, 1000);
+        final PageMemoryBudget budget = new PageMemoryBudget(0, global, 1000);
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final PageOutput accounting = budget.accounting((PageOutput) output);
+
+        final List<Page> pages = buildPages(2);
+        final long bytes = ((PageImpl) pages.get(0)).getRetainedBytes();
+        accounting.add(pages.get(0));
+        accounting.add(output.pages.get(0));  // Accounted only once.
+        assertEquals(bytes, budget.getUsedBytes());
+        assertEquals(bytes, global.getUsedBytes());
+
+        output.pages.get(0).release();
+        assertEquals(0L, budget.getUsedBytes());
+        assertEquals(0L, global.getUsedBytes());
+        assertEquals(bytes, budget.getPeakBytes());
+    }
+
+    @Test
+    public void testUnaccountWhenBufferReleased() {
+        final PageMemoryBudget budget = new PageMemoryBudget(0, null, 1000);
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        budget.accounting((PageOutput) output).add(buildPages(1).get(0));
+        assertTrue(budget.getUsedBytes() > 0);
+
+        output.pages.get(0).buffer().release();  // Plugins release pages through their buffers.
+        assertEquals(0L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testUnaccountWhenReadByPageReader() {
+        final PageMemoryBudget budget = new PageMemoryBudget(0, null, 1000);
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final List<Page> pages = buildPages(2);
+        budget.accounting((PageOutput) output).add(pages.get(0));
+        budget.accounting((PageOutput) output).add(pages.get(1));
+
+        try (final PageReaderImpl reader = new PageReaderImpl(SCHEMA)) {
+            reader.setPage(output.pages.get(0));
+            reader.setPage(output.pages.get(1));
+            assertTrue(reader.nextRecord());
+            assertEquals("name1", reader.getString(1));
+            assertEquals(((PageImpl) pages.get(1)).getRetainedBytes(), budget.getUsedBytes());
+        }
+        assertEquals(0L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testAccountProjectedPage() {
+        final PageMemoryBudget budget = new PageMemoryBudget(0, null, 1000);
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final Page page = buildPages(1).get(0);
+        budget.accounting((PageOutput) output).add(page);
+
+        final Page projected = PageProjection.of(SCHEMA, 1).project(output.pages.get(0));
+        assertTrue(budget.getUsedBytes() > 0);
+        projected.release();
+        assertEquals(0L, budget.getUsedBytes());
+
+        // A page projected before it is accounted is still a projected page.
+        budget.accounting((PageOutput) output).add(PageProjection.of(SCHEMA, 1).project(buildPages(1).get(0)));
+        assertTrue(budget.getUsedBytes() > 0);
+        try (final PageReaderImpl reader = new PageReaderImpl(PageProjection.of(SCHEMA, 1).getSchema())) {
+            reader.setPage(output.pages.get(1));
+            assertTrue(reader.nextRecord());
+            assertEquals("name0", reader.getString(0));
+        }
+        assertEquals(0L, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testBlockUntilReleased() throws Exception {
+        final List<Page> pages = buildPages(2);
+        final long bytes = ((PageImpl) pages.get(0)).getRetainedBytes();
+        final PageMemoryBudget budget = new PageMemoryBudget(bytes, null, 60000);
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final PageOutput accounting = budget.accounting((PageOutput) output);
+
+        accounting.add(pages.get(0));  // Accepted as no other pages are in flight.
+        final CountDownLatch added = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            accounting.add(pages.get(1));
+            added.countDown();
+        });
+        thread.start();
+        assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+
+        output.pages.get(0).release();
+        assertTrue(added.await(10, TimeUnit.SECONDS));
+        thread.join();
+        assertEquals(1L, budget.getBlockedCount());
+        assertEquals(0L, budget.getOvercommitCount());
+        output.pages.get(1).release();
+    }
+
+    @Test
+    public void testOvercommitAfterTimeout() {
+        final List<Page> pages = buildPages(4);
+        final PageMemoryBudget budget = new PageMemoryBudget(1, null, 10);
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        final PageOutput accounting = budget.accounting((PageOutput) output);
+        accounting.add(pages.get(0));
+        accounting.add(pages.get(1));
+        accounting.add(pages.get(2));  // Accepted without waiting again.
+        assertEquals(2L, budget.getOvercommitCount());
+        assertEquals(1L, budget.getBlockedCount());
+        assertEquals(budget.getPeakBytes(), budget.getUsedBytes());
+
+        for (final Page page : output.pages) {
+            page.release();
+        }
+        accounting.add(pages.get(3));  // Accepted as no other pages are in flight.
+        output.pages.get(3).release();
+        assertEquals(1L, budget.getBlockedCount());
+        assertEquals(0L, budget.getUsedBytes());
+    }
+
+    private List<Page> buildPages(final int count) {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        try (final PageBuilderImpl builder = new PageBuilderImpl(runtime.getBufferAllocator(), SCHEMA, output)) {
+            for (int i = 0; i < count; i++) {
+                builder.setLong(0, i);
+                builder.setString(1, "name" + i);
+                builder.setJson(2, JsonString.of("json" + i));
+                builder.addRecord();
+                builder.flush();
+            }
+            builder.finish();
+        }
+        return output.pages;
+    }
+}
@@ -0,0 +1,119 @@
+package org.embulk.spi;
+
+import static org.embulk.spi.type.Types.BOOLEAN;
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.embulk.test.EmbulkTestRuntime;
+import org.embulk.test.TestPageBuilderReader;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestPageProjection {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final Schema SCHEMA = Schema.builder()
+            .add("id", LONG)
+            .add("name", STRING)
+            .add("score", DOUBLE)
+            .add("flag", BOOLEAN)
+            .add("comment", STRING)
+            .build();
+
+    @Test
+    public void testProject() {
+        for (final boolean columnar : new boolean[] { false, true }) {
+            final PageProjection projection = PageProjection.of(SCHEMA, 4, 0);
+            assertEquals(2, projection.getSchema().getColumnCount());
+            assertEquals("comment", projection.getSchema().getColumnName(0));
+            assertEquals("id", projection.getSchema().getColumnName(1));
+
+            final List<Page> pages = buildPages(columnar);
+            final Page projected = projection.project(pages.get(0));
+            assertTrue(PageProjection.isProjected(projected));
+            assertTrue(projected.buffer() == pages.get(0).buffer());
+
+            try (final PageReaderImpl reader = new PageReaderImpl(projection.getSchema())) {
+                reader.setPage(projected);
+                assertTrue(reader.nextRecord());
+                assertEquals("comment0", reader.getString(0));
+                assertEquals(0L, reader.getLong(1));
+                assertTrue(reader.nextRecord());
+                assertTrue(reader.isNull(0));
+                assertNull(reader.getString(0));
+                assertEquals(1L, reader.getLong(1));
+                assertTrue(reader.nextRecord());
+                assertEquals("comment2", reader.getString(0));
+                assertEquals(2L, reader.getLong(1));
+                assertFalse(reader.nextRecord());
+            }
+        }
+    }
+
+    @Test
+    public void testProjectProjectedPage() {
+        final PageProjection first = PageProjection.ofColumnNames(SCHEMA, Arrays.asList("flag", "name", "score"));
+        final PageProjection second = PageProjection.ofColumnNames(first.getSchema(), Arrays.asList("score", "flag"));
+
+        final Page projected = second.project(first.project(buildPages(false).get(0)));
+        try (final PageReaderImpl reader = new PageReaderImpl(second.getSchema())) {
+            reader.setPage(projected);
+            for (int i = 0; i < 3; i++) {
+                assertTrue(reader.nextRecord());
+                assertEquals(i * 1.5, reader.getDouble(0), 0.0);
+                assertEquals(i % 2 == 0, reader.getBoolean(1));
+            }
+            assertFalse(reader.nextRecord());
+        }
+    }
+
+    @Test
+    public void testMaterialize() {
+        final PageProjection projection = PageProjection.of(SCHEMA, 1, 2);
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        for (final Page page : buildPages(false)) {
+            PageProjection.materialize(projection.project(page), runtime.getBufferAllocator(), output);
+        }
+        assertEquals(1, output.pages.size());
+        assertFalse(PageProjection.isProjected(output.pages.get(0)));
+
+        try (final PageReaderImpl reader = new PageReaderImpl(projection.getSchema())) {
+            reader.setPage(output.pages.get(0));
+            for (int i = 0; i < 3; i++) {
+                assertTrue(reader.nextRecord());
+                assertEquals("name" + i, reader.getString(0));
+                assertEquals(i * 1.5, reader.getDouble(1), 0.0);
+            }
+            assertFalse(reader.nextRecord());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProjectWithWrongType() {
+        PageProjection.of(SCHEMA, Schema.builder().add("id", STRING).build(), new int[] { 0 });
+    }
+
+    private List<Page> buildPages(final boolean columnar) {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        try (final PageBuilderImpl builder = PageBuilderImpl.builder(runtime.getBufferAllocator(), SCHEMA, output).setColumnar(columnar).build()) {
+            for (int i = 0; i < 3; i++) {
+                builder.setLong(0, i);
+                builder.setString(1, "name" + i);
+                builder.setDouble(2, i * 1.5);
+                builder.setBoolean(3, i % 2 == 0);
+                builder.setString(4, i == 1 ? null : "comment" + i);
+                builder.addRecord();
+            }
+            builder.finish();
+        }
+        return output.pages;
+    }
+}
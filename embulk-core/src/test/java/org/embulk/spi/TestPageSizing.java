@@ -0,0 +1,131 @@
+package org.embulk.spi;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Properties;
+import org.embulk.EmbulkSystemProperties;
+import org.embulk.config.ConfigException;
+import org.embulk.exec.PooledBufferAllocator;
+import org.embulk.exec.SimpleTempFileSpaceAllocator;
+import org.embulk.test.EmbulkTestRuntime;
+import org.embulk.test.TestPageBuilderReader;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestPageSizing {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final Schema SCHEMA = Schema.builder()
+            .add("a", LONG)
+            .add("b", LONG)
+            .add("c", LONG)
+            .build();
+
+    @Test
+    public void testRejectPageMaxSizeOutOfRange() {
+        assertInvalid("page_max_size", "4GB");  // 0 if truncated into int.
+        assertInvalid("page_max_size", "3GB");  // Negative if truncated into int.
+        assertInvalid("page_max_size", "6GB");  // 2GB if truncated into int.
+        assertInvalid("page_max_size", "4B");
+    }
+
+    @Test
+    public void testRejectPageTargetRecordsNotPositive() {
+        assertInvalid("page_target_records", "0");
+        assertInvalid("page_target_records", "-1");
+    }
+
+    @Test
+    public void testSizeFromFixedRecordSize() {
+        final PageSizing sizing = PageSizing.adaptive(100, 1024 * 1024);
+        assertEquals(PageFormat.PAGE_HEADER_SIZE + 29 * 100, sizing.nextPageBytes(29, 33));
+        assertEquals(5000, sizing.nextPageBytes(29, 5000));  // At least the minimum.
+    }
+
+    @Test
+    public void testSizeFromObservedRecords() {
+        final PageSizing sizing = PageSizing.adaptive(100, 1024 * 1024);
+        sizing.observe(10, 500);
+        sizing.observe(10, 700);
+        assertEquals(PageFormat.PAGE_HEADER_SIZE + 60 * 100, sizing.nextPageBytes(29, 33));
+        assertEquals(10.0, sizing.getAverageRecordsPerPage(), 0.0);
+        assertEquals(60.0, sizing.getAverageRecordBytes(), 0.0);
+    }
+
+    @Test
+    public void testCappedByMaxPageBytes() {
+        final PageSizing sizing = PageSizing.adaptive(4096, 64 * 1024);
+        assertEquals(64 * 1024, sizing.nextPageBytes(4000, 4004));
+        assertEquals(128 * 1024, sizing.nextPageBytes(4000, 128 * 1024));  // A record larger than the cap still fits.
+    }
+
+    @Test
+    public void testBuildPagesOfTargetRecords() {
+        final PageSizing sizing = PageSizing.adaptive(100, 1024 * 1024);
+        final List<Page> pages = buildPages(sizing, 250);
+        assertEquals(3, pages.size());
+        assertEquals(100, PageReaderImpl.getRecordCount(pages.get(0)));
+        assertEquals(3, sizing.getPageCount());
+        assertEquals(250, sizing.getRecordCount());
+        for (final Page page : pages) {
+            page.release();
+        }
+    }
+
+    @Test
+    public void testBuildPagesOfRecordWithoutSizing() {
+        final List<Page> pages = buildPages(null, 10);
+        assertEquals(10, pages.size());  // The allocator gives buffers only for a record.
+        for (final Page page : pages) {
+            page.release();
+        }
+    }
+
+    private static List<Page> buildPages(final PageSizing sizing, final int records) {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        try (final PageBuilderImpl builder = PageBuilderImpl.builder(new ExactBufferAllocator(), SCHEMA, output).setPageSizing(sizing).build()) {
+            for (int i = 0; i < records; i++) {
+                builder.setLong(0, i);
+                builder.setLong(1, i);
+                builder.setLong(2, i);
+                builder.addRecord();
+            }
+            builder.finish();
+        }
+        return output.pages;
+    }
+
+    @SuppressWarnings("deprecation")  // https://github.com/embulk/embulk/issues/1304
+    private static void assertInvalid(final String key, final String value) {
+        final Properties properties = new Properties();
+        properties.setProperty("page_size_policy", "adaptive");
+        properties.setProperty(key, value);
+        try {
+            ExecSessionInternal
+                    .builderInternal(PooledBufferAllocator.create(), new SimpleTempFileSpaceAllocator())
+                    .setModelManager(new org.embulk.config.ModelManager())
+                    .setEmbulkSystemProperties(EmbulkSystemProperties.of(properties))
+                    .build();
+            fail();
+        } catch (final ConfigException ex) {
+            assertTrue(ex.getMessage().contains(key));
+        }
+    }
+
+    private static class ExactBufferAllocator implements BufferAllocator {
+        @Override
+        public Buffer allocate() {
+            return this.allocate(32 * 1024);
+        }
+
+        @Override
+        public Buffer allocate(final int minimumCapacity) {
+            return BufferImpl.allocate(minimumCapacity);
+        }
+    }
+}
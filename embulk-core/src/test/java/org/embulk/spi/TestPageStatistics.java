@@ -0,0 +1,123 @@
+package org.embulk.spi;
+
+import static org.embulk.spi.type.Types.BOOLEAN;
+import static org.embulk.spi.type.Types.DOUBLE;
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.embulk.spi.type.Types.TIMESTAMP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.List;
+import org.embulk.test.EmbulkTestRuntime;
+import org.embulk.test.TestPageBuilderReader;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestPageStatistics {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private static final Schema SCHEMA = Schema.builder()
+            .add("id", LONG)
+            .add("name", STRING)
+            .add("score", DOUBLE)
+            .add("flag", BOOLEAN)
+            .add("time", TIMESTAMP)
+            .build();
+
+    @Test
+    public void testStatistics() {
+        for (final boolean columnar : new boolean[] { false, true }) {
+            final List<Page> pages = buildPages(columnar, false, true, 100);
+            final PageStatistics statistics = merge(pages);
+            assertEquals(100L, statistics.getRecordCount());
+
+            assertEquals(0L, statistics.getColumn(0).getNullCount());
+            assertEquals(-50L, statistics.getColumn(0).getMin());
+            assertEquals(49L, statistics.getColumn(0).getMax());
+
+            assertEquals(34L, statistics.getColumn(1).getNullCount());
+            assertEquals(66L, statistics.getColumn(1).getNonNullCount());
+            assertEquals("name0", statistics.getColumn(1).getMin());
+            assertEquals("name9", statistics.getColumn(1).getMax());
+            assertTrue(Math.abs(statistics.getColumn(1).getDistinctCountEstimate() - 10) <= 1);
+
+            assertEquals(0.0, (Double) statistics.getColumn(2).getMin(), 0.0);
+            assertEquals(49.5, (Double) statistics.getColumn(2).getMax(), 0.0);
+
+            assertEquals(false, statistics.getColumn(3).getMin());
+            assertEquals(true, statistics.getColumn(3).getMax());
+
+            assertTrue(statistics.getColumn(4).isAllNull());
+            assertNull(statistics.getColumn(4).getMin());
+        }
+    }
+
+    @Test
+    public void testStatisticsWithInlineStringsTakenOverToNextPage() {
+        final List<Page> pages = buildPages(false, true, true, 3000);
+        assertTrue(pages.size() > 1);
+        for (final Page page : pages) {
+            final PageStatistics statistics = PageStatistics.of(page).get();
+            for (int i = 0; i < statistics.getColumnCount(); i++) {
+                final ColumnStatistics column = statistics.getColumn(i);
+                assertEquals(statistics.getRecordCount(), column.getNullCount() + column.getNonNullCount());
+            }
+        }
+        assertEquals(3000L, merge(pages).getRecordCount());
+        assertEquals(1000L, merge(pages).getColumn(1).getNullCount());
+    }
+
+    @Test
+    public void testStatisticsOfProjectedPage() {
+        final List<Page> pages = buildPages(false, false, true, 10);
+        final Page projected = PageProjection.of(SCHEMA, 3, 1).project(pages.get(0));
+        final PageStatistics statistics = PageStatistics.of(projected).get();
+        assertEquals(2, statistics.getColumnCount());
+        assertEquals(BOOLEAN, statistics.getColumn(0).getType());
+        assertEquals("name1", statistics.getColumn(1).getMin());
+    }
+
+    @Test
+    public void testWithoutStatistics() {
+        final List<Page> pages = buildPages(false, false, false, 10);
+        assertFalse(PageStatistics.of(pages.get(0)).isPresent());
+    }
+
+    private List<Page> buildPages(final boolean columnar, final boolean inlineStrings, final boolean statistics, final int records) {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        try (final PageBuilderImpl builder = PageBuilderImpl.builder(runtime.getBufferAllocator(), SCHEMA, output)
+                .setColumnar(columnar)
+                .setInlineStrings(inlineStrings)
+                .setStatistics(statistics)
+                .build()) {
+            for (int i = 0; i < records; i++) {
+                builder.setLong(0, i - records / 2);
+                builder.setString(1, i % 3 == 0 ? null : "name" + (i % 10) + (inlineStrings ? "-with-a-long-suffix-to-fill-pages" : ""));
+                builder.setDouble(2, i * 0.5);
+                builder.setBoolean(3, i % 2 == 0);
+                builder.setTimestamp(4, (Instant) null);
+                builder.addRecord();
+            }
+            builder.finish();
+        }
+        return output.pages;
+    }
+
+    private static PageStatistics merge(final List<Page> pages) {
+        PageStatistics merged = null;
+        for (final Page page : pages) {
+            final PageStatistics statistics = PageStatistics.of(page).get();
+            if (merged == null) {
+                merged = statistics.copy();
+            } else {
+                merged.merge(statistics);
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,91 @@
+package org.embulk.spi.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.embulk.spi.Buffer;
+import org.embulk.spi.DirectBufferImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestMappedFileInput {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPollBuffersOfFiles() throws IOException {
+        final Path first = this.write("hello world");
+        final Path empty = this.write("");
+        final Path second = this.write("embulk");
+
+        try (final MappedFileInput input = new MappedFileInput(Arrays.asList(first, empty, second), 4, 8, true)) {
+            assertTrue(input.nextFile());
+            assertEquals(Arrays.asList("hell", "o wo", "rld"), readAll(input, true));
+            assertTrue(input.hintOfCurrentInputFileNameForLogging().isPresent());
+
+            assertTrue(input.nextFile());
+            assertNull(input.poll());
+
+            assertTrue(input.nextFile());
+            assertEquals(Arrays.asList("embu", "lk"), readAll(input, true));
+            assertFalse(input.nextFile());
+        }
+    }
+
+    @Test
+    public void testCopyWithoutAddressOfMapping() throws IOException {
+        final Path file = this.write("hello world");
+        try (final MappedFileInput input = new MappedFileInput(Arrays.asList(file), 4, 8, false)) {
+            assertTrue(input.nextFile());
+            assertEquals(Arrays.asList("hell", "o wo", "rld"), readAll(input, false));
+            assertFalse(input.nextFile());
+        }
+    }
+
+    @Test
+    public void testReadThroughInputStream() throws IOException {
+        final Path file = this.write("abcdefghij");
+        try (final InputStream in = new FileInputInputStream(new MappedFileInput(Arrays.asList(file), 3))) {
+            assertTrue(((FileInputInputStream) in).nextFile());
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(in.read());
+            final byte[] bytes = new byte[16];
+            int n;
+            while ((n = in.read(bytes, 0, bytes.length)) >= 0) {
+                out.write(bytes, 0, n);
+            }
+            assertEquals("abcdefghij", new String(out.toByteArray(), UTF_8));
+        }
+    }
+
+    private Path write(final String content) throws IOException {
+        final Path path = this.temporaryFolder.newFile().toPath();
+        Files.write(path, content.getBytes(UTF_8));
+        return path;
+    }
+
+    private static List<String> readAll(final MappedFileInput input, final boolean zeroCopy) {
+        final List<String> strings = new ArrayList<>();
+        Buffer buffer;
+        while ((buffer = input.poll()) != null) {
+            assertEquals(zeroCopy, buffer instanceof DirectBufferImpl);
+            final byte[] bytes = new byte[buffer.limit()];
+            buffer.getBytes(0, bytes, 0, bytes.length);
+            strings.add(new String(bytes, UTF_8));
+            buffer.release();
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,92 @@
+package org.embulk.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.embulk.spi.BufferImpl;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageImpl;
+import org.embulk.spi.PageOutput;
+import org.junit.Test;
+
+public class TestPipelinedPageOutput {
+    @Test
+    public void testAddInOrderAndFinish() {
+        final RecordingOutput output = new RecordingOutput();
+        final PipelinedPageOutput stage = new PipelinedPageOutput(output, 2, "test-stage");
+        final List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final Page page = PageImpl.allocate(0);
+            pages.add(page);
+            stage.add(page);
+        }
+        stage.finish();
+        assertEquals(pages, output.pages);
+        assertTrue(output.finishedAfterPages);
+
+        stage.close();
+        assertTrue(output.closed);
+        final Map<String, Object> summary = stage.summarize();
+        assertEquals(100L, summary.get("pages"));
+    }
+
+    @Test
+    public void testFailureInStage() {
+        final RuntimeException failure = new RuntimeException("failed");
+        final PipelinedPageOutput stage = new PipelinedPageOutput(new RecordingOutput() {
+                @Override
+                public void add(final Page page) {
+                    throw failure;
+                }
+            }, 1, "test-stage");
+
+        final AtomicInteger released = new AtomicInteger();
+        try {
+            for (int i = 0; i < 100; i++) {
+                stage.add(newCountingPage(released));
+            }
+            stage.finish();
+            fail();
+        } catch (final RuntimeException ex) {
+            assertSame(failure, ex);
+        }
+        stage.close();
+        assertTrue(released.get() > 0);  // Pages after the failure are released without being added.
+    }
+
+    private static Page newCountingPage(final AtomicInteger released) {
+        return PageImpl.wrap(new BufferImpl(new byte[16], 0, 16) {
+                @Override
+                public void release() {
+                    released.incrementAndGet();
+                }
+            });
+    }
+
+    private static class RecordingOutput implements PageOutput {
+        @Override
+        public void add(final Page page) {
+            this.pages.add(page);
+        }
+
+        @Override
+        public void finish() {
+            this.finishedAfterPages = !this.pages.isEmpty();
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+
+        final List<Page> pages = new ArrayList<>();
+        boolean finishedAfterPages;
+        boolean closed;
+    }
+}
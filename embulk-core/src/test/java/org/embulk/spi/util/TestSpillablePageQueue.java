@@ -0,0 +1,166 @@
+package org.embulk.spi.util;
+
+import static org.embulk.spi.type.Types.LONG;
+import static org.embulk.spi.type.Types.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import org.embulk.spi.Page;
+import org.embulk.spi.PageBuilderImpl;
+import org.embulk.spi.PageCodec;
+import org.embulk.spi.PageCompression;
+import org.embulk.spi.PageReaderImpl;
+import org.embulk.spi.Schema;
+import org.embulk.spi.TempFileSpaceImpl;
+import org.embulk.test.EmbulkTestRuntime;
+import org.embulk.test.TestPageBuilderReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSpillablePageQueue {
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final Schema SCHEMA = Schema.builder()
+            .add("id", LONG)
+            .add("name", STRING)
+            .build();
+
+    @Test
+    public void testTakeInOrder() throws Exception {
+        for (final PageCompression compression : new PageCompression[] { PageCompression.NONE, PageCompression.DEFLATE }) {
+            final TempFileSpaceImpl space = TempFileSpaceImpl.with(this.temporaryFolder.getRoot().toPath(), "embulk20201018T000000Z");
+            final SpillablePageQueue queue = new SpillablePageQueue(
+                    3, PageCodec.builder(SCHEMA, this.runtime.getBufferAllocator()).setCompression(compression).build(), space);
+            final List<Page> pages = buildPages(30);
+
+            // Puts and takes alternately so that pages are kept in memory and spilled in turn.
+            long expected = 0;
+            int index = 0;
+            try (final PageReaderImpl reader = new PageReaderImpl(SCHEMA)) {
+                while (index < pages.size()) {
+                    for (int i = 0; i < 7 && index < pages.size(); i++) {
+                        queue.put(pages.get(index++));
+                    }
+                    for (int i = 0; i < 4; i++) {
+                        expected = assertPage(reader, queue.take(), expected);
+                    }
+                }
+                queue.finish();
+                Page page;
+                while ((page = queue.take()) != null) {
+                    expected = assertPage(reader, page, expected);
+                }
+            }
+
+            assertEquals(30L, expected);
+            assertTrue(queue.getSpilledPageCount() > 0);
+            assertTrue(queue.getSpilledBytes() > 0);
+            assertEquals(0L, countTempFiles());  // Spill files are deleted once read.
+            queue.close();
+            space.cleanup();
+        }
+    }
+
+    @Test
+    public void testPutWhileTaking() throws Exception {
+        final TempFileSpaceImpl space = TempFileSpaceImpl.with(this.temporaryFolder.getRoot().toPath(), "embulk20201018T000003Z");
+        final SpillablePageQueue queue = new SpillablePageQueue(2, PageCodec.builder(SCHEMA, this.runtime.getBufferAllocator()).build(), space);
+        final List<Page> pages = buildPages(500);
+
+        // Spill files are written by the producer while the consumer is reading them.
+        final Thread producer = new Thread(() -> {
+            for (final Page page : pages) {
+                queue.put(page);
+            }
+            queue.finish();
+        });
+        producer.start();
+        long expected = 0;
+        try (final PageReaderImpl reader = new PageReaderImpl(SCHEMA)) {
+            Page page;
+            while ((page = queue.take()) != null) {
+                expected = assertPage(reader, page, expected);
+            }
+        }
+        producer.join();
+
+        assertEquals(500L, expected);
+        assertEquals(0L, countTempFiles());
+        queue.close();
+        space.cleanup();
+    }
+
+    @Test
+    public void testKeepInMemoryUnderLimit() throws Exception {
+        final TempFileSpaceImpl space = TempFileSpaceImpl.with(this.temporaryFolder.getRoot().toPath(), "embulk20201018T000001Z");
+        final SpillablePageQueue queue = new SpillablePageQueue(2, PageCodec.builder(SCHEMA, this.runtime.getBufferAllocator()).build(), space);
+        final List<Page> pages = buildPages(2);
+        queue.put(pages.get(0));
+        queue.put(pages.get(1));
+        assertEquals(0L, queue.getSpilledPageCount());
+        assertEquals(pages.get(0), queue.take());
+        assertEquals(pages.get(1), queue.take());
+        queue.close();
+        pages.get(0).release();
+        pages.get(1).release();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final TempFileSpaceImpl space = TempFileSpaceImpl.with(this.temporaryFolder.getRoot().toPath(), "embulk20201018T000002Z");
+        final SpillablePageQueue queue = new SpillablePageQueue(1, PageCodec.builder(SCHEMA, this.runtime.getBufferAllocator()).build(), space);
+        for (final Page page : buildPages(3)) {
+            queue.put(page);
+        }
+        assertEquals(1L, countTempFiles());
+
+        queue.close();
+        assertNull(queue.take());
+        assertEquals(0L, countTempFiles());
+        queue.put(buildPages(1).get(0));  // Released without being queued.
+        assertNull(queue.take());
+        space.cleanup();
+    }
+
+    private static long assertPage(final PageReaderImpl reader, final Page page, final long expected) {
+        long next = expected;
+        reader.setPage(page);
+        while (reader.nextRecord()) {
+            assertEquals(next, reader.getLong(0));
+            assertEquals("name" + next, reader.getString(1));
+            next++;
+        }
+        return next;
+    }
+
+    private long countTempFiles() throws IOException {
+        try (final Stream<Path> files = Files.walk(this.temporaryFolder.getRoot().toPath())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private List<Page> buildPages(final int count) {
+        final TestPageBuilderReader.MockPageOutput output = new TestPageBuilderReader.MockPageOutput();
+        try (final PageBuilderImpl builder = new PageBuilderImpl(this.runtime.getBufferAllocator(), SCHEMA, output)) {
+            for (int i = 0; i < count; i++) {
+                builder.setLong(0, i);
+                builder.setString(1, "name" + i);
+                builder.addRecord();
+                builder.flush();
+            }
+            builder.finish();
+        }
+        return output.pages;
+    }
+}
@@ -1,15 +1,33 @@
 package org.embulk.deps.buffer;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PoolArenaMetric;
 import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import java.util.concurrent.atomic.LongAdder;
+import org.embulk.exec.BufferLeakDetector;
 import org.embulk.spi.Buffer;
 import org.embulk.spi.BufferImpl;
+import org.embulk.spi.DirectBufferImpl;
+import org.embulk.spi.ExecSessionInternal;
 
 public class PooledBufferAllocatorImpl extends org.embulk.exec.PooledBufferAllocator {
     public PooledBufferAllocatorImpl(final int pageSize) {
+        this(pageSize, false);
+    }
+
+    public PooledBufferAllocatorImpl(final int pageSize, final boolean direct) {
+        this(pageSize, direct, new BufferLeakDetector(BufferLeakDetector.Level.SAMPLED));
+    }
+
+    public PooledBufferAllocatorImpl(final int pageSize, final boolean direct, final BufferLeakDetector leakDetector) {
         this.pageSize = pageSize;
+        this.direct = direct;
+        this.leakDetector = leakDetector;
+        this.allocations = new LongAdder();
 
         // PooledByteBufAllocator(preferDirect = false): buffers are allocated on Java heap.
+        // PooledByteBufAllocator(preferDirect = true): buffers are allocated out of Java heap, and accessed by their addresses.
         //
         // Embulk's PooledBufferAllocator respects Netty's default parameters although
         // Netty's default parameters have had some changes in its history.
@@ -23,7 +41,7 @@ public class PooledBufferAllocatorImpl extends org.embulk.exec.PooledBufferAlloc
         //
         // Netty 4.1.75.Final also changed NOT to use a thread local cache for every thread.
         // https://github.com/netty/netty/pull/12109
-        this.nettyByteBufAllocator = new PooledByteBufAllocator(false);
+        this.nettyByteBufAllocator = new PooledByteBufAllocator(direct);
     }
 
     @Override
@@ -37,39 +55,117 @@ public class PooledBufferAllocatorImpl extends org.embulk.exec.PooledBufferAlloc
         while (size < minimumCapacity) {
             size *= 2;
         }
-        return new BufferBasedOnNettyByteBuf(nettyByteBufAllocator.buffer(size));
+        this.allocations.increment();
+        if (this.direct) {
+            final ByteBuf byteBuf = nettyByteBufAllocator.directBuffer(size);
+            if (!byteBuf.hasMemoryAddress()) {
+                // Netty gives addresses of direct buffers only when sun.misc.Unsafe is available, which Slice also requires.
+                byteBuf.release();
+                throw new UnsupportedOperationException("Buffers out of Java heap are not available without sun.misc.Unsafe.");
+            }
+            return new DirectBufferBasedOnNettyByteBuf(byteBuf, this.leakDetector.track());
+        }
+        return new BufferBasedOnNettyByteBuf(nettyByteBufAllocator.buffer(size), this.leakDetector.track());
+    }
+
+    @Override
+    public long getUsedHeapMemory() {
+        return this.nettyByteBufAllocator.metric().usedHeapMemory();
+    }
+
+    @Override
+    public long getUsedDirectMemory() {
+        return this.nettyByteBufAllocator.metric().usedDirectMemory();
+    }
+
+    // Netty allocates "huge" buffers larger than a chunk apart from the pool. Other allocations are served from the pool.
+    @Override
+    public double getPoolHitRatio() {
+        final long allocations = this.allocations.sum();
+        if (allocations == 0) {
+            return -1.0;
+        }
+        final PooledByteBufAllocatorMetric metric = this.nettyByteBufAllocator.metric();
+        long hugeAllocations = 0;
+        for (final PoolArenaMetric arena : metric.heapArenas()) {
+            hugeAllocations += arena.numHugeAllocations();
+        }
+        for (final PoolArenaMetric arena : metric.directArenas()) {
+            hugeAllocations += arena.numHugeAllocations();
+        }
+        return (double) Math.max(0L, allocations - hugeAllocations) / allocations;
+    }
+
+    @Override
+    public int reportLeaks() {
+        return this.leakDetector.reportLeaks();
+    }
+
+    @Override
+    public int reportLeaks(final ExecSessionInternal session) {
+        return this.leakDetector.reportLeaks(session);
     }
 
     private static class BufferBasedOnNettyByteBuf extends BufferImpl {
-        private BufferBasedOnNettyByteBuf(final ByteBuf internalNettyByteBuf) {
+        private BufferBasedOnNettyByteBuf(final ByteBuf internalNettyByteBuf, final BufferLeakDetector.Tracker tracker) {
             super(internalNettyByteBuf.array(), internalNettyByteBuf.arrayOffset(), internalNettyByteBuf.capacity());
 
             this.internalNettyByteBuf = internalNettyByteBuf;
-            this.alreadyReleasedAt = null;
+            this.tracker = tracker;
         }
 
         @Override
         public void release() {
-            if (this.alreadyReleasedAt != null) {
-                new BufferDoubleReleasedException(this.alreadyReleasedAt).printStackTrace();
-            }
-            if (this.internalNettyByteBuf != null) {
-                this.internalNettyByteBuf.release();
-                this.internalNettyByteBuf = null;
-                this.alreadyReleasedAt = new Throwable();
-            }
+            PooledBufferAllocatorImpl.release(this.internalNettyByteBuf, this.tracker);
+            this.internalNettyByteBuf = null;
+        }
+
+        private ByteBuf internalNettyByteBuf;
+        private final BufferLeakDetector.Tracker tracker;
+    }
+
+    private static class DirectBufferBasedOnNettyByteBuf extends DirectBufferImpl {
+        private DirectBufferBasedOnNettyByteBuf(final ByteBuf internalNettyByteBuf, final BufferLeakDetector.Tracker tracker) {
+            super(internalNettyByteBuf.memoryAddress(), internalNettyByteBuf.capacity());
+
+            this.internalNettyByteBuf = internalNettyByteBuf;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void release() {
+            PooledBufferAllocatorImpl.release(this.internalNettyByteBuf, this.tracker);
+            this.internalNettyByteBuf = null;
         }
 
         private ByteBuf internalNettyByteBuf;
-        private Throwable alreadyReleasedAt;
+        private final BufferLeakDetector.Tracker tracker;
+    }
+
+    // Stack traces are captured only for buffers tracked by the leak detector, not to capture one for every release.
+    private static void release(final ByteBuf internalNettyByteBuf, final BufferLeakDetector.Tracker tracker) {
+        if (internalNettyByteBuf == null) {
+            new BufferDoubleReleasedException(tracker != null ? tracker.getReleasedAt() : null).printStackTrace();
+            return;
+        }
+        internalNettyByteBuf.release();
+        if (tracker != null) {
+            tracker.released();
+        }
     }
 
     private static class BufferDoubleReleasedException extends IllegalStateException {
         public BufferDoubleReleasedException(final Throwable alreadyReleasedAt) {
-            super("A Buffer detected double release() calls. The buffer has already been released at:", alreadyReleasedAt);
+            super(alreadyReleasedAt != null
+                          ? "A Buffer detected double release() calls. The buffer has already been released at:"
+                          : "A Buffer detected double release() calls. Set \"buffer_leak_detection\" to \"paranoid\" to see where it was released first.",
+                  alreadyReleasedAt);
         }
     }
 
     private final PooledByteBufAllocator nettyByteBufAllocator;
     private final int pageSize;
+    private final boolean direct;
+    private final BufferLeakDetector leakDetector;
+    private final LongAdder allocations;
 }
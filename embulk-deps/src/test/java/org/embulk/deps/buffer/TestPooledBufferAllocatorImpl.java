@@ -1,8 +1,14 @@
 package org.embulk.deps.buffer;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import org.embulk.exec.BufferLeakDetector;
+import org.embulk.exec.Slice;
 import org.embulk.spi.Buffer;
+import org.embulk.spi.BufferImpl;
+import org.embulk.spi.DirectBufferImpl;
 import org.junit.Test;
 
 public class TestPooledBufferAllocatorImpl {
@@ -33,4 +39,36 @@ public class TestPooledBufferAllocatorImpl {
         buffer.release();
         buffer.release();  // To printStackTrace of the first release, but no errors.
     }
+
+    @Test
+    public void testReportLeaks() throws Exception {
+        final PooledBufferAllocatorImpl allocator =
+                new PooledBufferAllocatorImpl(4096, false, new BufferLeakDetector(BufferLeakDetector.Level.PARANOID));
+        allocator.allocate();
+        final Buffer released = allocator.allocate();
+        released.release();
+        released.release();  // To printStackTrace of the first release tracked, but no errors.
+        assertEquals(1, allocator.reportLeaks());
+    }
+
+    @Test
+    public void testDirect() throws Exception {
+        final PooledBufferAllocatorImpl allocator = new PooledBufferAllocatorImpl(4096, true);
+        final Buffer buffer = allocator.allocate();
+        assertTrue(buffer instanceof DirectBufferImpl);
+        assertEquals(4096, buffer.capacity());
+        assertTrue(allocator.getUsedDirectMemory() > 0);
+
+        buffer.setBytes(8, new byte[] { 1, 2, 3, 4 }, 0, 4);
+        buffer.limit(12);
+        Slice.wrappedBuffer(buffer).setInt(0, 42);
+        assertEquals(42, Slice.wrappedBuffer(buffer).getInt(0));
+
+        final Buffer onHeap = BufferImpl.allocate(4);
+        onHeap.setBytes(0, buffer, 8, 4);
+        final byte[] copied = new byte[4];
+        onHeap.getBytes(0, copied, 0, 4);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, copied);
+        buffer.release();
+    }
 }